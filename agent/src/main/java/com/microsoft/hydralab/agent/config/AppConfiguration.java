@@ -76,6 +76,8 @@ public class AppConfiguration {
     private Boolean shutdownIfFail;
     @Value("${app.appium.host:}")
     private String appiumServerHost;
+    @Value("${app.smart-test.worker-count:2}")
+    private int smartTestWorkerCount;
 
     @NotNull
     private File getScreenshotDir() {
@@ -191,12 +193,12 @@ public class AppConfiguration {
         return fastConverter;
     }
 
-    @Bean
+    @Bean(destroyMethod = "close")
     public SmartTestUtil smartTestUtil() {
-        return new SmartTestUtil(appOptions.getLocation());
+        return new SmartTestUtil(appOptions.getLocation(), smartTestWorkerCount);
     }
 
-    @Bean
+    @Bean(destroyMethod = "stop")
     public DeviceStabilityMonitor deviceStabilityMonitor(AgentManagementService agentManagementService,
                                                          MeterRegistry meterRegistry) {
         DeviceStabilityMonitor deviceStabilityMonitor = new DeviceStabilityMonitor();
@@ -206,6 +208,7 @@ public class AppConfiguration {
         deviceStabilityMonitor.setDeviceStateChangeRecoveryTime(deviceStateChangeRecoveryTime);
         deviceStabilityMonitor.setAgentManagementService(agentManagementService);
         deviceStabilityMonitor.setMeterRegistry(meterRegistry);
+        deviceStabilityMonitor.start();
 
         return deviceStabilityMonitor;
     }
@@ -43,6 +43,10 @@ public class AppOptions {
         return location + "/storage/test/package/";
     }
 
+    public String getTestPackageCacheLocation() {
+        return location + "/storage/test/package_cache/";
+    }
+
     public static final String TEST_CASE_RESULT_STORAGE_MAPPING_REL_PATH = "/test/result";
 
     public String getTestCaseResultLocation() {
@@ -18,6 +18,7 @@ import com.microsoft.hydralab.common.entity.common.TestTask;
 import com.microsoft.hydralab.common.management.AgentManagementService;
 import com.microsoft.hydralab.common.util.ADBOperateUtil;
 import com.microsoft.hydralab.performance.PerformanceTestManagementService;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
@@ -44,8 +45,10 @@ public class TestRunnerConfig {
     );
 
     @Bean
-    public PerformanceTestManagementService performanceTestManagementService() {
+    public PerformanceTestManagementService performanceTestManagementService(ADBOperateUtil adbOperateUtil, MeterRegistry meterRegistry) {
         PerformanceTestManagementService performanceTestManagementService = new PerformanceTestManagementService();
+        performanceTestManagementService.setAdbOperateUtil(adbOperateUtil);
+        performanceTestManagementService.getInspectionScheduler().bindTo(meterRegistry);
         performanceTestManagementService.initialize();
         return performanceTestManagementService;
     }
@@ -3,14 +3,13 @@
 
 package com.microsoft.hydralab.agent.runner.appium;
 
-import cn.hutool.core.img.ImgUtil;
-import cn.hutool.core.img.gif.AnimatedGifEncoder;
 import com.microsoft.hydralab.common.entity.common.AndroidTestUnit;
 import com.microsoft.hydralab.common.entity.common.DeviceInfo;
 import com.microsoft.hydralab.common.entity.common.TestRun;
 import com.microsoft.hydralab.common.logger.LogCollector;
 import com.microsoft.hydralab.common.management.AgentManagementService;
 import com.microsoft.hydralab.common.management.device.TestDeviceManager;
+import com.microsoft.hydralab.common.screen.GifFrameSink;
 import com.microsoft.hydralab.common.screen.ScreenRecorder;
 import com.microsoft.hydralab.performance.PerformanceTestListener;
 import org.junit.runner.Description;
@@ -19,9 +18,7 @@ import org.junit.runner.notification.Failure;
 import org.junit.runner.notification.RunListener;
 import org.slf4j.Logger;
 
-import javax.imageio.ImageIO;
 import java.io.File;
-import java.io.IOException;
 import java.util.Locale;
 import java.util.concurrent.TimeUnit;
 
@@ -31,7 +28,7 @@ public class AppiumListener extends RunListener {
     private final LogCollector logcatCollector;
     private final ScreenRecorder deviceScreenRecorder;
     private final Logger logger;
-    private final AnimatedGifEncoder e = new AnimatedGifEncoder();
+    private final GifFrameSink gifFrameSink = new GifFrameSink();
     private final String pkgName;
     TestDeviceManager testDeviceManager;
     AgentManagementService agentManagementService;
@@ -43,7 +40,6 @@ public class AppiumListener extends RunListener {
     private AndroidTestUnit ongoingTestUnit;
     private int numTests;
     private int pid;
-    private int addedFrameCount;
     private String currentTestName = "";
     private int currentTestIndex = 0;
 
@@ -94,9 +90,7 @@ public class AppiumListener extends RunListener {
 //        }
         logger.info("Start gif frames collection");
         gifFile = new File(testRun.getResultFolder(), pkgName + ".gif");
-        e.start(gifFile.getAbsolutePath());
-        e.setDelay(1000);
-        e.setRepeat(0);
+        gifFrameSink.start(gifFile, 1000);
 
         logger.info("Start logcat collection");
         String logcatFilePath = logcatCollector.start();
@@ -154,18 +148,8 @@ public class AppiumListener extends RunListener {
 
         testRun.addNewTestUnit(ongoingTestUnit);
 
-        testDeviceManager.updateScreenshotImageAsyncDelay(deviceInfo, TimeUnit.SECONDS.toMillis(15),
-                (imagePNGFile -> {
-                    if (imagePNGFile == null || !e.isStarted()) {
-                        return;
-                    }
-                    try {
-                        e.addFrame(ImgUtil.toBufferedImage(ImgUtil.scale(ImageIO.read(imagePNGFile), 0.3f)));
-                        addedFrameCount++;
-                    } catch (IOException ioException) {
-                        ioException.printStackTrace();
-                    }
-                }), logger);
+        testDeviceManager.updateScreenshotGifFrameAsyncDelay(deviceInfo, TimeUnit.SECONDS.toMillis(15),
+                gifFrameSink::offer, logger);
         performanceTestListener.testStarted(ongoingTestUnit.getTitle());
     }
 
@@ -233,15 +217,9 @@ public class AppiumListener extends RunListener {
                     testRun.setCrashStack(errorMessage);
                 }
             }
-            if (e.isStarted() && addedFrameCount < 2) {
-                testDeviceManager.updateScreenshotImageAsyncDelay(deviceInfo, TimeUnit.SECONDS.toMillis(0),
-                        (imagePNGFile -> {
-                            try {
-                                e.addFrame(ImgUtil.toBufferedImage(ImgUtil.scale(ImageIO.read(imagePNGFile), 0.3f)));
-                            } catch (IOException ioException) {
-                                ioException.printStackTrace();
-                            }
-                        }), logger);
+            if (gifFrameSink.isStarted() && gifFrameSink.getFrameCount() < 2) {
+                testDeviceManager.updateScreenshotGifFrameAsyncDelay(deviceInfo, TimeUnit.SECONDS.toMillis(0),
+                        gifFrameSink::offer, logger);
             }
         }
 
@@ -260,7 +238,7 @@ public class AppiumListener extends RunListener {
     }
 
     private void releaseResource() {
-        e.finish();
+        gifFrameSink.finish();
         deviceScreenRecorder.finishRecording();
         logcatCollector.stopAndAnalyse();
         logger.info("Record Finished");
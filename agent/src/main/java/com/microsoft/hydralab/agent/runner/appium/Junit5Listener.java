@@ -3,14 +3,13 @@
 
 package com.microsoft.hydralab.agent.runner.appium;
 
-import cn.hutool.core.img.ImgUtil;
-import cn.hutool.core.img.gif.AnimatedGifEncoder;
 import com.microsoft.hydralab.common.entity.common.AndroidTestUnit;
 import com.microsoft.hydralab.common.entity.common.DeviceInfo;
 import com.microsoft.hydralab.common.entity.common.TestRun;
 import com.microsoft.hydralab.common.logger.LogCollector;
 import com.microsoft.hydralab.common.management.AgentManagementService;
 import com.microsoft.hydralab.common.management.device.TestDeviceManager;
+import com.microsoft.hydralab.common.screen.GifFrameSink;
 import com.microsoft.hydralab.common.screen.ScreenRecorder;
 import com.microsoft.hydralab.performance.PerformanceTestListener;
 import org.junit.platform.engine.TestExecutionResult;
@@ -20,9 +19,7 @@ import org.junit.platform.launcher.TestPlan;
 import org.junit.platform.launcher.listeners.SummaryGeneratingListener;
 import org.slf4j.Logger;
 
-import javax.imageio.ImageIO;
 import java.io.File;
-import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.Locale;
@@ -37,7 +34,7 @@ public class Junit5Listener extends SummaryGeneratingListener {
     private final LogCollector logcatCollector;
     private final ScreenRecorder deviceScreenRecorder;
     private final Logger logger;
-    private final AnimatedGifEncoder e = new AnimatedGifEncoder();
+    private final GifFrameSink gifFrameSink = new GifFrameSink();
     private final String pkgName;
     private long recordingStartTimeMillis;
     private int index;
@@ -45,7 +42,6 @@ public class Junit5Listener extends SummaryGeneratingListener {
     private boolean alreadyEnd = false;
     private AndroidTestUnit ongoingTestUnit;
     private int pid;
-    private int addedFrameCount;
     private String currentTestName = "";
     private int currentTestIndex = 0;
 
@@ -90,9 +86,7 @@ public class Junit5Listener extends SummaryGeneratingListener {
     private void startTools() {
         logger.info("Start gif frames collection");
         gifFile = new File(testRun.getResultFolder(), pkgName + ".gif");
-        e.start(gifFile.getAbsolutePath());
-        e.setDelay(1000);
-        e.setRepeat(0);
+        gifFrameSink.start(gifFile, 1000);
 
         logger.info("Start logcat collection");
         String logcatFilePath = logcatCollector.start();
@@ -132,15 +126,9 @@ public class Junit5Listener extends SummaryGeneratingListener {
                     testRun.setCrashStack(errorMessage);
                 }
             }
-            if (e.isStarted() && addedFrameCount < 2) {
-                testDeviceManager.updateScreenshotImageAsyncDelay(deviceInfo, TimeUnit.SECONDS.toMillis(0),
-                        (imagePNGFile -> {
-                            try {
-                                e.addFrame(ImgUtil.toBufferedImage(ImgUtil.scale(ImageIO.read(imagePNGFile), 0.3f)));
-                            } catch (IOException ioException) {
-                                ioException.printStackTrace();
-                            }
-                        }), logger);
+            if (gifFrameSink.isStarted() && gifFrameSink.getFrameCount() < 2) {
+                testDeviceManager.updateScreenshotGifFrameAsyncDelay(deviceInfo, TimeUnit.SECONDS.toMillis(0),
+                        gifFrameSink::offer, logger);
             }
         }
 
@@ -214,18 +202,8 @@ public class Junit5Listener extends SummaryGeneratingListener {
 
         testRun.addNewTestUnit(ongoingTestUnit);
 
-        testDeviceManager.updateScreenshotImageAsyncDelay(deviceInfo, TimeUnit.SECONDS.toMillis(15),
-                (imagePNGFile -> {
-                    if (imagePNGFile == null || !e.isStarted()) {
-                        return;
-                    }
-                    try {
-                        e.addFrame(ImgUtil.toBufferedImage(ImgUtil.scale(ImageIO.read(imagePNGFile), 0.3f)));
-                        addedFrameCount++;
-                    } catch (IOException ioException) {
-                        ioException.printStackTrace();
-                    }
-                }), logger);
+        testDeviceManager.updateScreenshotGifFrameAsyncDelay(deviceInfo, TimeUnit.SECONDS.toMillis(15),
+                gifFrameSink::offer, logger);
 
         performanceTestListener.testStarted(ongoingTestUnit.getTitle());
     }
@@ -265,7 +243,7 @@ public class Junit5Listener extends SummaryGeneratingListener {
     }
 
     private void releaseResource() {
-        e.finish();
+        gifFrameSink.finish();
         deviceScreenRecorder.finishRecording();
         logcatCollector.stopAndAnalyse();
     }
@@ -3,8 +3,6 @@
 
 package com.microsoft.hydralab.agent.runner.espresso;
 
-import cn.hutool.core.img.ImgUtil;
-import cn.hutool.core.img.gif.AnimatedGifEncoder;
 import cn.hutool.core.lang.Assert;
 import com.android.ddmlib.testrunner.TestIdentifier;
 import com.microsoft.hydralab.common.entity.common.AndroidTestUnit;
@@ -13,15 +11,14 @@ import com.microsoft.hydralab.common.entity.common.TestRun;
 import com.microsoft.hydralab.common.logger.LogCollector;
 import com.microsoft.hydralab.common.management.AgentManagementService;
 import com.microsoft.hydralab.common.management.device.TestDeviceManager;
+import com.microsoft.hydralab.common.screen.GifFrameSink;
 import com.microsoft.hydralab.common.screen.ScreenRecorder;
 import com.microsoft.hydralab.common.util.ADBOperateUtil;
 import com.microsoft.hydralab.common.util.Const;
 import com.microsoft.hydralab.performance.PerformanceTestListener;
 import org.slf4j.Logger;
 
-import javax.imageio.ImageIO;
 import java.io.File;
-import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Locale;
@@ -35,7 +32,7 @@ public class EspressoTestInfoProcessorListener extends XmlTestRunListener {
     private final LogCollector adbLogcatCollector;
     private final ScreenRecorder adbDeviceScreenRecorder;
     private final Logger logger;
-    private final AnimatedGifEncoder e = new AnimatedGifEncoder();
+    private final GifFrameSink gifFrameSink = new GifFrameSink();
     private final String pkgName;
     private final AgentManagementService agentManagementService;
     private final TestDeviceManager testDeviceManager;
@@ -48,7 +45,6 @@ public class EspressoTestInfoProcessorListener extends XmlTestRunListener {
     private AndroidTestUnit ongoingTestUnit;
     private int numTests;
     private int pid;
-    private int addedFrameCount;
 
     public EspressoTestInfoProcessorListener(AgentManagementService agentManagementService, ADBOperateUtil adbOperateUtil,
                                              DeviceInfo deviceInfo, TestRun testRun, String pkgName,
@@ -111,9 +107,7 @@ public class EspressoTestInfoProcessorListener extends XmlTestRunListener {
         }
         logger.info("Start gif frames collection");
         gifFile = new File(testRun.getResultFolder(), runName + ".gif");
-        e.start(gifFile.getAbsolutePath());
-        e.setDelay(1000);
-        e.setRepeat(0);
+        gifFrameSink.start(gifFile, 1000);
     }
 
     private void logEnter(Object... args) {
@@ -153,17 +147,7 @@ public class EspressoTestInfoProcessorListener extends XmlTestRunListener {
 
         testRun.addNewTestUnit(ongoingTestUnit);
 
-        testDeviceManager.updateScreenshotImageAsyncDelay(deviceInfo, TimeUnit.SECONDS.toMillis(5), (imagePNGFile -> {
-            if (imagePNGFile == null || !e.isStarted()) {
-                return;
-            }
-            try {
-                e.addFrame(ImgUtil.toBufferedImage(ImgUtil.scale(ImageIO.read(imagePNGFile), 0.3f)));
-                addedFrameCount++;
-            } catch (IOException ioException) {
-                ioException.printStackTrace();
-            }
-        }), logger);
+        testDeviceManager.updateScreenshotGifFrameAsyncDelay(deviceInfo, TimeUnit.SECONDS.toMillis(5), gifFrameSink::offer, logger);
 
         performanceTestListener.testStarted(ongoingTestUnit.getTitle());
     }
@@ -222,12 +206,11 @@ public class EspressoTestInfoProcessorListener extends XmlTestRunListener {
                 testRun.setCrashStack(errorMessage);
             }
         }
-        if (e.isStarted() && addedFrameCount < 2) {
+        if (gifFrameSink.isStarted() && gifFrameSink.getFrameCount() < 2) {
             try {
-                File imagePNGFile = testDeviceManager.getScreenShot(deviceInfo, logger);
-                e.addFrame(ImgUtil.toBufferedImage(ImgUtil.scale(ImageIO.read(imagePNGFile), 0.3f)));
+                gifFrameSink.offer(testDeviceManager.getScreenShotGifFrame(deviceInfo, logger));
             } catch (Exception exception) {
-                logger.error(exception.getMessage(), e);
+                logger.error(exception.getMessage(), exception);
             }
         }
         // releaseResource();
@@ -259,7 +242,7 @@ public class EspressoTestInfoProcessorListener extends XmlTestRunListener {
     }
 
     private void releaseResource() {
-        e.finish();
+        gifFrameSink.finish();
         adbDeviceScreenRecorder.finishRecording();
         adbLogcatCollector.stopAndAnalyse();
     }
@@ -3,8 +3,6 @@
 
 package com.microsoft.hydralab.agent.runner.monkey;
 
-import cn.hutool.core.img.ImgUtil;
-import cn.hutool.core.img.gif.AnimatedGifEncoder;
 import com.microsoft.hydralab.agent.runner.TestRunner;
 import com.microsoft.hydralab.agent.runner.TestTaskRunCallback;
 import com.microsoft.hydralab.common.entity.common.AndroidTestUnit;
@@ -14,6 +12,7 @@ import com.microsoft.hydralab.common.entity.common.TestTask;
 import com.microsoft.hydralab.common.logger.LogCollector;
 import com.microsoft.hydralab.common.logger.MultiLineNoCancelLoggingReceiver;
 import com.microsoft.hydralab.common.management.AgentManagementService;
+import com.microsoft.hydralab.common.screen.GifFrameSink;
 import com.microsoft.hydralab.common.screen.ScreenRecorder;
 import com.microsoft.hydralab.common.util.ADBOperateUtil;
 import com.microsoft.hydralab.common.util.LogUtils;
@@ -22,9 +21,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.imageio.ImageIO;
 import java.io.File;
-import java.io.IOException;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
@@ -32,7 +29,6 @@ public class AdbMonkeyRunner extends TestRunner {
     private static final String TEST_RUN_NAME = "ADB monkey test";
     @SuppressWarnings("constantname")
     static final Logger classLogger = LoggerFactory.getLogger(AdbMonkeyRunner.class);
-    private final AnimatedGifEncoder e = new AnimatedGifEncoder();
     final ADBOperateUtil adbOperateUtil;
     private LogCollector logCollector;
     private ScreenRecorder deviceScreenRecorder;
@@ -108,9 +104,9 @@ public class AdbMonkeyRunner extends TestRunner {
     private void startTools(TestRun testRun, Logger logger) {
         logger.info("Start gif frames collection");
         gifFile = new File(testRun.getResultFolder(), pkgName + ".gif");
-        e.start(gifFile.getAbsolutePath());
-        e.setDelay(1000);
-        e.setRepeat(0);
+        GifFrameSink gifFrameSink = new GifFrameSink();
+        testRun.setGifFrameSink(gifFrameSink);
+        gifFrameSink.start(gifFile, 1000);
 
         logger.info("Start adb logcat collection");
         String logcatFilePath = logCollector.start();
@@ -138,17 +134,8 @@ public class AdbMonkeyRunner extends TestRunner {
         ongoingMonkeyTest.setTestTaskId(testRun.getTestTaskId());
 
         logger.info(ongoingMonkeyTest.getTitle());
-        testDeviceManager.updateScreenshotImageAsyncDelay(deviceInfo, TimeUnit.SECONDS.toMillis(2),
-                (imagePNGFile -> {
-                    if (imagePNGFile == null || !e.isStarted()) {
-                        return;
-                    }
-                    try {
-                        e.addFrame(ImgUtil.toBufferedImage(ImgUtil.scale(ImageIO.read(imagePNGFile), 0.3f)));
-                    } catch (IOException ioException) {
-                        ioException.printStackTrace();
-                    }
-                }), logger);
+        testDeviceManager.updateScreenshotGifFrameAsyncDelay(deviceInfo, TimeUnit.SECONDS.toMillis(2),
+                testRun.getGifFrameSink()::offer, logger);
         //run monkey test
         testRun.addNewTimeTag(unitIndex + ". " + ongoingMonkeyTest.getTitle(),
                 System.currentTimeMillis() - recordingStartTimeMillis);
@@ -197,11 +184,11 @@ public class AdbMonkeyRunner extends TestRunner {
         testRun.addNewTimeTag("testRunEnded", System.currentTimeMillis() - recordingStartTimeMillis);
         testRun.onTestEnded();
         deviceInfo.setRunningTestName(null);
-        releaseResource();
+        releaseResource(testRun);
     }
 
-    private void releaseResource() {
-        e.finish();
+    private void releaseResource(TestRun testRun) {
+        testRun.getGifFrameSink().finish();
         deviceScreenRecorder.finishRecording();
         logCollector.stopAndAnalyse();
     }
@@ -3,8 +3,6 @@
 
 package com.microsoft.hydralab.agent.runner.monkey;
 
-import cn.hutool.core.img.ImgUtil;
-import cn.hutool.core.img.gif.AnimatedGifEncoder;
 import com.microsoft.hydralab.agent.runner.TestTaskRunCallback;
 import com.microsoft.hydralab.agent.runner.appium.AppiumRunner;
 import com.microsoft.hydralab.common.entity.common.AndroidTestUnit;
@@ -13,17 +11,15 @@ import com.microsoft.hydralab.common.entity.common.TestRun;
 import com.microsoft.hydralab.common.entity.common.TestTask;
 import com.microsoft.hydralab.common.logger.LogCollector;
 import com.microsoft.hydralab.common.management.AgentManagementService;
+import com.microsoft.hydralab.common.screen.GifFrameSink;
 import com.microsoft.hydralab.common.screen.ScreenRecorder;
 import com.microsoft.hydralab.performance.PerformanceTestManagementService;
 import org.slf4j.Logger;
 
-import javax.imageio.ImageIO;
 import java.io.File;
-import java.io.IOException;
 import java.util.concurrent.TimeUnit;
 
 public class AppiumMonkeyRunner extends AppiumRunner {
-    private final AnimatedGifEncoder e = new AnimatedGifEncoder();
 
     public AppiumMonkeyRunner(AgentManagementService agentManagementService,
                               TestTaskRunCallback testTaskRunCallback,
@@ -64,26 +60,18 @@ public class AppiumMonkeyRunner extends AppiumRunner {
                 System.currentTimeMillis() - recordingStartTimeMillis);
         deviceInfo.setRunningTestName(ongoingMonkeyTest.getTitle());
         File gifFile = new File(testRun.getResultFolder(), pkgName + ".gif");
-        e.start(gifFile.getAbsolutePath());
-        e.setDelay(1000);
-        e.setRepeat(0);
-        testDeviceManager.updateScreenshotImageAsyncDelay(deviceInfo, TimeUnit.SECONDS.toMillis(5),
-                (imagePNGFile -> {
-                    if (imagePNGFile == null || !e.isStarted()) {
-                        return;
-                    }
-                    try {
-                        e.addFrame(ImgUtil.toBufferedImage(ImgUtil.scale(ImageIO.read(imagePNGFile), 0.3f)));
-                    } catch (IOException ioException) {
-                        ioException.printStackTrace();
-                    }
-                }), reportLogger);
+        GifFrameSink gifFrameSink = new GifFrameSink();
+        testRun.setGifFrameSink(gifFrameSink);
+        gifFrameSink.start(gifFile, 1000);
+        testDeviceManager.updateScreenshotGifFrameAsyncDelay(deviceInfo, TimeUnit.SECONDS.toMillis(5),
+                gifFrameSink::offer, reportLogger);
         testRun.setTestStartTimeMillis(System.currentTimeMillis());
 
         performanceTestManagementService.testStarted(ongoingMonkeyTest.getTitle());
 
         testDeviceManager.runAppiumMonkey(deviceInfo, pkgName, testTask.getMaxStepCount(), reportLogger);
 
+        gifFrameSink.finish();
         deviceScreenRecorder.finishRecording();
         logCollector.stopAndAnalyse();
 
@@ -92,7 +80,7 @@ public class AppiumMonkeyRunner extends AppiumRunner {
             // Fail
             ongoingMonkeyTest.setStatusCode(AndroidTestUnit.StatusCodes.FAILURE);
             ongoingMonkeyTest.setSuccess(false);
-            ongoingMonkeyTest.setStack(e.toString());
+            ongoingMonkeyTest.setStack(testRun.getCrashStack());
             testRun.setSuccess(false);
             performanceTestManagementService.testFailure(ongoingMonkeyTest.getTitle());
             testRun.addNewTimeTagBeforeLast(ongoingMonkeyTest.getTitle() + ".fail",
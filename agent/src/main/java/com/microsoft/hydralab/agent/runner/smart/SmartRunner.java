@@ -3,8 +3,6 @@
 
 package com.microsoft.hydralab.agent.runner.smart;
 
-import cn.hutool.core.img.ImgUtil;
-import cn.hutool.core.img.gif.AnimatedGifEncoder;
 import cn.hutool.core.lang.Assert;
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
@@ -17,18 +15,16 @@ import com.microsoft.hydralab.common.entity.common.TestRun;
 import com.microsoft.hydralab.common.entity.common.TestTask;
 import com.microsoft.hydralab.common.logger.LogCollector;
 import com.microsoft.hydralab.common.management.AgentManagementService;
+import com.microsoft.hydralab.common.screen.GifFrameSink;
 import com.microsoft.hydralab.common.screen.ScreenRecorder;
 import com.microsoft.hydralab.common.util.Const;
 import com.microsoft.hydralab.performance.PerformanceTestManagementService;
 import org.slf4j.Logger;
 
-import javax.imageio.ImageIO;
 import java.io.File;
-import java.io.IOException;
 import java.util.concurrent.TimeUnit;
 
 public class SmartRunner extends TestRunner {
-    private final AnimatedGifEncoder e = new AnimatedGifEncoder();
     private final SmartTestUtil smartTestUtil;
     private LogCollector logCollector;
     private ScreenRecorder deviceScreenRecorder;
@@ -98,9 +94,9 @@ public class SmartRunner extends TestRunner {
     private void startTools(TestRun testRun, Logger logger) {
         logger.info("Start gif frames collection");
         gifFile = new File(testRun.getResultFolder(), pkgName + ".gif");
-        e.start(gifFile.getAbsolutePath());
-        e.setDelay(1000);
-        e.setRepeat(0);
+        GifFrameSink gifFrameSink = new GifFrameSink();
+        testRun.setGifFrameSink(gifFrameSink);
+        gifFrameSink.start(gifFile, 1000);
 
         logger.info("Start adb logcat collection");
         String logcatFilePath = logCollector.start();
@@ -129,16 +125,7 @@ public class SmartRunner extends TestRunner {
         testRun.addNewTimeTag(unitIndex + ". " + ongoingSmartTest.getTitle(), System.currentTimeMillis() - recordingStartTimeMillis);
         deviceInfo.setRunningTestName(ongoingSmartTest.getTitle());
         logger.info(ongoingSmartTest.getTitle());
-        testDeviceManager.updateScreenshotImageAsyncDelay(deviceInfo, TimeUnit.SECONDS.toMillis(1), (imagePNGFile -> {
-            if (imagePNGFile == null || !e.isStarted()) {
-                return;
-            }
-            try {
-                e.addFrame(ImgUtil.toBufferedImage(ImgUtil.scale(ImageIO.read(imagePNGFile), 0.3f)));
-            } catch (IOException ioException) {
-                ioException.printStackTrace();
-            }
-        }), logger);
+        testDeviceManager.updateScreenshotGifFrameAsyncDelay(deviceInfo, TimeUnit.SECONDS.toMillis(1), testRun.getGifFrameSink()::offer, logger);
 
         performanceTestManagementService.testStarted(ongoingSmartTest.getTitle());
 
@@ -197,12 +184,11 @@ public class SmartRunner extends TestRunner {
         testRun.addNewTimeTag("testRunEnded", System.currentTimeMillis() - recordingStartTimeMillis);
         testRun.onTestEnded();
         deviceInfo.setRunningTestName(null);
-        releaseResource();
+        releaseResource(testRun);
     }
 
-    private void releaseResource() {
-        e.finish();
-        e.finish();
+    private void releaseResource(TestRun testRun) {
+        testRun.getGifFrameSink().finish();
         deviceScreenRecorder.finishRecording();
         logCollector.stopAndAnalyse();
     }
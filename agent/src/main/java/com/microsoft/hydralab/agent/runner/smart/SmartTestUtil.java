@@ -3,6 +3,7 @@
 
 package com.microsoft.hydralab.agent.runner.smart;
 
+import cn.hutool.core.lang.Assert;
 import com.alibaba.fastjson.JSONObject;
 import com.microsoft.hydralab.common.entity.agent.SmartTestParam;
 import com.microsoft.hydralab.common.util.CommandOutputReceiver;
@@ -18,6 +19,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Objects;
 import java.util.Set;
 
@@ -26,8 +28,9 @@ public class SmartTestUtil {
     private static String folderPath = "";
     private static String stringFolderPath = "";
     Logger log = LoggerFactory.getLogger(SmartTestUtil.class);
+    private SmartTestWorkerPool workerPool;
 
-    public SmartTestUtil(String location) {
+    public SmartTestUtil(String location, int workerCount) {
         File testBaseDir = new File(location);
         String name = Const.SmartTestConfig.ZIP_FILE_NAME;
         String folderName = Const.SmartTestConfig.ZIP_FOLDER_NAME;
@@ -61,6 +64,13 @@ public class SmartTestUtil {
         }
         initStringPool();
         filePath = folderPath + Const.SmartTestConfig.PY_FILE_NAME;
+        File workerFile = new File(folderPath, Const.SmartTestConfig.WORKER_PY_FILE_NAME);
+        try (InputStream workerStream = FileUtils.class.getClassLoader().getResourceAsStream(Const.SmartTestConfig.WORKER_PY_FILE_NAME)) {
+            FileUtils.copyInputStreamToFile(Objects.requireNonNull(workerStream), workerFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        workerPool = new SmartTestWorkerPool(Arrays.asList("python", "-u", workerFile.getAbsolutePath(), filePath), workerCount);
         String requireFilePath = folderPath + Const.SmartTestConfig.REQUIRE_FILE_NAME;
         String[] command = new String[]{"pip3", "install", "-r", requireFilePath};
         try {
@@ -76,28 +86,24 @@ public class SmartTestUtil {
     }
 
     public String runPYFunction(SmartTestParam smartTestParam, Logger logger) throws Exception {
-        String res = null;
-        String[] runArgs = new String[7];
-        runArgs[0] = "python";
-        runArgs[1] = filePath;
-        runArgs[2] = smartTestParam.apkPath;
-        runArgs[3] = smartTestParam.deviceInfo;
-        runArgs[4] = smartTestParam.modelInfo;
-        runArgs[5] = smartTestParam.testSteps;
-        runArgs[6] = smartTestParam.stringTextFolder;
+        String[] runArgs = new String[5];
+        runArgs[0] = smartTestParam.apkPath;
+        runArgs[1] = smartTestParam.deviceInfo;
+        runArgs[2] = smartTestParam.modelInfo;
+        runArgs[3] = smartTestParam.testSteps;
+        runArgs[4] = smartTestParam.stringTextFolder;
 
         for (String tempArg : runArgs) {
             logger.info(tempArg);
         }
-        Process proc = Runtime.getRuntime().exec(runArgs);
-        SmartTestLog err = new SmartTestLog(proc.getErrorStream(), logger);
-        SmartTestLog out = new SmartTestLog(proc.getInputStream(), logger);
-        err.start();
-        out.start();
-        res = out.getContent();
-        proc.waitFor();
-
-        return res;
+        Assert.notNull(workerPool, "Smart test is not set up");
+        return workerPool.run(runArgs, logger);
+    }
+
+    public void close() {
+        if (workerPool != null) {
+            workerPool.close();
+        }
     }
 
     public JSONObject analysisRes(JSONObject data) {
@@ -0,0 +1,143 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+
+package com.microsoft.hydralab.agent.runner.smart;
+
+import com.alibaba.fastjson.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps Python workers running the Smart test script, so the interpreter start and the model loading are paid once per worker instead of once per run.
+ * A worker takes one run at a time, at most workerCount runs go on at once and the others wait for a worker.
+ * A worker which exits, e.g. on a crash of the script, is dropped and replaced by a new one for the next run.
+ */
+public class SmartTestWorkerPool {
+    static final String RESULT_PREFIX = "smartTestResult:";
+    static final String DONE_PREFIX = "smartTestWorkerDone:";
+    static final Logger classLogger = LoggerFactory.getLogger(SmartTestWorkerPool.class);
+    private final List<String> workerCommand;
+    private final Semaphore workerPermits;
+    private final ConcurrentLinkedDeque<Worker> idleWorkers = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger requestCounter = new AtomicInteger();
+    private final AtomicInteger startedWorkerCount = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * @param workerCommand the command starting a worker, e.g. python -u smart_test_worker.py main.py
+     */
+    public SmartTestWorkerPool(List<String> workerCommand, int workerCount) {
+        this.workerCommand = workerCommand;
+        this.workerPermits = new Semaphore(Math.max(1, workerCount), true);
+    }
+
+    /**
+     * Run the script once with the arguments, the output of the run goes to the logger.
+     *
+     * @return the result printed by the script, or null if it printed none
+     */
+    public String run(String[] args, Logger logger) throws IOException, InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("The Smart test worker pool is closed");
+        }
+        workerPermits.acquire();
+        Worker worker = null;
+        try {
+            worker = idleWorkers.pollFirst();
+            if (worker != null && !worker.isAlive()) {
+                classLogger.warn("Smart test worker exited with {}, starting a new one", worker.process.exitValue());
+                worker.destroy();
+                worker = null;
+            }
+            if (worker == null) {
+                worker = new Worker(new ProcessBuilder(workerCommand).redirectErrorStream(true).start());
+                startedWorkerCount.incrementAndGet();
+            }
+            return worker.run(String.valueOf(requestCounter.incrementAndGet()), args, logger);
+        } catch (IOException e) {
+            if (worker != null) {
+                worker.destroy();
+                worker = null;
+            }
+            throw e;
+        } finally {
+            if (worker != null) {
+                if (closed || !worker.isAlive()) {
+                    worker.destroy();
+                } else {
+                    idleWorkers.offerFirst(worker);
+                }
+            }
+            workerPermits.release();
+        }
+    }
+
+    /**
+     * @return the number of workers started since the creation of the pool, including the replaced ones
+     */
+    public int getStartedWorkerCount() {
+        return startedWorkerCount.get();
+    }
+
+    public void close() {
+        closed = true;
+        Worker worker;
+        while ((worker = idleWorkers.pollFirst()) != null) {
+            worker.destroy();
+        }
+    }
+
+    private static final class Worker {
+        private final Process process;
+        private final BufferedWriter input;
+        private final BufferedReader output;
+
+        private Worker(Process process) {
+            this.process = process;
+            this.input = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+            this.output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        }
+
+        private String run(String requestId, String[] args, Logger logger) throws IOException {
+            JSONObject request = new JSONObject();
+            request.put("id", requestId);
+            request.put("args", Arrays.asList(args));
+            input.write(request.toJSONString());
+            input.newLine();
+            input.flush();
+
+            String result = null;
+            String line;
+            while ((line = output.readLine()) != null) {
+                if (line.startsWith(DONE_PREFIX) && line.substring(DONE_PREFIX.length()).equals(requestId)) {
+                    return result;
+                }
+                logger.info(line);
+                if (line.startsWith(RESULT_PREFIX)) {
+                    result = line.substring(RESULT_PREFIX.length());
+                }
+            }
+            throw new IOException("Smart test worker exited during the run");
+        }
+
+        private boolean isAlive() {
+            return process.isAlive();
+        }
+
+        private void destroy() {
+            process.destroyForcibly();
+        }
+    }
+}
@@ -3,8 +3,6 @@
 
 package com.microsoft.hydralab.agent.runner.t2c;
 
-import cn.hutool.core.img.ImgUtil;
-import cn.hutool.core.img.gif.AnimatedGifEncoder;
 import com.microsoft.hydralab.agent.runner.TestTaskRunCallback;
 import com.microsoft.hydralab.agent.runner.appium.AppiumRunner;
 import com.microsoft.hydralab.common.entity.common.AndroidTestUnit;
@@ -14,6 +12,7 @@ import com.microsoft.hydralab.common.entity.common.TestTask;
 import com.microsoft.hydralab.common.logger.LogCollector;
 import com.microsoft.hydralab.common.management.AgentManagementService;
 import com.microsoft.hydralab.common.management.AppiumServerManager;
+import com.microsoft.hydralab.common.screen.GifFrameSink;
 import com.microsoft.hydralab.common.screen.ScreenRecorder;
 import com.microsoft.hydralab.common.util.ThreadUtils;
 import com.microsoft.hydralab.performance.PerformanceTestManagementService;
@@ -32,9 +31,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.springframework.util.Assert;
 
-import javax.imageio.ImageIO;
 import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
@@ -42,7 +39,6 @@ import java.util.concurrent.TimeUnit;
 
 public class T2CRunner extends AppiumRunner {
 
-    private final AnimatedGifEncoder e = new AnimatedGifEncoder();
     private LogCollector logCollector;
     private ScreenRecorder deviceScreenRecorder;
     private String pkgName;
@@ -80,9 +76,9 @@ public class T2CRunner extends AppiumRunner {
         currentIndex = 0;
 
         File gifFile = new File(testRun.getResultFolder(), pkgName + ".gif");
-        e.start(gifFile.getAbsolutePath());
-        e.setDelay(1000);
-        e.setRepeat(0);
+        GifFrameSink gifFrameSink = new GifFrameSink();
+        testRun.setGifFrameSink(gifFrameSink);
+        gifFrameSink.start(gifFile, 1000);
 
         if (initialJsonFile != null) {
             runT2CJsonTestCase(initialJsonFile, deviceInfo, testRun, reportLogger, recordingStartTimeMillis);
@@ -97,7 +93,7 @@ public class T2CRunner extends AppiumRunner {
         testRun.addNewTimeTag("testRunEnded", System.currentTimeMillis() - recordingStartTimeMillis);
         testRun.onTestEnded();
         deviceInfo.setRunningTestName(null);
-        releaseResource();
+        releaseResource(testRun);
         return gifFile;
     }
 
@@ -130,17 +126,8 @@ public class T2CRunner extends AppiumRunner {
 
         performanceTestManagementService.testStarted(ongoingTest.getTitle());
 
-        testDeviceManager.updateScreenshotImageAsyncDelay(deviceInfo, TimeUnit.SECONDS.toMillis(5),
-                (imagePNGFile -> {
-                    if (imagePNGFile == null || !e.isStarted()) {
-                        return;
-                    }
-                    try {
-                        e.addFrame(ImgUtil.toBufferedImage(ImgUtil.scale(ImageIO.read(imagePNGFile), 0.3f)));
-                    } catch (IOException ioException) {
-                        ioException.printStackTrace();
-                    }
-                }), reportLogger);
+        testDeviceManager.updateScreenshotGifFrameAsyncDelay(deviceInfo, TimeUnit.SECONDS.toMillis(5),
+                testRun.getGifFrameSink()::offer, reportLogger);
 
         // Run Test
         try {
@@ -164,8 +151,8 @@ public class T2CRunner extends AppiumRunner {
                 System.currentTimeMillis() - recordingStartTimeMillis);
     }
 
-    private void releaseResource() {
-        e.finish();
+    private void releaseResource(TestRun testRun) {
+        testRun.getGifFrameSink().finish();
         deviceScreenRecorder.finishRecording();
         logCollector.stopAndAnalyse();
     }
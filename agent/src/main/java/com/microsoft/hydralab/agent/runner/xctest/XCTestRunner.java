@@ -7,6 +7,7 @@ import com.microsoft.hydralab.common.entity.common.DeviceInfo;
 import com.microsoft.hydralab.common.entity.common.TestRun;
 import com.microsoft.hydralab.common.entity.common.TestTask;
 import com.microsoft.hydralab.common.management.AgentManagementService;
+import com.microsoft.hydralab.common.screen.GifFrameSink;
 import com.microsoft.hydralab.common.screen.ScreenRecorder;
 import com.microsoft.hydralab.common.util.Const;
 import com.microsoft.hydralab.common.util.FileUtil;
@@ -18,22 +19,17 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
-import javax.imageio.ImageIO;
 
-import cn.hutool.core.img.ImgUtil;
-import cn.hutool.core.img.gif.AnimatedGifEncoder;
 
 public class XCTestRunner extends TestRunner {
     private static String folderPath = "";
     private File gifFile;
-    private final AnimatedGifEncoder gifEncoder = new AnimatedGifEncoder();
     private ScreenRecorder deviceScreenRecorder;
     private Logger reportLogger;
     private long recordingStartTimeMillis;
@@ -64,9 +60,9 @@ public class XCTestRunner extends TestRunner {
         testRun.setTestStartTimeMillis(System.currentTimeMillis());
         reportLogger.info("Start gif frames collection");
         gifFile = new File(testRun.getResultFolder(), testTask.getPkgName() + ".gif");
-        gifEncoder.start(gifFile.getAbsolutePath());
-        gifEncoder.setDelay(1000);
-        gifEncoder.setRepeat(0);
+        GifFrameSink gifFrameSink = new GifFrameSink();
+        testRun.setGifFrameSink(gifFrameSink);
+        gifFrameSink.start(gifFile, 1000);
     }
 
     @Override
@@ -87,7 +83,7 @@ public class XCTestRunner extends TestRunner {
         if (deviceInfo == null) {
             throw new RuntimeException("No such device: " + deviceInfo);
         }
-        addFrame(deviceInfo, logger);
+        addFrame(deviceInfo, testRun, logger);
         StringBuilder argString = new StringBuilder();
         Map<String, String> instrumentationArgs = testTask.getInstrumentationArgs();
         if (instrumentationArgs != null && !instrumentationArgs.isEmpty()) {
@@ -122,7 +118,7 @@ public class XCTestRunner extends TestRunner {
             out.start();
             proc.waitFor();
             result = out.getResult();
-            addFrame(deviceInfo, logger);
+            addFrame(deviceInfo, testRun, logger);
         } catch (Exception e) {
             throw new RuntimeException("Execute XCTest failed");
         }
@@ -172,18 +168,9 @@ public class XCTestRunner extends TestRunner {
         testRun.setTotalCount(totalCases);
     }
 
-    private void addFrame(DeviceInfo deviceInfo, Logger logger){
-        testDeviceManager.updateScreenshotImageAsyncDelay(deviceInfo, TimeUnit.SECONDS.toMillis(0),
-                (imagePNGFile -> {
-                    if (imagePNGFile == null || !gifEncoder.isStarted()) {
-                        return;
-                    }
-                    try {
-                        gifEncoder.addFrame(ImgUtil.toBufferedImage(ImgUtil.scale(ImageIO.read(imagePNGFile), 0.3f)));
-                    } catch (IOException ioException) {
-                        ioException.printStackTrace();
-                    }
-                }), logger);
+    private void addFrame(DeviceInfo deviceInfo, TestRun testRun, Logger logger){
+        testDeviceManager.updateScreenshotGifFrameAsyncDelay(deviceInfo, TimeUnit.SECONDS.toMillis(0),
+                testRun.getGifFrameSink()::offer, logger);
     }
 
     private void finishTest(TestRun testRun) {
@@ -195,7 +182,7 @@ public class XCTestRunner extends TestRunner {
         if (gifFile.exists() && gifFile.length() > 0) {
             testRun.setTestGifPath(agentManagementService.getTestBaseRelPathInUrl(gifFile));
         }
-        gifEncoder.finish();
+        testRun.getGifFrameSink().finish();
         deviceScreenRecorder.finishRecording();
     }
 }
@@ -43,6 +43,12 @@ public class ScheduledDeviceControlTasks {
         agentWebSocketClient.reconnect();
     }
 
+    //refresh screenshots apart from heartbeats, so that a slow device never delays the device list
+    @Scheduled(fixedDelayString = "${app.screenshot-refresh.interval-millis:10000}")
+    public void scheduledRefreshScreenshots() {
+        deviceControlService.refreshScreenshots();
+    }
+
     @Scheduled(cron = "0 10 6 ? * MON")
     public void scheduleCleanBuildSource() {
         logger.info("schedule clean build APK");
@@ -0,0 +1,70 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+
+package com.microsoft.hydralab.agent.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the messages from center off the WebSocket receive thread.
+ * Control messages like heartbeats and cancels go to a single control lane which never runs long operations, so they are handled in order without waiting for a download.
+ * Long operations go to task lanes hashed by key, operations of the same task run in arrival order and different tasks run in parallel.
+ */
+@Service
+public class AgentMessageDispatcher {
+    @SuppressWarnings("constantname")
+    static final Logger log = LoggerFactory.getLogger(AgentMessageDispatcher.class);
+    @Value("${app.message-dispatch.task-lane-num:4}")
+    int taskLaneNum = 4;
+    private ExecutorService controlLane;
+    private ExecutorService[] taskLanes;
+
+    @PostConstruct
+    public void start() {
+        controlLane = Executors.newSingleThreadExecutor(runnable -> newLaneThread(runnable, "AgentControlLane"));
+        taskLanes = new ExecutorService[taskLaneNum];
+        for (int i = 0; i < taskLaneNum; i++) {
+            String threadName = "AgentTaskLane" + i;
+            taskLanes[i] = Executors.newSingleThreadExecutor(runnable -> newLaneThread(runnable, threadName));
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        controlLane.shutdownNow();
+        for (ExecutorService taskLane : taskLanes) {
+            taskLane.shutdownNow();
+        }
+    }
+
+    public void dispatchControl(String name, Runnable operation) {
+        controlLane.execute(() -> run(name, operation));
+    }
+
+    public void dispatchTask(String key, String name, Runnable operation) {
+        taskLanes[Math.floorMod(key.hashCode(), taskLanes.length)].execute(() -> run(name, operation));
+    }
+
+    private void run(String name, Runnable operation) {
+        try {
+            operation.run();
+        } catch (Exception e) {
+            // a failed message must not stop the lane
+            log.error("Failed to handle message {}", name, e);
+        }
+    }
+
+    private Thread newLaneThread(Runnable runnable, String threadName) {
+        Thread thread = new Thread(runnable, threadName);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
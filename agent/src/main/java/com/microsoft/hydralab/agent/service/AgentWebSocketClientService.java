@@ -19,6 +19,7 @@ import com.microsoft.hydralab.common.file.StorageServiceClientProxy;
 import com.microsoft.hydralab.common.monitor.MetricPushGateway;
 import com.microsoft.hydralab.common.util.Const;
 import com.microsoft.hydralab.common.util.GlobalConstant;
+import com.microsoft.hydralab.common.util.SerializeUtil;
 import com.microsoft.hydralab.common.util.ThreadUtils;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tags;
@@ -34,10 +35,13 @@ import javax.annotation.Resource;
 import java.io.File;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
 
 @Service("WebSocketClient")
 @Slf4j
 public class AgentWebSocketClientService implements TestTaskRunCallback {
+    private static final String TEST_TASK_ACCEPTED = "ACCEPTED";
     @SuppressWarnings("visibilitymodifier")
     @Value("${app.registry.agent-type}")
     public int agentTypeValue;
@@ -54,6 +58,8 @@ public class AgentWebSocketClientService implements TestTaskRunCallback {
     @Resource
     AgentManageService agentManageService;
     @Resource
+    AgentMessageDispatcher messageDispatcher;
+    @Resource
     MeterRegistry meterRegistry;
     AgentUser agentUser;
     @Resource
@@ -76,6 +82,24 @@ public class AgentWebSocketClientService implements TestTaskRunCallback {
 
     public void onMessage(Message message) {
         log.info("onMessage Receive bytes message {}", message);
+        String path = message.getPath();
+        if (Const.Path.TEST_TASK_RUN.equals(path) && message.getBody() instanceof TestTaskSpec) {
+            // accept the task right away, the task update is sent once the packages are loaded and the task is started
+            String testTaskId = ((TestTaskSpec) message.getBody()).testTaskId;
+            testTaskEngineService.acceptTestTask(testTaskId);
+            JSONObject data = new JSONObject();
+            data.put(Const.AgentConfig.TASK_ID_PARAM, testTaskId);
+            data.put(Const.AgentConfig.STATUS_PARAM, TEST_TASK_ACCEPTED);
+            send(Message.response(message, data));
+            messageDispatcher.dispatchTask(testTaskId, path, () -> handleMessage(message));
+        } else if (Const.Path.AGENT_UPDATE.equals(path)) {
+            messageDispatcher.dispatchTask(path, path, () -> handleMessage(message));
+        } else {
+            messageDispatcher.dispatchControl(path, () -> handleMessage(message));
+        }
+    }
+
+    void handleMessage(Message message) {
         String path = message.getPath();
         Message response = null;
         switch (path) {
@@ -104,7 +128,11 @@ public class AgentWebSocketClientService implements TestTaskRunCallback {
                     break;
                 }
                 heartbeatResponse(message);
-                deviceControlService.provideDeviceList(agentUser.getBatteryStrategy());
+                if (isDeviceListDeltaSupported(message)) {
+                    deviceControlService.provideDeviceListDelta(agentUser.getBatteryStrategy());
+                } else {
+                    deviceControlService.provideDeviceList(agentUser.getBatteryStrategy());
+                }
                 return;
             case Const.Path.DEVICE_UPDATE:
                 if (!(message.getBody() instanceof JSONObject)) {
@@ -184,6 +212,10 @@ public class AgentWebSocketClientService implements TestTaskRunCallback {
         prometheusPushgatewayInit(agentMetadata);
     }
 
+    private boolean isDeviceListDeltaSupported(Message message) {
+        return message.getParams() != null && Boolean.TRUE.equals(message.getParams().get(Const.AgentConfig.DEVICE_LIST_DELTA_PARAM));
+    }
+
     private void syncAgentStatus(AgentUser passedAgent) {
         agentUser.setTeamId(passedAgent.getTeamId());
         agentUser.setTeamName(passedAgent.getTeamName());
@@ -222,6 +254,10 @@ public class AgentWebSocketClientService implements TestTaskRunCallback {
         agentUser.setDeviceType(agentTypeValue);
         responseAuth.setBody(agentUser);
         responseAuth.setPath(message.getPath());
+        // offer the message codecs this agent understands, the center answers with the chosen one in AGENT_INIT
+        Map<String, Object> params = new HashMap<>();
+        params.put(Const.AgentConfig.MESSAGE_CODEC_PARAM, SerializeUtil.getSupportedCodecNames());
+        responseAuth.setParams(params);
         send(responseAuth);
     }
 
@@ -247,7 +283,11 @@ public class AgentWebSocketClientService implements TestTaskRunCallback {
 
     @Override
     public void onOneDeviceComplete(TestTask testTask, DeviceInfo deviceControl, Logger logger, TestRun result) {
-
+        // the result files are queued for upload, so the device can take the next task before the whole task finishes
+        JSONObject data = new JSONObject();
+        data.put(Const.AgentConfig.SERIAL_PARAM, deviceControl.getSerialNum());
+        data.put(Const.AgentConfig.STATUS_PARAM, DeviceInfo.ONLINE);
+        send(Message.ok(Const.Path.DEVICE_STATUS, data));
     }
 
     @Override
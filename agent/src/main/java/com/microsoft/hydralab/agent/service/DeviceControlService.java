@@ -3,34 +3,39 @@
 
 package com.microsoft.hydralab.agent.service;
 
+import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.serializer.SimplePropertyPreFilter;
 import com.microsoft.hydralab.agent.repository.MobileDeviceRepository;
-import com.microsoft.hydralab.agent.runner.DeviceTaskControlExecutor;
-import com.microsoft.hydralab.common.entity.agent.DeviceTaskControl;
 import com.microsoft.hydralab.common.entity.agent.MobileDevice;
 import com.microsoft.hydralab.common.entity.common.AgentUser;
 import com.microsoft.hydralab.common.entity.common.DeviceInfo;
+import com.microsoft.hydralab.common.entity.common.DeviceListDelta;
 import com.microsoft.hydralab.common.entity.common.Message;
 import com.microsoft.hydralab.common.management.AgentManagementService;
 import com.microsoft.hydralab.common.management.device.TestDeviceManager;
-import com.microsoft.hydralab.common.management.device.impl.WindowsTestDeviceManager;
 import com.microsoft.hydralab.common.management.listener.DeviceStatusListener;
 import com.microsoft.hydralab.common.management.listener.DeviceStatusListenerManager;
 import com.microsoft.hydralab.common.management.listener.impl.DeviceStabilityMonitor;
 import com.microsoft.hydralab.common.management.listener.impl.PreInstallListener;
 import com.microsoft.hydralab.common.util.Const;
+import com.microsoft.hydralab.common.util.ThreadPoolUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.util.Assert;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
 import java.util.stream.Collectors;
 
 @Service
@@ -38,6 +43,13 @@ public class DeviceControlService {
 
     @SuppressWarnings("constantname")
     static final Logger log = LoggerFactory.getLogger(DeviceControlService.class);
+    // the screenshot time changes on every capture and is only used by the agent itself
+    private static final SimplePropertyPreFilter DEVICE_FINGERPRINT_FILTER = new SimplePropertyPreFilter();
+
+    static {
+        DEVICE_FINGERPRINT_FILTER.getExcludes().add("screenshotUpdateTimeMilli");
+    }
+
     @Resource
     AgentManagementService agentManagementService;
     @Resource
@@ -47,11 +59,33 @@ public class DeviceControlService {
     @Resource
     AgentWebSocketClientService agentWebSocketClientService;
     @Resource
-    DeviceTaskControlExecutor deviceTaskControlExecutor;
-    @Resource
     DeviceStabilityMonitor deviceStabilityMonitor;
     @Resource
     DeviceStatusListenerManager deviceStatusListenerManager;
+    //save the device list last sent to center <deviceSerial,fingerprint>
+    private final Map<String, String> sentDeviceFingerprints = new HashMap<>();
+    private long deviceListSequence = 0;
+    //save the device scopes saved in DB <deviceSerial,isPrivate>
+    private final Map<String, Boolean> deviceScopeMap = new ConcurrentHashMap<>();
+    //save the devices being captured by the screenshot refresh
+    private final Set<String> capturingDevices = ConcurrentHashMap.newKeySet();
+    private Semaphore screenshotSemaphore;
+    private volatile AgentUser.BatteryStrategy batteryStrategy;
+    @Value("${app.screenshot-refresh.max-concurrency:4}")
+    int screenshotMaxConcurrency = 4;
+
+    /**
+     * Load the device scopes saved in DB once, the device list is then built from memory on every heartbeat.
+     */
+    @PostConstruct
+    public void init() {
+        for (MobileDevice device : mobileDeviceRepository.findAll()) {
+            if (device.getIsPrivate() != null) {
+                deviceScopeMap.put(device.getSerialNum(), device.getIsPrivate());
+            }
+        }
+        screenshotSemaphore = new Semaphore(screenshotMaxConcurrency);
+    }
 
     public Set<DeviceInfo> getAllConnectedDevice() {
         updateAllDeviceScope();
@@ -59,50 +93,96 @@ public class DeviceControlService {
     }
 
     public void provideDeviceList(AgentUser.BatteryStrategy batteryStrategy) {
-        captureAllScreensSync(batteryStrategy);
+        this.batteryStrategy = batteryStrategy;
         Set<DeviceInfo> allConnectedDevices = getAllConnectedDevice();
         ArrayList<DeviceInfo> deviceInfos = new ArrayList<>(allConnectedDevices);
         deviceInfos.sort(Comparator.comparing(d -> d.getName() + d.getSerialNum()));
         Message message = new Message();
         message.setPath(Const.Path.DEVICE_LIST);
         message.setBody(deviceInfos);
-        agentWebSocketClientService.send(message);
+        synchronized (sentDeviceFingerprints) {
+            sentDeviceFingerprints.clear();
+            for (DeviceInfo deviceInfo : deviceInfos) {
+                sentDeviceFingerprints.put(deviceInfo.getSerialNum(), getDeviceFingerprint(deviceInfo));
+            }
+            // a full list starts a new base, following deltas are applied on top of it
+            Map<String, Object> params = new HashMap<>();
+            params.put(Const.AgentConfig.DEVICE_LIST_SEQUENCE_PARAM, ++deviceListSequence);
+            message.setParams(params);
+            agentWebSocketClientService.send(message);
+        }
         log.info("/api/device/list device SN: {}",
                 deviceInfos.stream().map(MobileDevice::getSerialNum).collect(Collectors.joining(",")));
     }
 
-    public void captureAllScreensSync(AgentUser.BatteryStrategy batteryStrategy) {
-        Set<DeviceInfo> allConnectedDevices = agentManagementService.getActiveDeviceList(log);
-        if (testDeviceManager instanceof WindowsTestDeviceManager) {
-            Assert.isTrue(allConnectedDevices.size() == 1, "expect only 1 device");
+    public void provideDeviceListDelta(AgentUser.BatteryStrategy batteryStrategy) {
+        this.batteryStrategy = batteryStrategy;
+        Set<DeviceInfo> allConnectedDevices = getAllConnectedDevice();
+        DeviceListDelta delta = new DeviceListDelta();
+        synchronized (sentDeviceFingerprints) {
+            Set<String> removedSerials = new HashSet<>(sentDeviceFingerprints.keySet());
+            for (DeviceInfo deviceInfo : allConnectedDevices) {
+                removedSerials.remove(deviceInfo.getSerialNum());
+                String fingerprint = getDeviceFingerprint(deviceInfo);
+                if (!fingerprint.equals(sentDeviceFingerprints.put(deviceInfo.getSerialNum(), fingerprint))) {
+                    delta.getUpdatedDevices().add(deviceInfo);
+                }
+            }
+            for (String serialNum : removedSerials) {
+                sentDeviceFingerprints.remove(serialNum);
+                delta.getRemovedSerials().add(serialNum);
+            }
+            if (delta.isEmpty()) {
+                return;
+            }
+            delta.setBaseSequence(deviceListSequence);
+            delta.setSequence(++deviceListSequence);
+            agentWebSocketClientService.send(Message.ok(Const.Path.DEVICE_LIST_DELTA, delta));
         }
-        captureDevicesScreenSync(allConnectedDevices, false, batteryStrategy);
+        log.info("/api/device/list/delta sequence: {}, updated device SN: {}, removed device SN: {}", delta.getSequence(),
+                delta.getUpdatedDevices().stream().map(MobileDevice::getSerialNum).collect(Collectors.joining(",")),
+                String.join(",", delta.getRemovedSerials()));
     }
 
-    private void captureDevicesScreenSync(Collection<DeviceInfo> allDevices, boolean logging,
-                                          AgentUser.BatteryStrategy batteryStrategy) {
-        DeviceTaskControl deviceTaskControl =
-                deviceTaskControlExecutor.runForAllDeviceAsync(allDevices, (deviceInfo, logger) -> {
-                    testDeviceManager.getScreenShotWithStrategy(deviceInfo, log, batteryStrategy);
-                    return true;
-                }, null, logging, true);
+    private String getDeviceFingerprint(DeviceInfo deviceInfo) {
+        return JSON.toJSONString(deviceInfo, DEVICE_FINGERPRINT_FILTER);
+    }
 
-        if (deviceTaskControl == null) {
+    /**
+     * Refresh the screenshots in background, at most screenshotMaxConcurrency devices are captured at the same time
+     * and a device still being captured from the last round is skipped. The battery strategy limits how often each device is captured.
+     * The refreshed screenshot urls go out with the next device list.
+     */
+    public void refreshScreenshots() {
+        AgentUser.BatteryStrategy strategy = batteryStrategy;
+        if (strategy == null) {
+            // the agent is not initialized by center yet
             return;
         }
-
-        CountDownLatch countDownLatch = deviceTaskControl.countDownLatch;
-        try {
-            countDownLatch.await();
-        } catch (InterruptedException e) {
-            log.error(e.getMessage(), e);
+        for (DeviceInfo deviceInfo : agentManagementService.getActiveDeviceList(log)) {
+            if (!screenshotSemaphore.tryAcquire()) {
+                return;
+            }
+            if (!capturingDevices.add(deviceInfo.getSerialNum())) {
+                screenshotSemaphore.release();
+                continue;
+            }
+            ThreadPoolUtil.SCREENSHOT_EXECUTOR.execute(() -> {
+                try {
+                    testDeviceManager.getScreenShotWithStrategy(deviceInfo, log, strategy);
+                } catch (Exception e) {
+                    log.error("Failed to refresh the screenshot of device {}: {}", deviceInfo.getSerialNum(), e.getMessage());
+                } finally {
+                    capturingDevices.remove(deviceInfo.getSerialNum());
+                    screenshotSemaphore.release();
+                }
+            });
         }
     }
 
     private void updateAllDeviceScope() {
-        List<MobileDevice> devices = mobileDeviceRepository.findAll();
-        for (MobileDevice device : devices) {
-            agentManagementService.updateIsPrivateByDeviceSerial(device.getSerialNum(), device.getIsPrivate());
+        for (Map.Entry<String, Boolean> entry : deviceScopeMap.entrySet()) {
+            agentManagementService.updateIsPrivateByDeviceSerial(entry.getKey(), entry.getValue());
         }
     }
 
@@ -135,6 +215,11 @@ public class DeviceControlService {
             mobileDeviceRepository.save(deviceCopy);
             agentManagementService.updateIsPrivateByDeviceSerial(deviceSerial, isPrivate);
         }
+        if (isPrivate == null) {
+            deviceScopeMap.remove(deviceSerial);
+        } else {
+            deviceScopeMap.put(deviceSerial, isPrivate);
+        }
         return device;
     }
 
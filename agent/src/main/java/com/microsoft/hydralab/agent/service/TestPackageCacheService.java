@@ -0,0 +1,261 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+
+package com.microsoft.hydralab.agent.service;
+
+import com.microsoft.hydralab.agent.config.AppOptions;
+import com.microsoft.hydralab.common.entity.common.StorageFileInfo;
+import com.microsoft.hydralab.common.file.StorageServiceClientProxy;
+import com.microsoft.hydralab.common.util.FileUtil;
+import com.microsoft.hydralab.common.util.HydraLabRuntimeException;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Agent local cache of test packages, keyed by the MD5 of the file content.
+ * Each task checks out a hard link of the cached file under its own folder, so that tasks never share or overwrite a package path.
+ * A cached file is referenced by the tasks holding it and only unreferenced files are evicted, least recently used first.
+ * Tasks asking for a package being downloaded wait for the same download instead of starting another one.
+ */
+@Service
+public class TestPackageCacheService {
+    @SuppressWarnings("constantname")
+    static final Logger log = LoggerFactory.getLogger(TestPackageCacheService.class);
+    private static final String DOWNLOADING_SUFFIX = ".downloading";
+    // LRU order of the cached packages <md5,entry>, guarded by itself
+    private final LinkedHashMap<String, CacheEntry> cacheEntries = new LinkedHashMap<>(16, 0.75f, true);
+    //save the downloads in progress <md5,download>
+    private final ConcurrentHashMap<String, CompletableFuture<CacheEntry>> downloadingMap = new ConcurrentHashMap<>();
+    //save the packages checked out by task <testTaskId,md5 list>
+    private final ConcurrentHashMap<String, List<String>> taskCheckoutMap = new ConcurrentHashMap<>();
+    private long cachedSize = 0;
+    @Resource
+    AppOptions appOptions;
+    @Resource
+    StorageServiceClientProxy storageServiceClientProxy;
+    @Value("${app.test-package-cache.max-size-mb:10240}")
+    long maxSizeMb = 10240;
+
+    /**
+     * Keep the packages cached by the last run, the partial downloads are dropped.
+     */
+    @PostConstruct
+    public void loadCachedPackages() {
+        File cacheFolder = new File(appOptions.getTestPackageCacheLocation());
+        File[] entryFolders = cacheFolder.listFiles();
+        if (entryFolders == null) {
+            return;
+        }
+        Arrays.sort(entryFolders, Comparator.comparingLong(File::lastModified));
+        synchronized (cacheEntries) {
+            for (File entryFolder : entryFolders) {
+                File[] files = entryFolder.listFiles();
+                if (entryFolder.getName().endsWith(DOWNLOADING_SUFFIX) || files == null || files.length != 1) {
+                    FileUtil.deleteFile(entryFolder);
+                    continue;
+                }
+                CacheEntry entry = new CacheEntry(entryFolder.getName(), files[0]);
+                cacheEntries.put(entry.md5, entry);
+                cachedSize += entry.size;
+            }
+        }
+        log.info("Loaded {} cached test packages, {} bytes", cacheEntries.size(), cachedSize);
+    }
+
+    /**
+     * Check out the package for the task, the package is downloaded once and shared by all tasks asking for the same content.
+     * Packages without MD5 are downloaded for the task only.
+     */
+    public File checkout(StorageFileInfo attachment, String testTaskId) {
+        File taskFile = new File(appOptions.getTestPackageLocation() + testTaskId, attachment.getBlobPath());
+        if (StringUtils.isBlank(attachment.getMd5())) {
+            storageServiceClientProxy.download(taskFile, attachment);
+            return taskFile;
+        }
+
+        String md5 = attachment.getMd5().toLowerCase();
+        CacheEntry entry = acquire(md5, testTaskId);
+        if (entry != null) {
+            log.info("Test package {} hits the cache, md5 {}", attachment.getFileName(), md5);
+        }
+        // the package downloaded by another task may be evicted again before this task acquires it, download it once more then
+        while (entry == null) {
+            entry = downloadOrWait(md5, attachment, testTaskId);
+        }
+
+        try {
+            File parentFolder = taskFile.getParentFile();
+            if (!parentFolder.exists() && !parentFolder.mkdirs()) {
+                throw new HydraLabRuntimeException(HttpStatus.INTERNAL_SERVER_ERROR.value(), "mkdirs failed!");
+            }
+            Files.deleteIfExists(taskFile.toPath());
+            Files.createLink(taskFile.toPath(), entry.file.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            // hard links are not supported by the file system, the task uses a copy instead
+            log.warn("Failed to link the cached test package {}, copy it instead: {}", entry.file.getAbsolutePath(), e.getMessage());
+            try {
+                Files.copy(entry.file.toPath(), taskFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException ex) {
+                throw new HydraLabRuntimeException(HttpStatus.INTERNAL_SERVER_ERROR.value(), "Check out cached test package failed!", ex);
+            }
+        }
+        return taskFile;
+    }
+
+    /**
+     * Release all packages checked out by the task and remove its package folder.
+     */
+    public void release(String testTaskId) {
+        List<String> md5List = taskCheckoutMap.remove(testTaskId);
+        if (md5List != null) {
+            synchronized (cacheEntries) {
+                for (String md5 : md5List) {
+                    CacheEntry entry = cacheEntries.get(md5);
+                    if (entry != null) {
+                        entry.refCount--;
+                    }
+                }
+                evict();
+            }
+        }
+        FileUtil.deleteFile(new File(appOptions.getTestPackageLocation() + testTaskId));
+    }
+
+    public long getCachedSize() {
+        synchronized (cacheEntries) {
+            return cachedSize;
+        }
+    }
+
+    private CacheEntry acquire(String md5, String testTaskId) {
+        synchronized (cacheEntries) {
+            CacheEntry entry = cacheEntries.get(md5);
+            if (entry == null) {
+                return null;
+            }
+            entry.refCount++;
+            taskCheckoutMap.computeIfAbsent(testTaskId, k -> new ArrayList<>()).add(md5);
+            return entry;
+        }
+    }
+
+    private CacheEntry downloadOrWait(String md5, StorageFileInfo attachment, String testTaskId) {
+        CompletableFuture<CacheEntry> download = new CompletableFuture<>();
+        CompletableFuture<CacheEntry> existingDownload = downloadingMap.putIfAbsent(md5, download);
+        if (existingDownload != null) {
+            log.info("Test package {} is being downloaded by another task, wait for it", attachment.getFileName());
+            join(existingDownload);
+            return acquire(md5, testTaskId);
+        }
+
+        try {
+            CacheEntry entry = download(md5, attachment);
+            synchronized (cacheEntries) {
+                // the entry is held by the downloading task before eviction runs, so it can't be evicted right away
+                entry.refCount++;
+                taskCheckoutMap.computeIfAbsent(testTaskId, k -> new ArrayList<>()).add(md5);
+                cacheEntries.put(md5, entry);
+                cachedSize += entry.size;
+                evict();
+            }
+            download.complete(entry);
+            return entry;
+        } catch (RuntimeException e) {
+            download.completeExceptionally(e);
+            throw e;
+        } finally {
+            downloadingMap.remove(md5, download);
+        }
+    }
+
+    private CacheEntry download(String md5, StorageFileInfo attachment) {
+        File downloadingFolder = new File(appOptions.getTestPackageCacheLocation(), md5 + DOWNLOADING_SUFFIX);
+        File entryFolder = new File(appOptions.getTestPackageCacheLocation(), md5);
+        FileUtil.deleteFile(downloadingFolder);
+        FileUtil.deleteFile(entryFolder);
+        File downloadingFile = new File(downloadingFolder, new File(attachment.getBlobPath()).getName());
+        storageServiceClientProxy.download(downloadingFile, attachment);
+
+        String actualMd5;
+        try (InputStream inputStream = new FileInputStream(downloadingFile)) {
+            actualMd5 = DigestUtils.md5DigestAsHex(inputStream);
+        } catch (IOException e) {
+            FileUtil.deleteFile(downloadingFolder);
+            throw new HydraLabRuntimeException(HttpStatus.INTERNAL_SERVER_ERROR.value(), "Get the MD5 of test package failed!", e);
+        }
+        if (!md5.equalsIgnoreCase(actualMd5)) {
+            FileUtil.deleteFile(downloadingFolder);
+            throw new HydraLabRuntimeException(HttpStatus.INTERNAL_SERVER_ERROR.value(),
+                    String.format("MD5 of test package %s mismatches, expected %s but got %s", attachment.getFileName(), md5, actualMd5));
+        }
+        if (!downloadingFolder.renameTo(entryFolder)) {
+            FileUtil.deleteFile(downloadingFolder);
+            throw new HydraLabRuntimeException(HttpStatus.INTERNAL_SERVER_ERROR.value(), "Move test package to cache failed!");
+        }
+        log.info("Test package {} is cached, md5 {}", attachment.getFileName(), md5);
+        return new CacheEntry(md5, new File(entryFolder, downloadingFile.getName()));
+    }
+
+    private void join(CompletableFuture<CacheEntry> download) {
+        try {
+            download.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HydraLabRuntimeException(HttpStatus.INTERNAL_SERVER_ERROR.value(), "Interrupted while waiting for test package download", e);
+        } catch (ExecutionException e) {
+            throw new HydraLabRuntimeException(HttpStatus.INTERNAL_SERVER_ERROR.value(), "Download test package failed!", e.getCause());
+        }
+    }
+
+    private void evict() {
+        long maxSize = maxSizeMb * 1024 * 1024;
+        Iterator<Map.Entry<String, CacheEntry>> iterator = cacheEntries.entrySet().iterator();
+        while (cachedSize > maxSize && iterator.hasNext()) {
+            CacheEntry entry = iterator.next().getValue();
+            if (entry.refCount > 0) {
+                continue;
+            }
+            iterator.remove();
+            cachedSize -= entry.size;
+            FileUtil.deleteFile(entry.file.getParentFile());
+            log.info("Test package {} is evicted from the cache, md5 {}", entry.file.getName(), entry.md5);
+        }
+    }
+
+    static class CacheEntry {
+        final String md5;
+        final File file;
+        final long size;
+        int refCount = 0;
+
+        CacheEntry(String md5, File file) {
+            this.md5 = md5;
+            this.file = file;
+            this.size = file.length();
+        }
+    }
+}
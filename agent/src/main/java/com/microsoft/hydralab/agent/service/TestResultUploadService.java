@@ -0,0 +1,143 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+
+package com.microsoft.hydralab.agent.service;
+
+import com.microsoft.hydralab.common.entity.common.EntityType;
+import com.microsoft.hydralab.common.entity.common.StorageFileInfo;
+import com.microsoft.hydralab.common.entity.common.TestRun;
+import com.microsoft.hydralab.common.util.AttachmentService;
+import com.microsoft.hydralab.common.util.FileUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.Assert;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Uploads the result files of test runs off the device threads.
+ * The files of a run are zipped and uploaded concurrently by a bounded pool, and their storage infos are saved to DB in one batch once all uploads end.
+ * The device is free as soon as its result files are queued, the task completion waits for the uploads of all its runs.
+ * The upload queue is kept in memory only: a graceful shutdown lets the queued uploads finish, but they are lost if the agent process dies.
+ */
+@Service
+public class TestResultUploadService {
+    @SuppressWarnings("constantname")
+    static final Logger log = LoggerFactory.getLogger(TestResultUploadService.class);
+    private final AtomicInteger threadCounter = new AtomicInteger(1);
+    //save the pending uploads of test runs by task <testTaskId,upload list>
+    private final ConcurrentHashMap<String, List<CompletableFuture<Void>>> taskUploadMap = new ConcurrentHashMap<>();
+    @Resource
+    AttachmentService attachmentService;
+    @Value("${app.test-result-upload.thread-num:4}")
+    int threadNum = 4;
+    private ExecutorService uploadExecutor;
+
+    @PostConstruct
+    public void start() {
+        uploadExecutor = new ThreadPoolExecutor(threadNum, threadNum, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread result = new Thread(runnable, "ResultUploadExecutor" + threadCounter.getAndIncrement());
+                    result.setDaemon(false);
+                    return result;
+                });
+    }
+
+    @PreDestroy
+    public void stop() {
+        uploadExecutor.shutdown();
+    }
+
+    /**
+     * Queue the result files of the test run, the attachments of the run are set once all of them are uploaded.
+     */
+    public CompletableFuture<Void> uploadTestRunResult(String testTaskId, TestRun testRun, Logger logger) {
+        File deviceTestResultFolder = testRun.getResultFolder();
+        File[] files = deviceTestResultFolder.listFiles();
+        Assert.notNull(files, "should have result file to upload");
+
+        List<CompletableFuture<StorageFileInfo>> fileUploads = new ArrayList<>(files.length);
+        for (File file : files) {
+            fileUploads.add(CompletableFuture.supplyAsync(() -> uploadResultFile(file, deviceTestResultFolder, logger), uploadExecutor));
+        }
+        CompletableFuture<Void> runUpload = CompletableFuture.allOf(fileUploads.toArray(new CompletableFuture[0]))
+                .handle((v, e) -> {
+                    // keep the order of the listed files, the first attachment decides the result folder url
+                    List<StorageFileInfo> attachments = new ArrayList<>(fileUploads.size());
+                    for (CompletableFuture<StorageFileInfo> fileUpload : fileUploads) {
+                        if (!fileUpload.isCompletedExceptionally()) {
+                            attachments.add(fileUpload.join());
+                        }
+                    }
+                    if (e != null) {
+                        logger.error("Failed to upload {} of {} result files", fileUploads.size() - attachments.size(), fileUploads.size(), e);
+                    }
+                    try {
+                        attachmentService.saveFileInfos(attachments);
+                        testRun.setAttachments(attachments);
+                        processAndSaveDeviceTestResultBlobUrl(testRun);
+                    } catch (Exception ex) {
+                        logger.error("Error in saving test result files", ex);
+                    }
+                    return null;
+                });
+        taskUploadMap.computeIfAbsent(testTaskId, k -> Collections.synchronizedList(new ArrayList<>())).add(runUpload);
+        return runUpload;
+    }
+
+    /**
+     * @return a future completed when the result files of all runs of the task are uploaded, it never completes exceptionally
+     */
+    public CompletableFuture<Void> getTaskUploadFuture(String testTaskId) {
+        List<CompletableFuture<Void>> runUploads = taskUploadMap.remove(testTaskId);
+        if (runUploads == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.allOf(runUploads.toArray(new CompletableFuture[0]));
+    }
+
+    private StorageFileInfo uploadResultFile(File file, File folder, Logger logger) {
+        File uploadFile = file;
+        if (file.isDirectory()) {
+            uploadFile = FileUtil.zipFile(file.getAbsolutePath(), folder + "/" + file.getName() + ".zip");
+        }
+        StorageFileInfo storageFileInfo = new StorageFileInfo(uploadFile,
+                "test/result/" + folder.getParentFile().getName() + "/" + folder.getName(),
+                StorageFileInfo.FileType.COMMON_FILE);
+        return attachmentService.saveFileInStorage(storageFileInfo, uploadFile, EntityType.TEST_RESULT, logger);
+    }
+
+    private void processAndSaveDeviceTestResultBlobUrl(TestRun result) {
+        Assert.isTrue(result.getAttachments().size() > 0, "deviceTestResultBlobUrl should not null");
+        String deviceTestResultBlobUrl = result.getAttachments().get(0).getCDNUrl();
+        String fileName = result.getAttachments().get(0).getFileName();
+        log.info("deviceTestResultBlobUrl is {}", deviceTestResultBlobUrl);
+
+        int start = deviceTestResultBlobUrl.lastIndexOf(fileName);
+        deviceTestResultBlobUrl = deviceTestResultBlobUrl.substring(0, start);
+
+        if (deviceTestResultBlobUrl.endsWith("%2F")) {
+            deviceTestResultBlobUrl = deviceTestResultBlobUrl.substring(0, deviceTestResultBlobUrl.length() - 3);
+        } else if (deviceTestResultBlobUrl.endsWith("/")) {
+            deviceTestResultBlobUrl = deviceTestResultBlobUrl.substring(0, deviceTestResultBlobUrl.length() - 1);
+        }
+
+        log.info("After process: deviceTestResultBlobUrl is {}", deviceTestResultBlobUrl);
+        result.setDeviceTestResultFolderUrl(deviceTestResultBlobUrl);
+    }
+}
@@ -10,16 +10,12 @@ import com.microsoft.hydralab.agent.runner.t2c.T2CRunner;
 import com.microsoft.hydralab.agent.util.FileLoadUtil;
 import com.microsoft.hydralab.common.entity.agent.DeviceTaskControl;
 import com.microsoft.hydralab.common.entity.common.DeviceInfo;
-import com.microsoft.hydralab.common.entity.common.EntityType;
-import com.microsoft.hydralab.common.entity.common.StorageFileInfo;
 import com.microsoft.hydralab.common.entity.common.TestRun;
 import com.microsoft.hydralab.common.entity.common.TestTask;
 import com.microsoft.hydralab.common.entity.common.TestTaskSpec;
 import com.microsoft.hydralab.common.management.AgentManagementService;
-import com.microsoft.hydralab.common.util.AttachmentService;
 import com.microsoft.hydralab.common.util.Const;
 import com.microsoft.hydralab.common.util.DateUtil;
-import com.microsoft.hydralab.common.util.FileUtil;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,13 +25,13 @@ import org.springframework.util.Assert;
 
 import javax.annotation.Resource;
 import java.io.File;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 @Service("TestTaskEngineService")
@@ -49,18 +45,31 @@ public class TestTaskEngineService implements TestTaskRunCallback {
     @Resource
     ApplicationContext applicationContext;
     @Resource
-    AttachmentService attachmentService;
+    TestResultUploadService testResultUploadService;
     @Resource(name = "WebSocketClient")
-    private TestTaskRunCallback webSocketCallback;
+    TestTaskRunCallback webSocketCallback;
     @Resource
     DeviceTaskControlExecutor deviceTaskControlExecutor;
     @Resource
     AgentManagementService agentManagementService;
     @Resource
     DeviceScriptCommandLoader deviceScriptCommandLoader;
-    private final Map<String, TestTask> runningTestTask = new HashMap<>();
+    private final Map<String, TestTask> runningTestTask = new ConcurrentHashMap<>();
+    //save the test tasks accepted from center but not started yet <testTaskId,isCanceled>, guarded by itself
+    private final Map<String, Boolean> pendingTestTask = new HashMap<>();
 
     public TestTask runTestTask(TestTaskSpec testTaskSpec) {
+        try {
+            return startTestTask(testTaskSpec);
+        } finally {
+            // the task failed to start if it is still pending
+            synchronized (pendingTestTask) {
+                pendingTestTask.remove(testTaskSpec.testTaskId);
+            }
+        }
+    }
+
+    private TestTask startTestTask(TestTaskSpec testTaskSpec) {
         updateTaskSpecWithDefaultValues(testTaskSpec);
         log.info("TestTaskSpec: {}", testTaskSpec);
         TestTask testTask = TestTask.convertToTestTask(testTaskSpec);
@@ -72,6 +81,12 @@ public class TestTaskEngineService implements TestTaskRunCallback {
         Set<DeviceInfo> chosenDevices = chooseDevices(testTaskSpec, runner);
 
         onTaskStart(testTask);
+        if (testTask.isCanceled()) {
+            // canceled while waiting to start, no device needs to run it
+            testTask.setTestDevicesCount(0);
+            onTaskComplete(testTask);
+            return testTask;
+        }
         DeviceTaskControl deviceTaskControl = deviceTaskControlExecutor.runForAllDeviceAsync(chosenDevices,
                 new DeviceTaskControlExecutor.DeviceTask() {
                     @Override
@@ -91,6 +106,8 @@ public class TestTaskEngineService implements TestTaskRunCallback {
 
         if (deviceTaskControl == null) {
             testTask.setTestDevicesCount(0);
+            // no device runs the task, so the completion callback won't clear the attachments
+            fileLoadUtil.clearAttachments(testTask);
         } else {
             testTask.setTestDevicesCount(deviceTaskControl.devices.size());
         }
@@ -155,10 +172,23 @@ public class TestTaskEngineService implements TestTaskRunCallback {
         return runningTestTask;
     }
 
+    public void acceptTestTask(String testId) {
+        synchronized (pendingTestTask) {
+            pendingTestTask.put(testId, false);
+        }
+    }
+
     public boolean cancelTestTaskById(String testId) {
         final Map<String, TestTask> runningTestTask = getRunningTestTask();
-        final TestTask testTask = runningTestTask.get(testId);
-        if (testTask == null || testTask.isCanceled()) {
+        final TestTask testTask;
+        synchronized (pendingTestTask) {
+            testTask = runningTestTask.get(testId);
+            if (testTask == null) {
+                // the task may still wait for its turn to start, it is canceled once it starts
+                return pendingTestTask.replace(testId, true) != null;
+            }
+        }
+        if (testTask.isCanceled()) {
             return false;
         }
         testTask.setStatus(TestTask.TestStatus.CANCELED);
@@ -168,49 +198,67 @@ public class TestTaskEngineService implements TestTaskRunCallback {
 
     @Override
     public void onTaskStart(TestTask testTask) {
+        // register the task before loading the packages, so that it can be canceled while they download
+        synchronized (pendingTestTask) {
+            runningTestTask.put(testTask.getId(), testTask);
+            if (Boolean.TRUE.equals(pendingTestTask.remove(testTask.getId()))) {
+                testTask.setStatus(TestTask.TestStatus.CANCELED);
+            }
+        }
+        if (testTask.isCanceled()) {
+            log.warn("test task {} is canceled before start, skip loading attachments", testTask.getId());
+            return;
+        }
         fileLoadUtil.loadAttachments(testTask);
         deviceScriptCommandLoader.loadCommandAction(testTask);
-        runningTestTask.put(testTask.getId(), testTask);
     }
 
     @Override
     public void onTaskComplete(TestTask testTask) {
         fileLoadUtil.clearAttachments(testTask);
-        if (testTask.isCanceled()) {
-            log.warn("test task {} is canceled, no data will be saved", testTask.getId());
-            return;
+        // the result files of the runs may still be uploading, report the task after they are done
+        testResultUploadService.getTaskUploadFuture(testTask.getId()).whenComplete((v, e) -> saveTaskResult(testTask));
+    }
+
+    /**
+     * Runs on the thread ending the last upload, nothing would see its exceptions,
+     * so a failed save is logged and the task is always reported and removed.
+     */
+    void saveTaskResult(TestTask testTask) {
+        try {
+            if (testTask.isCanceled()) {
+                log.warn("test task {} is canceled, no data will be saved", testTask.getId());
+                return;
+            }
+            log.info("test task {} is completed, start to save info", testTask.getId());
+            testDataService.saveTestTaskData(testTask);
+        } catch (Exception e) {
+            log.error("Failed to save the result of test task {}", testTask.getId(), e);
+        } finally {
+            runningTestTask.remove(testTask.getId());
+            reportTaskComplete(testTask);
         }
+    }
 
-        if (webSocketCallback != null) {
+    private void reportTaskComplete(TestTask testTask) {
+        if (testTask.isCanceled() || webSocketCallback == null) {
+            return;
+        }
+        try {
             webSocketCallback.onTaskComplete(testTask);
+        } catch (Exception e) {
+            log.error("Failed to report the completion of test task {}", testTask.getId(), e);
         }
-
-        log.info("test task {} is completed, start to save info", testTask.getId());
-
-        testDataService.saveTestTaskData(testTask);
-        runningTestTask.remove(testTask.getId());
     }
 
     @Override
     public void onOneDeviceComplete(TestTask testTask, DeviceInfo deviceControl, Logger logger, TestRun result) {
         log.info("onOneDeviceComplete: {}", deviceControl.getSerialNum());
         deviceControl.finishTask();
-        File deviceTestResultFolder = result.getResultFolder();
-
-        File[] files = deviceTestResultFolder.listFiles();
-        List<StorageFileInfo> attachments = new ArrayList<>();
-        Assert.notNull(files, "should have result file to upload");
-        for (File file : files) {
-            if (file.isDirectory()) {
-                File zipFile = FileUtil.zipFile(file.getAbsolutePath(),
-                        deviceTestResultFolder + "/" + file.getName() + ".zip");
-                attachments.add(saveFileToBlob(zipFile, deviceTestResultFolder, logger));
-                continue;
-            }
-            attachments.add(saveFileToBlob(file, deviceTestResultFolder, logger));
+        testResultUploadService.uploadTestRunResult(testTask.getId(), result, logger);
+        if (webSocketCallback != null) {
+            webSocketCallback.onOneDeviceComplete(testTask, deviceControl, logger, result);
         }
-        result.setAttachments(attachments);
-        processAndSaveDeviceTestResultBlobUrl(result);
     }
 
     @Override
@@ -221,30 +269,4 @@ public class TestTaskEngineService implements TestTaskRunCallback {
         }
         log.warn("device disconnected, test task {} will be re-queue, no data will be saved", testTask.getId());
     }
-
-    private StorageFileInfo saveFileToBlob(File file, File folder, Logger logger) {
-        StorageFileInfo storageFileInfo = new StorageFileInfo(file,
-                "test/result/" + folder.getParentFile().getName() + "/" + folder.getName(),
-                StorageFileInfo.FileType.COMMON_FILE);
-        return attachmentService.saveFileInStorageAndDB(storageFileInfo, file, EntityType.TEST_RESULT, logger);
-    }
-
-    private void processAndSaveDeviceTestResultBlobUrl(TestRun result) {
-        Assert.isTrue(result.getAttachments().size() > 0, "deviceTestResultBlobUrl should not null");
-        String deviceTestResultBlobUrl = result.getAttachments().get(0).getCDNUrl();
-        String fileName = result.getAttachments().get(0).getFileName();
-        log.info("deviceTestResultBlobUrl is {}", deviceTestResultBlobUrl);
-
-        int start = deviceTestResultBlobUrl.lastIndexOf(fileName);
-        deviceTestResultBlobUrl = deviceTestResultBlobUrl.substring(0, start);
-
-        if (deviceTestResultBlobUrl.endsWith("%2F")) {
-            deviceTestResultBlobUrl = deviceTestResultBlobUrl.substring(0, deviceTestResultBlobUrl.length() - 3);
-        } else if (deviceTestResultBlobUrl.endsWith("/")) {
-            deviceTestResultBlobUrl = deviceTestResultBlobUrl.substring(0, deviceTestResultBlobUrl.length() - 1);
-        }
-
-        log.info("After process: deviceTestResultBlobUrl is {}", deviceTestResultBlobUrl);
-        result.setDeviceTestResultFolderUrl(deviceTestResultBlobUrl);
-    }
 }
@@ -5,6 +5,7 @@ package com.microsoft.hydralab.agent.socket;
 
 import com.microsoft.hydralab.agent.service.AgentWebSocketClientService;
 import com.microsoft.hydralab.common.entity.common.Message;
+import com.microsoft.hydralab.common.serialize.MessageCodec;
 import com.microsoft.hydralab.common.util.Const;
 import com.microsoft.hydralab.common.util.SerializeUtil;
 import lombok.extern.slf4j.Slf4j;
@@ -18,6 +19,8 @@ import java.nio.ByteBuffer;
 @Slf4j
 public class AgentWebSocketClient extends WebSocketClient {
     private final AgentWebSocketClientService agentWebSocketClientService;
+    // codec used for sending, switched when the center confirms a negotiated codec
+    private volatile MessageCodec messageCodec = SerializeUtil.JSON_GZIP_CODEC;
 
     private boolean connectionActive = false;
     private boolean shouldRetryConnection = true;
@@ -27,7 +30,7 @@ public class AgentWebSocketClient extends WebSocketClient {
         super(serverUri);
         this.agentWebSocketClientService = agentWebSocketClientService;
         agentWebSocketClientService.setSendMessageCallback(message -> {
-            byte[] data = SerializeUtil.messageToByteArr(message);
+            byte[] data = SerializeUtil.messageToByteArr(message, messageCodec);
             log.info("send, path: {}, message data len: {}", message.getPath(), data.length);
             AgentWebSocketClient.this.send(data);
         });
@@ -36,6 +39,7 @@ public class AgentWebSocketClient extends WebSocketClient {
     @Override
     public void onOpen(ServerHandshake handShakeData) {
         connectionActive = true;
+        messageCodec = SerializeUtil.JSON_GZIP_CODEC;
         log.info("onOpen message {}, {}", handShakeData.getHttpStatus(), handShakeData.getHttpStatusMessage());
     }
 
@@ -44,6 +48,9 @@ public class AgentWebSocketClient extends WebSocketClient {
         super.onMessage(bytes);
         connectionActive = true;
         Message message = SerializeUtil.byteArrToMessage(bytes.array());
+        if (message.getParams() != null && message.getParams().get(Const.AgentConfig.MESSAGE_CODEC_PARAM) != null) {
+            messageCodec = SerializeUtil.getCodecByName(message.getParams().get(Const.AgentConfig.MESSAGE_CODEC_PARAM).toString());
+        }
         agentWebSocketClientService.onMessage(message);
         if (Const.Path.DEVICE_LIST.equals(message.getPath())) {
             reconnectTime = 0;
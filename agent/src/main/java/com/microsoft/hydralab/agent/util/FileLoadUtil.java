@@ -4,6 +4,7 @@
 package com.microsoft.hydralab.agent.util;
 
 import com.microsoft.hydralab.agent.config.AppOptions;
+import com.microsoft.hydralab.agent.service.TestPackageCacheService;
 import com.microsoft.hydralab.common.entity.common.StorageFileInfo;
 import com.microsoft.hydralab.common.entity.common.TestTask;
 import com.microsoft.hydralab.common.util.CommandOutputReceiver;
@@ -29,8 +30,11 @@ public class FileLoadUtil {
     private AppOptions appOptions;
     @Resource
     StorageServiceClientProxy storageServiceClientProxy;
+    @Resource
+    TestPackageCacheService testPackageCacheService;
 
     public void clearAttachments(TestTask testTask) {
+        testPackageCacheService.release(testTask.getId());
         List<StorageFileInfo> attachments = testTask.getTestFileSet().getAttachments();
         if (attachments == null) {
             return;
@@ -49,6 +53,16 @@ public class FileLoadUtil {
         if (attachments == null) {
             return;
         }
+        try {
+            loadAttachments(testTask, attachments);
+        } catch (RuntimeException e) {
+            // the task won't run, give back the packages checked out so far
+            testPackageCacheService.release(testTask.getId());
+            throw e;
+        }
+    }
+
+    private void loadAttachments(TestTask testTask, List<StorageFileInfo> attachments) {
         for (StorageFileInfo attachment : attachments) {
             switch (attachment.getFileType()) {
                 case StorageFileInfo.FileType.WINDOWS_APP:
@@ -58,17 +72,17 @@ public class FileLoadUtil {
                     loadCommonFile(attachment);
                     break;
                 case StorageFileInfo.FileType.APP_FILE:
-                    File appFile = downloadFile(attachment);
+                    File appFile = checkoutPackage(attachment, testTask);
                     Assert.isTrue(appFile != null && appFile.exists(), "Download app file failed!");
                     testTask.setAppFile(appFile);
                     break;
                 case StorageFileInfo.FileType.TEST_APP_FILE:
-                    File testAppFile = downloadFile(attachment);
+                    File testAppFile = checkoutPackage(attachment, testTask);
                     Assert.isTrue(testAppFile != null && testAppFile.exists(), "Download test app file failed!");
                     testTask.setTestAppFile(testAppFile);
                     break;
                 case StorageFileInfo.FileType.T2C_JSON_FILE:
-                    File testJsonFile = downloadFile(attachment);
+                    File testJsonFile = checkoutPackage(attachment, testTask);
                     Assert.isTrue(testJsonFile != null && testJsonFile.exists(), "Download test json file failed!");
                     testTask.addTestJsonFile(testJsonFile);
                     break;
@@ -122,14 +136,9 @@ public class FileLoadUtil {
         return file;
     }
 
-    private File downloadFile(StorageFileInfo attachment) {
-        File file = null;
-        try {
-            file = downloadFile(attachment, appOptions.getTestPackageLocation(), attachment.getBlobPath());
-            log.info("Download file success");
-        } catch (IOException e) {
-            log.error("Download file failed", e);
-        }
+    private File checkoutPackage(StorageFileInfo attachment, TestTask testTask) {
+        File file = testPackageCacheService.checkout(attachment, testTask.getId());
+        log.info("Check out test package {} to {}", attachment.getFileName(), file.getAbsolutePath());
         return file;
     }
 }
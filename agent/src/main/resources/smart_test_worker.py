@@ -0,0 +1,58 @@
+# Copyright (c) Microsoft Corporation.
+# Licensed under the MIT License.
+
+# Runs the Smart test script once for each request read from stdin, a request is a JSON line {"id": "...", "args": [...]}.
+# The interpreter, the imported modules and the loaded models are kept between the runs.
+# The output of a run is written to stdout, followed by a "smartTestWorkerDone:<id>" line.
+import json
+import os
+import runpy
+import sys
+import traceback
+
+DONE_PREFIX = "smartTestWorkerDone:"
+
+
+def cache_model_loading():
+    try:
+        import torch
+    except ImportError:
+        return
+    load = torch.load
+    models = {}
+
+    def cached_load(f, *args, **kwargs):
+        if not isinstance(f, (str, os.PathLike)):
+            return load(f, *args, **kwargs)
+        path = os.path.abspath(f)
+        key = (path, os.path.getmtime(path), repr(args), repr(sorted(kwargs.items())))
+        if key not in models:
+            models[key] = load(f, *args, **kwargs)
+        return models[key]
+
+    torch.load = cached_load
+
+
+def main(script):
+    out = sys.stdout
+    # a single stream keeps the order of the output and errors of a run
+    sys.stderr = out
+    sys.path.insert(0, os.path.dirname(os.path.abspath(script)))
+    cache_model_loading()
+    for line in sys.stdin:
+        if not line.strip():
+            continue
+        request = json.loads(line)
+        sys.argv = [script] + request["args"]
+        try:
+            runpy.run_path(script, run_name="__main__")
+        except SystemExit:
+            pass
+        except BaseException:
+            traceback.print_exc(file=out)
+        out.write(DONE_PREFIX + request["id"] + "\n")
+        out.flush()
+
+
+if __name__ == "__main__":
+    main(sys.argv[1])
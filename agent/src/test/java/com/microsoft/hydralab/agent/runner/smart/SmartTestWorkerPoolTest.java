@@ -0,0 +1,70 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+
+package com.microsoft.hydralab.agent.runner.smart;
+
+import com.microsoft.hydralab.common.util.Const;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+public class SmartTestWorkerPoolTest {
+    private final Logger logger = LoggerFactory.getLogger(SmartTestWorkerPoolTest.class);
+    @TempDir
+    File tempDir;
+    private SmartTestWorkerPool workerPool;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Assumptions.assumeTrue(isPythonAvailable(), "python is needed to run the workers");
+        // the module state tells whether the interpreter is reused between the runs
+        Files.write(new File(tempDir, "state.py").toPath(), "runs = 0\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(tempDir, "main.py").toPath(), ("import os, sys, state\n"
+                + "state.runs += 1\n"
+                + "if sys.argv[1] == 'crash':\n"
+                + "    os._exit(1)\n"
+                + "print('smartTestResult:{\"runs\": %d, \"apk\": \"%s\"}' % (state.runs, sys.argv[1]))\n").getBytes(StandardCharsets.UTF_8));
+        File workerScript = new File(getClass().getClassLoader().getResource(Const.SmartTestConfig.WORKER_PY_FILE_NAME).toURI());
+        workerPool = new SmartTestWorkerPool(Arrays.asList("python", "-u", workerScript.getAbsolutePath(), new File(tempDir, "main.py").getAbsolutePath()), 1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (workerPool != null) {
+            workerPool.close();
+        }
+    }
+
+    @Test
+    void reuseWorkerBetweenRuns() throws Exception {
+        Assertions.assertEquals("{\"runs\": 1, \"apk\": \"a.apk\"}", workerPool.run(new String[]{"a.apk"}, logger));
+        Assertions.assertEquals("{\"runs\": 2, \"apk\": \"b.apk\"}", workerPool.run(new String[]{"b.apk"}, logger));
+        Assertions.assertEquals(1, workerPool.getStartedWorkerCount());
+    }
+
+    @Test
+    void replaceCrashedWorker() throws Exception {
+        Assertions.assertThrows(IOException.class, () -> workerPool.run(new String[]{"crash"}, logger));
+        Assertions.assertEquals("{\"runs\": 1, \"apk\": \"a.apk\"}", workerPool.run(new String[]{"a.apk"}, logger));
+        Assertions.assertEquals(2, workerPool.getStartedWorkerCount());
+    }
+
+    private static boolean isPythonAvailable() {
+        try {
+            return new ProcessBuilder("python", "--version").start().waitFor() == 0;
+        } catch (IOException | InterruptedException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+
+package com.microsoft.hydralab.agent.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class AgentMessageDispatcherTest {
+    private AgentMessageDispatcher messageDispatcher;
+
+    @BeforeEach
+    void setUp() {
+        messageDispatcher = new AgentMessageDispatcher();
+        messageDispatcher.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        messageDispatcher.stop();
+    }
+
+    @Test
+    void controlMessageIsNotBlockedByTask() throws InterruptedException {
+        CountDownLatch downloadLatch = new CountDownLatch(1);
+        CountDownLatch heartbeatLatch = new CountDownLatch(1);
+        messageDispatcher.dispatchTask("task_1", "run", () -> {
+            try {
+                // a long package download
+                downloadLatch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        messageDispatcher.dispatchControl("heartbeat", heartbeatLatch::countDown);
+
+        Assertions.assertTrue(heartbeatLatch.await(5, TimeUnit.SECONDS), "Heartbeat should be handled while the task is running");
+        downloadLatch.countDown();
+    }
+
+    @Test
+    void operationsOfOneTaskRunInOrder() throws InterruptedException {
+        List<Integer> operations = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch doneLatch = new CountDownLatch(1);
+        for (int i = 0; i < 100; i++) {
+            int index = i;
+            messageDispatcher.dispatchTask("task_1", "operation", () -> operations.add(index));
+        }
+        messageDispatcher.dispatchTask("task_1", "done", doneLatch::countDown);
+
+        Assertions.assertTrue(doneLatch.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < operations.size(); i++) {
+            Assertions.assertEquals(i, operations.get(i));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+
+package com.microsoft.hydralab.agent.service;
+
+import com.microsoft.hydralab.agent.config.AppOptions;
+import com.microsoft.hydralab.common.entity.common.StorageFileInfo;
+import com.microsoft.hydralab.common.file.StorageServiceClientProxy;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.springframework.util.DigestUtils;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.any;
+
+public class TestPackageCacheServiceTest {
+    private static final int TASK_COUNT = 8;
+    private final AtomicInteger downloadCount = new AtomicInteger();
+    private TestPackageCacheService testPackageCacheService;
+    @TempDir
+    File tempDir;
+
+    @BeforeEach
+    void setUp() {
+        AppOptions appOptions = new AppOptions();
+        appOptions.setLocation(tempDir.getAbsolutePath());
+        StorageServiceClientProxy storageServiceClientProxy = Mockito.mock(StorageServiceClientProxy.class);
+        Mockito.doAnswer(invocation -> {
+            File file = invocation.getArgument(0);
+            StorageFileInfo attachment = invocation.getArgument(1);
+            downloadCount.incrementAndGet();
+            // slow enough for the other tasks to ask for the same package while it is downloading
+            Thread.sleep(200);
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), attachment.getFileName().getBytes(StandardCharsets.UTF_8));
+            return attachment;
+        }).when(storageServiceClientProxy).download(any(File.class), any(StorageFileInfo.class));
+
+        testPackageCacheService = new TestPackageCacheService();
+        testPackageCacheService.appOptions = appOptions;
+        testPackageCacheService.storageServiceClientProxy = storageServiceClientProxy;
+        testPackageCacheService.maxSizeMb = 0;
+        testPackageCacheService.loadCachedPackages();
+    }
+
+    @Test
+    void concurrentCheckoutsShareOneDownload() throws Exception {
+        StorageFileInfo attachment = createAttachment("app.apk");
+        CountDownLatch startLatch = new CountDownLatch(1);
+        List<File> taskFiles = new ArrayList<>();
+        List<Thread> tasks = new ArrayList<>();
+        for (int i = 0; i < TASK_COUNT; i++) {
+            String taskId = "task_" + i;
+            Thread task = new Thread(() -> {
+                try {
+                    startLatch.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                File taskFile = testPackageCacheService.checkout(attachment, taskId);
+                synchronized (taskFiles) {
+                    taskFiles.add(taskFile);
+                }
+            });
+            tasks.add(task);
+            task.start();
+        }
+        startLatch.countDown();
+        for (Thread task : tasks) {
+            task.join();
+        }
+
+        Assertions.assertEquals(1, downloadCount.get(), "The same package should be downloaded once");
+        Assertions.assertEquals(TASK_COUNT, taskFiles.size());
+        for (File taskFile : taskFiles) {
+            Assertions.assertEquals("app.apk", new String(Files.readAllBytes(taskFile.toPath()), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void checkedOutPackageIsNotEvicted() {
+        StorageFileInfo attachment = createAttachment("app.apk");
+        File taskFile1 = testPackageCacheService.checkout(attachment, "task_1");
+        File taskFile2 = testPackageCacheService.checkout(attachment, "task_2");
+        Assertions.assertEquals(1, downloadCount.get());
+
+        // the cache size limit is 0, but task_2 still holds the package
+        testPackageCacheService.release("task_1");
+        Assertions.assertFalse(taskFile1.exists());
+        Assertions.assertTrue(taskFile2.exists());
+        Assertions.assertTrue(testPackageCacheService.getCachedSize() > 0);
+
+        testPackageCacheService.release("task_2");
+        Assertions.assertFalse(taskFile2.exists());
+        Assertions.assertEquals(0, testPackageCacheService.getCachedSize());
+
+        testPackageCacheService.checkout(attachment, "task_3");
+        Assertions.assertEquals(2, downloadCount.get(), "The evicted package should be downloaded again");
+    }
+
+    private StorageFileInfo createAttachment(String fileName) {
+        StorageFileInfo attachment = new StorageFileInfo();
+        attachment.setFileName(fileName);
+        attachment.setBlobPath("test/package/" + fileName);
+        attachment.setMd5(DigestUtils.md5DigestAsHex(fileName.getBytes(StandardCharsets.UTF_8)));
+        return attachment;
+    }
+}
@@ -0,0 +1,72 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+
+package com.microsoft.hydralab.agent.service;
+
+import com.microsoft.hydralab.common.entity.common.EntityType;
+import com.microsoft.hydralab.common.entity.common.StorageFileInfo;
+import com.microsoft.hydralab.common.entity.common.TestRun;
+import com.microsoft.hydralab.common.util.AttachmentService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class TestResultUploadServiceTest {
+    private final Logger logger = LoggerFactory.getLogger(TestResultUploadServiceTest.class);
+    @TempDir
+    File tempDir;
+
+    @Test
+    void uploadTestRunResultInOneBatch() throws Exception {
+        File resultFolder = new File(tempDir, "task_1/serial_1");
+        Assertions.assertTrue(new File(resultFolder, "screenshots").mkdirs());
+        Files.write(new File(resultFolder, "screenshots/1.png").toPath(), "png".getBytes(StandardCharsets.UTF_8));
+        for (String fileName : Arrays.asList("instrument.log", "logcat.log", "video.mp4")) {
+            Files.write(new File(resultFolder, fileName).toPath(), fileName.getBytes(StandardCharsets.UTF_8));
+        }
+        List<String> listedNames = Arrays.stream(resultFolder.listFiles())
+                .map(file -> file.isDirectory() ? file.getName() + ".zip" : file.getName())
+                .collect(Collectors.toList());
+
+        AttachmentService attachmentService = Mockito.mock(AttachmentService.class);
+        Mockito.when(attachmentService.saveFileInStorage(any(StorageFileInfo.class), any(File.class), any(EntityType.class), any(Logger.class)))
+                .thenAnswer(invocation -> {
+                    StorageFileInfo storageFileInfo = invocation.getArgument(0);
+                    storageFileInfo.setBlobUrl("https://storage/" + storageFileInfo.getBlobPath());
+                    storageFileInfo.setCDNUrl(storageFileInfo.getBlobUrl());
+                    return storageFileInfo;
+                });
+        TestResultUploadService testResultUploadService = new TestResultUploadService();
+        testResultUploadService.attachmentService = attachmentService;
+        testResultUploadService.start();
+
+        TestRun testRun = new TestRun("serial_1", "device", "task_1");
+        testRun.setResultFolder(resultFolder);
+        testResultUploadService.uploadTestRunResult("task_1", testRun, logger);
+        testResultUploadService.getTaskUploadFuture("task_1").get(30, TimeUnit.SECONDS);
+        testResultUploadService.stop();
+
+        verify(attachmentService, times(listedNames.size()))
+                .saveFileInStorage(any(StorageFileInfo.class), any(File.class), any(EntityType.class), any(Logger.class));
+        verify(attachmentService, times(1)).saveFileInfos(anyList());
+        List<String> attachmentNames = testRun.getAttachments().stream().map(StorageFileInfo::getFileName).collect(Collectors.toList());
+        Assertions.assertEquals(listedNames, attachmentNames, "Attachments should keep the order of the result files");
+        Assertions.assertEquals("https://storage/test/result/task_1/serial_1", testRun.getDeviceTestResultFolderUrl());
+    }
+}
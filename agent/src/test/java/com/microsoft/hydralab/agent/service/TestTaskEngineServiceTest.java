@@ -2,6 +2,7 @@ package com.microsoft.hydralab.agent.service;
 
 import com.microsoft.hydralab.agent.config.TestRunnerConfig;
 import com.microsoft.hydralab.agent.runner.TestRunner;
+import com.microsoft.hydralab.agent.runner.TestTaskRunCallback;
 import com.microsoft.hydralab.agent.runner.espresso.EspressoRunner;
 import com.microsoft.hydralab.agent.test.BaseTest;
 import com.microsoft.hydralab.common.entity.common.TestTaskSpec;
@@ -11,6 +12,7 @@ import com.microsoft.hydralab.common.management.device.TestDeviceManager;
 import com.microsoft.hydralab.common.management.device.impl.AndroidTestDeviceManager;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.ApplicationContext;
 
@@ -52,6 +54,23 @@ public class TestTaskEngineServiceTest extends BaseTest {
         testTaskEngineService.runTestTask(taskSpecForSingleDevice);
     }
 
+    @Test
+    public void saveTaskResultReportsTaskWhenSaveFails() {
+        TestTaskEngineService engineService = new TestTaskEngineService();
+        engineService.testDataService = Mockito.mock(TestDataService.class);
+        engineService.webSocketCallback = Mockito.mock(TestTaskRunCallback.class);
+        TestTask testTask = new TestTask();
+        testTask.setId("task_1");
+        testTask.setStatus(TestTask.TestStatus.RUNNING);
+        Mockito.doThrow(new IllegalStateException("DB error")).when(engineService.testDataService).saveTestTaskData(testTask);
+
+        engineService.getRunningTestTask().put(testTask.getId(), testTask);
+        engineService.saveTaskResult(testTask);
+
+        Mockito.verify(engineService.webSocketCallback).onTaskComplete(testTask);
+        Assertions.assertFalse(engineService.getRunningTestTask().containsKey(testTask.getId()), "The failed task should be removed");
+    }
+
     @Test
     public void getDeviceManager() {
         baseLogger.info(String.valueOf(testDeviceManager instanceof AndroidTestDeviceManager));
@@ -4,11 +4,18 @@
 package com.microsoft.hydralab.center.config;
 
 import com.microsoft.hydralab.center.service.DeviceAgentManagementService;
+import com.microsoft.hydralab.center.service.DeviceGroupService;
+import com.microsoft.hydralab.center.service.TestTaskPersistService;
+import com.microsoft.hydralab.center.service.TestTaskStatusStreamService;
 import com.microsoft.hydralab.center.util.MetricUtil;
+import com.microsoft.hydralab.common.repository.KeyValueRepository;
 import lombok.extern.slf4j.Slf4j;
+import net.sf.ehcache.Ehcache;
 import org.jetbrains.annotations.NotNull;
 import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.context.annotation.Profile;
 import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Component;
@@ -27,6 +34,14 @@ public class ContextStartup implements ApplicationRunner, ServletContextAware {
     MetricUtil metricUtil;
     @Resource
     DeviceAgentManagementService deviceAgentManagementService;
+    @Resource
+    DeviceGroupService deviceGroupService;
+    @Resource
+    TestTaskPersistService testTaskPersistService;
+    @Resource
+    TestTaskStatusStreamService testTaskStatusStreamService;
+    @Resource
+    CacheManager cacheManager;
     private ServletContext servletContext;
 
     @Override
@@ -39,6 +54,13 @@ public class ContextStartup implements ApplicationRunner, ServletContextAware {
     private void initMetricCollect(DeviceAgentManagementService deviceAgentManagementService) {
         metricUtil.registerOnlineAgent(deviceAgentManagementService);
         metricUtil.registerOnlineDevice(deviceAgentManagementService);
+        metricUtil.registerDeviceGroupRelationNum(deviceGroupService);
+        metricUtil.registerTestTaskPersistQueueDepth(testTaskPersistService);
+        metricUtil.registerTestTaskStatusSubscriberNum(testTaskStatusStreamService);
+        Cache keyValueCache = cacheManager.getCache(KeyValueRepository.CACHE_NAME);
+        if (keyValueCache != null && keyValueCache.getNativeCache() instanceof Ehcache) {
+            metricUtil.registerKeyValueCacheMetrics((Ehcache) keyValueCache.getNativeCache());
+        }
     }
 
     @Override
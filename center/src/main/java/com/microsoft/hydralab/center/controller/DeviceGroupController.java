@@ -119,6 +119,7 @@ public class DeviceGroupController {
             DeviceGroup deviceGroup = deviceGroupService.getGroupByName(groupName);
             deviceGroup.setIsPrivate(true);
             deviceGroupService.updateGroup(deviceGroup);
+            deviceAgentManagementService.markDeviceGroupInventoryChanged();
             return Result.ok(deviceGroup);
         } catch (IllegalArgumentException e) {
             return Result.error(HttpStatus.BAD_REQUEST.value(), e);
@@ -145,6 +146,7 @@ public class DeviceGroupController {
             DeviceGroup deviceGroup = deviceGroupService.getGroupByName(groupName);
             deviceGroup.setIsPrivate(false);
             deviceGroupService.updateGroup(deviceGroup);
+            deviceAgentManagementService.markDeviceGroupInventoryChanged();
             return Result.ok(deviceGroup);
         } catch (IllegalArgumentException e) {
             return Result.error(HttpStatus.BAD_REQUEST.value(), e);
@@ -4,15 +4,12 @@
 package com.microsoft.hydralab.center.controller;
 
 import com.alibaba.fastjson.JSONObject;
-import com.microsoft.hydralab.center.service.AgentManageService;
 import com.microsoft.hydralab.center.service.DeviceAgentManagementService;
+import com.microsoft.hydralab.center.service.DeviceInventorySnapshot;
 import com.microsoft.hydralab.center.service.SysUserService;
-import com.microsoft.hydralab.center.service.UserTeamManagementService;
 import com.microsoft.hydralab.common.entity.agent.Result;
 import com.microsoft.hydralab.common.entity.center.AgentDeviceGroup;
-import com.microsoft.hydralab.common.entity.center.DeviceGroup;
 import com.microsoft.hydralab.common.entity.center.SysUser;
-import com.microsoft.hydralab.common.entity.common.DeviceInfo;
 import com.microsoft.hydralab.common.util.Const;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
@@ -23,72 +20,50 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 import javax.annotation.Resource;
-import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Set;
 
 @RestController
 @Slf4j
 public class DeviceManageController {
-    @Resource
-    AgentManageService agentManageService;
     @Resource
     private DeviceAgentManagementService deviceAgentManagementService;
     @Resource
     private SysUserService sysUserService;
-    @Resource
-    private UserTeamManagementService userTeamManagementService;
 
     /**
      * Authenticated USER: all
      * Data access:
      * 1) For users with ROLE SUPER_ADMIN/ADMIN, return all agents with devices connected.
      * 2) For the rest users, return agents with non-private devices, and agents with devices connected that are in user's TEAMs.
+     * Served from the device inventory snapshot with an ETag, a request with a matching If-None-Match gets 304.
      */
     @GetMapping(Const.Path.DEVICE_LIST)
-    public Result<List<AgentDeviceGroup>> list(@CurrentSecurityContext SysUser requestor) {
+    public Result<List<AgentDeviceGroup>> list(@CurrentSecurityContext SysUser requestor, WebRequest webRequest) {
         if (requestor == null) {
             return Result.error(HttpStatus.UNAUTHORIZED.value(), "Authentication failed");
         }
 
-        deviceAgentManagementService.requestAllAgentDeviceListUpdate();
-        List<AgentDeviceGroup> deviceGroupList = deviceAgentManagementService.getAgentDeviceGroups();
-        if (!sysUserService.checkUserAdmin(requestor)) {
-            deviceGroupList.forEach(agentDeviceGroup -> {
-                if (!userTeamManagementService.checkRequestorTeamRelation(requestor, agentDeviceGroup.getTeamId())) {
-                    List<DeviceInfo> devices = agentDeviceGroup.getDevices();
-                    List<DeviceInfo> newDevices = new ArrayList<>();
-                    devices.forEach(device -> {
-                        if (!device.getIsPrivate()) {
-                            newDevices.add(device);
-                        }
-                    });
-                    agentDeviceGroup.setDevices(newDevices);
-                }
-            });
+        DeviceInventorySnapshot snapshot = deviceAgentManagementService.getDeviceInventorySnapshot();
+        Set<String> teamIds = requestor.getTeamAdminMap().keySet();
+        String scope = DeviceInventorySnapshot.getScope(sysUserService.checkUserAdmin(requestor), teamIds);
+        if (webRequest.checkNotModified(snapshot.getETag(scope))) {
+            return null;
         }
-        deviceGroupList = deviceGroupList.stream()
-                .filter(agentDeviceGroup -> agentDeviceGroup.getDevices() != null && agentDeviceGroup.getDevices().size() > 0)
-                .sorted(Comparator.comparing(AgentDeviceGroup::getAgentDeviceType)
-                        .thenComparing((a, b) -> b.getDevices().size() - a.getDevices().size()))
-                .collect(Collectors.toList());
-
-        return Result.ok(deviceGroupList);
+        return Result.ok(snapshot.getAgentDeviceGroups(scope, teamIds));
     }
 
     @PreAuthorize("hasAnyAuthority('SUPER_ADMIN','ADMIN')")
     @GetMapping("/api/device/listAll")
-    public Result<List<AgentDeviceGroup>> queryActiveAgent() {
-        deviceAgentManagementService.requestAllAgentDeviceListUpdate();
-        List<AgentDeviceGroup> deviceGroupList = deviceAgentManagementService.getAgentDeviceGroups();
-        deviceGroupList = deviceGroupList.stream()
-                .sorted(Comparator.comparing(AgentDeviceGroup::getAgentDeviceType)
-                        .thenComparing((a, b) -> b.getDevices().size() - a.getDevices().size()))
-                .collect(Collectors.toList());
-        return Result.ok(deviceGroupList);
+    public Result<List<AgentDeviceGroup>> queryActiveAgent(WebRequest webRequest) {
+        DeviceInventorySnapshot snapshot = deviceAgentManagementService.getDeviceInventorySnapshot();
+        if (webRequest.checkNotModified(snapshot.getETag(DeviceInventorySnapshot.ADMIN_SCOPE))) {
+            return null;
+        }
+        return Result.ok(snapshot.getAllAgentDeviceGroups());
     }
 
     /**
@@ -96,37 +71,21 @@ public class DeviceManageController {
      * Data access:
      * 1) For users with ROLE SUPER_ADMIN/ADMIN, return all devices/groups/appium agents that can run test currently.
      * 2) For the rest users, return non-private or user TEAMs' devices/groups/APPIUM-support agents.
+     * Served from the device inventory snapshot with an ETag, a request with a matching If-None-Match gets 304.
      */
     @GetMapping("/api/device/runnable")
-    public Result<JSONObject> getGroupAndDevice(@CurrentSecurityContext SysUser requestor) {
+    public Result<JSONObject> getGroupAndDevice(@CurrentSecurityContext SysUser requestor, WebRequest webRequest) {
         if (requestor == null) {
             return Result.error(HttpStatus.UNAUTHORIZED.value(), "Authentication failed");
         }
 
-        deviceAgentManagementService.requestAllAgentDeviceListUpdate();
-        JSONObject res = new JSONObject();
-        List<DeviceGroup> groupList = deviceAgentManagementService.getAllGroup();
-        List<AgentDeviceGroup> agentDeviceList = deviceAgentManagementService.getAllAppiumAgents();
-        List<DeviceInfo> deviceList = deviceAgentManagementService.getAllDevice();
-
-        if (!sysUserService.checkUserAdmin(requestor)) {
-            groupList = groupList.stream()
-                    .filter(group -> userTeamManagementService.checkRequestorTeamRelation(requestor, group.getTeamId())
-                            || !group.getIsPrivate())
-                    .collect(Collectors.toList());
-            agentDeviceList = agentDeviceList.stream()
-                    .filter(agentDeviceGroup -> userTeamManagementService.checkRequestorTeamRelation(requestor, agentDeviceGroup.getTeamId()))
-                    .collect(Collectors.toList());
-            deviceList = deviceList.stream()
-                    .filter(device -> userTeamManagementService.checkRequestorTeamRelation(requestor, agentManageService.getAgent(device.getAgentId()).getTeamId())
-                            || !device.getIsPrivate())
-                    .collect(Collectors.toList());
+        DeviceInventorySnapshot snapshot = deviceAgentManagementService.getDeviceInventorySnapshot();
+        Set<String> teamIds = requestor.getTeamAdminMap().keySet();
+        String scope = DeviceInventorySnapshot.getScope(sysUserService.checkUserAdmin(requestor), teamIds);
+        if (webRequest.checkNotModified(snapshot.getETag(scope))) {
+            return null;
         }
-
-        res.put(Const.Param.GROUP, groupList);
-        res.put(Const.Param.TEST_DEVICE_SN, deviceList);
-        res.put(Const.Param.AGENT, agentDeviceList);
-        return Result.ok(res);
+        return Result.ok(snapshot.getRunnableDevices(scope, teamIds));
     }
 
     /**
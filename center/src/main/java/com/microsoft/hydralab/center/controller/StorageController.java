@@ -18,6 +18,7 @@ import org.springframework.security.core.annotation.CurrentSecurityContext;
 import org.springframework.util.AntPathMatcher;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
@@ -74,6 +75,39 @@ public class StorageController {
         return Result.ok(fileUri);
     }
 
+    // used by center/agent to stream a file in chunks without multipart parsing, a failed chunk can be resent from the returned size
+    @PutMapping(Const.LocalStorageURL.CENTER_LOCAL_STORAGE_UPLOAD_CHUNK)
+    public Result<Long> uploadFileChunk(HttpServletRequest request,
+                                        @RequestParam("fileUri") String fileUri,
+                                        @RequestParam("offset") long offset,
+                                        @RequestParam("totalSize") long totalSize) {
+        String storageToken = request.getHeader("Authorization");
+        if (storageToken != null) {
+            storageToken = storageToken.replaceAll("Bearer ", "");
+        } else {
+            return Result.error(HttpStatus.UNAUTHORIZED.value(), "Invalid visit with no auth code");
+        }
+        if (!storageTokenManageService.validateAccessToken(storageToken)) {
+            return Result.error(HttpStatus.UNAUTHORIZED.value(), "Unauthorized, error access token for storage actions.");
+        }
+        if (!LogUtils.isLegalStr(fileUri, Const.RegexString.STORAGE_FILE_REL_PATH, false)) {
+            return Result.error(HttpStatus.BAD_REQUEST.value(), "Invalid file path, file name should not include ';'!");
+        }
+
+        long uploadedSize;
+        try {
+            uploadedSize = LocalStorageIOUtil.copyUploadedChunkToFile(request.getInputStream(), fileUri, offset, totalSize);
+        } catch (HydraLabRuntimeException e) {
+            logger.error(e.getMessage(), e);
+            return Result.error(e.getCode(), e.getMessage());
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+            return Result.error(HttpStatus.INTERNAL_SERVER_ERROR.value(), e.getMessage());
+        }
+
+        return Result.ok(uploadedSize);
+    }
+
 
     // used by center/agent
     @PostMapping(Const.LocalStorageURL.CENTER_LOCAL_STORAGE_DOWNLOAD)
@@ -101,15 +135,9 @@ public class StorageController {
         response.reset();
         response.setContentType("application/octet-stream");
         response.setCharacterEncoding("utf-8");
-        response.setContentLength((int) file.length());
         response.setHeader("Content-Disposition", "attachment;filename=" + file.getName());
 
-        int resLen;
-        try {
-            resLen = LocalStorageIOUtil.copyDownloadedStreamToResponse(file, response.getOutputStream());
-        } catch (IOException e) {
-            throw new HydraLabRuntimeException(HttpStatus.INTERNAL_SERVER_ERROR.value(), e.getMessage());
-        }
+        long resLen = LocalStorageIOUtil.copyFileToResponse(file, request, response);
         logger.info(String.format("Output file: %s , size: %d!", fileUri, resLen));
     }
 
@@ -139,15 +167,9 @@ public class StorageController {
         response.reset();
         response.setContentType("application/octet-stream");
         response.setCharacterEncoding("utf-8");
-        response.setContentLength((int) file.length());
         response.setHeader("Content-Disposition", "attachment;filename=" + file.getName());
 
-        int resLen;
-        try {
-            resLen = LocalStorageIOUtil.copyDownloadedStreamToResponse(file, response.getOutputStream());
-        } catch (IOException e) {
-            throw new HydraLabRuntimeException(HttpStatus.INTERNAL_SERVER_ERROR.value(), e.getMessage());
-        }
+        long resLen = LocalStorageIOUtil.copyFileToResponse(file, request, response);
         logger.info(String.format("Output file: %s , size: %d!", fileUri, resLen));
     }
 
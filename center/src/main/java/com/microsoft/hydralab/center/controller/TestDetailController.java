@@ -10,6 +10,7 @@ import com.microsoft.hydralab.center.service.StorageTokenManageService;
 import com.microsoft.hydralab.center.service.TestDataService;
 import com.microsoft.hydralab.common.entity.agent.Result;
 import com.microsoft.hydralab.common.entity.center.SysUser;
+import com.microsoft.hydralab.common.entity.center.TestUnitPage;
 import com.microsoft.hydralab.common.entity.common.AndroidTestUnit;
 import com.microsoft.hydralab.common.entity.common.CriteriaType;
 import com.microsoft.hydralab.common.entity.common.PerformanceTestResultEntity;
@@ -33,6 +34,7 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.annotation.Resource;
@@ -169,6 +171,45 @@ public class TestDetailController {
         }
     }
 
+    /**
+     * Authenticated USER:
+     * 1) users with ROLE SUPER_ADMIN/ADMIN,
+     * 2) members of the TEAM that TestRun is in
+     * Returns a page of the test units of the run in start time order, pass the nextCursor of a page to get the following one.
+     */
+    @GetMapping(value = {"/api/test/task/device/{deviceTaskId}/units"}, produces = MediaType.APPLICATION_JSON_VALUE)
+    public Result<TestUnitPage> deviceTaskUnits(@CurrentSecurityContext SysUser requestor,
+                                                @PathVariable("deviceTaskId") String deviceTaskId,
+                                                @RequestParam(value = "success", required = false) Boolean success,
+                                                @RequestParam(value = "statusCode", required = false) Integer statusCode,
+                                                @RequestParam(value = "testedClass", required = false) String testedClass,
+                                                @RequestParam(value = "startTime", required = false) Long startTime,
+                                                @RequestParam(value = "endTime", required = false) Long endTime,
+                                                @RequestParam(value = "cursor", required = false) String cursor,
+                                                @RequestParam(value = "size", defaultValue = "100") int size) {
+        try {
+            if (requestor == null) {
+                return Result.error(HttpStatus.UNAUTHORIZED.value(), "unauthorized");
+            }
+            if (!LogUtils.isLegalStr(deviceTaskId, Const.RegexString.UUID, false)) {
+                return Result.error(HttpStatus.INTERNAL_SERVER_ERROR.value(), "Error param! Should be UUID");
+            }
+            TestRun testRun = testDataService.getTestRun(deviceTaskId);
+            if (testRun == null) {
+                return Result.error(HttpStatus.BAD_REQUEST.value(), "The TestRun doesn't exist!");
+            }
+            testDataService.checkTestDataAuthorization(requestor, testRun.getTestTaskId());
+
+            return Result.ok(testDataService.getTestUnits(deviceTaskId, success, statusCode, testedClass, startTime, endTime, cursor, size));
+        } catch (HydraLabRuntimeException e) {
+            logger.error(e.getMessage(), e);
+            return Result.error(e.getCode(), e.getMessage());
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            return Result.error(HttpStatus.INTERNAL_SERVER_ERROR.value(), e);
+        }
+    }
+
     @GetMapping(value = {"/api/test/performance/{fileId}"})
     public Result getPerformanceTestReport(@CurrentSecurityContext SysUser requestor,
                                            @PathVariable(value = "fileId") String fileId) {
@@ -10,6 +10,7 @@ import com.microsoft.hydralab.center.service.SysUserService;
 import com.microsoft.hydralab.center.service.TestDataService;
 import com.microsoft.hydralab.center.service.TestFileSetService;
 import com.microsoft.hydralab.center.service.TestTaskService;
+import com.microsoft.hydralab.center.service.TestTaskStatusStreamService;
 import com.microsoft.hydralab.center.service.UserTeamManagementService;
 import com.microsoft.hydralab.common.entity.agent.Result;
 import com.microsoft.hydralab.common.entity.center.SysUser;
@@ -26,6 +27,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.data.domain.Page;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.CurrentSecurityContext;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -34,6 +36,7 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import javax.annotation.Resource;
 import java.util.ArrayList;
@@ -56,6 +59,8 @@ public class TestTaskController {
     @Resource
     SysUserService sysUserService;
     @Resource
+    TestTaskStatusStreamService testTaskStatusStreamService;
+    @Resource
     private UserTeamManagementService userTeamManagementService;
 
     /**
@@ -92,6 +97,7 @@ public class TestTaskController {
                 if (result.get(Const.Param.TEST_DEVICE_SN) == null) {
                     //if there is no alive device, the task will be added to the queue directly
                     testTaskService.addTask(testTaskSpec);
+                    testTaskService.onTaskQueued(testTaskSpec.deviceIdentifier);
                 } else {
                     TestTask testTask = TestTask.convertToTestTask(testTaskSpec);
                     testTask.setTestDevicesCount(result.getString(Const.Param.TEST_DEVICE_SN).split(",").length);
@@ -99,6 +105,7 @@ public class TestTaskController {
                 }
             } else {
                 testTaskService.addTask(testTaskSpec);
+                testTaskService.onTaskQueued(testTaskSpec.deviceIdentifier);
             }
             if (result.get(Const.Param.TEST_DEVICE_SN) == null) {
                 result.put("message", "Device is under testing, test task has been added to a queue, please wait for a minute!");
@@ -153,6 +160,46 @@ public class TestTaskController {
         }
     }
 
+    /**
+     * Authenticated USER:
+     * 1) users with ROLE SUPER_ADMIN/ADMIN,
+     * 2) members of the TEAM that TestTask is in
+     * Streams the status of the task as server-sent events instead of polling {@link #getTaskStatus}, see {@link TestTaskStatusStreamService}.
+     * A rejected subscription is answered with the HTTP status only, as the response is not an event stream then,
+     * 503 if the center already streams to as many clients as allowed.
+     */
+    @GetMapping(value = {"/api/test/task/{testId}/events"}, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> subscribeTaskStatus(@CurrentSecurityContext SysUser requestor,
+                                                          @PathVariable("testId") String testId) {
+        try {
+            if (requestor == null) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+            }
+            String teamId;
+            TestTaskQueuedInfo queuedInfo = testTaskService.getTestQueuedInfo(testId);
+            if (queuedInfo.getTestTaskSpec() != null) {
+                teamId = queuedInfo.getTestTaskSpec().teamId;
+            } else {
+                TestTask testTask = testDataService.getTestTaskDetail(testId);
+                if (testTask == null) {
+                    return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+                }
+                teamId = testTask.getTeamId();
+            }
+            if (!sysUserService.checkUserAdmin(requestor) && !userTeamManagementService.checkRequestorTeamRelation(requestor, teamId)) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+            }
+            SseEmitter emitter = testTaskStatusStreamService.subscribe(testId);
+            if (emitter == null) {
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+            }
+            return ResponseEntity.ok(emitter);
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
     /**
      * Authenticated USER: all
      * Data access:
@@ -19,6 +19,7 @@ import com.microsoft.hydralab.common.entity.common.AgentMetadata;
 import com.microsoft.hydralab.common.entity.common.AgentUpdateTask;
 import com.microsoft.hydralab.common.entity.common.AgentUser;
 import com.microsoft.hydralab.common.entity.common.DeviceInfo;
+import com.microsoft.hydralab.common.entity.common.DeviceListDelta;
 import com.microsoft.hydralab.common.entity.common.Message;
 import com.microsoft.hydralab.common.entity.common.StatisticData;
 import com.microsoft.hydralab.common.entity.common.StorageFileInfo;
@@ -27,6 +28,7 @@ import com.microsoft.hydralab.common.entity.common.TestTask;
 import com.microsoft.hydralab.common.entity.common.TestTaskSpec;
 import com.microsoft.hydralab.common.file.StorageServiceClientProxy;
 import com.microsoft.hydralab.common.repository.StatisticDataRepository;
+import com.microsoft.hydralab.common.serialize.MessageCodec;
 import com.microsoft.hydralab.common.repository.StorageFileInfoRepository;
 import com.microsoft.hydralab.common.util.AttachmentService;
 import com.microsoft.hydralab.common.util.Const;
@@ -55,13 +57,15 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import static com.microsoft.hydralab.center.util.CenterConstant.CENTER_FILE_BASE_DIR;
@@ -76,16 +80,25 @@ public class DeviceAgentManagementService {
 
     //save agent session <sessionId,session&agentUser>
     private final ConcurrentHashMap<String, AgentSessionInfo> agentSessionMap = new ConcurrentHashMap<>();
+    //index of agentSessionMap by agent <agentId,session&agentUser>
+    private final ConcurrentHashMap<String, AgentSessionInfo> agentIdSessionMap = new ConcurrentHashMap<>();
     //save agent info <agentId,agentInfo>
     private final ConcurrentHashMap<String, AgentDeviceGroup> agentDeviceGroups = new ConcurrentHashMap<>();
-    //save group&device relation <groupName,deviceSerials>
-    private final ConcurrentHashMap<String, Set<String>> deviceGroupListMap = new ConcurrentHashMap<>();
     //save device info <deviceSerial,deviceInfo>
     private final ConcurrentHashMap<String, DeviceInfo> deviceListMap = new ConcurrentHashMap<>();
     //save access info <deviceSerial/groupName,accessInfo>
     private final ConcurrentHashMap<String, AccessInfo> accessInfoMap = new ConcurrentHashMap<>();
     //save agent update info <agentId,updateTask>
     private final ConcurrentHashMap<String, AgentUpdateTask> agentUpdateMap = new ConcurrentHashMap<>();
+    //save the agent copies of the device inventory snapshot <agentId,agentInfo>, guarded by itself
+    private final Map<String, AgentDeviceGroup> inventoryAgentDeviceGroups = new HashMap<>();
+    //agents changed since the last device inventory snapshot
+    private final Set<String> changedInventoryAgentIds = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean inventoryDeviceGroupsChanged = new AtomicBoolean(true);
+    private final AtomicLong inventoryVersion = new AtomicLong();
+    private final String inventoryEpoch = Long.toHexString(System.currentTimeMillis());
+    private List<DeviceGroup> inventoryDeviceGroups = Collections.emptyList();
+    private volatile DeviceInventorySnapshot deviceInventorySnapshot;
     @Resource
     MetricUtil metricUtil;
     @Resource
@@ -93,12 +106,14 @@ public class DeviceAgentManagementService {
     @Resource
     AgentUserRepository agentUserRepository;
     @Resource
-    TestDataService testDataService;
-    @Resource
     DeviceGroupService deviceGroupService;
     @Resource
     TestTaskService testTaskService;
     @Resource
+    TestTaskPersistService testTaskPersistService;
+    @Resource
+    TestTaskStatusStreamService testTaskStatusStreamService;
+    @Resource
     StorageFileInfoRepository storageFileInfoRepository;
     @Resource
     AttachmentService attachmentService;
@@ -115,7 +130,6 @@ public class DeviceAgentManagementService {
     int accessLimit;
     @Value("${app.batteryStrategy}")
     private String batteryStrategy;
-    private long lastTimeRequest;
     @Value("${management.metrics.export.prometheus.pushgateway.username}")
     private String pushgatewayUsername;
     @Value("${management.metrics.export.prometheus.pushgateway.password}")
@@ -127,19 +141,6 @@ public class DeviceAgentManagementService {
         requestAuth(session);
     }
 
-    public void requestAllAgentDeviceListUpdate() {
-        synchronized (this) {
-            if (System.currentTimeMillis() - lastTimeRequest < TimeUnit.SECONDS.toMillis(5)) {
-                return;
-            }
-            lastTimeRequest = System.currentTimeMillis();
-        }
-
-        for (AgentSessionInfo value : agentSessionMap.values()) {
-            requestList(value.session);
-        }
-    }
-
     @Scheduled(cron = "*/10 * * * * *")
     public void heartbeatAll() {
         for (AgentSessionInfo value : agentSessionMap.values()) {
@@ -148,6 +149,7 @@ public class DeviceAgentManagementService {
     }
 
     private void sendAgentMetadata(Session session, AgentUser agentUser, String signalName) {
+        AgentSessionInfo sessionInfo = agentSessionMap.get(session.getId());
         agentUser.setBatteryStrategy(AgentUser.BatteryStrategy.valueOf(batteryStrategy));
         AgentMetadata data = new AgentMetadata();
         data.setStorageType(storageType);
@@ -159,6 +161,14 @@ public class DeviceAgentManagementService {
         Message message = new Message();
         message.setPath(signalName);
         message.setBody(data);
+        if (sessionInfo != null) {
+            // confirm the negotiated codec, agents switch to it for the messages they send
+            Map<String, Object> params = new HashMap<>();
+            params.put(Const.AgentConfig.MESSAGE_CODEC_PARAM, sessionInfo.messageCodec.getName());
+            // agents only send device list deltas to a center that understands them
+            params.put(Const.AgentConfig.DEVICE_LIST_DELTA_PARAM, true);
+            message.setParams(params);
+        }
         sendMessageToSession(session, message);
     }
 
@@ -185,7 +195,7 @@ public class DeviceAgentManagementService {
                         throw new RuntimeException(e);
                     }
                 }
-                agentSessionMap.put(session.getId(), new AgentSessionInfo(session, agentUser));
+                saveAgentSession(session, agentUser, SerializeUtil.negotiateCodec(getOfferedCodecNames(message)));
                 metricUtil.registerAgentAliveStatusMetric(agentUser);
 
                 log.info("Session {} is saved to map as registered agent, associated agent {}", session.getId(), message.getBody());
@@ -220,6 +230,12 @@ public class DeviceAgentManagementService {
                 if (message.getBody() instanceof JSONArray) {
                     List<DeviceInfo> latestDeviceInfos = ((JSONArray) message.getBody()).toJavaList(DeviceInfo.class);
                     updateAgentDeviceGroup(savedSession, latestDeviceInfos);
+                    applyDeviceListSequence(savedSession, message, latestDeviceInfos);
+                }
+                break;
+            case Const.Path.DEVICE_LIST_DELTA:
+                if (message.getBody() instanceof DeviceListDelta) {
+                    applyDeviceListDelta(savedSession, (DeviceListDelta) message.getBody());
                 }
                 break;
             case Const.Path.DEVICE_UPDATE:
@@ -242,14 +258,19 @@ public class DeviceAgentManagementService {
                     if (!updateMsg.isProceed) {
                         tempTask.setUpdateStatus(AgentUpdateTask.TaskConst.STATUS_FAIL);
                         agentDeviceGroups.get(savedSession.agentUser.getId()).setAgentStatus(AgentDeviceGroup.Status.HEALTHY);
+                        markAgentInventoryChanged(savedSession.agentUser.getId());
                     }
                 }
                 break;
             case Const.Path.DEVICE_STATUS:
                 if (message.getBody() instanceof JSONObject) {
                     JSONObject data = (JSONObject) message.getBody();
-                    updateDeviceStatus(data.getString(Const.AgentConfig.SERIAL_PARAM), data.getString(Const.AgentConfig.STATUS_PARAM),
-                            data.getString(Const.AgentConfig.TASK_ID_PARAM));
+                    String serialNum = data.getString(Const.AgentConfig.SERIAL_PARAM);
+                    String status = data.getString(Const.AgentConfig.STATUS_PARAM);
+                    updateDeviceStatus(serialNum, status, data.getString(Const.AgentConfig.TASK_ID_PARAM));
+                    if (DeviceInfo.ONLINE.equals(status)) {
+                        testTaskService.onDeviceAvailable(serialNum);
+                    }
                 }
                 break;
             case Const.Path.ACCESS_INFO:
@@ -262,16 +283,23 @@ public class DeviceAgentManagementService {
                 if (message.getBody() instanceof TestTask) {
                     TestTask testTask = (TestTask) message.getBody();
                     boolean isFinished = testTask.getStatus().equals(TestTask.TestStatus.FINISHED);
-                    testDataService.saveTestTaskDataFromAgent(testTask, isFinished, savedSession.agentUser.getId());
+                    testTaskPersistService.saveTestTaskDataFromAgent(testTask, isFinished, savedSession.agentUser.getId());
+                    testTaskStatusStreamService.publishDeviceResults(testTask);
 
                     //after the task finishing, update the status of device used
                     if (isFinished) {
-                        List<TestRun> deviceTestResults = testTask.getDeviceTestResults();
-                        for (TestRun deviceTestResult : deviceTestResults) {
-                            updateDeviceStatus(deviceTestResult.getDeviceSerialNumber(), DeviceInfo.ONLINE, null);
+                        List<String> releasedSerials = new ArrayList<>();
+                        for (TestRun deviceTestResult : testTask.getDeviceTestResults()) {
+                            // the device may be released earlier by the agent and already run the next task
+                            if (isDeviceRunningTask(deviceTestResult.getDeviceSerialNumber(), testTask.getId())) {
+                                updateDeviceStatus(deviceTestResult.getDeviceSerialNumber(), DeviceInfo.ONLINE, null);
+                                releasedSerials.add(deviceTestResult.getDeviceSerialNumber());
+                            }
+                        }
+                        //run the tasks saved in queue which target the released devices
+                        for (String serialNum : releasedSerials) {
+                            testTaskService.onDeviceAvailable(serialNum);
                         }
-                        //run the task saved in queue
-                        testTaskService.runTask();
                     }
                 }
                 break;
@@ -284,7 +312,7 @@ public class DeviceAgentManagementService {
                     if (testTask.getRetryTime() == Const.AgentConfig.RETRY_TIME) {
                         testTask.setStatus(TestTask.TestStatus.EXCEPTION);
                         testTask.setTestErrorMsg("Device offline!");
-                        testDataService.saveTestTaskData(testTask);
+                        testTaskPersistService.saveTestTaskData(testTask);
                     } else {
                         TestTaskSpec taskSpec = TestTask.convertToTestTaskSpec(testTask);
                         taskSpec.retryTime++;
@@ -310,7 +338,7 @@ public class DeviceAgentManagementService {
     }
 
     public void cancelTestTaskById(String taskId, String reason) {
-        Set<String> agentIds = testDataService.cancelTaskById(taskId, reason);
+        Set<String> agentIds = testTaskPersistService.cancelTaskById(taskId, reason);
         JSONObject data = new JSONObject();
         Message message = new Message();
         data.put(Const.AgentConfig.TASK_ID_PARAM, taskId);
@@ -330,6 +358,7 @@ public class DeviceAgentManagementService {
                     DeviceInfo device = deviceListMap.get(deviceInfo.getSerialNum());
                     device.setStatus(DeviceInfo.ONLINE);
                     deviceInfo.setRunningTaskId(null);
+                    markAgentInventoryChanged(agentId);
                     break;
                 }
             }
@@ -370,25 +399,90 @@ public class DeviceAgentManagementService {
             log.info("Adding info of new agent: {}, device SN: {}", newAgentDeviceGroup.getAgentName(),
                     latestDeviceInfos.stream().map(MobileDevice::getSerialNum).collect(Collectors.joining(",")));
         }
+        markAgentInventoryChanged(savedSession.agentUser.getId());
+        //run the tasks saved in queue which target the reported online devices
+        for (DeviceInfo deviceInfo : latestDeviceInfos) {
+            if (deviceInfo.isOnline()) {
+                testTaskService.onDeviceAvailable(deviceInfo.getSerialNum());
+            }
+        }
     }
 
     public void updateDeviceGroup(List<DeviceInfo> deviceInfos, String agentId) {
+        List<String> newDeviceSerials = new ArrayList<>();
         for (DeviceInfo deviceInfo : deviceInfos) {
             //init agent info
             deviceInfo.setAgentId(agentId);
 
+            DeviceInfo savedDevice = deviceListMap.get(deviceInfo.getSerialNum());
             //if the status saved in master is testing, the value will not be covered
-            if (deviceListMap.get(deviceInfo.getSerialNum()) != null && deviceListMap.get(deviceInfo.getSerialNum()).isTesting()) {
+            if (savedDevice != null && savedDevice.isTesting()) {
                 deviceInfo.setStatus(DeviceInfo.TESTING);
             }
+            //group info of a known device is kept up to date in memory by addDeviceToGroup and deleteDeviceFromGroup
+            if (savedDevice != null) {
+                deviceInfo.setDeviceGroup(savedDevice.getDeviceGroup());
+            } else {
+                newDeviceSerials.add(deviceInfo.getSerialNum());
+            }
 
             deviceListMap.put(deviceInfo.getSerialNum(), deviceInfo);
+        }
+        if (newDeviceSerials.isEmpty()) {
+            return;
+        }
+
+        //init group info of the new devices in one query
+        List<DeviceGroupRelation> groups = deviceGroupService.getGroupByDevices(newDeviceSerials);
+        for (DeviceGroupRelation group : groups) {
+            addDeviceToGroup(group.getGroupName(), group.getDeviceSerial());
+        }
+    }
+
+    private void applyDeviceListSequence(AgentSessionInfo savedSession, Message message, List<DeviceInfo> latestDeviceInfos) {
+        Object sequence = message.getParams() == null ? null : message.getParams().get(Const.AgentConfig.DEVICE_LIST_SEQUENCE_PARAM);
+        savedSession.deviceListResyncRequested = false;
+        if (sequence == null) {
+            // agents without delta support always send the full list
+            savedSession.deviceListSequence = AgentSessionInfo.NO_DEVICE_LIST_SEQUENCE;
+            return;
+        }
+        savedSession.deviceListSequence = Long.parseLong(sequence.toString());
+
+        //a full list is the complete state of the agent, devices missing from it have been removed
+        Set<String> latestSerials = latestDeviceInfos.stream().map(MobileDevice::getSerialNum).collect(Collectors.toSet());
+        AgentDeviceGroup agentDeviceGroup = agentDeviceGroups.get(savedSession.agentUser.getId());
+        List<String> removedSerials = agentDeviceGroup.getDevices().stream().map(MobileDevice::getSerialNum)
+                .filter(serialNum -> !latestSerials.contains(serialNum)).collect(Collectors.toList());
+        markAgentDevicesOffline(savedSession, removedSerials);
+    }
+
+    private void applyDeviceListDelta(AgentSessionInfo savedSession, DeviceListDelta delta) {
+        if (delta.getBaseSequence() != savedSession.deviceListSequence) {
+            //a delta is missed, ask the agent for a full list once and drop the deltas until it arrives
+            if (!savedSession.deviceListResyncRequested) {
+                log.warn("Device list delta of agent {} is out of sequence, expected base {} but got {}, request full list",
+                        savedSession.agentUser.getId(), savedSession.deviceListSequence, delta.getBaseSequence());
+                savedSession.deviceListResyncRequested = true;
+                requestList(savedSession.session);
+            }
+            return;
+        }
+        savedSession.deviceListSequence = delta.getSequence();
+        if (!delta.getUpdatedDevices().isEmpty()) {
+            updateAgentDeviceGroup(savedSession, delta.getUpdatedDevices());
+        }
+        markAgentDevicesOffline(savedSession, delta.getRemovedSerials());
+    }
 
-            //init group info
-            List<DeviceGroupRelation> groups = deviceGroupService.getGroupByDevice(deviceInfo.getSerialNum());
-            for (DeviceGroupRelation group : groups) {
-                addDeviceToGroup(group.getGroupName(), group.getDeviceSerial());
+    private void markAgentDevicesOffline(AgentSessionInfo savedSession, List<String> serialNums) {
+        for (String serialNum : serialNums) {
+            DeviceInfo device = deviceListMap.get(serialNum);
+            if (device == null || !savedSession.agentUser.getId().equals(device.getAgentId()) || device.isOffline()) {
+                continue;
             }
+            log.info("Device {} is removed from agent {}", serialNum, savedSession.agentUser.getId());
+            updateDeviceStatus(serialNum, DeviceInfo.OFFLINE, null);
         }
     }
 
@@ -398,6 +492,8 @@ public class DeviceAgentManagementService {
         if (device == null) {
             return;
         }
+        // the task the device is dispatched to, or the task it is released from
+        String streamTaskId = testTaskId != null ? testTaskId : device.getRunningTaskId();
         device.setStatus(status);
         device.setRunningTaskId(testTaskId);
         for (DeviceInfo deviceInfo : agentDeviceGroups.get(device.getAgentId()).getDevices()) {
@@ -407,7 +503,13 @@ public class DeviceAgentManagementService {
                 break;
             }
         }
+        markAgentInventoryChanged(device.getAgentId());
+        testTaskStatusStreamService.publishDeviceStatus(streamTaskId, serialNum, status);
+    }
 
+    private boolean isDeviceRunningTask(String serialNum, String testTaskId) {
+        DeviceInfo device = deviceListMap.get(serialNum);
+        return device == null || device.getRunningTaskId() == null || device.getRunningTaskId().equals(testTaskId);
     }
 
     //query devices by groupName
@@ -429,34 +531,32 @@ public class DeviceAgentManagementService {
 
     //add group&device relation
     public void addDeviceToGroup(String group, String serialNum) {
-        Set<String> serials = deviceGroupListMap.computeIfAbsent(group, k -> new HashSet<>());
-        serials.add(serialNum);
         DeviceInfo device = deviceListMap.get(serialNum);
         device.getDeviceGroup().add(group);
+        markAgentInventoryChanged(device.getAgentId());
+        markDeviceGroupInventoryChanged();
     }
 
     public Set<String> queryDeviceByGroup(String group) {
-        Set<String> serials = deviceGroupListMap.get(group);
-        if (serials == null) {
-            return new HashSet<>();
-        }
-        return new HashSet<>(serials);
+        return deviceGroupService.getDeviceSerialsByGroup(group);
     }
 
     public List<DeviceInfo> queryDeviceInfoByGroup(String groupName) {
         List<DeviceInfo> devices = new ArrayList<>();
-        Set<String> serials = deviceGroupListMap.get(groupName);
-        serials.forEach(serial -> devices.add(deviceListMap.get(serial)));
+        getRegisteredDeviceSerials(groupName).forEach(serial -> devices.add(deviceListMap.get(serial)));
 
         return devices;
     }
 
+    //the group members of the connected agents, the relations themselves are indexed by DeviceGroupService
+    private Set<String> getRegisteredDeviceSerials(String groupName) {
+        Set<String> serials = deviceGroupService.getDeviceSerialsByGroup(groupName);
+        serials.removeIf(serial -> !deviceListMap.containsKey(serial));
+        return serials;
+    }
+
     public Set<String> queryGroupByDevice(String deviceSerial) {
-        DeviceInfo deviceInfo = deviceListMap.get(deviceSerial);
-        if (deviceInfo == null || deviceInfo.getDeviceGroup() == null) {
-            return new HashSet<>();
-        }
-        return new HashSet<>(deviceInfo.getDeviceGroup());
+        return deviceGroupService.getGroupNamesByDevice(deviceSerial);
     }
 
     //add group&device relation and check device access
@@ -470,40 +570,31 @@ public class DeviceAgentManagementService {
 
     //delete group&device relation
     public void deleteDeviceFromGroup(String group, String serialNum) {
-        Set<String> serials = deviceGroupListMap.get(group);
-        if (serials != null) {
-            serials.remove(serialNum);
-        }
         DeviceInfo device = deviceListMap.get(serialNum);
         if (device != null) {
             device.getDeviceGroup().remove(group);
+            markAgentInventoryChanged(device.getAgentId());
         }
-
+        markDeviceGroupInventoryChanged();
     }
 
     //delete device and group&device relation
     public void removeDevices(List<DeviceInfo> devices) {
         for (DeviceInfo device : devices) {
-            Set<String> groups = device.getDeviceGroup();
-            for (String group : groups) {
-                Set<String> serials = deviceGroupListMap.get(group);
-                if (serials != null) {
-                    serials.remove(device.getSerialNum());
-                }
-            }
             deviceListMap.remove(device.getSerialNum());
+            markAgentInventoryChanged(device.getAgentId());
         }
+        markDeviceGroupInventoryChanged();
     }
 
     //delete group and group&device relation
     public void removeGroup(String groupName) {
-        Set<String> devices = deviceGroupListMap.remove(groupName);
-        if (devices == null) {
-            return;
-        }
-        for (String device : devices) {
-            deviceListMap.get(device).getDeviceGroup().remove(groupName);
+        for (DeviceInfo deviceInfo : deviceListMap.values()) {
+            if (deviceInfo.getDeviceGroup().remove(groupName)) {
+                markAgentInventoryChanged(deviceInfo.getAgentId());
+            }
         }
+        markDeviceGroupInventoryChanged();
     }
 
     //check the serialNum is correct
@@ -568,6 +659,13 @@ public class DeviceAgentManagementService {
         sendMessageToSession(session, message);
     }
 
+    private String getOfferedCodecNames(Message message) {
+        if (message.getParams() == null || message.getParams().get(Const.AgentConfig.MESSAGE_CODEC_PARAM) == null) {
+            return null;
+        }
+        return message.getParams().get(Const.AgentConfig.MESSAGE_CODEC_PARAM).toString();
+    }
+
     private AgentUser searchQualifiedAgent(Message message) {
         Object body = message.getBody();
         if (!(body instanceof AgentUser)) {
@@ -606,17 +704,19 @@ public class DeviceAgentManagementService {
     }
 
     public void deleteSessionAndDevice(Session session) {
-        if (!agentSessionMap.containsKey(session.getId())) {
+        AgentSessionInfo removed = agentSessionMap.get(session.getId());
+        if (removed == null) {
             return;
         }
-        AgentSessionInfo removed = agentSessionMap.remove(session.getId());
-        if (removed == null || removed.agentUser == null) {
+        removeAgentSession(removed);
+        if (removed.agentUser == null) {
             return;
         }
         log.info("Session of agent {} is closed.", removed.agentUser.getName());
         metricUtil.updateAgentAliveStatus(removed.agentUser.getId(), GlobalConstant.AgentLiveStatus.OFFLINE.getStatus());
 
         AgentDeviceGroup agentDeviceGroup = agentDeviceGroups.remove(removed.agentUser.getId());
+        markAgentInventoryChanged(removed.agentUser.getId());
         if (agentDeviceGroup == null || agentDeviceGroup.getDevices() == null) {
             return;
         }
@@ -624,8 +724,10 @@ public class DeviceAgentManagementService {
     }
 
     private void sendMessageToSession(Session toSession, Message message) {
+        AgentSessionInfo sessionInfo = agentSessionMap.get(toSession.getId());
+        MessageCodec messageCodec = sessionInfo == null ? SerializeUtil.JSON_GZIP_CODEC : sessionInfo.messageCodec;
         try {
-            byte[] array = SerializeUtil.messageToByteArr(message);
+            byte[] array = SerializeUtil.messageToByteArr(message, messageCodec);
             log.info("sendMessageToSession[{}], path: {}, message data len: {}", toSession.getId(), message.getPath(), array.length);
             toSession.getBasicRemote().sendBinary(ByteBuffer.wrap(array));
         } catch (IOException e) {
@@ -633,55 +735,86 @@ public class DeviceAgentManagementService {
         }
     }
 
-    public List<AgentDeviceGroup> getAgentDeviceGroups() {
-        return new ArrayList<>(agentDeviceGroups.values());
-    }
-
-    public List<DeviceGroup> getAllGroup() {
-        List<DeviceGroup> res = new ArrayList<>();
-        Set<String> keys = deviceGroupListMap.keySet();
-        for (String key : keys) {
-            DeviceGroup group = deviceGroupService.getGroupByName(key);
-            if (group == null) {
-                continue;
+    /**
+     * @return the device inventory at its latest version, it is rebuilt on the first call after a change and only the changed agents are copied again
+     */
+    public DeviceInventorySnapshot getDeviceInventorySnapshot() {
+        DeviceInventorySnapshot snapshot = deviceInventorySnapshot;
+        if (snapshot != null && snapshot.getVersion() == inventoryVersion.get()) {
+            return snapshot;
+        }
+        synchronized (inventoryAgentDeviceGroups) {
+            // read the version before the changes, a change marked meanwhile leads to another rebuild
+            long version = inventoryVersion.get();
+            snapshot = deviceInventorySnapshot;
+            if (snapshot != null && snapshot.getVersion() == version) {
+                return snapshot;
             }
-            group.setSerialNums(deviceGroupListMap.get(key).toString());
-            res.add(group);
+            for (Iterator<String> iterator = changedInventoryAgentIds.iterator(); iterator.hasNext(); ) {
+                String agentId = iterator.next();
+                iterator.remove();
+                AgentDeviceGroup agentDeviceGroup = agentDeviceGroups.get(agentId);
+                if (agentDeviceGroup == null) {
+                    inventoryAgentDeviceGroups.remove(agentId);
+                } else {
+                    inventoryAgentDeviceGroups.put(agentId, copyAgentDeviceGroup(agentDeviceGroup));
+                }
+            }
+            if (inventoryDeviceGroupsChanged.getAndSet(false)) {
+                inventoryDeviceGroups = getAllGroup();
+            }
+            snapshot = new DeviceInventorySnapshot(inventoryEpoch, version, inventoryAgentDeviceGroups.values(), inventoryDeviceGroups);
+            deviceInventorySnapshot = snapshot;
+            return snapshot;
         }
-        return new ArrayList<>(res);
     }
 
-    public List<DeviceInfo> getAllDevice() {
-        List<DeviceInfo> res = new ArrayList<>();
-        Set<String> keys = deviceListMap.keySet();
-        for (String key : keys) {
-            DeviceInfo device = deviceListMap.get(key);
-            if (device.isAlive()) {
-                res.add(deviceListMap.get(key));
-            }
-        }
-        return new ArrayList<>(res);
+    public void markDeviceGroupInventoryChanged() {
+        inventoryDeviceGroupsChanged.set(true);
+        inventoryVersion.incrementAndGet();
     }
 
-    public DeviceInfo getDevice(String deviceId) {
-        return deviceListMap.get(deviceId);
+    // to be called once the change is done, so that the next snapshot copies the changed agent
+    private void markAgentInventoryChanged(String agentId) {
+        if (agentId == null) {
+            return;
+        }
+        changedInventoryAgentIds.add(agentId);
+        inventoryVersion.incrementAndGet();
     }
 
-    public List<AgentDeviceGroup> getAllAppiumAgents() {
-        List<AgentDeviceGroup> res = new ArrayList<>();
-        Set<String> keys = agentDeviceGroups.keySet();
-        for (String key : keys) {
-            AgentDeviceGroup agent = agentDeviceGroups.get(key);
-            if (agent.getAgentDeviceType() != AgentUser.DeviceType.WINDOWS) {
-                continue;
+    private static AgentDeviceGroup copyAgentDeviceGroup(AgentDeviceGroup agentDeviceGroup) {
+        AgentDeviceGroup copy = new AgentDeviceGroup();
+        BeanUtil.copyProperties(agentDeviceGroup, copy, "devices");
+        List<DeviceInfo> devices = new ArrayList<>();
+        // toArray doesn't fail on a device being added meanwhile, the addition marks the agent as changed again
+        for (DeviceInfo device : agentDeviceGroup.getDevices().toArray(new DeviceInfo[0])) {
+            DeviceInfo deviceCopy = new DeviceInfo();
+            BeanUtil.copyProperties(device, deviceCopy, "deviceGroup");
+            if (device.getDeviceGroup() != null) {
+                deviceCopy.setDeviceGroup(new HashSet<>(device.getDeviceGroup()));
             }
-            List<DeviceInfo> devices = agent.getDevices();
-            if (devices.size() != 1 || !devices.get(0).isAlive()) {
+            devices.add(deviceCopy);
+        }
+        copy.setDevices(Collections.unmodifiableList(devices));
+        return copy;
+    }
+
+    private List<DeviceGroup> getAllGroup() {
+        List<DeviceGroup> res = new ArrayList<>();
+        for (DeviceGroup group : deviceGroupService.queryAllGroups()) {
+            Set<String> serials = getRegisteredDeviceSerials(group.getGroupName());
+            if (serials.isEmpty()) {
                 continue;
             }
-            res.add(agent);
+            group.setSerialNums(serials.toString());
+            res.add(group);
         }
-        return new ArrayList<>(res);
+        return res;
+    }
+
+    public DeviceInfo getDevice(String deviceId) {
+        return deviceListMap.get(deviceId);
     }
 
     // Todo: Get agent list for android and ios agent
@@ -803,8 +936,7 @@ public class DeviceAgentManagementService {
     private JSONObject runTestTaskByGroup(TestTaskSpec testTaskSpec) {
         JSONObject result = new JSONObject();
         boolean isAllOffline = true;
-        Set<String> deviceSerials = deviceGroupListMap.get(testTaskSpec.deviceIdentifier);
-        Assert.notNull(deviceSerials, "error deviceIdentifier or there is no devices in the group!");
+        Set<String> deviceSerials = getRegisteredDeviceSerials(testTaskSpec.deviceIdentifier);
         Assert.isTrue(deviceSerials.size() > 0, "error deviceIdentifier or there is no devices in the group!");
         DeviceGroup deviceGroup = deviceGroupService.getGroupByName(testTaskSpec.deviceIdentifier);
         Assert.notNull(deviceGroup, "error deviceIdentifier !");
@@ -882,32 +1014,39 @@ public class DeviceAgentManagementService {
         return result;
     }
 
-    private AgentSessionInfo getAgentSessionInfoByAgentId(String agentId) {
-        for (Map.Entry<String, AgentSessionInfo> entry : agentSessionMap.entrySet()) {
-            AgentSessionInfo sessionInfo = entry.getValue();
-            if (sessionInfo.agentUser.getId().equals(agentId)) {
-                return sessionInfo;
-            }
+    void saveAgentSession(Session session, AgentUser agentUser, MessageCodec messageCodec) {
+        AgentSessionInfo sessionInfo = new AgentSessionInfo(session, agentUser, messageCodec);
+        agentSessionMap.put(session.getId(), sessionInfo);
+        agentIdSessionMap.put(agentUser.getId(), sessionInfo);
+    }
+
+    private void removeAgentSession(AgentSessionInfo sessionInfo) {
+        if (sessionInfo.session != null) {
+            agentSessionMap.remove(sessionInfo.session.getId(), sessionInfo);
+        }
+        if (sessionInfo.agentUser != null) {
+            // only drop the index entry if it still points to this session, a newer session of the same agent may have replaced it
+            agentIdSessionMap.remove(sessionInfo.agentUser.getId(), sessionInfo);
         }
-        return null;
     }
 
-    private boolean checkIsSessionAliveByAgentId(String agentId) {
+    AgentSessionInfo getAgentSessionInfoByAgentId(String agentId) {
+        return agentIdSessionMap.get(agentId);
+    }
 
-        for (Map.Entry<String, AgentSessionInfo> entry : agentSessionMap.entrySet()) {
-            AgentSessionInfo sessionInfo = entry.getValue();
-            if (sessionInfo.agentUser.getId().equals(agentId)) {
-                if (sessionInfo.session != null && sessionInfo.session.isOpen()) {
-                    return true;
-                } else {
-                    agentSessionMap.remove(entry.getKey());
-                    log.info("Session of agent {} is not alive.", entry.getValue().agentUser.getName());
-                    metricUtil.updateAgentAliveStatus(entry.getValue().agentUser.getId(), GlobalConstant.AgentLiveStatus.OFFLINE.getStatus());
-                }
+    private boolean checkIsSessionAliveByAgentId(String agentId) {
+        AgentSessionInfo sessionInfo = agentIdSessionMap.get(agentId);
+        if (sessionInfo != null) {
+            if (sessionInfo.session != null && sessionInfo.session.isOpen()) {
+                return true;
             }
+            removeAgentSession(sessionInfo);
+            log.info("Session of agent {} is not alive.", sessionInfo.agentUser.getName());
+            metricUtil.updateAgentAliveStatus(sessionInfo.agentUser.getId(), GlobalConstant.AgentLiveStatus.OFFLINE.getStatus());
         }
 
         AgentDeviceGroup agentDeviceGroup = agentDeviceGroups.remove(agentId);
+        markAgentInventoryChanged(agentId);
         if (agentDeviceGroup == null || agentDeviceGroup.getDevices() == null) {
             return false;
         }
@@ -952,6 +1091,7 @@ public class DeviceAgentManagementService {
 
         //Start update agent
         agentDeviceGroups.get(agentId).setAgentStatus(AgentDeviceGroup.Status.UPDATING);
+        markAgentInventoryChanged(agentId);
         AgentUpdateTask updateTask = new AgentUpdateTask();
         agentUpdateMap.put(agentId, updateTask);
 
@@ -998,8 +1138,12 @@ public class DeviceAgentManagementService {
     public void updateAgentDeviceGroupTeam(String teamId, String teamName) {
         List<AgentUser> agents = agentManageService.getAgentsByTeamId(teamId);
         synchronized (agentDeviceGroups) {
-            agents.forEach(agent -> agentDeviceGroups.get(agent.getId()).setTeamName(teamName));
+            agents.forEach(agent -> {
+                agentDeviceGroups.get(agent.getId()).setTeamName(teamName);
+                markAgentInventoryChanged(agent.getId());
+            });
         }
+        markDeviceGroupInventoryChanged();
     }
 
     public int getAliveAgentNum() {
@@ -1022,12 +1166,18 @@ public class DeviceAgentManagementService {
     }
 
     static class AgentSessionInfo {
+        static final long NO_DEVICE_LIST_SEQUENCE = -1;
         Session session;
         AgentUser agentUser;
+        MessageCodec messageCodec;
+        //sequence of the device list last applied, deltas are only applied on top of it
+        long deviceListSequence = NO_DEVICE_LIST_SEQUENCE;
+        boolean deviceListResyncRequested = false;
 
-        public AgentSessionInfo(Session session, AgentUser agentUser) {
+        public AgentSessionInfo(Session session, AgentUser agentUser, MessageCodec messageCodec) {
             this.session = session;
             this.agentUser = agentUser;
+            this.messageCodec = messageCodec;
         }
     }
 }
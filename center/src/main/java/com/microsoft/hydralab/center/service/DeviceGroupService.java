@@ -5,6 +5,7 @@ package com.microsoft.hydralab.center.service;
 
 import com.microsoft.hydralab.center.repository.DeviceGroupRelationRepository;
 import com.microsoft.hydralab.center.repository.DeviceGroupRepository;
+import com.microsoft.hydralab.center.util.MetricUtil;
 import com.microsoft.hydralab.common.entity.center.DeviceGroup;
 import com.microsoft.hydralab.common.entity.center.DeviceGroupRelation;
 import com.microsoft.hydralab.common.entity.center.DeviceGroupRelationId;
@@ -12,20 +13,29 @@ import com.microsoft.hydralab.common.entity.center.SysUser;
 import com.microsoft.hydralab.common.entity.common.CriteriaType;
 import com.microsoft.hydralab.common.util.Const;
 import com.microsoft.hydralab.common.util.CriteriaTypeUtil;
-import org.springframework.cache.annotation.CacheConfig;
-import org.springframework.cache.annotation.CacheEvict;
-import org.springframework.cache.annotation.Cacheable;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 @Service
-@CacheConfig(cacheNames = "groupCache")
 public class DeviceGroupService {
+    //save DEVICE & GROUP relation <deviceSerial, groupNames>
+    private final Map<String, Set<String>> deviceGroupListMap = new ConcurrentHashMap<>();
+    //save DEVICE & GROUP relation <groupName, deviceSerials>
+    private final Map<String, Set<String>> groupDeviceListMap = new ConcurrentHashMap<>();
     @Resource
     DeviceGroupRepository deviceGroupRepository;
     @Resource
@@ -34,6 +44,22 @@ public class DeviceGroupService {
     SysUserService sysUserService;
     @Resource
     UserTeamManagementService userTeamManagementService;
+    @Resource
+    MetricUtil metricUtil;
+    private Timer groupLookupHitTimer;
+    private Timer groupLookupMissTimer;
+    private Timer deviceLookupHitTimer;
+    private Timer deviceLookupMissTimer;
+
+    @PostConstruct
+    public void initList() {
+        groupLookupHitTimer = metricUtil.registerDeviceGroupLookupTimer("group", true);
+        groupLookupMissTimer = metricUtil.registerDeviceGroupLookupTimer("group", false);
+        deviceLookupHitTimer = metricUtil.registerDeviceGroupLookupTimer("device", true);
+        deviceLookupMissTimer = metricUtil.registerDeviceGroupLookupTimer("device", false);
+        List<DeviceGroupRelation> relationList = deviceGroupRelationRepository.findAll();
+        relationList.forEach(relation -> addRelationToList(relation.getGroupName(), relation.getDeviceSerial()));
+    }
 
     public DeviceGroup createGroup(String teamId, String teamName, String groupName, String owner) {
         DeviceGroup deviceGroup = new DeviceGroup();
@@ -56,6 +82,10 @@ public class DeviceGroupService {
     public void deleteGroup(String groupName) {
         deviceGroupRepository.deleteById(groupName);
         deviceGroupRelationRepository.deleteAllByGroupName(groupName);
+        Set<String> deviceSerials = groupDeviceListMap.remove(groupName);
+        if (deviceSerials != null) {
+            deviceSerials.forEach(deviceSerial -> removeRelationFromList(groupName, deviceSerial));
+        }
     }
 
     public List<DeviceGroup> queryAllGroups() {
@@ -79,16 +109,17 @@ public class DeviceGroupService {
         return deviceGroupRepository.findAllByTeamId(teamId);
     }
 
-    @CacheEvict(key = "'groups-'+#deviceSerial")
     public DeviceGroupRelation saveRelation(String groupName, String deviceSerial) {
         DeviceGroupRelation deviceGroupRelation = new DeviceGroupRelation(groupName, deviceSerial);
-        return deviceGroupRelationRepository.save(deviceGroupRelation);
+        deviceGroupRelation = deviceGroupRelationRepository.save(deviceGroupRelation);
+        addRelationToList(groupName, deviceSerial);
+        return deviceGroupRelation;
     }
 
-    @CacheEvict(key = "'groups-'+#deviceSerial")
     public void deleteRelation(String groupName, String deviceSerial) {
         DeviceGroupRelation deviceGroupRelation = new DeviceGroupRelation(groupName, deviceSerial);
         deviceGroupRelationRepository.delete(deviceGroupRelation);
+        removeRelationFromList(groupName, deviceSerial);
     }
 
     public DeviceGroupRelation getRelation(String groupName, String deviceSerial) {
@@ -99,12 +130,54 @@ public class DeviceGroupService {
     }
 
     public List<DeviceGroupRelation> getDeviceByGroup(String groupName) {
-        return deviceGroupRelationRepository.findAllByGroupName(groupName);
+        List<DeviceGroupRelation> relations = new ArrayList<>();
+        getDeviceSerialsByGroup(groupName).forEach(deviceSerial -> relations.add(new DeviceGroupRelation(groupName, deviceSerial)));
+        return relations;
     }
 
-    @Cacheable(key = "'groups-'+#deviceSerial")
     public List<DeviceGroupRelation> getGroupByDevice(String deviceSerial) {
-        return deviceGroupRelationRepository.findAllByDeviceSerial(deviceSerial);
+        List<DeviceGroupRelation> relations = new ArrayList<>();
+        getGroupNamesByDevice(deviceSerial).forEach(groupName -> relations.add(new DeviceGroupRelation(groupName, deviceSerial)));
+        return relations;
+    }
+
+    public List<DeviceGroupRelation> getGroupByDevices(Collection<String> deviceSerials) {
+        List<DeviceGroupRelation> relations = new ArrayList<>();
+        for (String deviceSerial : deviceSerials) {
+            relations.addAll(getGroupByDevice(deviceSerial));
+        }
+        return relations;
+    }
+
+    public Set<String> getDeviceSerialsByGroup(String groupName) {
+        return queryRelationList(groupDeviceListMap, groupName, groupLookupHitTimer, groupLookupMissTimer);
+    }
+
+    public Set<String> getGroupNamesByDevice(String deviceSerial) {
+        return queryRelationList(deviceGroupListMap, deviceSerial, deviceLookupHitTimer, deviceLookupMissTimer);
+    }
+
+    public int getRelationNum() {
+        return deviceGroupListMap.values().stream().mapToInt(Set::size).sum();
+    }
+
+    private Set<String> queryRelationList(Map<String, Set<String>> relationListMap, String key, Timer hitTimer, Timer missTimer) {
+        long startTime = System.nanoTime();
+        Set<String> values = relationListMap.get(key);
+        Set<String> result = values == null ? new HashSet<>() : new HashSet<>(values);
+        (values == null ? missTimer : hitTimer).record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+        return result;
+    }
+
+    private void addRelationToList(String groupName, String deviceSerial) {
+        deviceGroupListMap.computeIfAbsent(deviceSerial, k -> ConcurrentHashMap.newKeySet()).add(groupName);
+        groupDeviceListMap.computeIfAbsent(groupName, k -> ConcurrentHashMap.newKeySet()).add(deviceSerial);
+    }
+
+    private void removeRelationFromList(String groupName, String deviceSerial) {
+        // drop the empty sets inside compute so that a concurrent add never writes into a detached set
+        deviceGroupListMap.computeIfPresent(deviceSerial, (k, groups) -> groups.remove(groupName) && groups.isEmpty() ? null : groups);
+        groupDeviceListMap.computeIfPresent(groupName, (k, serials) -> serials.remove(deviceSerial) && serials.isEmpty() ? null : serials);
     }
 
     public boolean checkGroupAuthorization(SysUser requestor, String groupName, boolean teamAdminRequired) throws IllegalArgumentException {
@@ -0,0 +1,151 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+
+package com.microsoft.hydralab.center.service;
+
+import cn.hutool.core.bean.BeanUtil;
+import com.alibaba.fastjson.JSONObject;
+import com.microsoft.hydralab.common.entity.center.AgentDeviceGroup;
+import com.microsoft.hydralab.common.entity.center.DeviceGroup;
+import com.microsoft.hydralab.common.entity.common.AgentUser;
+import com.microsoft.hydralab.common.entity.common.DeviceInfo;
+import com.microsoft.hydralab.common.util.Const;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Immutable view of the connected agents, their devices and the device groups at a version of the inventory.
+ * The agents and devices are copies, so the snapshot doesn't change when the inventory does, a new snapshot is built instead.
+ * The filtered views for a requestor depend only on whether the requestor is admin and on its teams,
+ * they are built on the first request of a scope and shared by the following ones.
+ */
+public class DeviceInventorySnapshot {
+    public static final String ADMIN_SCOPE = "admin";
+    private static final Comparator<AgentDeviceGroup> AGENT_ORDER = Comparator.comparing(AgentDeviceGroup::getAgentDeviceType)
+            .thenComparing((a, b) -> b.getDevices().size() - a.getDevices().size());
+    // changes on each start of the center, so that an ETag from a previous run never matches
+    private final String epoch;
+    private final long version;
+    // all the agents, sorted by device type and device count
+    private final List<AgentDeviceGroup> agentDeviceGroups;
+    // the agents with only their non-private devices, in the same order as agentDeviceGroups
+    private final List<AgentDeviceGroup> publicAgentDeviceGroups;
+    private final List<DeviceGroup> deviceGroups;
+    //save the views of the inventory by requestor scope <scope,view>
+    private final Map<String, List<AgentDeviceGroup>> agentDeviceGroupViews = new ConcurrentHashMap<>();
+    private final Map<String, JSONObject> runnableViews = new ConcurrentHashMap<>();
+
+    /**
+     * @param agentDeviceGroups copies of the agents, not modified afterwards
+     * @param deviceGroups      copies of the device groups with devices, not modified afterwards
+     */
+    DeviceInventorySnapshot(String epoch, long version, Collection<AgentDeviceGroup> agentDeviceGroups, List<DeviceGroup> deviceGroups) {
+        this.epoch = epoch;
+        this.version = version;
+        List<AgentDeviceGroup> agents = new ArrayList<>(agentDeviceGroups);
+        agents.sort(AGENT_ORDER);
+        this.agentDeviceGroups = Collections.unmodifiableList(agents);
+        this.publicAgentDeviceGroups = Collections.unmodifiableList(agents.stream().map(DeviceInventorySnapshot::toPublicAgentDeviceGroup).collect(Collectors.toList()));
+        this.deviceGroups = Collections.unmodifiableList(deviceGroups);
+    }
+
+    public static String getScope(boolean isAdmin, Set<String> teamIds) {
+        if (isAdmin) {
+            return ADMIN_SCOPE;
+        }
+        return "team:" + String.join(",", new TreeSet<>(teamIds));
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * The ETag of the views of a scope, it changes with the version of the inventory.
+     */
+    public String getETag(String scope) {
+        return "\"" + epoch + "-" + version + "-" + Integer.toHexString(scope.hashCode()) + "\"";
+    }
+
+    public List<AgentDeviceGroup> getAllAgentDeviceGroups() {
+        return agentDeviceGroups;
+    }
+
+    /**
+     * 1) For the admin scope, return all agents with devices connected.
+     * 2) For the other scopes, return agents with non-private devices, and agents with devices connected that are in the TEAMs.
+     */
+    public List<AgentDeviceGroup> getAgentDeviceGroups(String scope, Set<String> teamIds) {
+        return agentDeviceGroupViews.computeIfAbsent(scope, k -> {
+            List<AgentDeviceGroup> view = new ArrayList<>();
+            for (int i = 0; i < agentDeviceGroups.size(); i++) {
+                AgentDeviceGroup agentDeviceGroup = agentDeviceGroups.get(i);
+                if (!ADMIN_SCOPE.equals(scope) && !teamIds.contains(agentDeviceGroup.getTeamId())) {
+                    agentDeviceGroup = publicAgentDeviceGroups.get(i);
+                }
+                if (!agentDeviceGroup.getDevices().isEmpty()) {
+                    view.add(agentDeviceGroup);
+                }
+            }
+            view.sort(AGENT_ORDER);
+            return Collections.unmodifiableList(view);
+        });
+    }
+
+    /**
+     * 1) For the admin scope, return all devices/groups/appium agents that can run test currently.
+     * 2) For the other scopes, return non-private or TEAMs' devices/groups/APPIUM-support agents.
+     */
+    public JSONObject getRunnableDevices(String scope, Set<String> teamIds) {
+        return runnableViews.computeIfAbsent(scope, k -> {
+            boolean isAdmin = ADMIN_SCOPE.equals(scope);
+            List<DeviceGroup> groupList = deviceGroups.stream()
+                    .filter(group -> isAdmin || teamIds.contains(group.getTeamId()) || !group.getIsPrivate())
+                    .collect(Collectors.toList());
+            List<AgentDeviceGroup> agentList = new ArrayList<>();
+            List<DeviceInfo> deviceList = new ArrayList<>();
+            for (AgentDeviceGroup agentDeviceGroup : agentDeviceGroups) {
+                boolean isTeamAgent = isAdmin || teamIds.contains(agentDeviceGroup.getTeamId());
+                if (isTeamAgent && isAppiumAgent(agentDeviceGroup)) {
+                    agentList.add(agentDeviceGroup);
+                }
+                for (DeviceInfo device : agentDeviceGroup.getDevices()) {
+                    if (device.isAlive() && (isTeamAgent || !device.getIsPrivate())) {
+                        deviceList.add(device);
+                    }
+                }
+            }
+
+            JSONObject res = new JSONObject();
+            res.put(Const.Param.GROUP, Collections.unmodifiableList(groupList));
+            res.put(Const.Param.TEST_DEVICE_SN, Collections.unmodifiableList(deviceList));
+            res.put(Const.Param.AGENT, Collections.unmodifiableList(agentList));
+            return res;
+        });
+    }
+
+    private static boolean isAppiumAgent(AgentDeviceGroup agentDeviceGroup) {
+        List<DeviceInfo> devices = agentDeviceGroup.getDevices();
+        return agentDeviceGroup.getAgentDeviceType() == AgentUser.DeviceType.WINDOWS && devices.size() == 1 && devices.get(0).isAlive();
+    }
+
+    private static AgentDeviceGroup toPublicAgentDeviceGroup(AgentDeviceGroup agentDeviceGroup) {
+        if (agentDeviceGroup.getDevices().stream().noneMatch(DeviceInfo::getIsPrivate)) {
+            return agentDeviceGroup;
+        }
+        AgentDeviceGroup publicAgentDeviceGroup = new AgentDeviceGroup();
+        BeanUtil.copyProperties(agentDeviceGroup, publicAgentDeviceGroup, "devices");
+        publicAgentDeviceGroup.setDevices(Collections.unmodifiableList(agentDeviceGroup.getDevices().stream()
+                .filter(device -> !device.getIsPrivate()).collect(Collectors.toList())));
+        return publicAgentDeviceGroup;
+    }
+}
@@ -3,14 +3,17 @@
 
 package com.microsoft.hydralab.center.service;
 
+import cn.hutool.core.bean.BeanUtil;
 import com.alibaba.fastjson.JSONArray;
 import com.microsoft.hydralab.center.repository.StabilityDataRepository;
 import com.microsoft.hydralab.common.entity.center.StabilityData;
 import com.microsoft.hydralab.common.entity.center.SysUser;
+import com.microsoft.hydralab.common.entity.center.TestUnitPage;
 import com.microsoft.hydralab.common.entity.common.AndroidTestUnit;
 import com.microsoft.hydralab.common.entity.common.CriteriaType;
 import com.microsoft.hydralab.common.entity.common.EntityType;
 import com.microsoft.hydralab.common.entity.common.PerformanceTestResultEntity;
+import com.microsoft.hydralab.common.entity.common.StorageFileInfo;
 import com.microsoft.hydralab.common.entity.common.TestRun;
 import com.microsoft.hydralab.common.entity.common.TestTask;
 import com.microsoft.hydralab.common.repository.AndroidTestUnitRepository;
@@ -21,9 +24,11 @@ import com.microsoft.hydralab.common.repository.TestTaskRepository;
 import com.microsoft.hydralab.common.util.AttachmentService;
 import com.microsoft.hydralab.common.util.CriteriaTypeUtil;
 import com.microsoft.hydralab.common.util.HydraLabRuntimeException;
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.cache.annotation.CacheConfig;
+import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.CachePut;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.context.annotation.Lazy;
@@ -38,9 +43,11 @@ import javax.annotation.Resource;
 import javax.persistence.EntityManager;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 
@@ -48,6 +55,8 @@ import java.util.Set;
 @CacheConfig(cacheNames = "taskCache")
 public class TestDataService {
     private static final Logger LOGGER = LoggerFactory.getLogger(TestDataService.class);
+    public static final int MAX_TEST_UNIT_PAGE_SIZE = 500;
+    private static final String CURSOR_SEPARATOR = "_";
     private final Sort sortByStartMillis = Sort.by(Sort.Direction.DESC, "startTimeMillis");
     private final Sort sortByStartDate = Sort.by(Sort.Direction.DESC, "startDate");
     @Resource
@@ -90,6 +99,11 @@ public class TestDataService {
         return testUnits;
     }
 
+    /**
+     * The task is cached as a summary: its runs with their counts and attachments, but without test units,
+     * so that the size of the cache doesn't grow with the size of the suites. The units are read by page with {@link #getTestUnits}.
+     * The runs and the attachments of the task are loaded with one query each whatever the number of runs.
+     */
     @Cacheable(key = "#testId")
     public TestTask getTestTaskDetail(String testId) {
         Optional<TestTask> taskOpt = testTaskRepository.findById(testId);
@@ -104,14 +118,108 @@ public class TestDataService {
         }
 
         testTask.getDeviceTestResults().addAll(byTestTaskId);
+        List<String> testRunIds = new ArrayList<>();
         for (TestRun deviceTestResult : byTestTaskId) {
-            List<AndroidTestUnit> byDeviceTestResultId = androidTestUnitRepository.findByDeviceTestResultId(deviceTestResult.getId());
-            deviceTestResult.getTestUnitList().addAll(byDeviceTestResultId);
-            deviceTestResult.setAttachments(attachmentService.getAttachments(deviceTestResult.getId(), EntityType.TEST_RESULT));
+            testRunIds.add(deviceTestResult.getId());
+        }
+        Map<String, List<StorageFileInfo>> attachmentMap = attachmentService.getAttachmentsOfEntities(testRunIds, EntityType.TEST_RESULT);
+        for (TestRun deviceTestResult : byTestTaskId) {
+            deviceTestResult.setAttachments(attachmentMap.getOrDefault(deviceTestResult.getId(), new ArrayList<>()));
         }
         return testTask;
     }
 
+    /**
+     * Drop the cached summary of the task, the next {@link #getTestTaskDetail} reads it from DB.
+     */
+    @CacheEvict(key = "#testId")
+    public void evictTestTaskDetail(String testId) {
+    }
+
+    public TestRun getTestRun(String testRunId) {
+        return testRunRepository.findById(testRunId).orElse(null);
+    }
+
+    /**
+     * Read the test units of a run in start time order, a page after another.
+     * The units after the cursor are selected on the (run, start time) index, so that a page costs the same wherever it is in the run.
+     *
+     * @param success      only the passed or failed units if not null
+     * @param statusCode   only the units with this {@link AndroidTestUnit.StatusCodes} if not null
+     * @param testedClass  only the units of this class if not empty
+     * @param startTime    only the units started at or after this time in millis if not null
+     * @param endTime      only the units started before this time in millis if not null
+     * @param cursor       the nextCursor of the previous page, or null for the first page
+     */
+    public TestUnitPage getTestUnits(String testRunId, Boolean success, Integer statusCode, String testedClass,
+                                     Long startTime, Long endTime, String cursor, int size) {
+        if (size <= 0 || size > MAX_TEST_UNIT_PAGE_SIZE) {
+            throw new HydraLabRuntimeException(HttpStatus.BAD_REQUEST.value(), "The page size should be between 1 and " + MAX_TEST_UNIT_PAGE_SIZE);
+        }
+        Long cursorStartTime = null;
+        String cursorId = null;
+        if (StringUtils.isNotEmpty(cursor)) {
+            cursorStartTime = parseCursorStartTime(cursor);
+            cursorId = cursor.substring(cursor.indexOf(CURSOR_SEPARATOR) + 1);
+        }
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<AndroidTestUnit> query = criteriaBuilder.createQuery(AndroidTestUnit.class);
+        Root<AndroidTestUnit> root = query.from(AndroidTestUnit.class);
+
+        List<Predicate> predicates = new ArrayList<>();
+        predicates.add(criteriaBuilder.equal(root.get("deviceTestResultId"), testRunId));
+        if (success != null) {
+            predicates.add(criteriaBuilder.equal(root.get("success"), success));
+        }
+        if (statusCode != null) {
+            predicates.add(criteriaBuilder.equal(root.get("statusCode"), statusCode));
+        }
+        if (StringUtils.isNotEmpty(testedClass)) {
+            predicates.add(criteriaBuilder.equal(root.get("testedClass"), testedClass));
+        }
+        if (startTime != null) {
+            predicates.add(criteriaBuilder.greaterThanOrEqualTo(root.<Long>get("startTimeMillis"), startTime));
+        }
+        if (endTime != null) {
+            predicates.add(criteriaBuilder.lessThan(root.<Long>get("startTimeMillis"), endTime));
+        }
+        if (cursorId != null) {
+            predicates.add(criteriaBuilder.or(
+                    criteriaBuilder.greaterThan(root.<Long>get("startTimeMillis"), cursorStartTime),
+                    criteriaBuilder.and(
+                            criteriaBuilder.equal(root.get("startTimeMillis"), cursorStartTime),
+                            criteriaBuilder.greaterThan(root.<String>get("id"), cursorId))));
+        }
+        query.where(predicates.toArray(new Predicate[0]));
+        query.orderBy(criteriaBuilder.asc(root.get("startTimeMillis")), criteriaBuilder.asc(root.get("id")));
+
+        // one more unit tells whether there is a next page without counting
+        List<AndroidTestUnit> testUnits = entityManager.createQuery(query).setMaxResults(size + 1).getResultList();
+        TestUnitPage page = new TestUnitPage();
+        if (testUnits.size() > size) {
+            testUnits = testUnits.subList(0, size);
+            page.setNextCursor(toCursor(testUnits.get(size - 1)));
+        }
+        page.getContent().addAll(testUnits);
+        return page;
+    }
+
+    static String toCursor(AndroidTestUnit testUnit) {
+        return testUnit.getStartTimeMillis() + CURSOR_SEPARATOR + testUnit.getId();
+    }
+
+    private static long parseCursorStartTime(String cursor) {
+        int index = cursor.indexOf(CURSOR_SEPARATOR);
+        if (index <= 0 || index == cursor.length() - 1) {
+            throw new HydraLabRuntimeException(HttpStatus.BAD_REQUEST.value(), "Invalid cursor: " + cursor);
+        }
+        try {
+            return Long.parseLong(cursor.substring(0, index));
+        } catch (NumberFormatException e) {
+            throw new HydraLabRuntimeException(HttpStatus.BAD_REQUEST.value(), "Invalid cursor: " + cursor);
+        }
+    }
+
     public List<TestTask> getTasksByTeamId(String teamId) {
         return testTaskRepository.findAllByTeamId(teamId);
     }
@@ -182,6 +290,9 @@ public class TestDataService {
         testDataServiceCache.saveTestTaskData(oldTestTask);
     }
 
+    /**
+     * The summary of the task is put to the cache, see {@link #getTestTaskDetail}.
+     */
     @CachePut(key = "#testTask.id")
     public TestTask saveTestTaskData(TestTask testTask) {
         testTaskRepository.save(testTask);
@@ -200,9 +311,9 @@ public class TestDataService {
             List<AndroidTestUnit> testUnitList = deviceTestResult.getTestUnitList();
             list.addAll(testUnitList);
 
-            // only save failed cases
+            // only save the details of failed cases and of the cases the app crashed in
             for (AndroidTestUnit androidTestUnit : testUnitList) {
-                if (androidTestUnit.isSuccess()) {
+                if (androidTestUnit.isSuccess() && androidTestUnit.getCrashStack() == null) {
                     continue;
                 }
                 LOGGER.warn("one more failed cases saved: {}", androidTestUnit.getTitle());
@@ -218,7 +329,22 @@ public class TestDataService {
         }
         androidTestUnitRepository.saveAll(list);
         LOGGER.info("All saved {}", testTask.getId());
-        return testTask;
+        return toSummary(testTask);
+    }
+
+    /**
+     * Copy the task and its runs without the test units, which are saved to DB and read by page when needed.
+     * The crash stacks are kept: the task API returns them to the CI clients. The task given to {@link #saveTestTaskData} is left as is for the caller.
+     */
+    static TestTask toSummary(TestTask testTask) {
+        TestTask summary = new TestTask();
+        BeanUtil.copyProperties(testTask, summary, "deviceTestResults");
+        for (TestRun deviceTestResult : testTask.getDeviceTestResults()) {
+            TestRun runSummary = new TestRun();
+            BeanUtil.copyProperties(deviceTestResult, runSummary, "testUnitList", "performanceTestResultEntities");
+            summary.getDeviceTestResults().add(runSummary);
+        }
+        return summary;
     }
 
     public TestRun getTestRunWithVideoInfo(String dttId) {
@@ -0,0 +1,295 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+
+package com.microsoft.hydralab.center.service;
+
+import com.microsoft.hydralab.center.util.MetricUtil;
+import com.microsoft.hydralab.common.entity.common.TestTask;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persists the TEST_TASK_UPDATE messages of agents off the WebSocket threads.
+ * Updates are hashed by task id into single threaded lanes, so the updates of one task are always written in arrival order.
+ * The other writes of a running task, the retry and the cancel, go through the same lane so that a queued update never overwrites them.
+ * Each lane drains its queue and writes the drained updates in one transaction, so that hibernate can send them as JDBC batches.
+ * The lane queues are bounded, a full queue blocks the sending agent session until the lane catches up.
+ */
+@Slf4j
+@Service
+public class TestTaskPersistService {
+    private static final long POLL_TIMEOUT_MILLIS = 500;
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 30_000;
+    @Resource
+    TestDataService testDataService;
+    @Resource
+    PlatformTransactionManager transactionManager;
+    @Resource
+    MetricUtil metricUtil;
+    @Resource
+    TestTaskStatusStreamService testTaskStatusStreamService;
+    @Value("${app.test-task-persist.lane-num:2}")
+    int laneNum = 2;
+    @Value("${app.test-task-persist.queue-capacity:500}")
+    int queueCapacity = 500;
+    @Value("${app.test-task-persist.batch-size:50}")
+    int batchSize = 50;
+    private TransactionTemplate transactionTemplate;
+    private PersistLane[] lanes;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        lanes = new PersistLane[laneNum];
+        running = true;
+        for (int i = 0; i < laneNum; i++) {
+            lanes[i] = new PersistLane(queueCapacity);
+            Thread thread = new Thread(lanes[i]::run, "TestTaskPersist" + i);
+            thread.setDaemon(true);
+            lanes[i].thread = thread;
+            thread.start();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        for (PersistLane lane : lanes) {
+            try {
+                lane.thread.join(SHUTDOWN_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (!lane.queue.isEmpty()) {
+                log.warn("{} test task updates are not persisted before shutdown", lane.queue.size());
+            }
+        }
+    }
+
+    public void saveTestTaskDataFromAgent(TestTask testTask, boolean persistence, String agentId) {
+        enqueue(new TestTaskUpdate(testTask, persistence, agentId));
+    }
+
+    /**
+     * Save the whole task after the updates of the task queued before.
+     */
+    public void saveTestTaskData(TestTask testTask) {
+        enqueue(new TestTaskUpdate(UpdateType.SAVE, testTask.getId(), testTask, null));
+    }
+
+    /**
+     * Cancel the task after the updates of the task queued before, and wait for the cancel to be written.
+     *
+     * @return the ids of the agents running the task
+     */
+    public Set<String> cancelTaskById(String taskId, String reason) {
+        TestTaskUpdate update = new TestTaskUpdate(UpdateType.CANCEL, taskId, null, reason);
+        enqueue(update);
+        try {
+            return update.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while canceling test task " + taskId, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Failed to cancel test task " + taskId, e.getCause());
+        }
+    }
+
+    private void enqueue(TestTaskUpdate update) {
+        if (!running) {
+            // the lanes are stopped, nothing would drain the queue
+            apply(update);
+            return;
+        }
+        PersistLane lane = lanes[Math.floorMod(update.taskId.hashCode(), lanes.length)];
+        try {
+            lane.queue.put(update);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while queueing the update of test task {}, persist it directly", update.taskId);
+            apply(update);
+        }
+    }
+
+    public int getQueueDepth() {
+        int depth = 0;
+        for (PersistLane lane : lanes) {
+            depth += lane.queue.size();
+        }
+        return depth;
+    }
+
+    /**
+     * A running update is dropped when a later update of the same task from an agent is written in the same batch,
+     * the agent always sends the whole task so the later one carries the same data. Finish updates, saves and cancels are never dropped.
+     */
+    static List<TestTaskUpdate> coalesce(List<TestTaskUpdate> updates) {
+        List<TestTaskUpdate> result = new ArrayList<>(updates.size());
+        Set<String> laterTaskIds = new HashSet<>();
+        for (int i = updates.size() - 1; i >= 0; i--) {
+            TestTaskUpdate update = updates.get(i);
+            if (update.type != UpdateType.AGENT || update.persistence || !laterTaskIds.contains(update.taskId)) {
+                result.add(update);
+            }
+            if (update.type == UpdateType.AGENT) {
+                laterTaskIds.add(update.taskId);
+            }
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    void flush(List<TestTaskUpdate> updates) {
+        long startTime = System.nanoTime();
+        List<TestTaskUpdate> coalescedUpdates = coalesce(updates);
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                for (TestTaskUpdate update : coalescedUpdates) {
+                    persist(update);
+                }
+            });
+            for (TestTaskUpdate update : coalescedUpdates) {
+                update.result.complete(update.cancelAgentIds);
+            }
+        } catch (Exception e) {
+            log.error("Failed to persist {} test task updates in batch, retry one by one", coalescedUpdates.size(), e);
+            retry(coalescedUpdates);
+        }
+        metricUtil.recordTestTaskPersistFlush(coalescedUpdates.size(), System.nanoTime() - startTime);
+        // the cached tasks now hold the merged status of the updates
+        for (TestTaskUpdate update : coalescedUpdates) {
+            testTaskStatusStreamService.publishTaskStatus(update.taskId);
+        }
+    }
+
+    /**
+     * The rolled back updates may already be merged into the cached tasks, which are summaries without the test units.
+     * The cached tasks are evicted so that they are read again from DB, then every update is applied again on its own.
+     */
+    private void retry(List<TestTaskUpdate> updates) {
+        Set<String> taskIds = new LinkedHashSet<>();
+        for (TestTaskUpdate update : updates) {
+            taskIds.add(update.taskId);
+        }
+        taskIds.forEach(testDataService::evictTestTaskDetail);
+        for (TestTaskUpdate update : updates) {
+            apply(update);
+        }
+    }
+
+    private void apply(TestTaskUpdate update) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> persist(update));
+            update.result.complete(update.cancelAgentIds);
+        } catch (Exception e) {
+            log.error("Failed to persist the update of test task {}", update.taskId, e);
+            testDataService.evictTestTaskDetail(update.taskId);
+            update.result.completeExceptionally(e);
+        }
+    }
+
+    private void persist(TestTaskUpdate update) {
+        switch (update.type) {
+            case AGENT:
+                testDataService.saveTestTaskDataFromAgent(update.testTask, update.persistence, update.agentId);
+                break;
+            case SAVE:
+                testDataService.saveTestTaskData(update.testTask);
+                break;
+            case CANCEL:
+                update.cancelAgentIds = testDataService.cancelTaskById(update.taskId, update.cancelReason);
+                break;
+            default:
+                break;
+        }
+    }
+
+    enum UpdateType {
+        AGENT,
+        SAVE,
+        CANCEL
+    }
+
+    static class TestTaskUpdate {
+        final UpdateType type;
+        final String taskId;
+        final TestTask testTask;
+        final boolean persistence;
+        final String agentId;
+        final String cancelReason;
+        final CompletableFuture<Set<String>> result = new CompletableFuture<>();
+        Set<String> cancelAgentIds;
+
+        TestTaskUpdate(TestTask testTask, boolean persistence, String agentId) {
+            this.type = UpdateType.AGENT;
+            this.taskId = testTask.getId();
+            this.testTask = testTask;
+            this.persistence = persistence;
+            this.agentId = agentId;
+            this.cancelReason = null;
+        }
+
+        TestTaskUpdate(UpdateType type, String taskId, TestTask testTask, String cancelReason) {
+            this.type = type;
+            this.taskId = taskId;
+            this.testTask = testTask;
+            this.persistence = true;
+            this.agentId = null;
+            this.cancelReason = cancelReason;
+        }
+    }
+
+    private class PersistLane {
+        final BlockingQueue<TestTaskUpdate> queue;
+        Thread thread;
+
+        PersistLane(int capacity) {
+            queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        void run() {
+            List<TestTaskUpdate> batch = new ArrayList<>(batchSize);
+            while (running || !queue.isEmpty()) {
+                try {
+                    TestTaskUpdate first = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    flush(batch);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    log.error("Failed to persist test task updates", e);
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+    }
+}
@@ -20,19 +20,33 @@ import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Slf4j
 @Component
 public class TestTaskService {
-    private static volatile AtomicBoolean isRunning = new AtomicBoolean(false);
+    private final AtomicInteger scheduleRequestCount = new AtomicInteger(0);
     private final Logger logger = LoggerFactory.getLogger(TestTaskService.class);
-    private final Queue<TestTaskSpec> taskQueue = new LinkedList<>();
+    //save all queued tasks in submission order <sequence,queuedTask>
+    private final ConcurrentSkipListMap<Long, QueuedTestTask> taskQueue = new ConcurrentSkipListMap<>();
+    private final AtomicLong taskSequence = new AtomicLong(0);
+    //save queued task by id <testTaskId,queuedTask>
+    private final ConcurrentHashMap<String, QueuedTestTask> queuedTaskMap = new ConcurrentHashMap<>();
+    //save ready queue of each dispatch target <deviceIdentifier,queued tasks>, FIFO within each target
+    private final ConcurrentHashMap<String, TargetTaskQueue> targetTaskQueues = new ConcurrentHashMap<>();
+    private final AtomicLong queueVersion = new AtomicLong(0);
+    private volatile QueuePositionSnapshot positionSnapshot = new QueuePositionSnapshot(0, new HashMap<>());
     @Resource
     DeviceAgentManagementService deviceAgentManagementService;
     @Resource
@@ -41,16 +55,37 @@ public class TestTaskService {
     DeviceGroupService deviceGroupService;
     @Resource
     TestDataService testDataService;
+    @Resource
+    TestTaskStatusStreamService testTaskStatusStreamService;
 
     public void addTask(TestTaskSpec task) {
-        taskQueue.offer(task);
+        QueuedTestTask queuedTask = new QueuedTestTask(task, taskSequence.incrementAndGet());
+        TargetTaskQueue targetQueue = targetTaskQueues.computeIfAbsent(task.deviceIdentifier, k -> new TargetTaskQueue());
+        // count the task as pending before it becomes visible, so that isDeviceFree never misses it
+        targetQueue.pendingCount.incrementAndGet();
+        queuedTaskMap.put(task.testTaskId, queuedTask);
+        taskQueue.put(queuedTask.sequence, queuedTask);
+        targetQueue.tasks.offer(queuedTask);
+        queueVersion.incrementAndGet();
+        testTaskStatusStreamService.onQueueChanged();
     }
 
     public Boolean isQueueEmpty() {
-        return taskQueue.isEmpty();
+        return queuedTaskMap.isEmpty();
     }
 
     public Boolean isDeviceFree(String deviceIdentifier) {
+        Set<String> relatedIdentifiers = getRelatedIdentifiers(deviceIdentifier);
+        for (String identifier : relatedIdentifiers) {
+            TargetTaskQueue targetQueue = targetTaskQueues.get(identifier);
+            if (targetQueue != null && targetQueue.pendingCount.get() > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Set<String> getRelatedIdentifiers(String deviceIdentifier) {
         Set<String> relatedIdentifiers = new HashSet<>();
         relatedIdentifiers.add(deviceIdentifier);
         if (deviceIdentifier.startsWith(Const.DeviceGroup.GROUP_NAME_PREFIX)) {
@@ -58,68 +93,150 @@ public class TestTaskService {
         } else {
             relatedIdentifiers.addAll(deviceAgentManagementService.queryGroupByDevice(deviceIdentifier));
         }
-        synchronized (taskQueue) {
-            Queue<TestTaskSpec> taskQueueCopy = new LinkedList<>(taskQueue);
-            while (!taskQueueCopy.isEmpty()) {
-                TestTaskSpec temp = taskQueueCopy.poll();
-                if (relatedIdentifiers.contains(temp.deviceIdentifier)) {
-                    return false;
-                }
-            }
+        return relatedIdentifiers;
+    }
+
+    /**
+     * Called when a device becomes available (task finished, device status changed or device reconnected),
+     * only the queues that may dispatch to this device are scanned.
+     */
+    public void onDeviceAvailable(String deviceSerial) {
+        if (isQueueEmpty()) {
+            return;
         }
-        return true;
+        DeviceInfo device = deviceAgentManagementService.getDevice(deviceSerial);
+        if (device == null) {
+            return;
+        }
+        Set<String> targets = getRelatedIdentifiers(deviceSerial);
+        if (device.getAgentId() != null) {
+            // APPIUM_CROSS and T2C_JSON_TEST tasks are queued by agent id
+            targets.add(device.getAgentId());
+        }
+        runTask(targets);
     }
 
+    /**
+     * Called after a task is queued because its target was busy, the target may have been released between
+     * the dispatch attempt and the enqueueing, and then no device event would come to schedule the task.
+     */
+    public void onTaskQueued(String deviceIdentifier) {
+        runTask(Collections.singleton(deviceIdentifier));
+    }
+
+    /**
+     * Backstop of the event driven scheduling, in case a device release was not reported or its event was missed.
+     */
     @Scheduled(cron = "0 */3 * * * *")
+    public void sweepQueuedTasks() {
+        if (isQueueEmpty()) {
+            return;
+        }
+        runTask();
+    }
+
     public void runTask() {
-        //only run one task at the same time
-        if (isRunning.get()) {
+        runTask(null);
+    }
+
+    private void runTask(Set<String> targets) {
+        // only one thread runs the scheduling pass, requests arriving meanwhile are counted and drained by it with a full pass
+        if (scheduleRequestCount.getAndIncrement() > 0) {
             return;
         }
-        isRunning.set(true);
-        while (!taskQueue.isEmpty()) {
-            TestTaskSpec testTaskSpec = taskQueue.peek();
+        Set<String> scanTargets = targets;
+        int handledCount;
+        do {
+            handledCount = scheduleRequestCount.get();
+            for (Map.Entry<String, TargetTaskQueue> entry : targetTaskQueues.entrySet()) {
+                if (scanTargets != null && !scanTargets.contains(entry.getKey())) {
+                    continue;
+                }
+                try {
+                    runTargetTask(entry.getValue());
+                } catch (Exception e) {
+                    logger.error("Failed to schedule tasks of " + entry.getKey(), e);
+                }
+            }
+            scanTargets = null;
+        } while (scheduleRequestCount.addAndGet(-handledCount) > 0);
+    }
+
+    private void runTargetTask(TargetTaskQueue targetQueue) {
+        QueuedTestTask queuedTask;
+        while ((queuedTask = targetQueue.tasks.peek()) != null) {
+            if (!queuedTask.state.compareAndSet(QueuedTestTask.QUEUED, QueuedTestTask.DISPATCHING)) {
+                // canceled while waiting in the queue
+                targetQueue.tasks.poll();
+                continue;
+            }
+            TestTaskSpec testTaskSpec = queuedTask.testTaskSpec;
             TestTask testTask = TestTask.convertToTestTask(testTaskSpec);
             try {
                 JSONObject result = deviceAgentManagementService.runTestTaskBySpec(testTaskSpec);
                 if (result.get(Const.Param.TEST_DEVICE_SN) == null) {
-                    break;
-                } else {
-                    testTask.setTestDevicesCount(result.getString(Const.Param.TEST_DEVICE_SN).split(",").length);
-                    testDataService.saveTestTaskData(testTask);
-                    taskQueue.poll();
+                    // the target is busy, keep the task at the head of its queue and move on to other targets
+                    queuedTask.state.set(QueuedTestTask.QUEUED);
+                    if (queuedTask.cancelRequested && queuedTask.state.compareAndSet(QueuedTestTask.QUEUED, QueuedTestTask.DONE)) {
+                        targetQueue.tasks.poll();
+                        removeQueuedTask(queuedTask, targetQueue);
+                        continue;
+                    }
+                    return;
                 }
+                testTask.setTestDevicesCount(result.getString(Const.Param.TEST_DEVICE_SN).split(",").length);
+                testDataService.saveTestTaskData(testTask);
             } catch (Exception e) {
                 logger.error(e.getMessage(), e);
                 //the task will be saved in memory if taskSpec is error
                 testTask.setStatus(TestTask.TestStatus.EXCEPTION);
                 testTask.setTestErrorMsg(e.getMessage());
                 testDataService.saveTestTaskData(testTask);
-                taskQueue.poll();
+            }
+            queuedTask.state.set(QueuedTestTask.DONE);
+            targetQueue.tasks.poll();
+            removeQueuedTask(queuedTask, targetQueue);
+            if (queuedTask.cancelRequested) {
+                // the cancel request arrived while the task was being dispatched, cancel it on the agent instead
+                deviceAgentManagementService.cancelTestTaskById(testTaskSpec.testTaskId, "Canceled while dispatching");
             }
         }
-        isRunning.set(false);
     }
 
-    public void cancelTask(String testTaskId) {
-        synchronized (taskQueue) {
-            Queue<TestTaskSpec> taskQueueCopy = getTestQueueCopy();
-            TestTaskSpec tempTask = null;
-            while (!taskQueueCopy.isEmpty()) {
-                TestTaskSpec temp = taskQueueCopy.poll();
-                if (testTaskId.equals(temp.testTaskId)) {
-                    tempTask = temp;
-                    break;
-                }
-            }
-            if (tempTask != null) {
-                taskQueue.remove(tempTask);
-            }
+    private void removeQueuedTask(QueuedTestTask queuedTask, TargetTaskQueue targetQueue) {
+        queuedTaskMap.remove(queuedTask.testTaskSpec.testTaskId, queuedTask);
+        taskQueue.remove(queuedTask.sequence, queuedTask);
+        targetQueue.pendingCount.decrementAndGet();
+        queueVersion.incrementAndGet();
+        testTaskStatusStreamService.onQueueChanged();
+    }
+
+    /**
+     * @return true if the task was removed from the queue, false if it is not queued or is being dispatched right now,
+     * in the latter case it will be canceled on the agent once dispatched.
+     */
+    public boolean cancelTask(String testTaskId) {
+        QueuedTestTask queuedTask = queuedTaskMap.get(testTaskId);
+        if (queuedTask == null) {
+            return false;
         }
+        queuedTask.cancelRequested = true;
+        if (!queuedTask.state.compareAndSet(QueuedTestTask.QUEUED, QueuedTestTask.DONE)) {
+            return false;
+        }
+        // the entry stays in the target queue and is dropped by the scheduler when it reaches the head
+        removeQueuedTask(queuedTask, targetTaskQueues.get(queuedTask.testTaskSpec.deviceIdentifier));
+        return true;
     }
 
     public LinkedList<TestTaskSpec> getTestQueueCopy() {
-        return new LinkedList<>(taskQueue);
+        LinkedList<TestTaskSpec> taskQueueCopy = new LinkedList<>();
+        for (QueuedTestTask queuedTask : taskQueue.values()) {
+            if (!queuedTask.isDone()) {
+                taskQueueCopy.add(queuedTask.testTaskSpec);
+            }
+        }
+        return taskQueueCopy;
     }
 
     public TestTaskQueuedInfo getTestQueuedInfo(String testTaskId) {
@@ -130,19 +247,39 @@ public class TestTaskService {
         queuedInfo[1] = 0;
         taskQueuedInfo.setQueuedInfo(queuedInfo);
 
-        Queue<TestTaskSpec> taskQueueCopy = getTestQueueCopy();
+        QueuedTestTask queuedTask = queuedTaskMap.get(testTaskId);
+        if (queuedTask == null || queuedTask.isDone()) {
+            return taskQueuedInfo;
+        }
+        queuedInfo[0] = getQueuePosition(testTaskId);
+        queuedInfo[1] = queuedTask.testTaskSpec.retryTime;
+        taskQueuedInfo.setTestTaskSpec(queuedTask.testTaskSpec);
+        return taskQueuedInfo;
+    }
+
+    private int getQueuePosition(String testTaskId) {
+        QueuePositionSnapshot snapshot = positionSnapshot;
+        Integer position = snapshot.positions.get(testTaskId);
+        if (position == null || snapshot.version != queueVersion.get()) {
+            // the queue changed since the last snapshot, the first reader rebuilds it and the following polls reuse it
+            snapshot = rebuildPositionSnapshot();
+            position = snapshot.positions.get(testTaskId);
+        }
+        return position == null ? -1 : position;
+    }
+
+    private QueuePositionSnapshot rebuildPositionSnapshot() {
+        long version = queueVersion.get();
+        Map<String, Integer> positions = new HashMap<>();
         int index = 1;
-        while (!taskQueueCopy.isEmpty()) {
-            TestTaskSpec temp = taskQueueCopy.poll();
-            if (testTaskId.equals(temp.testTaskId)) {
-                queuedInfo[0] = index;
-                queuedInfo[1] = temp.retryTime;
-                taskQueuedInfo.setTestTaskSpec(temp);
-                break;
+        for (QueuedTestTask queuedTask : taskQueue.values()) {
+            if (!queuedTask.isDone()) {
+                positions.put(queuedTask.testTaskSpec.testTaskId, index++);
             }
-            index++;
         }
-        return taskQueuedInfo;
+        QueuePositionSnapshot snapshot = new QueuePositionSnapshot(version, positions);
+        positionSnapshot = snapshot;
+        return snapshot;
     }
 
     public void checkTestTaskTeamConsistency(TestTaskSpec testTaskSpec) throws HydraLabRuntimeException {
@@ -195,4 +332,38 @@ public class TestTaskService {
         testTasks.forEach(testTask -> testTask.setTeamName(teamName));
         testDataService.saveAllTestTasks(testTasks);
     }
+
+    static class QueuedTestTask {
+        static final int QUEUED = 0;
+        static final int DISPATCHING = 1;
+        static final int DONE = 2;
+        final TestTaskSpec testTaskSpec;
+        final long sequence;
+        final AtomicInteger state = new AtomicInteger(QUEUED);
+        volatile boolean cancelRequested;
+
+        QueuedTestTask(TestTaskSpec testTaskSpec, long sequence) {
+            this.testTaskSpec = testTaskSpec;
+            this.sequence = sequence;
+        }
+
+        boolean isDone() {
+            return state.get() == DONE;
+        }
+    }
+
+    static class TargetTaskQueue {
+        final ConcurrentLinkedQueue<QueuedTestTask> tasks = new ConcurrentLinkedQueue<>();
+        final AtomicInteger pendingCount = new AtomicInteger(0);
+    }
+
+    static class QueuePositionSnapshot {
+        final long version;
+        final Map<String, Integer> positions;
+
+        QueuePositionSnapshot(long version, Map<String, Integer> positions) {
+            this.version = version;
+            this.positions = positions;
+        }
+    }
 }
@@ -0,0 +1,376 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+
+package com.microsoft.hydralab.center.service;
+
+import com.alibaba.fastjson.JSONObject;
+import com.microsoft.hydralab.common.entity.center.TestTaskQueuedInfo;
+import com.microsoft.hydralab.common.entity.common.TestRun;
+import com.microsoft.hydralab.common.entity.common.TestTask;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes the progress of test tasks to the subscribed clients as server-sent events, so that the clients don't need to poll the task detail.
+ * The events of a task, with JSON data:
+ * 1) queue: the position of the task in the queue, when it changes
+ * 2) device: the state of a device of the task (testing/online/offline), when the device is dispatched to or released from the task
+ * 3) deviceResult: the result of a device reported by its agent, with the case counts and the failure if any
+ * 4) task: the overall status of the task, the stream is completed after a final status (finished/canceled/error)
+ * The events are built in publishing order on a single thread, so that a slow client never blocks the agent messages.
+ * Each client has its own bounded buffer drained by a send thread, a client falling behind by a full buffer is completed
+ * so that it can subscribe again and start from the current state. Other clients don't wait for it.
+ * The number of clients is capped, and so the number of send threads, a subscription over the cap is refused.
+ * An event equal to the last one of the same kind sent to a client is not sent again.
+ */
+@Slf4j
+@Service
+public class TestTaskStatusStreamService {
+    static final String EVENT_QUEUE = "queue";
+    static final String EVENT_DEVICE = "device";
+    static final String EVENT_DEVICE_RESULT = "deviceResult";
+    static final String EVENT_TASK = "task";
+    // queued after the final event, the stream is completed once the events before it are sent
+    private static final SseEmitter.SseEventBuilder COMPLETE = SseEmitter.event();
+    //save subscriptions by task id <testTaskId,subscription>
+    private final ConcurrentHashMap<String, TaskSubscription> subscriptions = new ConcurrentHashMap<>();
+    private final AtomicBoolean queueRefreshPending = new AtomicBoolean(false);
+    private final AtomicInteger subscriberCount = new AtomicInteger(0);
+    @Resource
+    TestDataService testDataService;
+    @Resource
+    TestTaskService testTaskService;
+    @Value("${app.test-task-stream.timeout-minutes:180}")
+    long timeoutMinutes = 180;
+    @Value("${app.test-task-stream.subscriber-buffer-size:64}")
+    int subscriberBufferSize = 64;
+    @Value("${app.test-task-stream.max-subscribers:256}")
+    int maxSubscribers = 256;
+    Executor streamExecutor;
+    Executor sendExecutor;
+
+    @PostConstruct
+    public void start() {
+        streamExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TestTaskStatusStream");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // at most a thread per client being sent to, a client blocking on a slow connection only holds its own thread
+        AtomicInteger sendThreadIndex = new AtomicInteger(0);
+        ThreadPoolExecutor sendThreadPool = new ThreadPoolExecutor(maxSubscribers, maxSubscribers, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "TestTaskStatusSend-" + sendThreadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        sendThreadPool.allowCoreThreadTimeOut(true);
+        sendExecutor = sendThreadPool;
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (streamExecutor instanceof ExecutorService) {
+            ((ExecutorService) streamExecutor).shutdownNow();
+        }
+        if (sendExecutor instanceof ExecutorService) {
+            ((ExecutorService) sendExecutor).shutdownNow();
+        }
+        for (TaskSubscription subscription : subscriptions.values()) {
+            for (Subscriber subscriber : subscription.subscribers) {
+                subscriber.emitter.complete();
+            }
+        }
+        subscriptions.clear();
+        subscriberCount.set(0);
+    }
+
+    /**
+     * The current state of the task is sent first, then its changes until the task ends or the stream times out.
+     *
+     * @return null if there are already as many subscribers as allowed
+     */
+    public SseEmitter subscribe(String testTaskId) {
+        return register(testTaskId, new SseEmitter(TimeUnit.MINUTES.toMillis(timeoutMinutes)));
+    }
+
+    SseEmitter register(String testTaskId, SseEmitter emitter) {
+        if (subscriberCount.incrementAndGet() > maxSubscribers) {
+            subscriberCount.decrementAndGet();
+            log.warn("Refused the status stream of test task {}, {} subscribers at most", testTaskId, maxSubscribers);
+            return null;
+        }
+        Subscriber subscriber = new Subscriber(emitter, subscriberBufferSize);
+        subscriptions.compute(testTaskId, (k, subscription) -> {
+            if (subscription == null) {
+                subscription = new TaskSubscription();
+            }
+            subscription.subscribers.add(subscriber);
+            return subscription;
+        });
+        emitter.onCompletion(() -> unregister(testTaskId, subscriber));
+        emitter.onTimeout(emitter::complete);
+        emitter.onError(e -> unregister(testTaskId, subscriber));
+        streamExecutor.execute(() -> refreshTaskStatus(testTaskId));
+        return emitter;
+    }
+
+    private void unregister(String testTaskId, Subscriber subscriber) {
+        subscriptions.computeIfPresent(testTaskId, (k, subscription) -> {
+            if (subscription.subscribers.remove(subscriber)) {
+                subscriberCount.decrementAndGet();
+            }
+            return subscription.subscribers.isEmpty() ? null : subscription;
+        });
+    }
+
+    public boolean hasSubscribers(String testTaskId) {
+        return subscriptions.containsKey(testTaskId);
+    }
+
+    public int getSubscriberCount() {
+        return subscriberCount.get();
+    }
+
+    /**
+     * Called when the saved status of the task may have changed, the task is read from the task cache on the stream thread.
+     */
+    public void publishTaskStatus(String testTaskId) {
+        if (!hasSubscribers(testTaskId)) {
+            return;
+        }
+        streamExecutor.execute(() -> refreshTaskStatus(testTaskId));
+    }
+
+    public void publishDeviceStatus(String testTaskId, String serialNum, String status) {
+        if (testTaskId == null || !hasSubscribers(testTaskId)) {
+            return;
+        }
+        JSONObject data = new JSONObject();
+        data.put("testTaskId", testTaskId);
+        data.put("deviceSerialNumber", serialNum);
+        data.put("status", status);
+        streamExecutor.execute(() -> publish(testTaskId, EVENT_DEVICE, EVENT_DEVICE + ":" + serialNum, data.toJSONString(), false));
+    }
+
+    /**
+     * Called with the task sent by an agent, the results of the devices of this agent are read right away as the message may be reused.
+     */
+    public void publishDeviceResults(TestTask testTask) {
+        if (!hasSubscribers(testTask.getId())) {
+            return;
+        }
+        boolean taskFinished = TestTask.TestStatus.FINISHED.equals(testTask.getStatus());
+        List<JSONObject> results = new ArrayList<>();
+        for (TestRun testRun : testTask.getDeviceTestResults()) {
+            results.add(toDeviceResultData(testRun, taskFinished));
+        }
+        streamExecutor.execute(() -> {
+            for (JSONObject data : results) {
+                publish(testTask.getId(), EVENT_DEVICE_RESULT, EVENT_DEVICE_RESULT + ":" + data.getString("deviceSerialNumber"), data.toJSONString(), false);
+            }
+        });
+    }
+
+    /**
+     * Called on each change of the queue, the changes arriving while a refresh is pending are handled by that refresh.
+     * Only the positions of the queued tasks change, so the tasks which were not queued are not read again,
+     * a task which has just left the queue is read once for its new status.
+     */
+    public void onQueueChanged() {
+        if (subscriptions.isEmpty() || !queueRefreshPending.compareAndSet(false, true)) {
+            return;
+        }
+        streamExecutor.execute(() -> {
+            queueRefreshPending.set(false);
+            for (Map.Entry<String, TaskSubscription> entry : subscriptions.entrySet()) {
+                if (!entry.getValue().queued) {
+                    continue;
+                }
+                TestTaskQueuedInfo queuedInfo = testTaskService.getTestQueuedInfo(entry.getKey());
+                if (queuedInfo.getTestTaskSpec() != null) {
+                    publishQueuedInfo(entry.getKey(), queuedInfo);
+                } else {
+                    refreshTaskStatus(entry.getKey());
+                }
+            }
+        });
+    }
+
+    @Scheduled(fixedDelay = 15000)
+    public void sendHeartbeat() {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+        // keeps idle streams open through proxies and lets the clients detect a dead center
+        streamExecutor.execute(() -> {
+            for (Map.Entry<String, TaskSubscription> entry : subscriptions.entrySet()) {
+                for (Subscriber subscriber : entry.getValue().subscribers) {
+                    send(entry.getKey(), subscriber, SseEmitter.event().comment("heartbeat"));
+                }
+            }
+        });
+    }
+
+    private void refreshTaskStatus(String testTaskId) {
+        TaskSubscription subscription = subscriptions.get(testTaskId);
+        if (subscription == null) {
+            return;
+        }
+        TestTaskQueuedInfo queuedInfo = testTaskService.getTestQueuedInfo(testTaskId);
+        subscription.queued = queuedInfo.getTestTaskSpec() != null;
+        if (subscription.queued) {
+            publishQueuedInfo(testTaskId, queuedInfo);
+            return;
+        }
+        JSONObject data = new JSONObject();
+        data.put("testTaskId", testTaskId);
+        TestTask testTask = testDataService.getTestTaskDetail(testTaskId);
+        if (testTask == null) {
+            // neither queued nor saved, the task was canceled while queuing
+            data.put("status", TestTask.TestStatus.CANCELED);
+            data.put("testErrorMsg", "Canceled while queuing");
+            publish(testTaskId, EVENT_TASK, EVENT_TASK, data.toJSONString(), true);
+            return;
+        }
+        data.put("status", testTask.getStatus());
+        data.put("retryTime", testTask.getRetryTime());
+        data.put("testDevicesCount", testTask.getTestDevicesCount());
+        data.put("totalTestCount", testTask.getTotalTestCount());
+        data.put("totalFailCount", testTask.getTotalFailCount());
+        data.put("testErrorMsg", testTask.getTestErrorMsg());
+        boolean isFinal = TestTask.TestStatus.FINISHED.equals(testTask.getStatus())
+                || TestTask.TestStatus.CANCELED.equals(testTask.getStatus())
+                || TestTask.TestStatus.EXCEPTION.equals(testTask.getStatus());
+        publish(testTaskId, EVENT_TASK, EVENT_TASK, data.toJSONString(), isFinal);
+    }
+
+    private void publishQueuedInfo(String testTaskId, TestTaskQueuedInfo queuedInfo) {
+        JSONObject data = new JSONObject();
+        data.put("testTaskId", testTaskId);
+        data.put("status", TestTask.TestStatus.WAITING);
+        data.put("position", queuedInfo.getQueuedInfo()[0]);
+        data.put("retryTime", queuedInfo.getQueuedInfo()[1]);
+        publish(testTaskId, EVENT_QUEUE, EVENT_QUEUE, data.toJSONString(), false);
+    }
+
+    private void publish(String testTaskId, String eventName, String eventKey, String data, boolean isFinal) {
+        TaskSubscription subscription = subscriptions.get(testTaskId);
+        if (subscription == null) {
+            return;
+        }
+        for (Subscriber subscriber : subscription.subscribers) {
+            if (!data.equals(subscriber.sentEvents.put(eventKey, data))) {
+                send(testTaskId, subscriber, SseEmitter.event().name(eventName).data(data));
+            }
+            if (isFinal) {
+                unregister(testTaskId, subscriber);
+                send(testTaskId, subscriber, COMPLETE);
+            }
+        }
+    }
+
+    /**
+     * Buffers the event of the client and starts draining the buffer if no send thread does it.
+     * The emitter is only used by the draining thread, as a send blocked on a slow client holds the lock of the emitter.
+     */
+    private void send(String testTaskId, Subscriber subscriber, SseEmitter.SseEventBuilder event) {
+        if (subscriber.closing) {
+            return;
+        }
+        if (!subscriber.buffer.offer(event)) {
+            // the draining thread completes the stream after its current send
+            log.warn("The status stream of test task {} falls behind by {} events, complete it", testTaskId, subscriberBufferSize);
+            subscriber.closing = true;
+            unregister(testTaskId, subscriber);
+        }
+        if (subscriber.draining.compareAndSet(false, true)) {
+            sendExecutor.execute(() -> drain(testTaskId, subscriber));
+        }
+    }
+
+    private void drain(String testTaskId, Subscriber subscriber) {
+        do {
+            SseEmitter.SseEventBuilder event;
+            while ((event = subscriber.buffer.poll()) != null) {
+                if (subscriber.closing || event == COMPLETE) {
+                    subscriber.buffer.clear();
+                    subscriber.closing = true;
+                    subscriber.emitter.complete();
+                    return;
+                }
+                try {
+                    subscriber.emitter.send(event);
+                } catch (IOException | IllegalStateException e) {
+                    // the client is gone or the stream is already completed
+                    log.debug("Failed to send the status event of test task {}: {}", testTaskId, e.getMessage());
+                    subscriber.buffer.clear();
+                    subscriber.closing = true;
+                    unregister(testTaskId, subscriber);
+                    subscriber.emitter.completeWithError(e);
+                    return;
+                }
+            }
+            subscriber.draining.set(false);
+            // an event buffered after the last poll and before the reset has no other thread to send it
+        } while (!subscriber.buffer.isEmpty() && subscriber.draining.compareAndSet(false, true));
+    }
+
+    private static JSONObject toDeviceResultData(TestRun testRun, boolean taskFinished) {
+        JSONObject data = new JSONObject();
+        data.put("testTaskId", testRun.getTestTaskId());
+        data.put("deviceSerialNumber", testRun.getDeviceSerialNumber());
+        data.put("deviceName", testRun.getDeviceName());
+        data.put("finished", taskFinished || testRun.getTestEndTimeMillis() > 0);
+        data.put("totalCount", testRun.getTotalCount());
+        data.put("failCount", testRun.getFailCount());
+        data.put("crashed", testRun.getCrashStack() != null);
+        String errorMessage = testRun.getTestErrorMessage() != null ? testRun.getTestErrorMessage() : testRun.getErrorInProcess();
+        data.put("errorMessage", errorMessage);
+        return data;
+    }
+
+    static class TaskSubscription {
+        final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+        // only accessed on the stream thread, whether the task was queued when last read
+        boolean queued;
+    }
+
+    static class Subscriber {
+        final SseEmitter emitter;
+        // only accessed on the stream thread <event key,last sent data>
+        final Map<String, String> sentEvents = new HashMap<>();
+        final BlockingQueue<SseEmitter.SseEventBuilder> buffer;
+        final AtomicBoolean draining = new AtomicBoolean(false);
+        volatile boolean closing;
+
+        Subscriber(SseEmitter emitter, int bufferSize) {
+            this.emitter = emitter;
+            this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        }
+    }
+}
@@ -7,8 +7,11 @@ import com.microsoft.hydralab.common.util.Const;
 import com.microsoft.hydralab.common.util.HydraLabRuntimeException;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.IOUtils;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -16,6 +19,13 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 /**
  * @author Li Shen
@@ -24,6 +34,14 @@ import java.io.OutputStream;
 
 @Slf4j
 public final class LocalStorageIOUtil {
+    public static final String PARTIAL_FILE_SUFFIX = ".part";
+    // request attributes of the tomcat sendfile support, the file is then written to the socket by the kernel
+    private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+    private static final String BYTES_UNIT = "bytes=";
+
     private LocalStorageIOUtil() {
     }
 
@@ -41,6 +59,49 @@ public final class LocalStorageIOUtil {
         }
     }
 
+    /**
+     * Write one chunk of a streaming upload into the partial file, chunks are expected in order and may be resent from any uploaded offset.
+     * The partial file is moved to the file uri once the last chunk is written.
+     *
+     * @return the size uploaded so far
+     */
+    public static long copyUploadedChunkToFile(InputStream inputStream, String fileUri, long offset, long totalSize) {
+        File file = new File(Const.LocalStorageURL.CENTER_LOCAL_STORAGE_ROOT + fileUri);
+        File parentDirFile = new File(file.getParent());
+        if (!parentDirFile.exists() && !parentDirFile.mkdirs()) {
+            throw new HydraLabRuntimeException(HttpStatus.INTERNAL_SERVER_ERROR.value(), "mkdirs failed!");
+        }
+        File partialFile = new File(file.getPath() + PARTIAL_FILE_SUFFIX);
+        if (offset < 0 || offset > totalSize || (offset != 0 && offset > partialFile.length())) {
+            throw new HydraLabRuntimeException(HttpStatus.BAD_REQUEST.value(),
+                    String.format("Invalid chunk offset %d, uploaded size is %d!", offset, partialFile.length()));
+        }
+
+        long uploadedSize;
+        try (FileChannel fileChannel = FileChannel.open(partialFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // a resent chunk overwrites everything after its offset
+            fileChannel.truncate(offset);
+            ReadableByteChannel source = Channels.newChannel(inputStream);
+            long position = offset;
+            long transferred;
+            while (position < totalSize && (transferred = fileChannel.transferFrom(source, position, totalSize - position)) > 0) {
+                position += transferred;
+            }
+            uploadedSize = position;
+        } catch (IOException e) {
+            throw new HydraLabRuntimeException(HttpStatus.INTERNAL_SERVER_ERROR.value(), "upload file chunk failed!", e);
+        }
+
+        if (uploadedSize == totalSize) {
+            try {
+                Files.move(partialFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                throw new HydraLabRuntimeException(HttpStatus.INTERNAL_SERVER_ERROR.value(), "upload file failed!", e);
+            }
+        }
+        return uploadedSize;
+    }
+
     public static int copyDownloadedStreamToResponse(File file, OutputStream os) {
         int resLen;
         try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(file))) {
@@ -50,4 +111,102 @@ public final class LocalStorageIOUtil {
         }
         return resLen;
     }
+
+    /**
+     * Write the file, or the range asked by the Range header, to the response.
+     * Tomcat sendfile is used when the connector supports it, otherwise the file channel transfers to the response stream without an extra copy buffer.
+     *
+     * @return the number of bytes written
+     */
+    public static long copyFileToResponse(File file, HttpServletRequest request, HttpServletResponse response) {
+        long fileLength = file.length();
+        long[] range;
+        try {
+            range = parseRange(request.getHeader(HttpHeaders.RANGE), fileLength);
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + fileLength);
+            return 0;
+        }
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        long start = 0;
+        long end = fileLength - 1;
+        if (range != null) {
+            start = range[0];
+            end = range[1];
+            response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, String.format("bytes %d-%d/%d", start, end, fileLength));
+        }
+        long length = end - start + 1;
+        response.setContentLengthLong(length);
+
+        try {
+            if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR))) {
+                request.setAttribute(SENDFILE_FILENAME_ATTR, file.getCanonicalPath());
+                request.setAttribute(SENDFILE_START_ATTR, start);
+                request.setAttribute(SENDFILE_END_ATTR, end + 1);
+                return length;
+            }
+            return copyFileRangeToStream(file, start, length, response.getOutputStream());
+        } catch (IOException e) {
+            throw new HydraLabRuntimeException(HttpStatus.INTERNAL_SERVER_ERROR.value(), e.getMessage());
+        }
+    }
+
+    public static long copyFileRangeToStream(File file, long start, long length, OutputStream os) throws IOException {
+        // the channel wraps the response stream, it is not closed here so that the container can finish the response
+        WritableByteChannel target = Channels.newChannel(os);
+        long position = start;
+        long end = start + length;
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (position < end) {
+                long transferred = fileChannel.transferTo(position, end - position, target);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+        }
+        return position - start;
+    }
+
+    /**
+     * Parse a single range of the Range header, multiple ranges are not supported and the whole file is returned for them.
+     *
+     * @return inclusive start and end of the range, or null if the whole file should be returned
+     * @throws IllegalArgumentException if the range can't be satisfied
+     */
+    public static long[] parseRange(String rangeHeader, long fileLength) {
+        if (rangeHeader == null || !rangeHeader.startsWith(BYTES_UNIT) || rangeHeader.contains(",")) {
+            return null;
+        }
+        String rangeSpec = rangeHeader.substring(BYTES_UNIT.length()).trim();
+        int dashIndex = rangeSpec.indexOf('-');
+        if (dashIndex < 0) {
+            return null;
+        }
+        long start;
+        long end;
+        try {
+            if (dashIndex == 0) {
+                // suffix range, the last n bytes
+                long suffixLength = Long.parseLong(rangeSpec.substring(1));
+                if (suffixLength <= 0) {
+                    throw new IllegalArgumentException("Empty suffix range " + rangeHeader);
+                }
+                start = Math.max(0, fileLength - suffixLength);
+                end = fileLength - 1;
+            } else {
+                start = Long.parseLong(rangeSpec.substring(0, dashIndex));
+                String endSpec = rangeSpec.substring(dashIndex + 1);
+                end = endSpec.isEmpty() ? fileLength - 1 : Math.min(Long.parseLong(endSpec), fileLength - 1);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (start >= fileLength || start > end) {
+            throw new IllegalArgumentException("Unsatisfiable range " + rangeHeader);
+        }
+        return new long[]{start, end};
+    }
 }
@@ -4,15 +4,23 @@
 package com.microsoft.hydralab.center.util;
 
 import com.microsoft.hydralab.center.service.DeviceAgentManagementService;
+import com.microsoft.hydralab.center.service.DeviceGroupService;
+import com.microsoft.hydralab.center.service.TestTaskPersistService;
+import com.microsoft.hydralab.center.service.TestTaskStatusStreamService;
 import com.microsoft.hydralab.common.entity.common.AgentUser;
 import com.microsoft.hydralab.common.util.GlobalConstant;
+import io.micrometer.core.instrument.FunctionCounter;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.statistics.StatisticsGateway;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
 
 @Service
 @Slf4j
@@ -38,6 +46,65 @@ public class MetricUtil {
         log.info("Metric of device online number has been registered.");
     }
 
+    public void registerDeviceGroupRelationNum(DeviceGroupService deviceGroupService) {
+        meterRegistry.gauge(GlobalConstant.PROMETHEUS_METRIC_DEVICE_GROUP_RELATION_NUM,
+                Tags.empty(),
+                deviceGroupService,
+                DeviceGroupService::getRelationNum);
+        log.info("Metric of device group relation number has been registered.");
+    }
+
+    public Timer registerDeviceGroupLookupTimer(String lookupType, boolean hit) {
+        return meterRegistry.timer(GlobalConstant.PROMETHEUS_METRIC_DEVICE_GROUP_LOOKUP, "type", lookupType, "result", hit ? "hit" : "miss");
+    }
+
+    public void registerTestTaskPersistQueueDepth(TestTaskPersistService testTaskPersistService) {
+        meterRegistry.gauge(GlobalConstant.PROMETHEUS_METRIC_TEST_TASK_PERSIST_QUEUE_DEPTH,
+                Tags.empty(),
+                testTaskPersistService,
+                TestTaskPersistService::getQueueDepth);
+        log.info("Metric of test task persist queue depth has been registered.");
+    }
+
+    public void registerTestTaskStatusSubscriberNum(TestTaskStatusStreamService testTaskStatusStreamService) {
+        meterRegistry.gauge(GlobalConstant.PROMETHEUS_METRIC_TEST_TASK_STATUS_SUBSCRIBER_NUM,
+                Tags.empty(),
+                testTaskStatusStreamService,
+                TestTaskStatusStreamService::getSubscriberCount);
+        log.info("Metric of test task status subscriber number has been registered.");
+    }
+
+    /**
+     * The hit ratio of the cache, the gets by the tier they hit, and the bytes held by each tier.
+     */
+    public void registerKeyValueCacheMetrics(Ehcache keyValueCache) {
+        StatisticsGateway statistics = keyValueCache.getStatistics();
+        meterRegistry.gauge(GlobalConstant.PROMETHEUS_METRIC_KEY_VALUE_CACHE_HIT_RATIO,
+                Tags.empty(),
+                statistics,
+                StatisticsGateway::cacheHitRatio);
+        FunctionCounter.builder(GlobalConstant.PROMETHEUS_METRIC_KEY_VALUE_CACHE_GETS, statistics, StatisticsGateway::localHeapHitCount)
+                .tags("result", "heap_hit").register(meterRegistry);
+        FunctionCounter.builder(GlobalConstant.PROMETHEUS_METRIC_KEY_VALUE_CACHE_GETS, statistics, StatisticsGateway::localDiskHitCount)
+                .tags("result", "disk_hit").register(meterRegistry);
+        FunctionCounter.builder(GlobalConstant.PROMETHEUS_METRIC_KEY_VALUE_CACHE_GETS, statistics, StatisticsGateway::cacheMissCount)
+                .tags("result", "miss").register(meterRegistry);
+        meterRegistry.gauge(GlobalConstant.PROMETHEUS_METRIC_KEY_VALUE_CACHE_SIZE_BYTES,
+                Tags.of("tier", "heap"),
+                statistics,
+                StatisticsGateway::getLocalHeapSizeInBytes);
+        meterRegistry.gauge(GlobalConstant.PROMETHEUS_METRIC_KEY_VALUE_CACHE_SIZE_BYTES,
+                Tags.of("tier", "disk"),
+                statistics,
+                StatisticsGateway::getLocalDiskSizeInBytes);
+        log.info("Metric of key value cache has been registered.");
+    }
+
+    public void recordTestTaskPersistFlush(int batchSize, long costNanos) {
+        meterRegistry.timer(GlobalConstant.PROMETHEUS_METRIC_TEST_TASK_PERSIST_FLUSH).record(costNanos, TimeUnit.NANOSECONDS);
+        meterRegistry.summary(GlobalConstant.PROMETHEUS_METRIC_TEST_TASK_PERSIST_BATCH_SIZE).record(batchSize);
+    }
+
     public void registerAgentAliveStatusMetric(AgentUser agentUser) {
         if (agentAliveStatusMap.containsKey(agentUser.getId())) {
             updateAgentAliveStatus(agentUser.getId(), GlobalConstant.AgentLiveStatus.ONLINE.getStatus());
@@ -6,9 +6,13 @@ package com.microsoft.hydralab.center.file.local;
 import com.microsoft.hydralab.center.test.BaseTest;
 import com.microsoft.hydralab.center.util.LocalStorageIOUtil;
 import com.microsoft.hydralab.common.util.Const;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -47,4 +51,48 @@ public class LocalStorageIOTest extends BaseTest {
         fileOutputStream.close();
         outputFile.delete();
     }
+
+    @Test
+    public void uploadStreamInChunks() throws IOException {
+        String fileUri = "test/unit/chunk/" + sampleFile.getName();
+        long totalSize = sampleFile.length();
+        long chunkSize = totalSize / 3 + 1;
+        long uploadedSize = 0;
+        try (FileInputStream fileInputStream = new FileInputStream(sampleFile)) {
+            while (uploadedSize < totalSize) {
+                byte[] chunk = new byte[(int) Math.min(chunkSize, totalSize - uploadedSize)];
+                IOUtils.readFully(fileInputStream, chunk);
+                uploadedSize = LocalStorageIOUtil.copyUploadedChunkToFile(new ByteArrayInputStream(chunk), fileUri, uploadedSize, totalSize);
+            }
+        }
+
+        File uploadedFile = new File(Const.LocalStorageURL.CENTER_LOCAL_STORAGE_ROOT + fileUri);
+        Assertions.assertEquals(totalSize, uploadedFile.length(), "Upload stream in chunks failed!");
+        Assertions.assertFalse(new File(uploadedFile.getPath() + LocalStorageIOUtil.PARTIAL_FILE_SUFFIX).exists(), "Partial file is not moved!");
+        Assertions.assertTrue(FileUtils.contentEquals(sampleFile, uploadedFile), "Uploaded content is different!");
+    }
+
+    @Test
+    public void downloadStreamRange() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        long resLen = LocalStorageIOUtil.copyFileRangeToStream(sampleFile, 10, 100, outputStream);
+        Assertions.assertEquals(100, resLen, "Download stream range failed!");
+
+        byte[] expected = new byte[100];
+        try (FileInputStream fileInputStream = new FileInputStream(sampleFile)) {
+            IOUtils.skipFully(fileInputStream, 10);
+            IOUtils.readFully(fileInputStream, expected);
+        }
+        Assertions.assertArrayEquals(expected, outputStream.toByteArray(), "Downloaded range is different!");
+    }
+
+    @Test
+    public void parseRange() {
+        Assertions.assertNull(LocalStorageIOUtil.parseRange(null, 1000));
+        Assertions.assertArrayEquals(new long[]{100, 999}, LocalStorageIOUtil.parseRange("bytes=100-", 1000));
+        Assertions.assertArrayEquals(new long[]{100, 199}, LocalStorageIOUtil.parseRange("bytes=100-199", 1000));
+        Assertions.assertArrayEquals(new long[]{900, 999}, LocalStorageIOUtil.parseRange("bytes=-100", 1000));
+        Assertions.assertArrayEquals(new long[]{0, 999}, LocalStorageIOUtil.parseRange("bytes=0-5000", 1000));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> LocalStorageIOUtil.parseRange("bytes=1000-", 1000));
+    }
 }
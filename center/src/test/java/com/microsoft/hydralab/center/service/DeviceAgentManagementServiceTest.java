@@ -0,0 +1,155 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+
+package com.microsoft.hydralab.center.service;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.microsoft.hydralab.center.util.MetricUtil;
+import com.microsoft.hydralab.common.entity.center.AgentDeviceGroup;
+import com.microsoft.hydralab.common.entity.common.AgentUser;
+import com.microsoft.hydralab.common.entity.common.DeviceInfo;
+import com.microsoft.hydralab.common.entity.common.Message;
+import com.microsoft.hydralab.common.util.Const;
+import com.microsoft.hydralab.common.util.SerializeUtil;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import javax.websocket.Session;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+public class DeviceAgentManagementServiceTest {
+    @Test
+    void agentSessionIsIndexedByAgentId() {
+        DeviceAgentManagementService service = new DeviceAgentManagementService();
+        service.metricUtil = Mockito.mock(MetricUtil.class);
+        Session sessionA = newSession("session_a");
+        Session sessionB = newSession("session_b");
+        service.saveAgentSession(sessionA, newAgentUser("agent_a"), SerializeUtil.JSON_GZIP_CODEC);
+        service.saveAgentSession(sessionB, newAgentUser("agent_b"), SerializeUtil.JSON_GZIP_CODEC);
+        Assertions.assertSame(sessionA, service.getAgentSessionInfoByAgentId("agent_a").session);
+        Assertions.assertSame(sessionB, service.getAgentSessionInfoByAgentId("agent_b").session);
+        Assertions.assertNull(service.getAgentSessionInfoByAgentId("agent_c"));
+
+        service.deleteSessionAndDevice(sessionA);
+        Assertions.assertNull(service.getAgentSessionInfoByAgentId("agent_a"), "The index entry should be removed with the session");
+        Assertions.assertSame(sessionB, service.getAgentSessionInfoByAgentId("agent_b").session);
+    }
+
+    @Test
+    void closingOldSessionKeepsReconnectedAgent() {
+        DeviceAgentManagementService service = new DeviceAgentManagementService();
+        service.metricUtil = Mockito.mock(MetricUtil.class);
+        Session oldSession = newSession("session_old");
+        Session reconnectedSession = newSession("session_new");
+        service.saveAgentSession(oldSession, newAgentUser("agent_a"), SerializeUtil.JSON_GZIP_CODEC);
+        service.saveAgentSession(reconnectedSession, newAgentUser("agent_a"), SerializeUtil.JSON_GZIP_CODEC);
+
+        service.deleteSessionAndDevice(oldSession);
+        Assertions.assertSame(reconnectedSession, service.getAgentSessionInfoByAgentId("agent_a").session,
+                "The old session should not remove the index entry of the new one");
+    }
+
+    private static Session newSession(String sessionId) {
+        Session session = Mockito.mock(Session.class);
+        Mockito.when(session.getId()).thenReturn(sessionId);
+        return session;
+    }
+
+    private static AgentUser newAgentUser(String agentId) {
+        AgentUser agentUser = new AgentUser();
+        agentUser.setId(agentId);
+        agentUser.setName(agentId);
+        return agentUser;
+    }
+
+    @Test
+    void deviceInventorySnapshotIsReusedUntilAChange() {
+        DeviceAgentManagementService service = new DeviceAgentManagementService();
+        service.deviceGroupService = Mockito.mock(DeviceGroupService.class);
+        service.testTaskService = Mockito.mock(TestTaskService.class);
+        service.testTaskStatusStreamService = Mockito.mock(TestTaskStatusStreamService.class);
+        Session sessionA = connectAgent(service, "agent_a", "team_a", newDevice("a1", false), newDevice("a2", true));
+        Session sessionB = connectAgent(service, "agent_b", "team_b", newDevice("b1", false));
+        Mockito.clearInvocations(sessionA, sessionB);
+
+        DeviceInventorySnapshot snapshot = service.getDeviceInventorySnapshot();
+        Assertions.assertSame(snapshot, service.getDeviceInventorySnapshot(), "The snapshot should be reused while nothing changes");
+        Set<String> teamIds = Collections.singleton("team_b");
+        String scope = DeviceInventorySnapshot.getScope(false, teamIds);
+        List<AgentDeviceGroup> view = snapshot.getAgentDeviceGroups(scope, teamIds);
+        Assertions.assertSame(view, snapshot.getAgentDeviceGroups(scope, teamIds), "The view of a scope should be reused");
+        Assertions.assertEquals(Arrays.asList("a1", "b1"), getSerialNums(view), "Private devices of other teams should be hidden");
+        Assertions.assertEquals(Arrays.asList("a1", "a2", "b1"),
+                getSerialNums(snapshot.getAgentDeviceGroups(DeviceInventorySnapshot.ADMIN_SCOPE, Collections.emptySet())));
+        Assertions.assertNotEquals(snapshot.getETag(scope), snapshot.getETag(DeviceInventorySnapshot.ADMIN_SCOPE));
+
+        service.updateDeviceStatus("b1", DeviceInfo.TESTING, "task_1");
+        DeviceInventorySnapshot updated = service.getDeviceInventorySnapshot();
+        Assertions.assertNotSame(snapshot, updated);
+        Assertions.assertNotEquals(snapshot.getETag(scope), updated.getETag(scope));
+        Assertions.assertSame(getAgent(snapshot, "agent_a"), getAgent(updated, "agent_a"), "Unchanged agents should not be copied again");
+        Assertions.assertEquals(DeviceInfo.ONLINE, getAgent(snapshot, "agent_b").getDevices().get(0).getStatus(), "A snapshot should not change");
+        Assertions.assertEquals(DeviceInfo.TESTING, getAgent(updated, "agent_b").getDevices().get(0).getStatus());
+
+        // serving the inventory doesn't ask the agents for their device lists
+        Mockito.verify(sessionA, Mockito.never()).getBasicRemote();
+        Mockito.verify(sessionB, Mockito.never()).getBasicRemote();
+    }
+
+    @Test
+    void groupDevicesReadFromDeviceGroupIndex() {
+        DeviceAgentManagementService service = new DeviceAgentManagementService();
+        service.deviceGroupService = Mockito.mock(DeviceGroupService.class);
+        service.testTaskService = Mockito.mock(TestTaskService.class);
+        service.testTaskStatusStreamService = Mockito.mock(TestTaskStatusStreamService.class);
+        connectAgent(service, "agent_a", "team_a", newDevice("a1", false), newDevice("a2", false));
+        // a2 is not in the group, offline is a member whose agent is not connected
+        Mockito.when(service.deviceGroupService.getDeviceSerialsByGroup("G.group")).thenReturn(new HashSet<>(Arrays.asList("a1", "offline")));
+
+        List<DeviceInfo> devices = service.queryDeviceInfoByGroup("G.group");
+        Assertions.assertEquals(Collections.singletonList("a1"), devices.stream().map(DeviceInfo::getSerialNum).collect(Collectors.toList()));
+
+        service.addDeviceToGroup("G.group", "a2");
+        service.removeGroup("G.group");
+        Assertions.assertFalse(service.getDevice("a2").getDeviceGroup().contains("G.group"), "Removed group should be dropped from the devices");
+    }
+
+    private Session connectAgent(DeviceAgentManagementService service, String agentId, String teamId, DeviceInfo... devices) {
+        AgentUser agentUser = new AgentUser();
+        agentUser.setId(agentId);
+        agentUser.setTeamId(teamId);
+        Session session = Mockito.mock(Session.class);
+        Mockito.when(session.getId()).thenReturn("session_" + agentId);
+        service.saveAgentSession(session, agentUser, SerializeUtil.JSON_GZIP_CODEC);
+
+        Message message = new Message();
+        message.setPath(Const.Path.DEVICE_LIST);
+        message.setBody(JSON.toJSON(Arrays.asList(devices)));
+        Assertions.assertTrue(message.getBody() instanceof JSONArray);
+        service.onMessage(message, session);
+        return session;
+    }
+
+    private DeviceInfo newDevice(String serialNum, boolean isPrivate) {
+        DeviceInfo deviceInfo = new DeviceInfo();
+        deviceInfo.setSerialNum(serialNum);
+        deviceInfo.setStatus(DeviceInfo.ONLINE);
+        deviceInfo.setIsPrivate(isPrivate);
+        return deviceInfo;
+    }
+
+    private AgentDeviceGroup getAgent(DeviceInventorySnapshot snapshot, String agentId) {
+        return snapshot.getAllAgentDeviceGroups().stream().filter(agent -> agentId.equals(agent.getAgentId())).findFirst().orElse(null);
+    }
+
+    private List<String> getSerialNums(List<AgentDeviceGroup> agentDeviceGroups) {
+        return agentDeviceGroups.stream().flatMap(agent -> agent.getDevices().stream()).map(DeviceInfo::getSerialNum).sorted().collect(Collectors.toList());
+    }
+}
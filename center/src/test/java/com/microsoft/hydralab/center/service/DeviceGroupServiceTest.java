@@ -41,9 +41,14 @@ class DeviceGroupServiceTest extends BaseTest {
         Assertions.assertNotNull(relationG, "Query relation by group failed!");
         Assertions.assertEquals(relationG.size(), 1, "Query relation by group failed!");
 
+        Assertions.assertTrue(deviceGroupService.getGroupNamesByDevice(deviceSerial).contains(groupName), "Relation is not indexed by device!");
+        Assertions.assertTrue(deviceGroupService.getDeviceSerialsByGroup(groupName).contains(deviceSerial), "Relation is not indexed by group!");
+
         deviceGroupService.deleteRelation(groupName, deviceSerial);
         relation = deviceGroupService.getRelation(groupName, deviceSerial);
         Assertions.assertNull(relation, "Delete relation failed!");
+        Assertions.assertTrue(deviceGroupService.getGroupByDevice(deviceSerial).isEmpty(), "Relation is not removed from device index!");
+        Assertions.assertTrue(deviceGroupService.getDeviceByGroup(groupName).isEmpty(), "Relation is not removed from group index!");
     }
 
 }
\ No newline at end of file
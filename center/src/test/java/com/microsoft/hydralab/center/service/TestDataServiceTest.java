@@ -0,0 +1,206 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+
+package com.microsoft.hydralab.center.service;
+
+import com.microsoft.hydralab.common.entity.common.AndroidTestUnit;
+import com.microsoft.hydralab.common.entity.common.EntityFileRelation;
+import com.microsoft.hydralab.common.entity.common.EntityType;
+import com.microsoft.hydralab.common.entity.common.StorageFileInfo;
+import com.microsoft.hydralab.common.entity.common.TestRun;
+import com.microsoft.hydralab.common.entity.common.TestTask;
+import com.microsoft.hydralab.common.repository.AndroidTestUnitRepository;
+import com.microsoft.hydralab.common.repository.EntityFileRelationRepository;
+import com.microsoft.hydralab.common.repository.KeyValueRepository;
+import com.microsoft.hydralab.common.repository.PerformanceTestResultRepository;
+import com.microsoft.hydralab.common.repository.StorageFileInfoRepository;
+import com.microsoft.hydralab.common.repository.TestRunRepository;
+import com.microsoft.hydralab.common.repository.TestTaskRepository;
+import com.microsoft.hydralab.common.util.AttachmentService;
+import com.microsoft.hydralab.common.util.HydraLabRuntimeException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+public class TestDataServiceTest {
+    private static final String TASK_ID = "task_0";
+    private static final int ATTACHMENT_COUNT_PER_RUN = 3;
+    private static final int UNIT_COUNT = 20;
+    private final TestTaskRepository testTaskRepository = Mockito.mock(TestTaskRepository.class);
+    private final TestRunRepository testRunRepository = Mockito.mock(TestRunRepository.class);
+    private final AndroidTestUnitRepository androidTestUnitRepository = Mockito.mock(AndroidTestUnitRepository.class);
+    private final EntityFileRelationRepository entityFileRelationRepository = Mockito.mock(EntityFileRelationRepository.class);
+    private final StorageFileInfoRepository storageFileInfoRepository = Mockito.mock(StorageFileInfoRepository.class);
+    private final KeyValueRepository keyValueRepository = Mockito.mock(KeyValueRepository.class);
+    private final PerformanceTestResultRepository performanceTestResultRepository = Mockito.mock(PerformanceTestResultRepository.class);
+    private TestDataService testDataService;
+
+    @BeforeEach
+    void setUp() {
+        AttachmentService attachmentService = new AttachmentService();
+        ReflectionTestUtils.setField(attachmentService, "entityFileRelationRepository", entityFileRelationRepository);
+        ReflectionTestUtils.setField(attachmentService, "storageFileInfoRepository", storageFileInfoRepository);
+        testDataService = new TestDataService();
+        testDataService.testTaskRepository = testTaskRepository;
+        testDataService.testRunRepository = testRunRepository;
+        testDataService.androidTestUnitRepository = androidTestUnitRepository;
+        testDataService.attachmentService = attachmentService;
+        testDataService.keyValueRepository = keyValueRepository;
+        testDataService.performanceTestResultRepository = performanceTestResultRepository;
+    }
+
+    @Test
+    void getTestTaskDetail_QueryCountIndependentOfRunCount() {
+        for (int runCount : new int[]{1, 50}) {
+            Mockito.clearInvocations(testTaskRepository, testRunRepository, androidTestUnitRepository, entityFileRelationRepository, storageFileInfoRepository);
+            mockTaskWithRuns(runCount);
+
+            TestTask testTask = testDataService.getTestTaskDetail(TASK_ID);
+
+            Assertions.assertEquals(4, getQueryCount(), "The detail of a task with " + runCount + " runs should be loaded with a constant number of queries");
+            Assertions.assertEquals(runCount, testTask.getDeviceTestResults().size());
+            for (int i = 0; i < runCount; i++) {
+                TestRun testRun = testTask.getDeviceTestResults().get(i);
+                Assertions.assertTrue(testRun.getTestUnitList().isEmpty(), "The cached detail should only hold the summary of the runs");
+                Assertions.assertEquals(ATTACHMENT_COUNT_PER_RUN, testRun.getAttachments().size());
+                for (int order = 0; order < ATTACHMENT_COUNT_PER_RUN; order++) {
+                    Assertions.assertEquals(fileId(testRun.getId(), order), testRun.getAttachments().get(order).getFileId(), "Attachments should keep the file order");
+                }
+            }
+        }
+    }
+
+    @Test
+    void getTestTaskDetail_RunWithoutAttachments() {
+        TestTask testTask = new TestTask();
+        testTask.setId(TASK_ID);
+        TestRun testRun = new TestRun("device_0", "Pixel", TASK_ID);
+        Mockito.when(testTaskRepository.findById(TASK_ID)).thenReturn(Optional.of(testTask));
+        Mockito.when(testRunRepository.findByTestTaskId(TASK_ID)).thenReturn(List.of(testRun));
+        Mockito.when(entityFileRelationRepository.queryAllByEntityIdInAndEntityTypeOrderByFileOrderAsc(ArgumentMatchers.anyCollection(), ArgumentMatchers.eq(EntityType.TEST_RESULT.typeName)))
+                .thenReturn(new ArrayList<>());
+
+        TestTask result = testDataService.getTestTaskDetail(TASK_ID);
+
+        Assertions.assertNotNull(result.getDeviceTestResults().get(0).getAttachments());
+        Assertions.assertTrue(result.getDeviceTestResults().get(0).getAttachments().isEmpty());
+        Mockito.verifyNoInteractions(storageFileInfoRepository);
+    }
+
+    @Test
+    void saveTestTaskData_CacheSummaryOnly() {
+        TestTask testTask = new TestTask();
+        testTask.setId(TASK_ID);
+        testTask.setTotalTestCount(UNIT_COUNT);
+        testTask.agentIds.add("agent_0");
+        TestRun testRun = new TestRun("device_0", "Pixel", TASK_ID);
+        testRun.setTotalCount(UNIT_COUNT);
+        testRun.setCrashStack("stack");
+        testRun.setCrashStackId("crash_0");
+        for (int i = 0; i < UNIT_COUNT; i++) {
+            AndroidTestUnit testUnit = new AndroidTestUnit();
+            testUnit.setDeviceTestResultId(testRun.getId());
+            testUnit.setSuccess(true);
+            testRun.getTestUnitList().add(testUnit);
+        }
+        testTask.getDeviceTestResults().add(testRun);
+
+        TestTask summary = testDataService.saveTestTaskData(testTask);
+
+        Mockito.verify(androidTestUnitRepository).saveAll(testRun.getTestUnitList());
+        Mockito.verify(keyValueRepository).saveCrashStack("crash_0", "stack");
+        Assertions.assertNotSame(testTask, summary);
+        Assertions.assertEquals(TASK_ID, summary.getId());
+        Assertions.assertEquals(UNIT_COUNT, summary.getTotalTestCount());
+        Assertions.assertEquals(testTask.agentIds, summary.agentIds, "The agents of a group run should be kept for the following results");
+        TestRun runSummary = summary.getDeviceTestResults().get(0);
+        Assertions.assertEquals(testRun.getId(), runSummary.getId());
+        Assertions.assertEquals(UNIT_COUNT, runSummary.getTotalCount());
+        Assertions.assertEquals("crash_0", runSummary.getCrashStackId());
+        Assertions.assertTrue(runSummary.getTestUnitList().isEmpty());
+        Assertions.assertEquals("stack", runSummary.getCrashStack(), "The crash stack is returned by the task API");
+        Assertions.assertEquals(UNIT_COUNT, testRun.getTestUnitList().size(), "The saved task should be left as is");
+    }
+
+    @Test
+    void saveTestTaskData_SaveDetailOfCrashedCase() {
+        TestTask testTask = new TestTask();
+        testTask.setId(TASK_ID);
+        TestRun testRun = new TestRun("device_0", "Pixel", TASK_ID);
+        AndroidTestUnit passedUnit = new AndroidTestUnit();
+        passedUnit.setSuccess(true);
+        AndroidTestUnit crashedUnit = new AndroidTestUnit();
+        crashedUnit.setSuccess(true);
+        crashedUnit.setTestedClass("com.example.MainTest");
+        crashedUnit.setTestName("testLaunch");
+        crashedUnit.appendCrashStack("crash");
+        testRun.getTestUnitList().add(passedUnit);
+        testRun.getTestUnitList().add(crashedUnit);
+        testTask.getDeviceTestResults().add(testRun);
+
+        testDataService.saveTestTaskData(testTask);
+
+        Mockito.verify(keyValueRepository).saveAndroidTestUnit(crashedUnit);
+        Mockito.verify(keyValueRepository, Mockito.never()).saveAndroidTestUnit(passedUnit);
+    }
+
+    @Test
+    void getTestUnits_RejectInvalidPageRequest() {
+        HydraLabRuntimeException e = Assertions.assertThrows(HydraLabRuntimeException.class,
+                () -> testDataService.getTestUnits("run_0", false, null, null, null, null, "not_a_cursor", 10));
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST.value(), e.getCode());
+        e = Assertions.assertThrows(HydraLabRuntimeException.class,
+                () -> testDataService.getTestUnits("run_0", false, null, null, null, null, null, TestDataService.MAX_TEST_UNIT_PAGE_SIZE + 1));
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST.value(), e.getCode());
+
+        AndroidTestUnit testUnit = new AndroidTestUnit();
+        testUnit.setStartTimeMillis(1_700_000_000_000L);
+        Assertions.assertEquals("1700000000000_" + testUnit.getId(), TestDataService.toCursor(testUnit));
+    }
+
+    private void mockTaskWithRuns(int runCount) {
+        TestTask testTask = new TestTask();
+        testTask.setId(TASK_ID);
+        List<TestRun> testRuns = new ArrayList<>();
+        List<EntityFileRelation> relations = new ArrayList<>();
+        List<StorageFileInfo> fileInfos = new ArrayList<>();
+        for (int i = 0; i < runCount; i++) {
+            TestRun testRun = new TestRun("device_" + i, "Pixel", TASK_ID);
+            testRuns.add(testRun);
+            for (int order = 0; order < ATTACHMENT_COUNT_PER_RUN; order++) {
+                EntityFileRelation relation = new EntityFileRelation(testRun.getId(), EntityType.TEST_RESULT.typeName, fileId(testRun.getId(), order));
+                relation.setFileOrder(order + 1);
+                relations.add(relation);
+                StorageFileInfo fileInfo = new StorageFileInfo();
+                fileInfo.setFileId(fileId(testRun.getId(), order));
+                fileInfos.add(fileInfo);
+            }
+        }
+        Mockito.when(testTaskRepository.findById(TASK_ID)).thenReturn(Optional.of(testTask));
+        Mockito.when(testRunRepository.findByTestTaskId(TASK_ID)).thenReturn(testRuns);
+        relations.sort((a, b) -> a.getFileOrder() - b.getFileOrder());
+        Mockito.when(entityFileRelationRepository.queryAllByEntityIdInAndEntityTypeOrderByFileOrderAsc(ArgumentMatchers.anyCollection(), ArgumentMatchers.eq(EntityType.TEST_RESULT.typeName)))
+                .thenReturn(relations);
+        Mockito.when(storageFileInfoRepository.findAllById(ArgumentMatchers.anyIterable())).thenReturn(fileInfos);
+    }
+
+    private int getQueryCount() {
+        int count = 0;
+        for (Object repository : new Object[]{testTaskRepository, testRunRepository, androidTestUnitRepository, entityFileRelationRepository, storageFileInfoRepository}) {
+            count += Mockito.mockingDetails(repository).getInvocations().size();
+        }
+        return count;
+    }
+
+    private static String fileId(String testRunId, int order) {
+        return testRunId + "_file_" + order;
+    }
+}
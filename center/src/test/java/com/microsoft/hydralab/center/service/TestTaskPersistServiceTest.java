@@ -0,0 +1,163 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+
+package com.microsoft.hydralab.center.service;
+
+import com.microsoft.hydralab.center.util.MetricUtil;
+import com.microsoft.hydralab.common.entity.common.TestTask;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+
+public class TestTaskPersistServiceTest {
+    private static final int TASK_COUNT = 20;
+    private static final int UPDATES_PER_TASK = 200;
+
+    @Test
+    void updatesOfOneTaskArePersistedInOrder() throws InterruptedException {
+        Map<String, List<Integer>> persistedUpdates = new ConcurrentHashMap<>();
+        TestDataService testDataService = Mockito.mock(TestDataService.class);
+        Mockito.doAnswer(invocation -> {
+            TestTask testTask = invocation.getArgument(0);
+            persistedUpdates.computeIfAbsent(testTask.getId(), k -> Collections.synchronizedList(new ArrayList<>()))
+                    .add(testTask.getTotalTestCount());
+            return null;
+        }).when(testDataService).saveTestTaskDataFromAgent(any(TestTask.class), anyBoolean(), anyString());
+
+        TestTaskPersistService testTaskPersistService = new TestTaskPersistService();
+        testTaskPersistService.testDataService = testDataService;
+        testTaskPersistService.transactionManager = Mockito.mock(PlatformTransactionManager.class);
+        testTaskPersistService.metricUtil = Mockito.mock(MetricUtil.class);
+        testTaskPersistService.testTaskStatusStreamService = Mockito.mock(TestTaskStatusStreamService.class);
+        testTaskPersistService.queueCapacity = 16;
+        testTaskPersistService.start();
+
+        // one sender per task like one agent session, the small queues make the senders wait for the lanes
+        List<Thread> senders = new ArrayList<>();
+        for (int t = 0; t < TASK_COUNT; t++) {
+            String taskId = "task_" + t;
+            Thread sender = new Thread(() -> {
+                for (int i = 1; i <= UPDATES_PER_TASK; i++) {
+                    TestTask testTask = new TestTask();
+                    testTask.setId(taskId);
+                    testTask.setTotalTestCount(i);
+                    testTaskPersistService.saveTestTaskDataFromAgent(testTask, i == UPDATES_PER_TASK, "agent");
+                }
+            });
+            senders.add(sender);
+            sender.start();
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        testTaskPersistService.stop();
+
+        Assertions.assertEquals(0, testTaskPersistService.getQueueDepth());
+        Assertions.assertEquals(TASK_COUNT, persistedUpdates.size());
+        for (Map.Entry<String, List<Integer>> entry : persistedUpdates.entrySet()) {
+            List<Integer> updates = entry.getValue();
+            for (int i = 1; i < updates.size(); i++) {
+                Assertions.assertTrue(updates.get(i - 1) < updates.get(i), "Updates are persisted out of order: " + entry.getKey());
+            }
+            Assertions.assertEquals(UPDATES_PER_TASK, updates.get(updates.size() - 1), "Finish update is lost: " + entry.getKey());
+        }
+    }
+
+    @Test
+    void coalesceKeepsLatestAndFinishUpdates() {
+        TestTaskPersistService.TestTaskUpdate running1 = createUpdate("task_1", false);
+        TestTaskPersistService.TestTaskUpdate running2 = createUpdate("task_2", false);
+        TestTaskPersistService.TestTaskUpdate finished1 = createUpdate("task_1", true);
+        TestTaskPersistService.TestTaskUpdate running1Again = createUpdate("task_1", false);
+
+        List<TestTaskPersistService.TestTaskUpdate> result =
+                TestTaskPersistService.coalesce(Arrays.asList(running1, running2, finished1, running1Again));
+        Assertions.assertEquals(Arrays.asList(running2, finished1, running1Again), result);
+    }
+
+    @Test
+    void coalesceKeepsUpdatesBeforeCancel() {
+        TestTaskPersistService.TestTaskUpdate running = createUpdate("task_1", false);
+        TestTaskPersistService.TestTaskUpdate cancel =
+                new TestTaskPersistService.TestTaskUpdate(TestTaskPersistService.UpdateType.CANCEL, "task_1", null, "reason");
+
+        List<TestTaskPersistService.TestTaskUpdate> result = TestTaskPersistService.coalesce(Arrays.asList(running, cancel));
+        Assertions.assertEquals(Arrays.asList(running, cancel), result);
+    }
+
+    @Test
+    void cancelIsWrittenAfterQueuedUpdates() {
+        TestDataService testDataService = Mockito.mock(TestDataService.class);
+        Mockito.when(testDataService.cancelTaskById("task_1", "reason")).thenReturn(new HashSet<>(Collections.singletonList("agent")));
+        TestTaskPersistService testTaskPersistService = createService(testDataService);
+
+        TestTask testTask = new TestTask();
+        testTask.setId("task_1");
+        testTaskPersistService.saveTestTaskDataFromAgent(testTask, false, "agent");
+        Set<String> agentIds = testTaskPersistService.cancelTaskById("task_1", "reason");
+        testTaskPersistService.saveTestTaskData(testTask);
+        testTaskPersistService.stop();
+
+        Assertions.assertEquals(Collections.singleton("agent"), agentIds);
+        InOrder inOrder = Mockito.inOrder(testDataService);
+        inOrder.verify(testDataService).saveTestTaskDataFromAgent(testTask, false, "agent");
+        inOrder.verify(testDataService).cancelTaskById("task_1", "reason");
+        inOrder.verify(testDataService).saveTestTaskData(testTask);
+    }
+
+    @Test
+    void failedBatchIsReplayedOnFreshCache() {
+        TestDataService testDataService = Mockito.mock(TestDataService.class);
+        TestTaskPersistService testTaskPersistService = createService(testDataService);
+        TestTask failedTask = new TestTask();
+        failedTask.setId("task_1");
+        TestTask otherTask = new TestTask();
+        otherTask.setId("task_2");
+        // fail once in the batch, succeed in the replay
+        Mockito.doThrow(new IllegalStateException("DB error")).doReturn(null).when(testDataService).saveTestTaskData(failedTask);
+
+        List<TestTaskPersistService.TestTaskUpdate> updates = Arrays.asList(
+                new TestTaskPersistService.TestTaskUpdate(otherTask, true, "agent"),
+                new TestTaskPersistService.TestTaskUpdate(TestTaskPersistService.UpdateType.SAVE, "task_1", failedTask, null));
+        testTaskPersistService.flush(updates);
+        testTaskPersistService.stop();
+
+        InOrder inOrder = Mockito.inOrder(testDataService);
+        inOrder.verify(testDataService).evictTestTaskDetail("task_2");
+        inOrder.verify(testDataService).evictTestTaskDetail("task_1");
+        inOrder.verify(testDataService).saveTestTaskDataFromAgent(otherTask, true, "agent");
+        inOrder.verify(testDataService).saveTestTaskData(failedTask);
+        Assertions.assertTrue(updates.get(1).result.isDone() && !updates.get(1).result.isCompletedExceptionally());
+    }
+
+    private TestTaskPersistService createService(TestDataService testDataService) {
+        TestTaskPersistService testTaskPersistService = new TestTaskPersistService();
+        testTaskPersistService.testDataService = testDataService;
+        testTaskPersistService.transactionManager = Mockito.mock(PlatformTransactionManager.class);
+        testTaskPersistService.metricUtil = Mockito.mock(MetricUtil.class);
+        testTaskPersistService.testTaskStatusStreamService = Mockito.mock(TestTaskStatusStreamService.class);
+        testTaskPersistService.start();
+        return testTaskPersistService;
+    }
+
+    private TestTaskPersistService.TestTaskUpdate createUpdate(String taskId, boolean persistence) {
+        TestTask testTask = new TestTask();
+        testTask.setId(taskId);
+        return new TestTaskPersistService.TestTaskUpdate(testTask, persistence, "agent");
+    }
+}
@@ -0,0 +1,195 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+
+package com.microsoft.hydralab.center.service;
+
+import com.alibaba.fastjson.JSONObject;
+import com.microsoft.hydralab.common.entity.common.TestFileSet;
+import com.microsoft.hydralab.common.entity.common.TestTaskSpec;
+import com.microsoft.hydralab.common.util.Const;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+
+public class TestTaskServiceTest {
+    private static final int DEVICE_COUNT = 8;
+    private static final int SUBMIT_THREADS = 8;
+    private static final int TASKS_PER_THREAD = 500;
+
+    private final Map<String, AtomicBoolean> deviceBusyMap = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> dispatchCountMap = new ConcurrentHashMap<>();
+    private final Set<String> canceledAfterDispatch = ConcurrentHashMap.newKeySet();
+
+    @Test
+    void concurrentSubmitCancelAndDispatch() throws InterruptedException {
+        TestTaskService testTaskService = createTestTaskService();
+        Set<String> cancelRequested = ConcurrentHashMap.newKeySet();
+        Set<String> canceledInQueue = ConcurrentHashMap.newKeySet();
+        List<String> submittedIds = new ArrayList<>();
+        for (int i = 0; i < SUBMIT_THREADS * TASKS_PER_THREAD; i++) {
+            submittedIds.add(UUID.randomUUID().toString());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(SUBMIT_THREADS * 3);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(SUBMIT_THREADS * 3);
+        for (int t = 0; t < SUBMIT_THREADS; t++) {
+            int offset = t * TASKS_PER_THREAD;
+            // submitters
+            executor.execute(() -> {
+                await(start);
+                for (int i = 0; i < TASKS_PER_THREAD; i++) {
+                    testTaskService.addTask(createSpec(submittedIds.get(offset + i), "device_" + (offset + i) % DEVICE_COUNT));
+                }
+                done.countDown();
+            });
+            // cancelers also poll the queue position like status requests do
+            executor.execute(() -> {
+                await(start);
+                for (int i = 0; i < TASKS_PER_THREAD; i += 3) {
+                    String taskId = submittedIds.get(offset + i);
+                    testTaskService.getTestQueuedInfo(taskId);
+                    cancelRequested.add(taskId);
+                    if (testTaskService.cancelTask(taskId)) {
+                        canceledInQueue.add(taskId);
+                    }
+                }
+                done.countDown();
+            });
+            // devices finishing their tasks and triggering the scheduler
+            executor.execute(() -> {
+                await(start);
+                for (int i = 0; i < TASKS_PER_THREAD; i++) {
+                    deviceBusyMap.get("device_" + ThreadLocalRandom.current().nextInt(DEVICE_COUNT)).set(false);
+                    testTaskService.runTask();
+                }
+                done.countDown();
+            });
+        }
+        start.countDown();
+        Assertions.assertTrue(done.await(2, TimeUnit.MINUTES), "Stress run timed out");
+        executor.shutdown();
+
+        // drain the rest of the queue
+        while (!testTaskService.isQueueEmpty()) {
+            deviceBusyMap.values().forEach(busy -> busy.set(false));
+            testTaskService.runTask();
+        }
+
+        for (String taskId : submittedIds) {
+            AtomicInteger dispatchCount = dispatchCountMap.get(taskId);
+            int dispatched = dispatchCount == null ? 0 : dispatchCount.get();
+            Assertions.assertTrue(dispatched <= 1, "Task is dispatched more than once: " + taskId);
+            if (canceledInQueue.contains(taskId)) {
+                Assertions.assertEquals(0, dispatched, "Canceled task is dispatched: " + taskId);
+            } else if (!cancelRequested.contains(taskId)) {
+                Assertions.assertEquals(1, dispatched, "Task is lost: " + taskId);
+            }
+        }
+        Assertions.assertTrue(testTaskService.getTestQueueCopy().isEmpty(), "Queue should be empty");
+        Assertions.assertEquals(-1, testTaskService.getTestQueuedInfo(submittedIds.get(0)).getQueuedInfo()[0]);
+        Assertions.assertTrue(dispatchCountMap.keySet().containsAll(canceledAfterDispatch));
+    }
+
+    @Test
+    void busyTargetDoesNotBlockOtherTargets() {
+        TestTaskService testTaskService = createTestTaskService();
+        deviceBusyMap.get("device_0").set(true);
+        testTaskService.addTask(createSpec("task_0", "device_0"));
+        testTaskService.addTask(createSpec("task_1", "device_1"));
+        testTaskService.addTask(createSpec("task_2", "device_0"));
+
+        Assertions.assertEquals(2, testTaskService.getTestQueuedInfo("task_1").getQueuedInfo()[0]);
+        testTaskService.runTask();
+        Assertions.assertNotNull(dispatchCountMap.get("task_1"), "Task on idle device should be dispatched");
+        Assertions.assertNull(dispatchCountMap.get("task_0"), "Task on busy device should stay queued");
+        Assertions.assertEquals(2, testTaskService.getTestQueuedInfo("task_2").getQueuedInfo()[0]);
+        Assertions.assertFalse(testTaskService.isDeviceFree("device_0"));
+        Assertions.assertTrue(testTaskService.isDeviceFree("device_1"));
+
+        deviceBusyMap.get("device_0").set(false);
+        testTaskService.runTask();
+        Assertions.assertNotNull(dispatchCountMap.get("task_0"), "Head task should be dispatched once the device is free");
+        Assertions.assertNull(dispatchCountMap.get("task_2"), "Tasks on the same device should keep FIFO order");
+        Assertions.assertEquals(1, testTaskService.getTestQueuedInfo("task_2").getQueuedInfo()[0]);
+    }
+
+    @Test
+    void deviceReleasedBeforeEnqueue_TaskDispatched() {
+        TestTaskService testTaskService = createTestTaskService();
+        // the direct dispatch found the device busy, then the device was released before the task was queued
+        deviceBusyMap.get("device_0").set(false);
+        testTaskService.addTask(createSpec("task_0", "device_0"));
+        testTaskService.onTaskQueued("device_0");
+
+        Assertions.assertNotNull(dispatchCountMap.get("task_0"), "Task should not wait for another device event");
+        Assertions.assertTrue(testTaskService.isQueueEmpty());
+
+        deviceBusyMap.get("device_1").set(true);
+        testTaskService.addTask(createSpec("task_1", "device_1"));
+        testTaskService.onTaskQueued("device_1");
+        Assertions.assertNull(dispatchCountMap.get("task_1"));
+        deviceBusyMap.get("device_1").set(false);
+        testTaskService.sweepQueuedTasks();
+        Assertions.assertNotNull(dispatchCountMap.get("task_1"), "The sweep should dispatch a task whose release event was missed");
+    }
+
+    private TestTaskService createTestTaskService() {
+        for (int i = 0; i < DEVICE_COUNT; i++) {
+            deviceBusyMap.put("device_" + i, new AtomicBoolean(false));
+        }
+        DeviceAgentManagementService deviceAgentManagementService = Mockito.mock(DeviceAgentManagementService.class);
+        Mockito.when(deviceAgentManagementService.queryGroupByDevice(anyString())).thenReturn(new HashSet<>());
+        Mockito.when(deviceAgentManagementService.runTestTaskBySpec(any(TestTaskSpec.class))).thenAnswer(invocation -> {
+            TestTaskSpec spec = invocation.getArgument(0);
+            JSONObject result = new JSONObject();
+            if (deviceBusyMap.get(spec.deviceIdentifier).compareAndSet(false, true)) {
+                dispatchCountMap.computeIfAbsent(spec.testTaskId, k -> new AtomicInteger()).incrementAndGet();
+                result.put(Const.Param.TEST_DEVICE_SN, spec.deviceIdentifier);
+            }
+            return result;
+        });
+        Mockito.doAnswer(invocation -> canceledAfterDispatch.add(invocation.getArgument(0)))
+                .when(deviceAgentManagementService).cancelTestTaskById(anyString(), anyString());
+
+        TestTaskService testTaskService = new TestTaskService();
+        testTaskService.deviceAgentManagementService = deviceAgentManagementService;
+        testTaskService.testDataService = Mockito.mock(TestDataService.class);
+        testTaskService.testTaskStatusStreamService = Mockito.mock(TestTaskStatusStreamService.class);
+        return testTaskService;
+    }
+
+    private TestTaskSpec createSpec(String taskId, String deviceIdentifier) {
+        TestTaskSpec spec = new TestTaskSpec();
+        spec.testTaskId = taskId;
+        spec.deviceIdentifier = deviceIdentifier;
+        spec.testFileSet = new TestFileSet();
+        return spec;
+    }
+
+    private void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
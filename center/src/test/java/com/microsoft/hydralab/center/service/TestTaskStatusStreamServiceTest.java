@@ -0,0 +1,245 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+
+package com.microsoft.hydralab.center.service;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.microsoft.hydralab.common.entity.center.TestTaskQueuedInfo;
+import com.microsoft.hydralab.common.entity.common.DeviceInfo;
+import com.microsoft.hydralab.common.entity.common.TestRun;
+import com.microsoft.hydralab.common.entity.common.TestTask;
+import com.microsoft.hydralab.common.entity.common.TestTaskSpec;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class TestTaskStatusStreamServiceTest {
+    private static final String TASK_ID = "task_0";
+    private final TestTaskService testTaskService = Mockito.mock(TestTaskService.class);
+    private final TestDataService testDataService = Mockito.mock(TestDataService.class);
+    private TestTaskStatusStreamService streamService;
+
+    @BeforeEach
+    void setUp() {
+        streamService = new TestTaskStatusStreamService();
+        streamService.testTaskService = testTaskService;
+        streamService.testDataService = testDataService;
+        streamService.streamExecutor = Runnable::run;
+        streamService.sendExecutor = Runnable::run;
+    }
+
+    @Test
+    void queuedTaskIsFollowedUntilFinished() {
+        mockQueued(3);
+        RecordingEmitter emitter = new RecordingEmitter();
+        streamService.register(TASK_ID, emitter);
+        Assertions.assertEquals(1, emitter.events.size());
+        Assertions.assertEquals(3, emitter.data(0).getIntValue("position"));
+
+        // a queue change that doesn't move the task sends nothing
+        streamService.onQueueChanged();
+        Assertions.assertEquals(1, emitter.events.size());
+        mockQueued(1);
+        streamService.onQueueChanged();
+        Assertions.assertEquals(1, emitter.data(1).getIntValue("position"));
+
+        TestTask testTask = newTestTask(TestTask.TestStatus.RUNNING);
+        Mockito.when(testTaskService.getTestQueuedInfo(TASK_ID)).thenReturn(new TestTaskQueuedInfo());
+        Mockito.when(testDataService.getTestTaskDetail(TASK_ID)).thenReturn(testTask);
+        streamService.onQueueChanged();
+        streamService.publishDeviceStatus(TASK_ID, "device_0", DeviceInfo.TESTING);
+        Assertions.assertEquals(TestTaskStatusStreamService.EVENT_TASK, emitter.names.get(2));
+        Assertions.assertEquals(TestTask.TestStatus.RUNNING, emitter.data(2).getString("status"));
+        Assertions.assertEquals(DeviceInfo.TESTING, emitter.data(3).getString("status"));
+
+        TestRun testRun = new TestRun("device_0", "Pixel", TASK_ID);
+        testRun.setTotalCount(10);
+        testRun.setFailCount(2);
+        testTask.setStatus(TestTask.TestStatus.FINISHED);
+        testTask.getDeviceTestResults().add(testRun);
+        streamService.publishDeviceResults(testTask);
+        Assertions.assertEquals(TestTaskStatusStreamService.EVENT_DEVICE_RESULT, emitter.names.get(4));
+        Assertions.assertEquals(2, emitter.data(4).getIntValue("failCount"));
+        Assertions.assertTrue(emitter.data(4).getBooleanValue("finished"));
+        Assertions.assertFalse(emitter.completed);
+
+        streamService.publishTaskStatus(TASK_ID);
+        Assertions.assertEquals(TestTask.TestStatus.FINISHED, emitter.data(5).getString("status"));
+        Assertions.assertTrue(emitter.completed, "The stream should end with the task");
+        Assertions.assertFalse(streamService.hasSubscribers(TASK_ID));
+    }
+
+    @Test
+    void taskLeavingQueueUnsavedIsCanceled() {
+        mockQueued(2);
+        RecordingEmitter first = new RecordingEmitter();
+        RecordingEmitter second = new RecordingEmitter();
+        streamService.register(TASK_ID, first);
+        streamService.register(TASK_ID, second);
+        Assertions.assertEquals(2, streamService.getSubscriberCount());
+        Assertions.assertEquals(1, first.events.size(), "A new subscriber should not resend the state to the others");
+        Assertions.assertEquals(1, second.events.size());
+
+        Mockito.when(testTaskService.getTestQueuedInfo(TASK_ID)).thenReturn(new TestTaskQueuedInfo());
+        streamService.onQueueChanged();
+        for (RecordingEmitter emitter : new RecordingEmitter[]{first, second}) {
+            Assertions.assertEquals(TestTask.TestStatus.CANCELED, emitter.data(1).getString("status"));
+            Assertions.assertTrue(emitter.completed);
+        }
+        Assertions.assertEquals(0, streamService.getSubscriberCount());
+    }
+
+    @Test
+    void eventsOfOtherTasksAreNotBuilt() {
+        TestTask testTask = newTestTask(TestTask.TestStatus.RUNNING);
+        streamService.publishDeviceResults(testTask);
+        streamService.publishTaskStatus(TASK_ID);
+        streamService.onQueueChanged();
+        Mockito.verifyNoInteractions(testTaskService, testDataService);
+    }
+
+    @Test
+    void runningTaskIsNotReadOnQueueChanges() {
+        Mockito.when(testTaskService.getTestQueuedInfo(TASK_ID)).thenReturn(new TestTaskQueuedInfo());
+        Mockito.when(testDataService.getTestTaskDetail(TASK_ID)).thenReturn(newTestTask(TestTask.TestStatus.RUNNING));
+        streamService.register(TASK_ID, new RecordingEmitter());
+
+        streamService.onQueueChanged();
+        streamService.onQueueChanged();
+        Mockito.verify(testTaskService, Mockito.times(1)).getTestQueuedInfo(TASK_ID);
+        Mockito.verify(testDataService, Mockito.times(1)).getTestTaskDetail(TASK_ID);
+    }
+
+    @Test
+    void slowSubscriberDoesNotDelayOthers() throws InterruptedException {
+        ExecutorService sendExecutor = Executors.newCachedThreadPool();
+        streamService.sendExecutor = sendExecutor;
+        try {
+            mockQueued(1);
+            CountDownLatch sendAllowed = new CountDownLatch(1);
+            RecordingEmitter slow = new RecordingEmitter() {
+                @Override
+                public void send(SseEventBuilder builder) {
+                    try {
+                        sendAllowed.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    super.send(builder);
+                }
+            };
+            RecordingEmitter fast = new RecordingEmitter();
+            streamService.register(TASK_ID, slow);
+            streamService.register(TASK_ID, fast);
+            streamService.publishDeviceStatus(TASK_ID, "device_0", DeviceInfo.TESTING);
+
+            Assertions.assertTrue(fast.awaitEvents(2), "The events should reach the client while another one is blocked");
+            sendAllowed.countDown();
+            Assertions.assertTrue(slow.awaitEvents(2));
+        } finally {
+            sendExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    void subscriberFallingBehindIsCompleted() {
+        List<Runnable> pendingSends = new ArrayList<>();
+        streamService.sendExecutor = pendingSends::add;
+        streamService.subscriberBufferSize = 3;
+        mockQueued(1);
+        RecordingEmitter emitter = new RecordingEmitter();
+        streamService.register(TASK_ID, emitter);
+        for (int i = 0; i < 5; i++) {
+            streamService.publishDeviceStatus(TASK_ID, "device_" + i, DeviceInfo.TESTING);
+        }
+        Assertions.assertFalse(streamService.hasSubscribers(TASK_ID), "The client falling behind should not get more events");
+        Assertions.assertEquals(1, pendingSends.size(), "A single thread should send to the client");
+
+        pendingSends.get(0).run();
+        Assertions.assertTrue(emitter.completed, "The stream should be completed so that the client subscribes again");
+        Assertions.assertTrue(emitter.events.isEmpty());
+    }
+
+    @Test
+    void subscriptionsOverCapAreRefused() {
+        streamService.maxSubscribers = 1;
+        mockQueued(1);
+        RecordingEmitter first = new RecordingEmitter();
+        Assertions.assertSame(first, streamService.register(TASK_ID, first));
+        Assertions.assertNull(streamService.register(TASK_ID, new RecordingEmitter()), "A subscriber over the cap should be refused");
+        Assertions.assertEquals(1, streamService.getSubscriberCount());
+
+        Mockito.when(testTaskService.getTestQueuedInfo(TASK_ID)).thenReturn(new TestTaskQueuedInfo());
+        Mockito.when(testDataService.getTestTaskDetail(TASK_ID)).thenReturn(newTestTask(TestTask.TestStatus.FINISHED));
+        streamService.publishTaskStatus(TASK_ID);
+        Assertions.assertTrue(first.completed);
+        Assertions.assertEquals(0, streamService.getSubscriberCount());
+        Assertions.assertNotNull(streamService.register(TASK_ID, new RecordingEmitter()), "The ended stream should free its place");
+    }
+
+    private void mockQueued(int position) {
+        TestTaskQueuedInfo queuedInfo = new TestTaskQueuedInfo();
+        queuedInfo.setTestTaskSpec(new TestTaskSpec());
+        queuedInfo.setQueuedInfo(new int[]{position, 0});
+        Mockito.when(testTaskService.getTestQueuedInfo(TASK_ID)).thenReturn(queuedInfo);
+    }
+
+    private TestTask newTestTask(String status) {
+        TestTask testTask = new TestTask();
+        testTask.setId(TASK_ID);
+        testTask.setStatus(status);
+        testTask.setTestDevicesCount(1);
+        return testTask;
+    }
+
+    static class RecordingEmitter extends SseEmitter {
+        final List<String> names = new CopyOnWriteArrayList<>();
+        final List<String> events = new CopyOnWriteArrayList<>();
+        volatile boolean completed;
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            StringBuilder text = new StringBuilder();
+            builder.build().forEach(item -> text.append(item.getData()));
+            String event = text.toString();
+            String name = null;
+            String data = null;
+            for (String line : event.split("\n")) {
+                if (line.startsWith("event:")) {
+                    name = line.substring("event:".length());
+                } else if (line.startsWith("data:")) {
+                    data = line.substring("data:".length());
+                }
+            }
+            names.add(name);
+            events.add(data);
+        }
+
+        @Override
+        public void complete() {
+            completed = true;
+        }
+
+        JSONObject data(int index) {
+            return JSON.parseObject(events.get(index));
+        }
+
+        boolean awaitEvents(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (events.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            return events.size() >= count;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+
+package com.microsoft.hydralab.center.service;
+
+import com.microsoft.hydralab.center.test.BaseTest;
+import com.microsoft.hydralab.common.entity.center.TestUnitPage;
+import com.microsoft.hydralab.common.entity.common.AndroidTestUnit;
+import com.microsoft.hydralab.common.repository.AndroidTestUnitRepository;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+class TestUnitPageTest extends BaseTest {
+    private static final String RUN_ID = "run_page";
+    private static final long START_TIME = 1_700_000_000_000L;
+    private static final int SAME_START_UNIT_COUNT = 7;
+    private static final int PAGE_SIZE = 2;
+
+    @Resource
+    TestDataService testDataService;
+    @Resource
+    AndroidTestUnitRepository androidTestUnitRepository;
+
+    private final List<AndroidTestUnit> runUnits = new ArrayList<>();
+
+    @BeforeEach
+    void saveUnits() {
+        // more units than a page started at the same millisecond, only the id orders them
+        for (int i = 0; i < SAME_START_UNIT_COUNT; i++) {
+            runUnits.add(createUnit(RUN_ID, START_TIME, i % 3 != 0, i % 2 == 0 ? "com.test.ClassA" : "com.test.ClassB"));
+        }
+        runUnits.add(createUnit(RUN_ID, START_TIME - 1, false, "com.test.ClassA"));
+        runUnits.add(createUnit(RUN_ID, START_TIME + 1, true, "com.test.ClassB"));
+        androidTestUnitRepository.saveAll(runUnits);
+        androidTestUnitRepository.save(createUnit("run_other", START_TIME, false, "com.test.ClassA"));
+        runUnits.sort(Comparator.comparingLong(AndroidTestUnit::getStartTimeMillis).thenComparing(AndroidTestUnit::getId));
+    }
+
+    @Test
+    void pageThroughUnitsWithSameStartTime() {
+        Assertions.assertEquals(ids(runUnits), ids(readAllPages(null, null, null, null)),
+                "Every unit of the run should be read once in (start time, id) order");
+    }
+
+    @Test
+    void pageThroughFilteredUnits() {
+        Assertions.assertEquals(ids(filter(false, null, null, null)), ids(readAllPages(false, null, null, null)));
+        Assertions.assertEquals(ids(filter(null, "com.test.ClassA", null, null)), ids(readAllPages(null, "com.test.ClassA", null, null)));
+        Assertions.assertEquals(ids(filter(null, null, START_TIME, START_TIME + 1)), ids(readAllPages(null, null, START_TIME, START_TIME + 1)),
+                "The start time should be inclusive and the end time exclusive");
+        Assertions.assertEquals(ids(filter(true, "com.test.ClassB", START_TIME, null)), ids(readAllPages(true, "com.test.ClassB", START_TIME, null)));
+    }
+
+    private List<AndroidTestUnit> readAllPages(Boolean success, String testedClass, Long startTime, Long endTime) {
+        List<AndroidTestUnit> units = new ArrayList<>();
+        String cursor = null;
+        int pageCount = 0;
+        do {
+            TestUnitPage page = testDataService.getTestUnits(RUN_ID, success, null, testedClass, startTime, endTime, cursor, PAGE_SIZE);
+            Assertions.assertTrue(page.getContent().size() <= PAGE_SIZE);
+            units.addAll(page.getContent());
+            cursor = page.getNextCursor();
+            Assertions.assertTrue(++pageCount <= runUnits.size(), "The cursor should move forward");
+        } while (cursor != null);
+        return units;
+    }
+
+    private List<AndroidTestUnit> filter(Boolean success, String testedClass, Long startTime, Long endTime) {
+        return runUnits.stream()
+                .filter(unit -> success == null || unit.isSuccess() == success)
+                .filter(unit -> testedClass == null || testedClass.equals(unit.getTestedClass()))
+                .filter(unit -> startTime == null || unit.getStartTimeMillis() >= startTime)
+                .filter(unit -> endTime == null || unit.getStartTimeMillis() < endTime)
+                .collect(Collectors.toList());
+    }
+
+    private static AndroidTestUnit createUnit(String testRunId, long startTimeMillis, boolean success, String testedClass) {
+        AndroidTestUnit testUnit = new AndroidTestUnit();
+        testUnit.setDeviceTestResultId(testRunId);
+        testUnit.setStartTimeMillis(startTimeMillis);
+        testUnit.setSuccess(success);
+        testUnit.setStatusCode(success ? AndroidTestUnit.StatusCodes.OK : AndroidTestUnit.StatusCodes.FAILURE);
+        testUnit.setTestedClass(testedClass);
+        testUnit.setTestName("test");
+        return testUnit;
+    }
+
+    private static List<String> ids(List<AndroidTestUnit> units) {
+        return units.stream().map(AndroidTestUnit::getId).collect(Collectors.toList());
+    }
+}
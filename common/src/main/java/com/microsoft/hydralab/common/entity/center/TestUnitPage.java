@@ -0,0 +1,18 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.hydralab.common.entity.center;
+
+import com.microsoft.hydralab.common.entity.common.AndroidTestUnit;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A page of the test units of a run, the next page is requested with nextCursor, which is null on the last page.
+ */
+@Data
+public class TestUnitPage {
+    private List<AndroidTestUnit> content = new ArrayList<>();
+    private String nextCursor;
+}
@@ -17,7 +17,8 @@ import java.util.UUID;
 @Entity
 @Table(indexes = {
         @Index(name = "task_id_unit_index", columnList = "test_task_id", unique = false),
-        @Index(name = "device_test_result_id_index", columnList = "device_test_result_id", unique = false)
+        @Index(name = "device_test_result_id_index", columnList = "device_test_result_id", unique = false),
+        @Index(name = "device_test_result_start_time_index", columnList = "device_test_result_id,start_time_millis", unique = false)
 })
 public class AndroidTestUnit implements Serializable {
 
@@ -45,6 +46,9 @@ public class AndroidTestUnit implements Serializable {
     protected String testName;
     @Transient
     protected String stack;
+    //the crashes of the app found in the device log while the case runs, saved with the case detail
+    @Transient
+    protected String crashStack;
 
     private String memoryDumpReport;
     private String cpuTraceReport;
@@ -127,6 +131,13 @@ public class AndroidTestUnit implements Serializable {
         return DateUtil.mmssFormat.format(new Date(relEndTimeInVideo));
     }
 
+    /**
+     * Add a crash found in the device log while the test runs, it may come from another thread than the test.
+     */
+    public synchronized void appendCrashStack(String crash) {
+        crashStack = crashStack == null ? crash : crashStack + crash;
+    }
+
     @JSONField(serialize = false)
     @Transient
     public String getStackHtml() {
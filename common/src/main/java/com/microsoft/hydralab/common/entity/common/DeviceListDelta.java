@@ -0,0 +1,24 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.hydralab.common.entity.common;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Changes of the agent device list since the list with sequence {@link #baseSequence} was sent.
+ * The center applies it only when baseSequence matches the last sequence it has applied, otherwise it asks for a full list.
+ */
+@Data
+public class DeviceListDelta {
+    private long sequence;
+    private long baseSequence;
+    private List<DeviceInfo> updatedDevices = new ArrayList<>();
+    private List<String> removedSerials = new ArrayList<>();
+
+    public boolean isEmpty() {
+        return updatedDevices.isEmpty() && removedSerials.isEmpty();
+    }
+}
@@ -4,7 +4,9 @@ package com.microsoft.hydralab.common.entity.common;
 
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.annotation.JSONField;
 import com.microsoft.hydralab.agent.runner.ITestRun;
+import com.microsoft.hydralab.common.screen.GifFrameSink;
 import com.microsoft.hydralab.common.util.Const;
 import lombok.Data;
 import org.slf4j.Logger;
@@ -78,6 +80,11 @@ public class TestRun implements Serializable, ITestRun {
     private transient File resultFolder;
     @Transient
     private transient Logger logger;
+    @Transient
+    private transient volatile AndroidTestUnit ongoingTestUnit;
+    //the GIF frames of this run, the runners are shared by the devices running at the same time
+    @Transient
+    private transient GifFrameSink gifFrameSink;
 
     public TestRun() {
     }
@@ -105,6 +112,16 @@ public class TestRun implements Serializable, ITestRun {
 
     public void addNewTestUnit(AndroidTestUnit ongoingTestUnit) {
         testUnitList.add(ongoingTestUnit);
+        this.ongoingTestUnit = ongoingTestUnit;
+    }
+
+    /**
+     * @return the test unit added last, the log collectors give it the crashes found while it runs
+     */
+    @JSONField(serialize = false)
+    @Transient
+    public AndroidTestUnit getOngoingTestUnit() {
+        return ongoingTestUnit;
     }
 
     public void addNewTimeTag(String tag, long relTime) {
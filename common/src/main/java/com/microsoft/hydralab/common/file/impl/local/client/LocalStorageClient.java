@@ -11,21 +11,30 @@ import com.microsoft.hydralab.common.util.Const;
 import com.microsoft.hydralab.common.util.HydraLabRuntimeException;
 import com.microsoft.hydralab.common.util.RestTemplateConfig;
 import lombok.Data;
-import org.apache.commons.io.IOUtils;
 import org.springframework.core.io.FileSystemResource;
-import org.springframework.core.io.Resource;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 /**
  * @author Li Shen
@@ -34,6 +43,9 @@ import java.io.IOException;
 
 @Data
 public class LocalStorageClient {
+    private static final long UPLOAD_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final int TRANSFER_RETRY_TIMES = 3;
+    private static final String PARTIAL_FILE_SUFFIX = ".part";
     RestTemplate restTemplate;
     private String endpoint;
     private String token;
@@ -53,6 +65,7 @@ public class LocalStorageClient {
 
     /**
      * Upload a file to the local storage. If the file already exists, overwrite it.
+     * The file is streamed in chunks, a chunk broken by the connection is resent instead of the whole file.
      * <p>
      * //     * @param file
      * //     * @param storageFileInfo
@@ -60,25 +73,79 @@ public class LocalStorageClient {
      * @return file download (rel?) path
      */
     public String upload(File file, StorageFileInfo storageFileInfo) {
-        RestTemplate restTemplateHttps = RestTemplateConfig.getRestTemplateInstance();
+        String fileUri = storageFileInfo.getBlobContainer() + "/" + storageFileInfo.getBlobPath();
+        try {
+            uploadInChunks(file, fileUri);
+        } catch (HttpClientErrorException.NotFound | HttpClientErrorException.MethodNotAllowed e) {
+            // center without the chunk upload api
+            uploadInMultipart(file, fileUri);
+        }
+        return this.endpoint + Const.LocalStorageURL.CENTER_LOCAL_STORAGE_DOWNLOAD + "/" + fileUri;
+    }
+
+    private void uploadInChunks(File file, String fileUri) {
+        RestTemplate restTemplateHttps = RestTemplateConfig.getStreamingRestTemplateInstance();
+        long totalSize = file.length();
+        long offset = 0;
+        int failedTimes = 0;
+        do {
+            long chunkSize = Math.min(UPLOAD_CHUNK_SIZE, totalSize - offset);
+            try {
+                offset = uploadChunk(restTemplateHttps, file, fileUri, offset, chunkSize, totalSize);
+                failedTimes = 0;
+            } catch (ResourceAccessException e) {
+                if (++failedTimes > TRANSFER_RETRY_TIMES) {
+                    throw new HydraLabRuntimeException(HttpStatus.INTERNAL_SERVER_ERROR.value(), "Upload file chunk failed.", e);
+                }
+            }
+        } while (offset < totalSize);
+    }
+
+    private long uploadChunk(RestTemplate restTemplateHttps, File file, String fileUri, long offset, long chunkSize, long totalSize) {
+        URI uri = UriComponentsBuilder.fromHttpUrl(this.getUploadChunkUrl())
+                .queryParam("fileUri", fileUri)
+                .queryParam("offset", offset)
+                .queryParam("totalSize", totalSize)
+                .build().encode().toUri();
+        String responseAsStr = restTemplateHttps.execute(uri, HttpMethod.PUT, request -> {
+            request.getHeaders().add("Authorization", "Bearer " + token);
+            request.getHeaders().setContentType(MediaType.APPLICATION_OCTET_STREAM);
+            request.getHeaders().setContentLength(chunkSize);
+            // the channel wraps the request stream, it is closed by the request itself
+            WritableByteChannel target = Channels.newChannel(request.getBody());
+            try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                long position = offset;
+                long transferred;
+                while (position < offset + chunkSize && (transferred = fileChannel.transferTo(position, offset + chunkSize - position, target)) > 0) {
+                    position += transferred;
+                }
+            }
+        }, response -> StreamUtils.copyToString(response.getBody(), StandardCharsets.UTF_8));
+        JSONObject responseObject = JSONObject.parseObject(responseAsStr);
+        if (responseObject.getIntValue("code") != HttpStatus.OK.value()) {
+            throw new HydraLabRuntimeException(responseObject.getIntValue("code"), responseObject.getString("message"));
+        }
+        return responseObject.getLongValue("content");
+    }
+
+    private void uploadInMultipart(File file, String fileUri) {
+        RestTemplate restTemplateHttps = RestTemplateConfig.getStreamingRestTemplateInstance();
 
         HttpHeaders headers = new HttpHeaders();
         headers.add("Authorization", "Bearer " + token);
         headers.add("Content-Type", MediaType.MULTIPART_FORM_DATA.toString());
 
-        String fileUri = storageFileInfo.getBlobContainer() + "/" + storageFileInfo.getBlobPath();
         LinkedMultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
         body.add("file", new FileSystemResource(file));
         body.add("fileUri", fileUri);
         HttpEntity<LinkedMultiValueMap<String, Object>> entity = new HttpEntity<>(body, headers);
 
-        ResponseEntity<String> responseAsStr = restTemplateHttps.exchange(this.getUploadUrl(), HttpMethod.POST, entity, String.class);
-        JSONObject responseObject = JSONObject.parseObject(responseAsStr.getBody());
-        return this.endpoint + Const.LocalStorageURL.CENTER_LOCAL_STORAGE_DOWNLOAD + "/" + responseObject.getString("content");
+        restTemplateHttps.exchange(this.getUploadUrl(), HttpMethod.POST, entity, String.class);
     }
 
     /**
      * Download a file from the local storage. If the file already exists, overwrite it.
+     * The file is written to a partial file first, a download broken by the connection resumes from the downloaded size.
      * <p>
      * //     * @param file
      * //     * @storageFileInfo
@@ -92,21 +159,59 @@ public class LocalStorageClient {
         }
 
         RestTemplate restTemplateHttps = RestTemplateConfig.getRestTemplateInstance();
+        String fileUri = storageFileInfo.getBlobContainer() + "/" + storageFileInfo.getBlobPath();
+        File partialFile = new File(file.getPath() + PARTIAL_FILE_SUFFIX);
+        try {
+            Files.deleteIfExists(partialFile.toPath());
+            int failedTimes = 0;
+            while (true) {
+                try {
+                    downloadToPartialFile(restTemplateHttps, fileUri, partialFile);
+                    break;
+                } catch (ResourceAccessException e) {
+                    if (++failedTimes > TRANSFER_RETRY_TIMES) {
+                        throw new HydraLabRuntimeException(HttpStatus.INTERNAL_SERVER_ERROR.value(), "File stream downloaded, but saved to local failed.", e);
+                    }
+                }
+            }
+            Files.move(partialFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new HydraLabRuntimeException(HttpStatus.INTERNAL_SERVER_ERROR.value(), "File stream downloaded, but saved to local failed.", e);
+        }
+    }
 
+    private void downloadToPartialFile(RestTemplate restTemplateHttps, String fileUri, File partialFile) {
+        long downloadedSize = partialFile.length();
         HttpHeaders headers = new HttpHeaders();
         headers.add("Authorization", "Bearer " + token);
         headers.add("Content-Type", MediaType.MULTIPART_FORM_DATA.toString());
+        if (downloadedSize > 0) {
+            headers.set(HttpHeaders.RANGE, "bytes=" + downloadedSize + "-");
+        }
 
-        String fileUri = storageFileInfo.getBlobContainer() + "/" + storageFileInfo.getBlobPath();
         LinkedMultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
         body.add("fileUri", fileUri);
         HttpEntity<LinkedMultiValueMap<String, Object>> entity = new HttpEntity<>(body, headers);
 
-        ResponseEntity<Resource> response = restTemplateHttps.exchange(this.getDownloadUrl(), HttpMethod.POST, entity, Resource.class);
         try {
-            IOUtils.copy(response.getBody().getInputStream(), new FileOutputStream(file));
-        } catch (IOException e) {
-            throw new HydraLabRuntimeException(HttpStatus.INTERNAL_SERVER_ERROR.value(), "File stream downloaded, but saved to local failed.", e);
+            restTemplateHttps.execute(this.getDownloadUrl(), HttpMethod.POST, restTemplateHttps.httpEntityCallback(entity), response -> {
+                // a server without range support answers the whole file
+                long position = response.getStatusCode() == HttpStatus.PARTIAL_CONTENT ? downloadedSize : 0;
+                try (FileChannel fileChannel = FileChannel.open(partialFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                    fileChannel.truncate(position);
+                    ReadableByteChannel source = Channels.newChannel(response.getBody());
+                    long transferred;
+                    while ((transferred = fileChannel.transferFrom(source, position, Long.MAX_VALUE)) > 0) {
+                        position += transferred;
+                    }
+                }
+                return null;
+            });
+        } catch (HttpClientErrorException e) {
+            // the connection broke after the last byte, nothing is left to resume
+            if (e.getStatusCode() != HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE || downloadedSize == 0) {
+                throw e;
+            }
         }
     }
 
@@ -114,6 +219,10 @@ public class LocalStorageClient {
         return this.endpoint + Const.LocalStorageURL.CENTER_LOCAL_STORAGE_UPLOAD;
     }
 
+    public String getUploadChunkUrl() {
+        return this.endpoint + Const.LocalStorageURL.CENTER_LOCAL_STORAGE_UPLOAD_CHUNK;
+    }
+
     public String getDownloadUrl() {
         return this.endpoint + Const.LocalStorageURL.CENTER_LOCAL_STORAGE_DOWNLOAD;
     }
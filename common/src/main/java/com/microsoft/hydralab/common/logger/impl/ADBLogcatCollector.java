@@ -2,12 +2,13 @@
 // Licensed under the MIT License.
 package com.microsoft.hydralab.common.logger.impl;
 
+import com.microsoft.hydralab.common.entity.common.AndroidTestUnit;
 import com.microsoft.hydralab.common.entity.common.DeviceInfo;
 import com.microsoft.hydralab.common.entity.common.TestRun;
 import com.microsoft.hydralab.common.logger.LogCollector;
-import com.microsoft.hydralab.common.management.device.TestDeviceManager;
 import com.microsoft.hydralab.common.util.ADBOperateUtil;
 import com.microsoft.hydralab.common.util.LogUtils;
+import com.microsoft.hydralab.common.util.ThreadUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 
@@ -19,14 +20,26 @@ import java.nio.charset.StandardCharsets;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Streams the logcat of the device to the log file while the test runs, so a long run can't lose its crash when the ring buffer wraps.
+ * Crashes are found line by line and given to the ongoing test unit as they happen.
+ */
 public class ADBLogcatCollector implements LogCollector {
+    // keep the crash stack of the run in bounds when the app crashes in a loop
+    private static final int MAX_CRASH_STACK_LENGTH = 512 * 1024;
+    // time for the lines buffered by adb to arrive before the stream is stopped
+    private static final long STOP_DRAIN_MILLIS = 1000;
     private final DeviceInfo connectedDevice;
     private final TestRun testRun;
     private final String pkgName;
     private final Logger infoLogger;
+    private final StringBuilder crashLines = new StringBuilder();
     ADBOperateUtil adbOperateUtil;
-    private boolean started;
+    private volatile boolean started;
     private String loggerFilePath;
+    private Logger logcatLogger;
+    private Process logcatProcess;
+    private Thread readerThread;
 
     public ADBLogcatCollector(ADBOperateUtil adbOperateUtil, DeviceInfo deviceInfo, String pkgName, TestRun testRun, Logger logger) {
         this.adbOperateUtil = adbOperateUtil;
@@ -45,6 +58,22 @@ public class ADBLogcatCollector implements LogCollector {
         loggerFilePath = new File(testRun.getResultFolder(), "logcat.log").getAbsolutePath();
         runCommand("logcat -G 48M");
         runCommand("logcat -c");
+        logcatLogger = LogUtils.getLoggerWithRollingFileAppender(
+                LOGGER_PREFIX + "logcat_" + connectedDevice.getSerialNum(),
+                loggerFilePath,
+                "%logger{0}>> %m%n");
+        try {
+            // AlarmManager:S System:S
+            logcatProcess = adbOperateUtil.executeDeviceCommandOnPC(connectedDevice, "logcat Finsky:S MirrorLink:S *:D", infoLogger);
+        } catch (IOException e) {
+            infoLogger.error("Failed to start logcat of device {}", connectedDevice.getSerialNum(), e);
+            return loggerFilePath;
+        }
+        Process process = logcatProcess;
+        Logger logger = logcatLogger;
+        readerThread = new Thread(() -> readLogcat(process, logger), "LogcatReader-" + connectedDevice.getSerialNum());
+        readerThread.setDaemon(true);
+        readerThread.start();
         return loggerFilePath;
     }
 
@@ -63,51 +92,59 @@ public class ADBLogcatCollector implements LogCollector {
         }
     }
 
+    private void readLogcat(Process process, Logger logger) {
+        LogcatCrashDetector crashDetector = new LogcatCrashDetector(pkgName, this::onCrash);
+        try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = bufferedReader.readLine()) != null) {
+                crashDetector.onLine(line);
+                logger.info(line);
+            }
+        } catch (IOException e) {
+            // the stream is closed when the collector stops
+            if (started) {
+                infoLogger.error("Logcat of device {} is broken", connectedDevice.getSerialNum(), e);
+            }
+        } finally {
+            crashDetector.flush();
+        }
+    }
+
+    void onCrash(String crash) {
+        infoLogger.warn("Crash found in logcat of device {}", connectedDevice.getSerialNum());
+        synchronized (crashLines) {
+            if (crashLines.length() < MAX_CRASH_STACK_LENGTH) {
+                crashLines.append(crash);
+            }
+            testRun.setCrashStack(crashLines.toString());
+            if (testRun.getCrashStackId() == null) {
+                testRun.setCrashStackId(UUID.randomUUID().toString());
+            }
+        }
+        AndroidTestUnit ongoingTestUnit = testRun.getOngoingTestUnit();
+        if (ongoingTestUnit != null && ongoingTestUnit.getEndTimeMillis() == 0) {
+            ongoingTestUnit.appendCrashStack(crash);
+        }
+    }
+
     @Override
     public void stopAndAnalyse() {
+        if (!started) {
+            return;
+        }
         started = false;
-        Logger logger = LogUtils.getLoggerWithRollingFileAppender(
-                LOGGER_PREFIX + "logcat_" + connectedDevice.getSerialNum(),
-                loggerFilePath,
-                "%logger{0}>> %m%n");
-        Process process = null;
         try {
-            // AlarmManager:S System:S
-            process = adbOperateUtil.executeDeviceCommandOnPC(connectedDevice, "logcat -d Finsky:S MirrorLink:S *:D", infoLogger);
-
-            try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
-                String line;
-                boolean collectCrash = false;
-                StringBuilder crashLines = new StringBuilder();
-                while ((line = bufferedReader.readLine()) != null) {
-                    if (collectCrash) {
-                        if (!line.contains(" E ") && !line.contains(" F ")) {
-                            collectCrash = false;
-                        } else {
-                            if (line.contains(pkgName)) {
-                                crashLines.append("<b>").append(line).append("</b>").append("\n");
-                            } else {
-                                crashLines.append(line).append("\n");
-                            }
-                        }
-                    }
-                    if (line.contains("beginning of crash") || line.contains("AndroidRuntime: FATAL EXCEPTION")) {
-                        collectCrash = true;
-                    }
-                    logger.info(line);
-                }
-                if (crashLines.length() > 0) {
-                    testRun.setCrashStack(crashLines.toString());
-                    testRun.setCrashStackId(UUID.randomUUID().toString());
-                }
+            if (logcatProcess != null) {
+                ThreadUtils.safeSleep(STOP_DRAIN_MILLIS);
+                logcatProcess.destroy();
+                readerThread.join(TimeUnit.SECONDS.toMillis(5));
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } finally {
-            if (process != null) {
-                process.destroy();
-            }
-            LogUtils.releaseLogger(logger);
+            logcatProcess = null;
+            readerThread = null;
+            LogUtils.releaseLogger(logcatLogger);
         }
     }
 
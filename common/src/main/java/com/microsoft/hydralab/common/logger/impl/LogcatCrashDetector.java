@@ -0,0 +1,56 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.hydralab.common.logger.impl;
+
+import java.util.function.Consumer;
+
+/**
+ * Finds crashes in logcat line by line as the lines come.
+ * A crash starts after a "beginning of crash" or "AndroidRuntime: FATAL EXCEPTION" line and takes the following error and fatal lines,
+ * it is given to the listener once a line of another level ends it. The lines of a crash are capped so a crash loop can't take up the memory.
+ */
+public class LogcatCrashDetector {
+    public static final int MAX_CRASH_LINES = 500;
+    private final String pkgName;
+    private final Consumer<String> crashListener;
+    private final StringBuilder crashLines = new StringBuilder();
+    private boolean collectCrash;
+    private int crashLineCount;
+
+    public LogcatCrashDetector(String pkgName, Consumer<String> crashListener) {
+        this.pkgName = pkgName;
+        this.crashListener = crashListener;
+    }
+
+    public void onLine(String line) {
+        if (collectCrash) {
+            if (!line.contains(" E ") && !line.contains(" F ")) {
+                flush();
+            } else if (crashLineCount < MAX_CRASH_LINES) {
+                if (line.contains(pkgName)) {
+                    crashLines.append("<b>").append(line).append("</b>").append("\n");
+                } else {
+                    crashLines.append(line).append("\n");
+                }
+                crashLineCount++;
+            }
+        }
+        if (line.contains("beginning of crash") || line.contains("AndroidRuntime: FATAL EXCEPTION")) {
+            collectCrash = true;
+        }
+    }
+
+    /**
+     * Give the crash being collected to the listener, called when the log ends.
+     */
+    public void flush() {
+        collectCrash = false;
+        crashLineCount = 0;
+        if (crashLines.length() == 0) {
+            return;
+        }
+        String crash = crashLines.toString();
+        crashLines.setLength(0);
+        crashListener.accept(crash);
+    }
+}
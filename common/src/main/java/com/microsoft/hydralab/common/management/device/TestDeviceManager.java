@@ -3,12 +3,15 @@
 
 package com.microsoft.hydralab.common.management.device;
 
+import cn.hutool.core.img.ImgUtil;
 import com.android.ddmlib.InstallException;
 import com.android.ddmlib.TimeoutException;
 import com.microsoft.hydralab.agent.runner.ITestRun;
 import com.microsoft.hydralab.agent.runner.TestRunThreadContext;
 import com.microsoft.hydralab.common.entity.common.AgentUser;
 import com.microsoft.hydralab.common.entity.common.DeviceInfo;
+import com.microsoft.hydralab.common.entity.common.EntityType;
+import com.microsoft.hydralab.common.entity.common.StorageFileInfo;
 import com.microsoft.hydralab.common.entity.common.TestRun;
 import com.microsoft.hydralab.common.entity.common.TestTask;
 import com.microsoft.hydralab.common.logger.LogCollector;
@@ -16,6 +19,7 @@ import com.microsoft.hydralab.common.management.AgentManagementService;
 import com.microsoft.hydralab.common.management.AppiumServerManager;
 import com.microsoft.hydralab.common.management.listener.MobileDeviceState;
 import com.microsoft.hydralab.common.screen.ScreenRecorder;
+import com.microsoft.hydralab.common.screen.ScreenshotPipeline;
 import com.microsoft.hydralab.common.util.IOSUtils;
 import com.microsoft.hydralab.common.util.LogUtils;
 import com.microsoft.hydralab.common.util.ShellUtils;
@@ -36,10 +40,14 @@ import org.slf4j.LoggerFactory;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import static com.android.ddmlib.IDevice.DeviceState;
@@ -49,6 +57,8 @@ public abstract class TestDeviceManager {
     static final Logger classLogger = LoggerFactory.getLogger(TestDeviceManager.class);
     protected AgentManagementService agentManagementService;
     protected AppiumServerManager appiumServerManager;
+    //save the MD5 of the screenshot last uploaded <screenshot file path,md5>
+    private final Map<String, String> uploadedScreenshotMd5Map = new ConcurrentHashMap<>();
 
     public abstract void init();
 
@@ -75,6 +85,22 @@ public abstract class TestDeviceManager {
 
     public abstract File getScreenShot(@NotNull DeviceInfo deviceInfo, @Nullable Logger logger) throws Exception;
 
+    /**
+     * Take a screenshot and give the frame of it for the GIF of a test run.
+     *
+     * @return the GIF frame, null if there is no screenshot
+     */
+    public BufferedImage getScreenShotGifFrame(@NotNull DeviceInfo deviceInfo, @Nullable Logger logger) throws Exception {
+        return readGifFrame(getScreenShot(deviceInfo, logger));
+    }
+
+    protected static BufferedImage readGifFrame(@Nullable File imageFile) throws IOException {
+        if (imageFile == null || !imageFile.exists()) {
+            return null;
+        }
+        return ImgUtil.toBufferedImage(ImgUtil.scale(ImageIO.read(imageFile), ScreenshotPipeline.GIF_FRAME_SCALE));
+    }
+
     public File getScreenShotWithStrategy(@NotNull DeviceInfo deviceInfo, @Nullable Logger logger,
                                           @NotNull AgentUser.BatteryStrategy batteryStrategy) throws Exception {
         File screenshotImageFile = deviceInfo.getScreenshotImageFile();
@@ -94,6 +120,28 @@ public abstract class TestDeviceManager {
         return screenshotImageFile;
     }
 
+    /**
+     * Upload the screenshot unless it is the same image as the one last uploaded, an idle screen is then not uploaded again and again.
+     *
+     * @return the download url of the screenshot, blank if the upload gives no url
+     */
+    protected String uploadScreenshotIfChanged(@NotNull File screenshotImageFile, @Nullable String uploadedUrl) {
+        StorageFileInfo fileInfo =
+                new StorageFileInfo(screenshotImageFile, "device/screenshots/" + screenshotImageFile.getName(),
+                        StorageFileInfo.FileType.SCREENSHOT, EntityType.SCREENSHOT);
+        String filePath = screenshotImageFile.getAbsolutePath();
+        if (StringUtils.hasLength(uploadedUrl) && fileInfo.getMd5() != null && fileInfo.getMd5().equals(uploadedScreenshotMd5Map.get(filePath))) {
+            return uploadedUrl;
+        }
+        String fileDownloadUrl = agentManagementService.getStorageServiceClientProxy().upload(screenshotImageFile, fileInfo).getBlobUrl();
+        if (!StringUtils.hasLength(fileDownloadUrl) || fileInfo.getMd5() == null) {
+            uploadedScreenshotMd5Map.remove(filePath);
+        } else {
+            uploadedScreenshotMd5Map.put(filePath, fileInfo.getMd5());
+        }
+        return fileDownloadUrl;
+    }
+
     public abstract void wakeUpDevice(@NotNull DeviceInfo deviceInfo, @Nullable Logger logger);
 
     public abstract void backToHome(@NotNull DeviceInfo deviceInfo, @Nullable Logger logger);
@@ -160,6 +208,25 @@ public abstract class TestDeviceManager {
         });
     }
 
+    public void updateScreenshotGifFrameAsyncDelay(@NotNull DeviceInfo deviceInfo, long delayMillis,
+                                                   @NotNull GifFrameAvailableCallback gifFrameAvailableCallback,
+                                                   @NotNull Logger logger) {
+        ThreadPoolUtil.SCREENSHOT_EXECUTOR.execute(() -> {
+            try {
+                ThreadUtils.safeSleep(delayMillis);
+                BufferedImage gifFrame = getScreenShotGifFrame(deviceInfo, logger);
+                if (gifFrameAvailableCallback != null) {
+                    gifFrameAvailableCallback.onGifFrameReady(gifFrame);
+                }
+            } catch (TimeoutException te) {
+                classLogger.error("{}: {}, updateScreenshotGifFrameAsyncDelay", te.getClass().getSimpleName(),
+                        te.getMessage());
+            } catch (Exception e) {
+                classLogger.error(e.getMessage(), e);
+            }
+        });
+    }
+
     public void updateAllDeviceInfo() {
     }
 
@@ -272,4 +339,8 @@ public abstract class TestDeviceManager {
     public interface FileAvailableCallback {
         void onFileReady(File file);
     }
+
+    public interface GifFrameAvailableCallback {
+        void onGifFrameReady(BufferedImage gifFrame);
+    }
 }
\ No newline at end of file
@@ -3,7 +3,6 @@
 
 package com.microsoft.hydralab.common.management.device.impl;
 
-import cn.hutool.core.img.ImgUtil;
 import cn.hutool.core.lang.Assert;
 import com.android.ddmlib.AndroidDebugBridge;
 import com.android.ddmlib.IDevice;
@@ -12,8 +11,6 @@ import com.android.ddmlib.RawImage;
 import com.microsoft.hydralab.agent.runner.ITestRun;
 import com.microsoft.hydralab.agent.runner.TestRunThreadContext;
 import com.microsoft.hydralab.common.entity.common.DeviceInfo;
-import com.microsoft.hydralab.common.entity.common.EntityType;
-import com.microsoft.hydralab.common.entity.common.StorageFileInfo;
 import com.microsoft.hydralab.common.entity.common.TestRun;
 import com.microsoft.hydralab.common.entity.common.TestTask;
 import com.microsoft.hydralab.common.logger.MultiLineNoCancelLoggingReceiver;
@@ -23,6 +20,7 @@ import com.microsoft.hydralab.common.management.device.DeviceType;
 import com.microsoft.hydralab.common.management.device.TestDeviceManager;
 import com.microsoft.hydralab.common.screen.PhoneAppScreenRecorder;
 import com.microsoft.hydralab.common.screen.ScreenRecorder;
+import com.microsoft.hydralab.common.screen.ScreenshotPipeline;
 import com.microsoft.hydralab.common.util.ADBOperateUtil;
 import com.microsoft.hydralab.common.util.HydraLabRuntimeException;
 import com.microsoft.hydralab.common.util.ThreadUtils;
@@ -48,6 +46,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import static com.android.ddmlib.IDevice.CHANGE_BUILD_INFO;
@@ -70,6 +69,8 @@ public class AndroidTestDeviceManager extends TestDeviceManager {
     public static final String KEYCODE_HOME = "KEYCODE_HOME";
     static final Logger classLogger = LoggerFactory.getLogger(AndroidTestDeviceManager.class);
     private final Map<String, DeviceInfo> adbDeviceInfoMap = new HashMap<>();
+    //save the screenshot buffers of each device <serial number,pipeline>
+    private final Map<String, ScreenshotPipeline> screenshotPipelineMap = new ConcurrentHashMap<>();
     ADBOperateUtil adbOperateUtil;
 
     private final AndroidDebugBridge.IDeviceChangeListener mListener =
@@ -101,6 +102,7 @@ public class AndroidTestDeviceManager extends TestDeviceManager {
                         return;
                     }
 
+                    screenshotPipelineMap.remove(device.getSerialNumber());
                     agentManagementService.getDeviceStatusListenerManager().onDeviceInactive(deviceInfo);
                     appiumServerManager.quitAndroidDriver(deviceInfo, classLogger);
                 }
@@ -383,6 +385,16 @@ public class AndroidTestDeviceManager extends TestDeviceManager {
 
     @Override
     public File getScreenShot(DeviceInfo deviceInfo, Logger logger) throws Exception {
+        captureAndUploadScreenshot(deviceInfo);
+        return deviceInfo.getScreenshotImageFile();
+    }
+
+    @Override
+    public BufferedImage getScreenShotGifFrame(DeviceInfo deviceInfo, Logger logger) throws Exception {
+        return captureAndUploadScreenshot(deviceInfo);
+    }
+
+    private BufferedImage captureAndUploadScreenshot(DeviceInfo deviceInfo) throws Exception {
         File screenshotImageFile = deviceInfo.getScreenshotImageFile();
         if (screenshotImageFile == null) {
             screenshotImageFile = new File(agentManagementService.getScreenshotDir(),
@@ -396,19 +408,14 @@ public class AndroidTestDeviceManager extends TestDeviceManager {
         }
         deviceInfo.setScreenshotUpdateTimeMilli(System.currentTimeMillis());
         sendKeyEvent(deviceInfo, KEYCODE_WAKEUP, logger);
-        screenCapture(deviceInfo, screenshotImageFile.getAbsolutePath(), null);
-        StorageFileInfo fileInfo =
-                new StorageFileInfo(screenshotImageFile, "device/screenshots/" + screenshotImageFile.getName(),
-                        StorageFileInfo.FileType.SCREENSHOT, EntityType.SCREENSHOT);
-        String fileDownloadUrl =
-                agentManagementService.getStorageServiceClientProxy().upload(screenshotImageFile, fileInfo)
-                        .getBlobUrl();
+        BufferedImage gifFrame = screenCapture(deviceInfo, screenshotImageFile, null);
+        String fileDownloadUrl = uploadScreenshotIfChanged(screenshotImageFile, deviceInfo.getScreenshotImageUrl());
         if (StringUtils.isBlank(fileDownloadUrl)) {
             classLogger.warn("Screenshot download url is empty for device {}", deviceInfo.getName());
         } else {
             deviceInfo.setScreenshotImageUrl(fileDownloadUrl);
         }
-        return screenshotImageFile;
+        return gifFrame;
     }
 
     private void deviceInfoUpdate(IDevice device) {
@@ -449,28 +456,13 @@ public class AndroidTestDeviceManager extends TestDeviceManager {
         }
     }
 
-    private void screenCapture(DeviceInfo deviceInfo, String outputFile, Logger logger) throws Exception {
+    private BufferedImage screenCapture(DeviceInfo deviceInfo, File outputFile, Logger logger) throws Exception {
         RawImage image = adbOperateUtil.getScreenshot(deviceInfo, logger);
         if (image == null) {
-            return;
-        }
-        BufferedImage screenshot = toBufferedImage(image);
-        ImgUtil.scale(screenshot, new File(outputFile), 0.7f);
-    }
-
-    private BufferedImage toBufferedImage(RawImage rawImage) {
-        BufferedImage image = new BufferedImage(rawImage.width, rawImage.height, BufferedImage.TYPE_INT_ARGB);
-        int index = 0;
-        int indexInc = rawImage.bpp >> 3;
-        for (int y = 0; y < rawImage.height; y++) {
-            for (int x = 0; x < rawImage.width; x++) {
-                int value = rawImage.getARGB(index) | 0xff000000;
-                index += indexInc;
-                image.setRGB(x, y, value);
-            }
+            return null;
         }
-
-        return image;
+        ScreenshotPipeline screenshotPipeline = screenshotPipelineMap.computeIfAbsent(deviceInfo.getSerialNum(), serialNum -> new ScreenshotPipeline());
+        return screenshotPipeline.capture(image, outputFile);
     }
 
     private boolean sendKeyEvent(DeviceInfo deviceInfo, String event, Logger logger) {
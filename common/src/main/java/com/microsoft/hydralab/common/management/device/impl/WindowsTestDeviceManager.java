@@ -5,8 +5,6 @@ package com.microsoft.hydralab.common.management.device.impl;
 import cn.hutool.core.img.ImgUtil;
 import com.android.ddmlib.TimeoutException;
 import com.microsoft.hydralab.common.entity.common.DeviceInfo;
-import com.microsoft.hydralab.common.entity.common.EntityType;
-import com.microsoft.hydralab.common.entity.common.StorageFileInfo;
 import com.microsoft.hydralab.common.screen.AppiumE2ETestRecorder;
 import com.microsoft.hydralab.common.screen.ScreenRecorder;
 import com.microsoft.hydralab.common.util.ThreadPoolUtil;
@@ -42,12 +40,7 @@ public class WindowsTestDeviceManager extends AndroidTestDeviceManager {
         } catch (IOException e) {
             classLogger.error("Screen capture failed for device: {}", deviceInfo, e);
         }
-        StorageFileInfo fileInfo =
-                new StorageFileInfo(pcScreenShotImageFile, "device/screenshots/" + pcScreenShotImageFile.getName(),
-                        StorageFileInfo.FileType.SCREENSHOT, EntityType.SCREENSHOT);
-        String fileDownloadUrl =
-                agentManagementService.getStorageServiceClientProxy().upload(pcScreenShotImageFile, fileInfo)
-                        .getBlobUrl();
+        String fileDownloadUrl = uploadScreenshotIfChanged(pcScreenShotImageFile, deviceInfo.getPcScreenshotImageUrl());
         if (StringUtils.isBlank(fileDownloadUrl)) {
             classLogger.warn("Screenshot download url is empty for device {}", deviceInfo.getName());
         } else {
@@ -63,6 +56,12 @@ public class WindowsTestDeviceManager extends AndroidTestDeviceManager {
         return joinImages(pcScreenShotImageFile, deviceFile, deviceInfo.getName() + "-" + deviceInfo.getSerialNum() + "-" + "comb" + ".jpg");
     }
 
+    @Override
+    public BufferedImage getScreenShotGifFrame(DeviceInfo deviceInfo, Logger logger) throws Exception {
+        // the GIF of a Windows test shows the PC and the phone side by side
+        return readGifFrame(getPairScreenShot(deviceInfo, logger));
+    }
+
     @Override
     public void updateScreenshotImageAsyncDelay(@NotNull DeviceInfo deviceInfo, long delayMillis, @NotNull FileAvailableCallback fileAvailableCallback, @NotNull Logger logger) {
         ThreadPoolUtil.SCREENSHOT_EXECUTOR.execute(new Runnable() {
@@ -3,7 +3,6 @@
 package com.microsoft.hydralab.common.management.listener.impl;
 
 import com.android.ddmlib.IDevice;
-import com.microsoft.hydralab.common.entity.agent.DeviceStateChangeRecord;
 import com.microsoft.hydralab.common.entity.common.DeviceInfo;
 import com.microsoft.hydralab.common.management.AgentManagementService;
 import com.microsoft.hydralab.common.management.device.TestDeviceManager;
@@ -11,41 +10,43 @@ import com.microsoft.hydralab.common.management.listener.DeviceStatusListener;
 import com.microsoft.hydralab.common.management.listener.MobileDeviceState;
 import com.microsoft.hydralab.common.util.GlobalConstant;
 import com.microsoft.hydralab.common.util.ThreadPoolUtil;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tags;
 import lombok.Data;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.scheduling.annotation.Scheduled;
 
-import java.time.Clock;
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
-import java.time.temporal.ChronoUnit;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+import java.util.function.ToDoubleFunction;
 
 @Data
 public class DeviceStabilityMonitor implements DeviceStatusListener {
-    private final Map<String, ConcurrentLinkedDeque<DeviceStateChangeRecord>> deviceStateChangesMap = new HashMap<>();
-    // map from device SN to a boolean flagging if a device is UNSTABLE and waiting for converting back to normal
-    private final Map<String, AtomicBoolean> deviceStateIsConvertingList = new HashMap<>();
+    static final long TIMER_TICK_MILLIS = 1000;
+    static final int TIMER_SLOT_COUNT = 512;
     /**
-     * Map from device SN to current active state sliding window.
-     * The length of list being larger the preset threshold (default 12 as 4 changes for a loop) will be considered as UNSTABLE state.
+     * Each device has a sliding window of its latest state changes.
+     * The number of changes in the window being larger the preset threshold (default 12 as 4 changes for a loop) will be considered as UNSTABLE state.
      * When it's UNSTABLE, keep all current UNSTABLE changes, until time check for last change is before time setting.
-     * Trigger a timer to count down for the rest time to reset the state from UNSTABLE to the last changed state, re-trigger a timer if any change happened during the counting down.
+     * The timer wheel re-checks the device once the recovery time since the last change is reached, to reset the state from UNSTABLE to the last changed state.
+     * Any change happening during the counting down pushes the recovery deadline back.
+     * A device staying OFFLINE for longer than both the window time and the recovery time has left, its window and metrics are dropped.
      * <p>
      * Some possible UNSTABLE situation:
      * 1. switching between connected(OFFLINE) and disconnected, without entering deviceChanged (OFFLINE - DISCONNECTED switching but no ONLINE).
      * 2. switching among connected(ONLINE)/connected(OFFLINE)/disconnected.
      * 3. switching between connected(OFFLINE)/connected(ONLINE)
      */
+    private final Map<String, DeviceStateChangeWindow> deviceStateChangeWindows = new ConcurrentHashMap<>();
+    private final DeviceStateTimerWheel timerWheel;
+    private final LongSupplier clock;
+    private ScheduledFuture<?> timerFuture;
 
     private AgentManagementService agentManagementService;
     private int deviceStateChangeThreshold;
@@ -54,6 +55,31 @@ public class DeviceStabilityMonitor implements DeviceStatusListener {
     private MeterRegistry meterRegistry;
     private Logger classLogger = LoggerFactory.getLogger(DeviceStabilityMonitor.class);
 
+    public DeviceStabilityMonitor() {
+        this(System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock the current time in epoch millis
+     */
+    public DeviceStabilityMonitor(LongSupplier clock) {
+        this.clock = clock;
+        this.timerWheel = new DeviceStateTimerWheel(TIMER_TICK_MILLIS, TIMER_SLOT_COUNT, clock.getAsLong());
+    }
+
+    public synchronized void start() {
+        if (timerFuture == null) {
+            timerFuture = ThreadPoolUtil.TIMER_EXECUTOR.scheduleAtFixedRate(this::advanceTimer, TIMER_TICK_MILLIS, TIMER_TICK_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        if (timerFuture != null) {
+            timerFuture.cancel(false);
+            timerFuture = null;
+        }
+    }
+
     // 2 triggering ways: new device state change, timer trigger
     public void stabilityCheck(DeviceInfo deviceInfo, IDevice.DeviceState adbState, String deviceBehaviour) {
         stabilityCheck(deviceInfo, TestDeviceManager.mobileDeviceStateMapping(adbState), deviceBehaviour);
@@ -65,14 +91,28 @@ public class DeviceStabilityMonitor implements DeviceStatusListener {
             return;
         }
 
-        LocalDateTime now = LocalDateTime.now(Clock.systemUTC());
-        ConcurrentLinkedDeque<DeviceStateChangeRecord> deviceStateChangeList = deviceStateChangesMap.computeIfAbsent(deviceInfo.getSerialNum(), k -> {
-            ConcurrentLinkedDeque<DeviceStateChangeRecord> stateChangeList = new ConcurrentLinkedDeque<>();
-            addDeviceMetricRegistration(deviceInfo, stateChangeList);
-            return stateChangeList;
-        });
+        while (true) {
+            DeviceStateChangeWindow window = getDeviceStateChangeWindow(deviceInfo);
+            synchronized (window) {
+                // the device left in between, start over with a new window
+                if (!window.removed) {
+                    stabilityCheck(window, state, deviceBehaviour, clock.getAsLong());
+                    return;
+                }
+            }
+        }
+    }
 
+    private DeviceStateChangeWindow getDeviceStateChangeWindow(DeviceInfo deviceInfo) {
+        return deviceStateChangeWindows.computeIfAbsent(deviceInfo.getSerialNum(), k -> {
+            DeviceStateChangeWindow window = new DeviceStateChangeWindow(deviceInfo, deviceStateChangeThreshold + 1);
+            addDeviceMetricRegistration(window);
+            return window;
+        });
+    }
 
+    private void stabilityCheck(DeviceStateChangeWindow window, MobileDeviceState state, String deviceBehaviour, long now) {
+        DeviceInfo deviceInfo = window.deviceInfo;
         /**
          * deviceBehaviour != null means not checking from an incoming behaviour (for now just UNSTABLE_RESET_TIMER)
          */
@@ -81,133 +121,167 @@ public class DeviceStabilityMonitor implements DeviceStatusListener {
                 classLogger.error("[Stability] Didn't find IDevice information, SN: {}.", deviceInfo.getSerialNum());
                 return;
             }
-            DeviceStateChangeRecord newRecord = new DeviceStateChangeRecord(deviceInfo.getSerialNum(), now, state, deviceBehaviour);
-            deviceStateChangeList.add(newRecord);
+            window.add(now, state);
         }
 
-        DeviceStateChangeRecord lastStateChange = deviceStateChangeList.size() == 0 ? null : deviceStateChangeList.getLast();
-
-        if (lastStateChange == null) {
+        MobileDeviceState lastState = window.getLastState();
+        if (lastState == null) {
             classLogger.error("[Stability] State change window is empty for device {}.", deviceInfo.getSerialNum());
             return;
         }
 
-        cleanOutdatedDeviceStateChange(deviceStateChangeList, now, deviceInfo);
+        cleanOutdatedDeviceStateChange(window, now);
 
-        int stateChangeSum = deviceStateChangeList.size();
+        int stateChangeSum = window.size();
         if (stateChangeSum > deviceStateChangeThreshold) {
-            classLogger.warn("[Stability] Window time length: {} minutes, threshold of change number: {}. Device {} currently contains {} changes, which exceeds the threshold.", deviceStateChangeWindowTime, deviceStateChangeThreshold, deviceInfo.getSerialNum(), stateChangeSum);
+            // a flapping device calls in on every change, only its first UNSTABLE change is worth a warning
+            if (window.recoveryDeadline == 0) {
+                classLogger.warn("[Stability] Window time length: {} minutes, threshold of change number: {}. Device {} currently contains {} changes, which exceeds the threshold.", deviceStateChangeWindowTime, deviceStateChangeThreshold, deviceInfo.getSerialNum(), stateChangeSum);
+            }
             synchronized (deviceInfo) {
                 deviceInfo.setStatus(DeviceInfo.UNSTABLE);
             }
-
-            long secondsSinceLastChange = now.toEpochSecond(ZoneOffset.UTC) - lastStateChange.getTime().toEpochSecond(ZoneOffset.UTC);
-            long sleepTime = deviceStateChangeRecoveryTime * 60 - secondsSinceLastChange + 1; // use 1 second offset to erase millsecond-level error when calculating on second level
-
-            AtomicBoolean isWaitingForConverting = deviceStateIsConvertingList.computeIfAbsent(deviceInfo.getSerialNum(), k -> new AtomicBoolean(false));
-            if (isWaitingForConverting.compareAndSet(false, true)) {
-                classLogger.info("[Stability] Device {}: last state change happened {} seconds ago, will re-check after {} seconds", deviceInfo.getSerialNum(), secondsSinceLastChange, sleepTime);
-
-                // start a timer to trigger when recovery time limit is reached, to recover state from UNSTABLE to last recorded normal state
-                ThreadPoolUtil.TIMER_EXECUTOR.schedule(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (isWaitingForConverting.compareAndSet(true, false)) {
-                            classLogger.info("[Stability] Reaches recovery time to check again for device {}", deviceInfo.getSerialNum());
-                            stabilityCheck(deviceInfo, MobileDeviceState.OTHER, "UNSTABLE_RESET_TIMER");
-                        }
-                    }
-                }, sleepTime, TimeUnit.SECONDS);
-            }
+            // (re)start the count down to recover state from UNSTABLE to last recorded normal state
+            window.recoveryDeadline = window.getLastTime() + TimeUnit.MINUTES.toMillis(deviceStateChangeRecoveryTime);
+            classLogger.debug("[Stability] Device {}: last state change happened {} seconds ago, will re-check after {} seconds", deviceInfo.getSerialNum(),
+                    TimeUnit.MILLISECONDS.toSeconds(now - window.getLastTime()), TimeUnit.MILLISECONDS.toSeconds(window.recoveryDeadline - now));
         } else {
+            window.recoveryDeadline = 0;
             if (DeviceInfo.UNSTABLE.equals(deviceInfo.getStatus())) {
-                classLogger.info("[Stability] Device {}: converted back to {} from UNSTABLE state, and clear state change windows.", deviceInfo.getSerialNum(), lastStateChange.getState().toString());
+                classLogger.info("[Stability] Device {}: converted back to {} from UNSTABLE state, and clear state change windows.", deviceInfo.getSerialNum(), lastState.toString());
                 synchronized (deviceInfo) {
-                    deviceInfo.setStatus(lastStateChange.getState().toString());
+                    deviceInfo.setStatus(lastState.toString());
                 }
             } else {
-                classLogger.warn("[Stability] Window time length: {} minutes, threshold of change number: {}. Device {} currently contains {} changes.", deviceStateChangeWindowTime, deviceStateChangeThreshold, deviceInfo.getSerialNum(), stateChangeSum);
+                classLogger.debug("[Stability] Window time length: {} minutes, threshold of change number: {}. Device {} currently contains {} changes.", deviceStateChangeWindowTime, deviceStateChangeThreshold, deviceInfo.getSerialNum(), stateChangeSum);
             }
         }
+        scheduleTimer(window);
     }
 
-    private void cleanOutdatedDeviceStateChange(ConcurrentLinkedDeque<DeviceStateChangeRecord> recordWindow, LocalDateTime now, DeviceInfo deviceInfo) {
+    private void cleanOutdatedDeviceStateChange(DeviceStateChangeWindow window, long now) {
         /**
          * Clean outdated state change record in window lists
          * 1. Normal recording state change: keep window duration for data within {deviceStateChangeWindowTime} minutes;
          * 2. UNSTABLE state: keep all current content until (3.) happens;
          * 3. Timer thread to turn UNSTABLE back to normal state: clear all data;
-         * In any situation, return the latest record in order to get DevuceState
+         * In any situation, keep the latest record in order to get DeviceState
          */
-        if (recordWindow == null) {
-            classLogger.error("[Stability] State change window of device {} is null", deviceInfo.getSerialNum());
+        if (window.size() == 0) {
             return;
         }
 
-        if (recordWindow.isEmpty()) {
-            return;
-        }
-
-        DeviceStateChangeRecord firstRecord = recordWindow.getFirst();
-        DeviceStateChangeRecord lastRecord = recordWindow.getLast();
-
-        if (DeviceInfo.UNSTABLE.equals(deviceInfo.getStatus())) {
+        if (DeviceInfo.UNSTABLE.equals(window.deviceInfo.getStatus())) {
             // When device is UNSTABLE, and new behavior comes in, keep current records and extend. Or clear all data
-            if (lastRecord.getTime().plus(deviceStateChangeRecoveryTime, ChronoUnit.MINUTES).isBefore(now)) {
+            if (window.getLastTime() + TimeUnit.MINUTES.toMillis(deviceStateChangeRecoveryTime) <= now) {
                 // UNSTABLE back to normal state
-                synchronized (recordWindow) {
-                    recordWindow.clear();
-                }
+                window.clear();
             }
         } else {
             // keep window duration for data within {deviceStateChangeWindowTime} minutes;
-            synchronized (recordWindow) {
-                while (firstRecord.getTime().plus(deviceStateChangeWindowTime, ChronoUnit.MINUTES).isBefore(now)) {
-                    recordWindow.pollFirst();
-
-                    if (recordWindow.isEmpty()) {
-                        break;
-                    } else {
-                        firstRecord = recordWindow.getFirst();
+            window.removeOlderThan(now - TimeUnit.MINUTES.toMillis(deviceStateChangeWindowTime));
+        }
+    }
+
+    private long getDepartureDeadline(DeviceStateChangeWindow window) {
+        return window.getLastTime() + TimeUnit.MINUTES.toMillis(Math.max(deviceStateChangeWindowTime, deviceStateChangeRecoveryTime));
+    }
+
+    private void scheduleTimer(DeviceStateChangeWindow window) {
+        long deadline = window.recoveryDeadline;
+        if (deadline == 0 && window.getLastState() == MobileDeviceState.OFFLINE) {
+            deadline = getDepartureDeadline(window);
+        }
+        // deadlines only move back, the one already in the wheel will schedule the later one when it's reached
+        if (deadline != 0 && (window.timerDeadline == 0 || deadline < window.timerDeadline)) {
+            window.timerDeadline = deadline;
+            timerWheel.schedule(window.deviceInfo.getSerialNum(), deadline);
+        }
+    }
+
+    void advanceTimer() {
+        long now = clock.getAsLong();
+        for (String serialNum : timerWheel.advance(now)) {
+            DeviceStateChangeWindow window = deviceStateChangeWindows.get(serialNum);
+            if (window == null) {
+                continue;
+            }
+            try {
+                synchronized (window) {
+                    if (!window.removed) {
+                        onTimer(window, now);
                     }
                 }
+            } catch (Exception e) {
+                classLogger.error("[Stability] Failed to check device {} on timer", serialNum, e);
             }
         }
     }
 
-    private void addDeviceMetricRegistration(DeviceInfo deviceInfo, ConcurrentLinkedDeque<DeviceStateChangeRecord> deviceStateChangeList) {
+    private void onTimer(DeviceStateChangeWindow window, long now) {
+        DeviceInfo deviceInfo = window.deviceInfo;
+        window.timerDeadline = 0;
+        if (window.recoveryDeadline != 0) {
+            if (now < window.recoveryDeadline) {
+                scheduleTimer(window);
+                return;
+            }
+            classLogger.info("[Stability] Reaches recovery time to check again for device {}", deviceInfo.getSerialNum());
+            stabilityCheck(window, MobileDeviceState.OTHER, "UNSTABLE_RESET_TIMER", now);
+            if (window.recoveryDeadline != 0) {
+                return;
+            }
+        }
+        if (window.getLastState() != MobileDeviceState.OFFLINE || deviceInfo.isAlive()) {
+            return;
+        }
+        if (now < getDepartureDeadline(window)) {
+            scheduleTimer(window);
+            return;
+        }
+        // the meters go first, so that a new window of the device registers its own ones
+        removeDeviceMetricRegistration(window);
+        window.removed = true;
+        deviceStateChangeWindows.remove(deviceInfo.getSerialNum(), window);
+        classLogger.info("[Stability] Device {} has been OFFLINE since {}, its state change window and metrics have been removed.", deviceInfo.getSerialNum(), window.getLastTime());
+    }
+
+    private void addDeviceMetricRegistration(DeviceStateChangeWindow window) {
+        DeviceInfo deviceInfo = window.deviceInfo;
         // Metric: device state change times
-        meterRegistry.gaugeCollectionSize(GlobalConstant.PROMETHEUS_METRIC_DEVICE_STATE_CHANGE_TIMES, Tags.empty().and("device SN", deviceInfo.getSerialNum()), deviceStateChangeList);
-        classLogger.info("Metric of agent device state change times for device {} has been registered.", deviceInfo.getSerialNum());
+        registerDeviceGauge(GlobalConstant.PROMETHEUS_METRIC_DEVICE_STATE_CHANGE_TIMES, window, this::getDeviceStateChangeTimes);
         // Metric: device UNSTABLE state signal
-        meterRegistry.gauge(GlobalConstant.PROMETHEUS_METRIC_TEST_DEVICE_UNSTABLE_SIGNAL,
-                Tags.empty().and("device SN", deviceInfo.getSerialNum()),
-                deviceInfo,
-                this::getDeviceUnstableSignal);
+        registerDeviceGauge(GlobalConstant.PROMETHEUS_METRIC_TEST_DEVICE_UNSTABLE_SIGNAL, window, w -> getDeviceUnstableSignal(w.deviceInfo));
         // Metric: device OFFLINE state signal
-        meterRegistry.gauge(GlobalConstant.PROMETHEUS_METRIC_TEST_DEVICE_OFFLINE_SIGNAL,
-                Tags.empty().and("device SN", deviceInfo.getSerialNum()),
-                deviceInfo,
-                this::getDeviceOfflineSignal);
-        classLogger.info("Metric of agent device UNSTABLE state signal for device {} has been registered.", deviceInfo.getSerialNum());
+        registerDeviceGauge(GlobalConstant.PROMETHEUS_METRIC_TEST_DEVICE_OFFLINE_SIGNAL, window, w -> getDeviceOfflineSignal(w.deviceInfo));
         // Metric: device running test signal
-        meterRegistry.gauge(GlobalConstant.PROMETHEUS_METRIC_TEST_DEVICE_RUNNING_TEST_SIGNAL,
-                Tags.empty().and("device SN", deviceInfo.getSerialNum()),
-                deviceInfo,
-                this::getDeviceRunningTestSignal);
-        classLogger.info("Metric of agent device running test signal for device {} has been registered.", deviceInfo.getSerialNum());
+        registerDeviceGauge(GlobalConstant.PROMETHEUS_METRIC_TEST_DEVICE_RUNNING_TEST_SIGNAL, window, w -> getDeviceRunningTestSignal(w.deviceInfo));
         // Metric: device alive signal
-        meterRegistry.gauge(GlobalConstant.PROMETHEUS_METRIC_TEST_DEVICE_ALIVE_SIGNAL,
-                Tags.empty().and("device SN", deviceInfo.getSerialNum()),
-                deviceInfo,
-                this::getDeviceAliveSignal);
-        classLogger.info("Metric of agent device alive signal for device {} has been registered.", deviceInfo.getSerialNum());
+        registerDeviceGauge(GlobalConstant.PROMETHEUS_METRIC_TEST_DEVICE_ALIVE_SIGNAL, window, w -> getDeviceAliveSignal(w.deviceInfo));
         // Metric: device adb command timeout signal
-        meterRegistry.gauge(GlobalConstant.PROMETHEUS_METRIC_TEST_DEVICE_ADB_TIMEOUT_SIGNAL,
-                Tags.empty().and("device SN", deviceInfo.getSerialNum()),
-                deviceInfo,
-                this::getDeviceADBTimeoutSignal);
-        classLogger.info("Metric of agent device ADB command timeout signal for device {} has been registered.", deviceInfo.getSerialNum());
+        registerDeviceGauge(GlobalConstant.PROMETHEUS_METRIC_TEST_DEVICE_ADB_TIMEOUT_SIGNAL, window, w -> getDeviceADBTimeoutSignal(w.deviceInfo));
+        classLogger.info("Metrics of agent device state change times and state signals for device {} have been registered.", deviceInfo.getSerialNum());
+    }
+
+    private void registerDeviceGauge(String name, DeviceStateChangeWindow window, ToDoubleFunction<DeviceStateChangeWindow> valueFunction) {
+        window.meters.add(Gauge.builder(name, window, valueFunction)
+                .tags(Tags.empty().and("device SN", window.deviceInfo.getSerialNum()))
+                .register(meterRegistry));
+    }
+
+    private void removeDeviceMetricRegistration(DeviceStateChangeWindow window) {
+        for (Meter meter : window.meters) {
+            meterRegistry.remove(meter);
+        }
+        window.meters.clear();
+    }
+
+    // the outdated changes are dropped when the metric is scraped
+    private int getDeviceStateChangeTimes(DeviceStateChangeWindow window) {
+        synchronized (window) {
+            cleanOutdatedDeviceStateChange(window, clock.getAsLong());
+            return window.size();
+        }
     }
 
     private int getDeviceOfflineSignal(DeviceInfo deviceInfo) {
@@ -230,17 +304,6 @@ public class DeviceStabilityMonitor implements DeviceStatusListener {
         return deviceInfo.isAdbTimeout() ? 1 : 0;
     }
 
-    // todo: dynamically set cron interval to sync with prometheus scrape time
-    @Scheduled(cron = "*/10 * * * * *")
-    public void refreshDeviceStateChangeTimes() {
-        LocalDateTime now = LocalDateTime.now(Clock.systemUTC());
-        Set<DeviceInfo> deviceInfos = agentManagementService.getDeviceList(null);
-
-        for (DeviceInfo info : deviceInfos) {
-            cleanOutdatedDeviceStateChange(deviceStateChangesMap.get(info.getSerialNum()), now, info);
-        }
-    }
-
     @Override
     public void onDeviceInactive(DeviceInfo deviceInfo) {
         stabilityCheck(deviceInfo, MobileDeviceState.OFFLINE, null);
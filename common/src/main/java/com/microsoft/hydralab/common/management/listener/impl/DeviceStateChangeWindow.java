@@ -0,0 +1,84 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.hydralab.common.management.listener.impl;
+
+import com.microsoft.hydralab.common.entity.common.DeviceInfo;
+import com.microsoft.hydralab.common.management.listener.MobileDeviceState;
+import io.micrometer.core.instrument.Meter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ring buffer of the latest state changes of a device, with the times in epoch millis.
+ * Only the latest {capacity} changes are kept, the older ones can't change whether the threshold is exceeded.
+ * Not thread safe, the callers synchronize on the window.
+ */
+class DeviceStateChangeWindow {
+    final DeviceInfo deviceInfo;
+    final List<Meter> meters = new ArrayList<>();
+    private final long[] times;
+    private final MobileDeviceState[] states;
+    // index of the oldest change
+    private int head;
+    private int size;
+    // the latest change is kept after the window is cleared, to know the state to recover to
+    private long lastTime;
+    private MobileDeviceState lastState;
+    // 0 if the device isn't waiting for converting back from UNSTABLE
+    long recoveryDeadline;
+    // 0 if the device isn't in the timer wheel
+    long timerDeadline;
+    boolean removed;
+
+    DeviceStateChangeWindow(DeviceInfo deviceInfo, int capacity) {
+        this.deviceInfo = deviceInfo;
+        this.times = new long[Math.max(1, capacity)];
+        this.states = new MobileDeviceState[times.length];
+    }
+
+    void add(long time, MobileDeviceState state) {
+        int index = (head + size) % times.length;
+        times[index] = time;
+        states[index] = state;
+        if (size < times.length) {
+            size++;
+        } else {
+            head = (head + 1) % times.length;
+        }
+        lastTime = time;
+        lastState = state;
+    }
+
+    void removeOlderThan(long time) {
+        while (size > 0 && times[head] < time) {
+            states[head] = null;
+            head = (head + 1) % times.length;
+            size--;
+        }
+    }
+
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            states[(head + i) % times.length] = null;
+        }
+        head = 0;
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return times.length;
+    }
+
+    long getLastTime() {
+        return lastTime;
+    }
+
+    MobileDeviceState getLastState() {
+        return lastState;
+    }
+}
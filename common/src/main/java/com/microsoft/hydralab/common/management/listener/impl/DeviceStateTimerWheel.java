@@ -0,0 +1,63 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.hydralab.common.management.listener.impl;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Hashed timer wheel of the device serial numbers waiting for a stability check, one slot per tick.
+ * A serial number is put in the slot of the tick of its deadline and comes out when the wheel is advanced past that tick.
+ * A deadline more than one turn ahead comes out early, the caller is expected to check the deadline and schedule it again.
+ */
+class DeviceStateTimerWheel {
+    private final long tickMillis;
+    private final List<Set<String>> slots;
+    // the last tick whose slot has been drained
+    private long currentTick;
+    private int size;
+
+    DeviceStateTimerWheel(long tickMillis, int slotCount, long nowMillis) {
+        this.tickMillis = tickMillis;
+        this.slots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots.add(new HashSet<>());
+        }
+        this.currentTick = nowMillis / tickMillis;
+    }
+
+    synchronized void schedule(String serialNum, long deadlineMillis) {
+        long tick = Math.max((deadlineMillis + tickMillis - 1) / tickMillis, currentTick + 1);
+        if (slotOf(tick).add(serialNum)) {
+            size++;
+        }
+    }
+
+    /**
+     * @return the serial numbers whose deadline tick is passed, or which have been in the wheel for a whole turn
+     */
+    synchronized List<String> advance(long nowMillis) {
+        long nowTick = nowMillis / tickMillis;
+        List<String> due = new ArrayList<>();
+        // a slot is drained at most once per call, even if the wheel is late by more than a turn
+        long fromTick = Math.max(currentTick + 1, nowTick - slots.size() + 1);
+        for (long tick = fromTick; tick <= nowTick; tick++) {
+            Set<String> slot = slotOf(tick);
+            due.addAll(slot);
+            size -= slot.size();
+            slot.clear();
+        }
+        currentTick = Math.max(currentTick, nowTick);
+        return due;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    private Set<String> slotOf(long tick) {
+        return slots.get((int) (tick % slots.size()));
+    }
+}
@@ -7,6 +7,7 @@ import com.alibaba.fastjson.JSONArray;
 import com.microsoft.hydralab.common.entity.common.AndroidTestUnit;
 import com.microsoft.hydralab.common.entity.common.TestRun;
 import com.microsoft.hydralab.common.entity.common.KeyValue;
+import com.microsoft.hydralab.common.serialize.KeyValueCodec;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.cache.annotation.CacheConfig;
 import org.springframework.cache.annotation.CachePut;
@@ -15,13 +16,20 @@ import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Repository;
 
 import javax.annotation.Resource;
+import javax.persistence.EntityNotFoundException;
 
+/**
+ * The values are saved with {@link KeyValueCodec} and cached decoded, so that a cached value is decoded only once.
+ * The cache is bounded by the heap bytes of the values and overflows to disk, see keyValueCache in the ehcache config of the center.
+ */
 @Repository
-@CacheConfig(cacheNames = "keyValueCache")
+@CacheConfig(cacheNames = KeyValueRepository.CACHE_NAME)
 public class KeyValueRepository {
+    public static final String CACHE_NAME = "keyValueCache";
     public final static String UNIT_TEST_DETAIL = "UNIT_TEST_DETAIL:";
     public static final String DEVICE_RES_INFO = "Device_Res_Info:";
     public final static String CRASH_STACK_IN_DEVICE = "CRASH_STACK:";
+    private final KeyValueCodec keyValueCodec = new KeyValueCodec();
     @Resource
     KeyValueDBRepository keyValueDBRepository;
     @Lazy
@@ -31,14 +39,14 @@ public class KeyValueRepository {
 
     @CachePut(key = "#result.keyid")
     public KeyValue putKeyValuePairDB(String key, String value) {
-        KeyValue result = new KeyValue(key, value);
-        keyValueDBRepository.save(result);
-        return result;
+        keyValueDBRepository.save(new KeyValue(key, keyValueCodec.encode(value)));
+        return new KeyValue(key, value);
     }
 
     @Cacheable(key = "#key")
     public KeyValue getKeyValuePairDB(String key) {
-        return keyValueDBRepository.getOne(key);
+        KeyValue stored = keyValueDBRepository.findById(key).orElseThrow(() -> new EntityNotFoundException("Unable to find KeyValue with id " + key));
+        return new KeyValue(key, keyValueCodec.decode(stored.getValue()));
     }
 
     public String getValueByKeyDB(String key) {
@@ -2,7 +2,6 @@
 // Licensed under the MIT License.
 package com.microsoft.hydralab.common.screen;
 
-import cn.hutool.core.thread.ThreadUtil;
 import com.microsoft.hydralab.common.entity.common.DeviceInfo;
 import com.microsoft.hydralab.common.util.ADBOperateUtil;
 import com.microsoft.hydralab.common.util.DateUtil;
@@ -13,12 +12,11 @@ import org.slf4j.Logger;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 public class ADBScreenRecorder implements ScreenRecorder {
+    private static final int MERGE_TIMEOUT_MINUTES = 2;
     public final Object lock = new Object();
     private final DeviceInfo deviceInfo;
     private final Logger logger;
@@ -29,6 +27,7 @@ public class ADBScreenRecorder implements ScreenRecorder {
     private Thread recordingThread;
     private boolean shouldStop = true;
     private boolean shouldInterrupt = false;
+    private boolean recordingFinished = true;
 
     public ADBScreenRecorder(ADBOperateUtil adbOperateUtil, DeviceInfo deviceInfo, Logger logger, File baseFolder) {
         this.adbOperateUtil = adbOperateUtil;
@@ -57,7 +56,9 @@ public class ADBScreenRecorder implements ScreenRecorder {
             return;
         }
         shouldStop = false;
+        recordingFinished = false;
         recordingThread = new Thread(() -> {
+            SegmentedVideoMerger videoMerger = new SegmentedVideoMerger(baseFolder, logger);
             try {
                 if (preSleepSeconds > 0) {
                     ThreadUtils.safeSleep(preSleepSeconds * 1000L);
@@ -67,7 +68,6 @@ public class ADBScreenRecorder implements ScreenRecorder {
                     timeSpan = maxTimeInSecond;
                 }
                 int totalTime = 0;
-                List<File> list = new ArrayList<>();
                 while (totalTime < maxTimeInSecond && !shouldStop) {
                     String fileName = String.format("/sdcard/scr_rec_%d_%d.mp4", totalTime, totalTime + timeSpan);
                     String command = String.format("shell screenrecord --bit-rate 3200000 --time-limit %d %s", timeSpan, fileName);
@@ -93,29 +93,15 @@ public class ADBScreenRecorder implements ScreenRecorder {
                     deviceInfo.finishCommand();
 
                     String outputFilePrefix = new File(baseFolder, DateUtil.fileNameDateDashFormat.format(new Date())).getAbsolutePath();
-
                     final String outFileFullPath = outputFilePrefix + "_" + totalTime + "_" + (totalTime + timeSpan) + ".mp4";
-                    String pullComm = String.format("pull %s %s", fileName, outFileFullPath);
-                    Process process = adbOperateUtil.executeDeviceCommandOnPC(deviceInfo, pullComm, logger);
-
-                    logger.info(IOUtils.toString(process.getInputStream(), StandardCharsets.UTF_8));
-                    logger.error(IOUtils.toString(process.getErrorStream(), StandardCharsets.UTF_8));
-                    process.destroy();
-
-                    list.add(new File(outFileFullPath));
+                    // the next segment starts right away, this one is pulled and merged in the background
+                    videoMerger.append(() -> pullSegment(fileName, new File(outFileFullPath)));
 
                     totalTime += timeSpan;
                     logger.info("ADBDeviceScreenRecorder>> Time recorded {}", totalTime);
                 }
 
                 shouldInterrupt = false;
-                final File mergedVideo = FFmpegConcatUtil.concatVideos(list, baseFolder, logger);
-                ThreadUtil.safeSleep(2000);
-                if (mergedVideo != null && mergedVideo.exists()) {
-                    logger.info("deleting merged old videos " + list);
-                    list.forEach(File::delete);
-                }
-
             } catch (IOException e) {
                 logger.warn("Exception from recordingThread {} {}", e.getClass().getName(), e.getMessage());
             } finally {
@@ -124,16 +110,43 @@ public class ADBScreenRecorder implements ScreenRecorder {
                         recordingProcess.destroy();
                     }
                 }
-                try {
+                shouldInterrupt = false;
+                videoMerger.finish(TimeUnit.MINUTES.toMillis(MERGE_TIMEOUT_MINUTES));
+                synchronized (lock) {
+                    recordingFinished = true;
                     lock.notifyAll();
-                } catch (Exception e) {
-                    logger.warn("Exception from notifyAll {} {}", e.getClass().getName(), e.getMessage());
                 }
             }
         });
         recordingThread.start();
     }
 
+    /**
+     * Pull the segment and delete it from the device, so the device storage doesn't grow with the length of the recording.
+     */
+    private File pullSegment(String deviceFile, File localFile) {
+        try {
+            runAdbCommand(String.format("pull %s %s", deviceFile, localFile.getAbsolutePath()));
+            runAdbCommand(String.format("shell rm -f %s", deviceFile));
+        } catch (IOException e) {
+            logger.warn("Exception from pulling segment {} {} {}", deviceFile, e.getClass().getName(), e.getMessage());
+        }
+        return localFile;
+    }
+
+    private void runAdbCommand(String command) throws IOException {
+        Process process = adbOperateUtil.executeDeviceCommandOnPC(deviceInfo, command, logger);
+        try {
+            logger.info(IOUtils.toString(process.getInputStream(), StandardCharsets.UTF_8));
+            String error = IOUtils.toString(process.getErrorStream(), StandardCharsets.UTF_8);
+            if (!error.isEmpty()) {
+                logger.error(error);
+            }
+        } finally {
+            process.destroy();
+        }
+    }
+
     @Override
     public boolean finishRecording() {
         if (shouldStop) {
@@ -150,9 +163,13 @@ public class ADBScreenRecorder implements ScreenRecorder {
         }
         logger.info("start to wait for recording finish");
         long time = System.currentTimeMillis();
+        long deadline = time + TimeUnit.MINUTES.toMillis(2);
         try {
             synchronized (lock) {
-                lock.wait(TimeUnit.MINUTES.toMillis(2));
+                // only the last segment is left to merge, so this returns soon after the recording stops
+                while (!recordingFinished && System.currentTimeMillis() < deadline) {
+                    lock.wait(deadline - System.currentTimeMillis());
+                }
             }
         } catch (Exception e) {
             logger.warn("Exception from recordingThread {} {}", e.getClass().getName(), e.getMessage());
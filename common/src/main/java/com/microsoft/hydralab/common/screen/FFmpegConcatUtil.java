@@ -57,6 +57,56 @@ public class FFmpegConcatUtil {
         return null;
     }
 
+    /**
+     * Copy the streams of the video into an MPEG-TS file, TS files can be joined by appending their bytes.
+     *
+     * @return false if ffmpeg fails
+     */
+    public static boolean remuxToTransportStream(File video, File transportStream, Logger logger) {
+        return runFFmpeg(logger, "-y", "-i", video.getAbsolutePath(), "-c", "copy", "-f", "mpegts", transportStream.getAbsolutePath());
+    }
+
+    /**
+     * Copy the streams of the joined TS file into an MP4 file, ffmpeg shifts the timestamps which restart at each joined part.
+     *
+     * @return false if ffmpeg fails
+     */
+    public static boolean remuxToMp4(File transportStream, File video, Logger logger) {
+        return runFFmpeg(logger, "-y", "-i", transportStream.getAbsolutePath(), "-c", "copy", "-f", "mp4", video.getAbsolutePath());
+    }
+
+    private static boolean runFFmpeg(Logger logger, String... args) {
+        String[] command = new String[args.length + 3];
+        command[0] = "ffmpeg";
+        command[1] = "-loglevel";
+        command[2] = "error";
+        System.arraycopy(args, 0, command, 3, args.length);
+        Process process = null;
+        try {
+            process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            String output;
+            try (InputStream inputStream = process.getInputStream()) {
+                output = IOUtils.toString(inputStream, StandardCharsets.UTF_8);
+            }
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                logger.error("ffmpeg exited with {}: {}", exitCode, output);
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            logger.error("Failed to run ffmpeg {}", e.getMessage());
+        } catch (InterruptedException e) {
+            logger.warn("Interrupted while waiting for ffmpeg");
+            Thread.currentThread().interrupt();
+        } finally {
+            if (process != null) {
+                process.destroy();
+            }
+        }
+        return false;
+    }
+
     public static void mergeVideosSideBySide(String leftVideoPath, String rightVideoPath, String mergeDestinationPath, Logger logger) {
         try {
             ProcessBuilder builder = new ProcessBuilder("ffmpeg", "-i", rightVideoPath,
@@ -0,0 +1,294 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+
+package com.microsoft.hydralab.common.screen;
+
+import com.microsoft.hydralab.common.util.ThreadPoolUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects the GIF frames of a test run and encodes them in the background.
+ * Frames wait in a bounded queue and are dropped when it is full, so the screenshot callbacks never wait for the encoding and the memory is bounded whatever the length of the run.
+ * The frames are quantized to a fixed color cube into a reused indexed image, instead of training a new palette for each frame.
+ */
+public class GifFrameSink {
+    static final Logger classLogger = LoggerFactory.getLogger(GifFrameSink.class);
+    public static final int DEFAULT_QUEUE_CAPACITY = 8;
+    private static final String GIF_METADATA_FORMAT = "javax_imageio_gif_image_1.0";
+    private static final int RED_LEVELS = 6;
+    private static final int GREEN_LEVELS = 7;
+    private static final int BLUE_LEVELS = 6;
+    private static final IndexColorModel PALETTE = createPalette();
+    private static final int[] RED_INDEX = levelIndexes(RED_LEVELS, GREEN_LEVELS * BLUE_LEVELS);
+    private static final int[] GREEN_INDEX = levelIndexes(GREEN_LEVELS, BLUE_LEVELS);
+    private static final int[] BLUE_INDEX = levelIndexes(BLUE_LEVELS, 1);
+    private final BlockingQueue<BufferedImage> frameQueue;
+    private final Executor encodeExecutor;
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicInteger frameCount = new AtomicInteger();
+    private final AtomicInteger droppedFrameCount = new AtomicInteger();
+    private final Object encodeLock = new Object();
+    private volatile boolean started;
+    private File gifFile;
+    private int frameDelayMillis;
+    private ImageWriter writer;
+    private ImageOutputStream output;
+    private IIOMetadata firstFrameMetadata;
+    private IIOMetadata frameMetadata;
+    private boolean firstFrameWritten;
+    private BufferedImage indexedFrame;
+    private int[] rowBuffer = new int[0];
+
+    public GifFrameSink() {
+        this(DEFAULT_QUEUE_CAPACITY, ThreadPoolUtil.GIF_ENCODE_EXECUTOR);
+    }
+
+    public GifFrameSink(int queueCapacity, Executor encodeExecutor) {
+        this.frameQueue = new ArrayBlockingQueue<>(queueCapacity);
+        this.encodeExecutor = encodeExecutor;
+    }
+
+    /**
+     * Start a GIF which loops forever.
+     *
+     * @return false if the GIF file can't be opened, frames are then ignored
+     */
+    public boolean start(File gifFile, int frameDelayMillis) {
+        synchronized (encodeLock) {
+            Iterator<ImageWriter> writers = ImageIO.getImageWritersBySuffix("gif");
+            if (!writers.hasNext()) {
+                classLogger.error("No GIF writer to create {}", gifFile);
+                return false;
+            }
+            try {
+                // the file stream doesn't truncate an existing file
+                Files.deleteIfExists(gifFile.toPath());
+                output = ImageIO.createImageOutputStream(gifFile);
+                writer = writers.next();
+                writer.setOutput(output);
+                writer.prepareWriteSequence(null);
+            } catch (IOException e) {
+                classLogger.error("Failed to start GIF {}", gifFile, e);
+                closeQuietly();
+                return false;
+            }
+            this.gifFile = gifFile;
+            this.frameDelayMillis = frameDelayMillis;
+            firstFrameWritten = false;
+            started = true;
+            return true;
+        }
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * Queue the frame without waiting, the frame must not be changed by the caller afterwards.
+     *
+     * @return false if the frame is dropped
+     */
+    public boolean offer(BufferedImage frame) {
+        if (frame == null || !started) {
+            return false;
+        }
+        if (!frameQueue.offer(frame)) {
+            droppedFrameCount.incrementAndGet();
+            return false;
+        }
+        frameCount.incrementAndGet();
+        if (draining.compareAndSet(false, true)) {
+            encodeExecutor.execute(this::drain);
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of frames accepted since the start
+     */
+    public int getFrameCount() {
+        return frameCount.get();
+    }
+
+    public int getDroppedFrameCount() {
+        return droppedFrameCount.get();
+    }
+
+    /**
+     * Encode the frames still in the queue and close the GIF, later frames are dropped.
+     */
+    public void finish() {
+        started = false;
+        synchronized (encodeLock) {
+            if (writer == null) {
+                return;
+            }
+            BufferedImage frame;
+            while ((frame = frameQueue.poll()) != null) {
+                encodeFrame(frame);
+            }
+            try {
+                writer.endWriteSequence();
+            } catch (IOException | IllegalStateException e) {
+                classLogger.error("Failed to finish GIF {}", gifFile, e);
+            }
+            closeQuietly();
+            if (droppedFrameCount.get() > 0) {
+                classLogger.warn("Dropped {} of {} frames of GIF {}", droppedFrameCount.get(), frameCount.get() + droppedFrameCount.get(), gifFile);
+            }
+        }
+    }
+
+    private void drain() {
+        do {
+            // poll under the lock, or finish may close the GIF between taking a frame and encoding it
+            synchronized (encodeLock) {
+                BufferedImage frame;
+                while ((frame = frameQueue.poll()) != null) {
+                    encodeFrame(frame);
+                }
+            }
+            draining.set(false);
+            // a frame may be queued after the last poll but before the flag is cleared
+        } while (!frameQueue.isEmpty() && draining.compareAndSet(false, true));
+    }
+
+    private void encodeFrame(BufferedImage frame) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            BufferedImage image = quantize(frame);
+            if (frameMetadata == null) {
+                frameMetadata = createFrameMetadata(image, false);
+                firstFrameMetadata = createFrameMetadata(image, true);
+            }
+            writer.writeToSequence(new IIOImage(image, null, firstFrameWritten ? frameMetadata : firstFrameMetadata), null);
+            firstFrameWritten = true;
+        } catch (IOException | RuntimeException e) {
+            classLogger.error("Failed to add frame to GIF {}", gifFile, e);
+        }
+    }
+
+    private BufferedImage quantize(BufferedImage frame) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        if (indexedFrame == null || indexedFrame.getWidth() != width || indexedFrame.getHeight() != height) {
+            indexedFrame = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, PALETTE);
+        }
+        byte[] indexes = ((DataBufferByte) indexedFrame.getRaster().getDataBuffer()).getData();
+        if (frame.getType() == BufferedImage.TYPE_3BYTE_BGR && frame.getRaster().getDataBuffer().getSize() == indexes.length * 3) {
+            byte[] bgr = ((DataBufferByte) frame.getRaster().getDataBuffer()).getData();
+            for (int i = 0, j = 0; i < indexes.length; i++, j += 3) {
+                indexes[i] = (byte) (BLUE_INDEX[bgr[j] & 0xff] + GREEN_INDEX[bgr[j + 1] & 0xff] + RED_INDEX[bgr[j + 2] & 0xff]);
+            }
+            return indexedFrame;
+        }
+        if (rowBuffer.length < width) {
+            rowBuffer = new int[width];
+        }
+        for (int y = 0; y < height; y++) {
+            frame.getRGB(0, y, width, 1, rowBuffer, 0, width);
+            for (int x = 0, i = y * width; x < width; x++, i++) {
+                int rgb = rowBuffer[x];
+                indexes[i] = (byte) (RED_INDEX[(rgb >> 16) & 0xff] + GREEN_INDEX[(rgb >> 8) & 0xff] + BLUE_INDEX[rgb & 0xff]);
+            }
+        }
+        return indexedFrame;
+    }
+
+    private IIOMetadata createFrameMetadata(BufferedImage image, boolean loop) throws IOException {
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image), param);
+        IIOMetadataNode root = new IIOMetadataNode(GIF_METADATA_FORMAT);
+        IIOMetadataNode graphicControl = new IIOMetadataNode("GraphicControlExtension");
+        graphicControl.setAttribute("disposalMethod", "none");
+        graphicControl.setAttribute("userInputFlag", "FALSE");
+        graphicControl.setAttribute("transparentColorFlag", "FALSE");
+        graphicControl.setAttribute("delayTime", String.valueOf(frameDelayMillis / 10));
+        graphicControl.setAttribute("transparentColorIndex", "0");
+        root.appendChild(graphicControl);
+        if (loop) {
+            IIOMetadataNode applicationExtensions = new IIOMetadataNode("ApplicationExtensions");
+            IIOMetadataNode applicationExtension = new IIOMetadataNode("ApplicationExtension");
+            applicationExtension.setAttribute("applicationID", "NETSCAPE");
+            applicationExtension.setAttribute("authenticationCode", "2.0");
+            // loop forever
+            applicationExtension.setUserObject(new byte[]{0x1, 0, 0});
+            applicationExtensions.appendChild(applicationExtension);
+            root.appendChild(applicationExtensions);
+        }
+        metadata.mergeTree(GIF_METADATA_FORMAT, root);
+        return metadata;
+    }
+
+    private void closeQuietly() {
+        if (writer != null) {
+            writer.dispose();
+            writer = null;
+        }
+        if (output != null) {
+            try {
+                output.close();
+            } catch (IOException e) {
+                classLogger.warn("Failed to close GIF {}", gifFile, e);
+            }
+            output = null;
+        }
+        frameMetadata = null;
+        firstFrameMetadata = null;
+    }
+
+    private static IndexColorModel createPalette() {
+        int size = RED_LEVELS * GREEN_LEVELS * BLUE_LEVELS;
+        byte[] reds = new byte[size];
+        byte[] greens = new byte[size];
+        byte[] blues = new byte[size];
+        int index = 0;
+        for (int r = 0; r < RED_LEVELS; r++) {
+            for (int g = 0; g < GREEN_LEVELS; g++) {
+                for (int b = 0; b < BLUE_LEVELS; b++) {
+                    reds[index] = (byte) (r * 255 / (RED_LEVELS - 1));
+                    greens[index] = (byte) (g * 255 / (GREEN_LEVELS - 1));
+                    blues[index] = (byte) (b * 255 / (BLUE_LEVELS - 1));
+                    index++;
+                }
+            }
+        }
+        return new IndexColorModel(8, size, reds, greens, blues);
+    }
+
+    /**
+     * @return the palette index offset of the nearest level of each channel value
+     */
+    private static int[] levelIndexes(int levels, int stride) {
+        int[] indexes = new int[256];
+        for (int value = 0; value < 256; value++) {
+            indexes[value] = (value * (levels - 1) + 127) / 255 * stride;
+        }
+        return indexes;
+    }
+}
@@ -0,0 +1,252 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+
+package com.microsoft.hydralab.common.screen;
+
+import com.android.ddmlib.RawImage;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Turns the raw screenshot of a device into the thumbnail and the GIF frame in one pass, without a full resolution image.
+ * The raw pixels are decoded row by row into a reused row buffer and area averaged straight into the reused thumbnail raster,
+ * the GIF frame is then averaged from the thumbnail. The buffers are only reallocated when the screen size changes, so keep one pipeline per device.
+ */
+public class ScreenshotPipeline {
+    public static final float THUMBNAIL_SCALE = 0.7f;
+    public static final float GIF_FRAME_SCALE = 0.3f;
+    private final float thumbnailScale;
+    private final float gifFrameScale;
+    private final BoxScaler thumbnailScaler = new BoxScaler();
+    private final BoxScaler gifFrameScaler = new BoxScaler();
+    private int[] rowBuffer = new int[0];
+    private BufferedImage thumbnail;
+
+    public ScreenshotPipeline() {
+        this(THUMBNAIL_SCALE, GIF_FRAME_SCALE);
+    }
+
+    public ScreenshotPipeline(float thumbnailScale, float gifFrameScale) {
+        this.thumbnailScale = thumbnailScale;
+        this.gifFrameScale = gifFrameScale;
+    }
+
+    /**
+     * Write the thumbnail of the raw screenshot to the JPEG file.
+     *
+     * @return the GIF frame of the screenshot, a new image owned by the caller
+     */
+    public synchronized BufferedImage capture(RawImage rawImage, File thumbnailFile) throws IOException {
+        BufferedImage gifFrame = render(rawImage);
+        if (!ImageIO.write(thumbnail, "jpg", thumbnailFile)) {
+            throw new IOException("No JPEG writer for the screenshot " + thumbnailFile);
+        }
+        return gifFrame;
+    }
+
+    /**
+     * Scale the raw screenshot into the reused thumbnail.
+     *
+     * @return the GIF frame of the screenshot, a new image owned by the caller
+     */
+    synchronized BufferedImage render(RawImage rawImage) {
+        int srcWidth = rawImage.width;
+        int srcHeight = rawImage.height;
+        int thumbnailWidth = scaledLength(srcWidth, thumbnailScale);
+        int thumbnailHeight = scaledLength(srcHeight, thumbnailScale);
+        if (thumbnail == null || thumbnail.getWidth() != thumbnailWidth || thumbnail.getHeight() != thumbnailHeight) {
+            thumbnail = new BufferedImage(thumbnailWidth, thumbnailHeight, BufferedImage.TYPE_INT_RGB);
+        }
+        if (rowBuffer.length < srcWidth) {
+            rowBuffer = new int[srcWidth];
+        }
+
+        int[] thumbnailPixels = ((DataBufferInt) thumbnail.getRaster().getDataBuffer()).getData();
+        thumbnailScaler.prepare(srcWidth, srcHeight, thumbnailWidth, thumbnailHeight);
+        RawRowDecoder decoder = new RawRowDecoder(rawImage);
+        for (int y = 0; y < srcHeight; y++) {
+            decoder.decodeRow(y, rowBuffer);
+            int dstRow = thumbnailScaler.addRow(rowBuffer, 0, y);
+            if (dstRow >= 0) {
+                thumbnailScaler.flushRgbRow(thumbnailPixels, dstRow * thumbnailWidth);
+            }
+        }
+
+        // the frame is handed to the GIF encoder, it's small enough to be allocated each time
+        int frameWidth = scaledLength(thumbnailWidth, gifFrameScale);
+        int frameHeight = scaledLength(thumbnailHeight, gifFrameScale);
+        BufferedImage gifFrame = new BufferedImage(frameWidth, frameHeight, BufferedImage.TYPE_3BYTE_BGR);
+        byte[] framePixels = ((DataBufferByte) gifFrame.getRaster().getDataBuffer()).getData();
+        gifFrameScaler.prepare(thumbnailWidth, thumbnailHeight, frameWidth, frameHeight);
+        for (int y = 0; y < thumbnailHeight; y++) {
+            int dstRow = gifFrameScaler.addRow(thumbnailPixels, y * thumbnailWidth, y);
+            if (dstRow >= 0) {
+                gifFrameScaler.flushBgrRow(framePixels, dstRow * frameWidth * 3);
+            }
+        }
+        return gifFrame;
+    }
+
+    synchronized BufferedImage getThumbnail() {
+        return thumbnail;
+    }
+
+    private static int scaledLength(int length, float scale) {
+        return Math.max(1, Math.min(length, (int) (length * scale)));
+    }
+
+    /**
+     * Decodes the rows of a raw image to RGB ints, RGBA/BGRA 8888 is read with precomputed shifts and other formats go through {@link RawImage#getARGB(int)}.
+     */
+    private static final class RawRowDecoder {
+        private final RawImage rawImage;
+        private final int bytesPerPixel;
+        private final boolean is32Bit;
+        private final int redShift;
+        private final int greenShift;
+        private final int blueShift;
+        private final int redMask;
+        private final int greenMask;
+        private final int blueMask;
+        private final int redPad;
+        private final int greenPad;
+        private final int bluePad;
+
+        RawRowDecoder(RawImage rawImage) {
+            this.rawImage = rawImage;
+            this.bytesPerPixel = rawImage.bpp >> 3;
+            this.is32Bit = rawImage.bpp == 32 && rawImage.red_length <= 8 && rawImage.green_length <= 8 && rawImage.blue_length <= 8;
+            this.redShift = rawImage.red_offset;
+            this.greenShift = rawImage.green_offset;
+            this.blueShift = rawImage.blue_offset;
+            this.redMask = (1 << rawImage.red_length) - 1;
+            this.greenMask = (1 << rawImage.green_length) - 1;
+            this.blueMask = (1 << rawImage.blue_length) - 1;
+            this.redPad = 8 - rawImage.red_length;
+            this.greenPad = 8 - rawImage.green_length;
+            this.bluePad = 8 - rawImage.blue_length;
+        }
+
+        void decodeRow(int y, int[] row) {
+            int width = rawImage.width;
+            int index = y * width * bytesPerPixel;
+            if (!is32Bit) {
+                for (int x = 0; x < width; x++, index += bytesPerPixel) {
+                    row[x] = rawImage.getARGB(index);
+                }
+                return;
+            }
+            byte[] data = rawImage.data;
+            for (int x = 0; x < width; x++, index += 4) {
+                int value = (data[index] & 0xff) | (data[index + 1] & 0xff) << 8 | (data[index + 2] & 0xff) << 16 | (data[index + 3] & 0xff) << 24;
+                int red = ((value >>> redShift) & redMask) << redPad;
+                int green = ((value >>> greenShift) & greenMask) << greenPad;
+                int blue = ((value >>> blueShift) & blueMask) << bluePad;
+                row[x] = red << 16 | green << 8 | blue;
+            }
+        }
+    }
+
+    /**
+     * Area averaging downscale fed one source row at a time, every source pixel falls into exactly one destination pixel.
+     * The bin maps and the per column sums are kept until the sizes change.
+     */
+    private static final class BoxScaler {
+        private int srcWidth = -1;
+        private int srcHeight = -1;
+        private int dstWidth = -1;
+        private int dstHeight = -1;
+        private int[] columnBins;
+        private int[] columnWeights;
+        private int[] rowBins;
+        private int[] redSums;
+        private int[] greenSums;
+        private int[] blueSums;
+        private int pendingRowWeight;
+
+        void prepare(int srcWidth, int srcHeight, int dstWidth, int dstHeight) {
+            if (srcWidth == this.srcWidth && srcHeight == this.srcHeight && dstWidth == this.dstWidth && dstHeight == this.dstHeight) {
+                // a failed render may leave partial sums behind
+                resetSums();
+                return;
+            }
+            pendingRowWeight = 0;
+            this.srcWidth = srcWidth;
+            this.srcHeight = srcHeight;
+            this.dstWidth = dstWidth;
+            this.dstHeight = dstHeight;
+            columnBins = bins(srcWidth, dstWidth);
+            columnWeights = weights(columnBins, dstWidth);
+            rowBins = bins(srcHeight, dstHeight);
+            redSums = new int[dstWidth];
+            greenSums = new int[dstWidth];
+            blueSums = new int[dstWidth];
+        }
+
+        /**
+         * @return the destination row completed by this source row, -1 if it still takes more rows
+         */
+        int addRow(int[] pixels, int offset, int y) {
+            for (int x = 0; x < srcWidth; x++) {
+                int pixel = pixels[offset + x];
+                int bin = columnBins[x];
+                redSums[bin] += (pixel >> 16) & 0xff;
+                greenSums[bin] += (pixel >> 8) & 0xff;
+                blueSums[bin] += pixel & 0xff;
+            }
+            pendingRowWeight++;
+            int dstRow = rowBins[y];
+            if (y + 1 < srcHeight && rowBins[y + 1] == dstRow) {
+                return -1;
+            }
+            return dstRow;
+        }
+
+        void flushRgbRow(int[] dst, int offset) {
+            for (int x = 0; x < dstWidth; x++) {
+                int weight = columnWeights[x] * pendingRowWeight;
+                dst[offset + x] = redSums[x] / weight << 16 | greenSums[x] / weight << 8 | blueSums[x] / weight;
+            }
+            resetSums();
+        }
+
+        void flushBgrRow(byte[] dst, int offset) {
+            for (int x = 0, index = offset; x < dstWidth; x++, index += 3) {
+                int weight = columnWeights[x] * pendingRowWeight;
+                dst[index] = (byte) (blueSums[x] / weight);
+                dst[index + 1] = (byte) (greenSums[x] / weight);
+                dst[index + 2] = (byte) (redSums[x] / weight);
+            }
+            resetSums();
+        }
+
+        private void resetSums() {
+            pendingRowWeight = 0;
+            Arrays.fill(redSums, 0);
+            Arrays.fill(greenSums, 0);
+            Arrays.fill(blueSums, 0);
+        }
+
+        private static int[] bins(int srcLength, int dstLength) {
+            int[] bins = new int[srcLength];
+            for (int i = 0; i < srcLength; i++) {
+                bins[i] = (int) ((long) i * dstLength / srcLength);
+            }
+            return bins;
+        }
+
+        private static int[] weights(int[] bins, int dstLength) {
+            int[] weights = new int[dstLength];
+            for (int bin : bins) {
+                weights[bin]++;
+            }
+            return weights;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+
+package com.microsoft.hydralab.common.screen;
+
+import com.microsoft.hydralab.common.util.Const;
+import com.microsoft.hydralab.common.util.ThreadPoolUtil;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Merges the segments of a recording while the next segments are recorded.
+ * Each segment is fetched and appended to a growing MPEG-TS file in the background, one after another in the order they are given,
+ * so finishing only waits for the last segment and copies the TS file into the merged MP4.
+ * If a segment can't be appended, the segments are kept and concatenated at the end as before.
+ */
+public class SegmentedVideoMerger {
+    static final VideoTool FFMPEG = new VideoTool() {
+        @Override
+        public boolean remuxToTransportStream(File video, File transportStream, Logger logger) {
+            return FFmpegConcatUtil.remuxToTransportStream(video, transportStream, logger);
+        }
+
+        @Override
+        public boolean remuxToMp4(File transportStream, File video, Logger logger) {
+            return FFmpegConcatUtil.remuxToMp4(transportStream, video, logger);
+        }
+
+        @Override
+        public File concatVideos(List<File> videos, File outputDir, Logger logger) {
+            return FFmpegConcatUtil.concatVideos(videos, outputDir, logger);
+        }
+    };
+    private final File outputDir;
+    private final Logger logger;
+    private final Executor executor;
+    private final VideoTool videoTool;
+    private final File mergedStream;
+    private final File segmentStream;
+    //save all the segments, for the concatenation fallback
+    private final List<File> segments = new ArrayList<>();
+    private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+    private boolean appendFailed;
+    private boolean finished;
+
+    public SegmentedVideoMerger(File outputDir, Logger logger) {
+        this(outputDir, logger, ThreadPoolUtil.SCREEN_RECORD_EXECUTOR);
+    }
+
+    public SegmentedVideoMerger(File outputDir, Logger logger, Executor executor) {
+        this(outputDir, logger, executor, FFMPEG);
+    }
+
+    SegmentedVideoMerger(File outputDir, Logger logger, Executor executor, VideoTool videoTool) {
+        this.outputDir = outputDir;
+        this.logger = logger;
+        this.executor = executor;
+        this.videoTool = videoTool;
+        this.mergedStream = new File(outputDir, "merged_segments.ts");
+        this.segmentStream = new File(outputDir, "segment.ts");
+        deleteQuietly(mergedStream);
+    }
+
+    /**
+     * Fetch the segment and append it in the background, after the segments given before.
+     * A segment which fails is logged and skipped, the following segments are still appended.
+     *
+     * @param segmentSupplier gives the local file of the segment, or null if it is lost
+     */
+    public synchronized void append(Supplier<File> segmentSupplier) {
+        if (finished) {
+            throw new IllegalStateException("The merger is finished");
+        }
+        tail = tail.thenRunAsync(() -> {
+            File segment;
+            try {
+                segment = segmentSupplier.get();
+            } catch (RuntimeException e) {
+                logger.error("Failed to get segment {} {}", e.getClass().getName(), e.getMessage());
+                return;
+            }
+            try {
+                appendSegment(segment);
+            } catch (RuntimeException e) {
+                logger.error("Failed to append segment {} {} {}", segment, e.getClass().getName(), e.getMessage());
+                appendFailed = true;
+            }
+        }, executor);
+    }
+
+    /**
+     * Wait for the segments given so far and write the merged video.
+     *
+     * @return the merged video, or null if there is none
+     */
+    public File finish(long timeoutMillis) {
+        CompletableFuture<Void> lastSegment;
+        synchronized (this) {
+            finished = true;
+            lastSegment = tail;
+        }
+        // the recording thread may have been interrupted to stop the recording
+        Thread.interrupted();
+        try {
+            lastSegment.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            logger.warn("Interrupted while waiting for the segments");
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | TimeoutException e) {
+            logger.error("Failed to wait for the segments {} {}", e.getClass().getName(), e.getMessage());
+            return null;
+        }
+        // the segments are only touched by the appending tasks, which are all done now
+        if (segments.isEmpty()) {
+            return null;
+        }
+        if (appendFailed) {
+            logger.warn("Concatenating the {} segments as some of them couldn't be appended", segments.size());
+            return concatSegments();
+        }
+        File mergedVideo = new File(outputDir, Const.ScreenRecoderConfig.DEFAULT_FILE_NAME);
+        if (!videoTool.remuxToMp4(mergedStream, mergedVideo, logger)) {
+            logger.warn("Concatenating the {} segments as the merged stream couldn't be remuxed", segments.size());
+            return concatSegments();
+        }
+        deleteQuietly(mergedStream);
+        logger.info("deleting merged old videos " + segments);
+        segments.forEach(this::deleteQuietly);
+        return mergedVideo;
+    }
+
+    private File concatSegments() {
+        deleteQuietly(mergedStream);
+        File mergedVideo = videoTool.concatVideos(segments, outputDir, logger);
+        if (mergedVideo != null && mergedVideo.exists()) {
+            logger.info("deleting merged old videos " + segments);
+            segments.forEach(this::deleteQuietly);
+        }
+        return mergedVideo;
+    }
+
+    private void appendSegment(File segment) {
+        if (segment == null || !segment.exists()) {
+            logger.warn("Segment {} is missing", segment);
+            return;
+        }
+        segments.add(segment);
+        if (appendFailed) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        if (!videoTool.remuxToTransportStream(segment, segmentStream, logger)) {
+            appendFailed = true;
+            return;
+        }
+        try (OutputStream out = Files.newOutputStream(mergedStream.toPath(), StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            Files.copy(segmentStream.toPath(), out);
+        } catch (IOException e) {
+            logger.error("Failed to append segment {} {}", segment, e.getMessage());
+            appendFailed = true;
+            return;
+        } finally {
+            deleteQuietly(segmentStream);
+        }
+        logger.info("Appended segment {} in {} ms", segment, System.currentTimeMillis() - start);
+    }
+
+    private void deleteQuietly(File file) {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            logger.warn("Failed to delete {} {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * The ffmpeg calls of the merger.
+     */
+    interface VideoTool {
+        boolean remuxToTransportStream(File video, File transportStream, Logger logger);
+
+        boolean remuxToMp4(File transportStream, File video, Logger logger);
+
+        File concatVideos(List<File> videos, File outputDir, Logger logger);
+    }
+}
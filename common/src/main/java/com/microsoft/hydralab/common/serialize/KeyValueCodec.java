@@ -0,0 +1,205 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.hydralab.common.serialize;
+
+import cn.hutool.core.util.ZipUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage format of the values of the KeyValue table, which are mostly crash stacks and test unit JSON with stacks.
+ * A value is split into frames at the line breaks ("\n", the "\\n" escaped in JSON and the "&lt;br&gt;" of the saved crash stacks),
+ * the frames repeated in the value, like the "at ..." lines of nested causes and of the same crash logged again, are kept once in a dictionary
+ * and referenced by index, then the whole is compressed and stored as Base64 text behind a prefix.
+ * Values shorter than the threshold, or not getting shorter, are stored as is, and values without the prefix are read as is,
+ * so that the values saved before keep working.
+ * <p>
+ * Encoded layout: prefix, then Base64 of compression(1) and the compressed body:
+ * dictionarySize(varint) dictionary entries, frameCount(varint) frames,
+ * a frame is a varint, 0 followed by a literal frame or the index + 1 of a dictionary entry, strings are varint length and UTF-8 bytes.
+ */
+public class KeyValueCodec {
+    public static final String PREFIX = "HLKV1:";
+    public static final int DEFAULT_ENCODE_THRESHOLD = 1024;
+    // shorter frames such as "<br>" or "}" cost more as a reference than as a literal once compressed
+    private static final int MIN_DICTIONARY_FRAME_LENGTH = 16;
+    private static final String[] FRAME_SEPARATORS = {"<br>", "\\n", "\n"};
+    private static final byte COMPRESSION_ZLIB = 1;
+
+    private final int encodeThreshold;
+
+    public KeyValueCodec() {
+        this(DEFAULT_ENCODE_THRESHOLD);
+    }
+
+    public KeyValueCodec(int encodeThreshold) {
+        this.encodeThreshold = encodeThreshold;
+    }
+
+    public String encode(String value) {
+        if (value == null) {
+            return null;
+        }
+        // a raw value looking like an encoded one is always encoded, so that it can't be mistaken on decoding
+        boolean mustEncode = value.startsWith(PREFIX);
+        if (value.length() < encodeThreshold && !mustEncode) {
+            return value;
+        }
+        byte[] body = ZipUtil.zlib(toDictionaryFrames(value), 6);
+        byte[] frame = new byte[body.length + 1];
+        frame[0] = COMPRESSION_ZLIB;
+        System.arraycopy(body, 0, frame, 1, body.length);
+        String encoded = PREFIX + Base64.getEncoder().encodeToString(frame);
+        if (encoded.length() >= value.length() && !mustEncode) {
+            return value;
+        }
+        return encoded;
+    }
+
+    public String decode(String stored) {
+        if (!isEncoded(stored)) {
+            return stored;
+        }
+        byte[] frame = Base64.getDecoder().decode(stored.substring(PREFIX.length()));
+        if (frame.length == 0 || frame[0] != COMPRESSION_ZLIB) {
+            throw new IllegalArgumentException("Unknown compression of key value: " + (frame.length == 0 ? "empty" : frame[0]));
+        }
+        byte[] body = new byte[frame.length - 1];
+        System.arraycopy(frame, 1, body, 0, body.length);
+        return fromDictionaryFrames(ZipUtil.unZlib(body));
+    }
+
+    public static boolean isEncoded(String stored) {
+        return stored != null && stored.startsWith(PREFIX);
+    }
+
+    static List<String> splitFrames(String value) {
+        List<String> frames = new ArrayList<>();
+        int start = 0;
+        int index = 0;
+        while (index < value.length()) {
+            int separatorLength = separatorLengthAt(value, index);
+            if (separatorLength > 0) {
+                index += separatorLength;
+                frames.add(value.substring(start, index));
+                start = index;
+            } else {
+                index++;
+            }
+        }
+        if (start < value.length()) {
+            frames.add(value.substring(start));
+        }
+        return frames;
+    }
+
+    private static int separatorLengthAt(String value, int index) {
+        for (String separator : FRAME_SEPARATORS) {
+            if (value.startsWith(separator, index)) {
+                return separator.length();
+            }
+        }
+        return 0;
+    }
+
+    private static byte[] toDictionaryFrames(String value) {
+        List<String> frames = splitFrames(value);
+        Map<String, Integer> frameCounts = new HashMap<>();
+        for (String frame : frames) {
+            if (frame.length() >= MIN_DICTIONARY_FRAME_LENGTH) {
+                frameCounts.merge(frame, 1, Integer::sum);
+            }
+        }
+        //save dictionary index by frame <frame,index>
+        Map<String, Integer> dictionary = new HashMap<>();
+        List<String> entries = new ArrayList<>();
+        for (String frame : frames) {
+            if (frameCounts.getOrDefault(frame, 0) > 1 && !dictionary.containsKey(frame)) {
+                dictionary.put(frame, entries.size());
+                entries.add(frame);
+            }
+        }
+
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream(value.length());
+        try (DataOutputStream out = new DataOutputStream(byteStream)) {
+            writeVarInt(out, entries.size());
+            for (String entry : entries) {
+                writeString(out, entry);
+            }
+            writeVarInt(out, frames.size());
+            for (String frame : frames) {
+                Integer entryIndex = dictionary.get(frame);
+                if (entryIndex == null) {
+                    writeVarInt(out, 0);
+                    writeString(out, frame);
+                } else {
+                    writeVarInt(out, entryIndex + 1);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error in encoding key value", e);
+        }
+        return byteStream.toByteArray();
+    }
+
+    private static String fromDictionaryFrames(byte[] data) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            int entryCount = readVarInt(in);
+            String[] entries = new String[entryCount];
+            for (int i = 0; i < entryCount; i++) {
+                entries[i] = readString(in);
+            }
+            int frameCount = readVarInt(in);
+            StringBuilder value = new StringBuilder(data.length * 2);
+            for (int i = 0; i < frameCount; i++) {
+                int reference = readVarInt(in);
+                value.append(reference == 0 ? readString(in) : entries[reference - 1]);
+            }
+            return value.toString();
+        } catch (IOException | ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Error in decoding key value", e);
+        }
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
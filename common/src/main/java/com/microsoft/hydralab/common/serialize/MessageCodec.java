@@ -0,0 +1,20 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.hydralab.common.serialize;
+
+import com.microsoft.hydralab.common.entity.common.Message;
+
+/**
+ * Wire format of the WebSocket messages between agent and center.
+ * The codec used for sending is negotiated per session during the auth handshake, while received frames are always
+ * detected by {@link #canDecode(byte[])} so that both sides keep understanding the fallback format.
+ */
+public interface MessageCodec {
+    String getName();
+
+    byte[] encode(Message message);
+
+    Message decode(byte[] data);
+
+    boolean canDecode(byte[] data);
+}
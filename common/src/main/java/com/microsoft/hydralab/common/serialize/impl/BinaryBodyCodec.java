@@ -0,0 +1,622 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.hydralab.common.serialize.impl;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.annotation.JSONField;
+import com.alibaba.fastjson.parser.ParserConfig;
+import com.alibaba.fastjson.util.TypeUtils;
+import com.microsoft.hydralab.common.entity.common.AccessInfo;
+import com.microsoft.hydralab.common.entity.common.AgentMetadata;
+import com.microsoft.hydralab.common.entity.common.AgentUpdateTask;
+import com.microsoft.hydralab.common.entity.common.AgentUser;
+import com.microsoft.hydralab.common.entity.common.AndroidTestUnit;
+import com.microsoft.hydralab.common.entity.common.DeviceInfo;
+import com.microsoft.hydralab.common.entity.common.DeviceListDelta;
+import com.microsoft.hydralab.common.entity.common.StorageFileInfo;
+import com.microsoft.hydralab.common.entity.common.TestFileSet;
+import com.microsoft.hydralab.common.entity.common.TestRun;
+import com.microsoft.hydralab.common.entity.common.TestTask;
+import com.microsoft.hydralab.common.entity.common.TestTaskSpec;
+import com.microsoft.hydralab.common.file.impl.azure.SASData;
+import com.microsoft.hydralab.common.file.impl.local.LocalStorageToken;
+import org.apache.commons.lang3.ClassUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Binary encoding of the message body. Every value starts with a one byte tag, numbers are zigzag varints and beans are written
+ * field by field in the order of the schema of their class: the first bean of a class in a body carries the class and its field names,
+ * the following ones only reference that schema by index. The reader maps the field names to its own version of the class,
+ * so fields added or removed on one side are skipped, and a class unknown to the reader is restored as a JSONObject.
+ * A bean met again in the same body, such as a back reference to its parent, is written as a reference to the first one.
+ * Values of types without a schema here, such as File or OffsetDateTime, are embedded as JSON.
+ * <p>
+ * A bean field is part of the schema when it is neither static, final nor transient, and is public or has a getter fastjson would serialize,
+ * so that the same fields go over the wire as with the json-gzip codec.
+ * <p>
+ * The frames may come from agents which are not authenticated yet, so the reader only builds the registered bean types and the classes
+ * of the entity package accepted by the json-gzip codec, any other class name is rejected before it is loaded.
+ * Every length is checked against the bytes left in the body before anything is allocated for it.
+ */
+final class BinaryBodyCodec {
+    static final String BEAN_TYPE_ACCEPTED_PACKAGE = "com.microsoft.hydralab.common.entity.common.";
+    private static final Logger LOGGER = LoggerFactory.getLogger(BinaryBodyCodec.class);
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_TRUE = 1;
+    private static final byte TAG_FALSE = 2;
+    private static final byte TAG_INT = 3;
+    private static final byte TAG_LONG = 4;
+    private static final byte TAG_DOUBLE = 5;
+    private static final byte TAG_FLOAT = 6;
+    private static final byte TAG_STRING = 7;
+    private static final byte TAG_DATE = 8;
+    private static final byte TAG_ENUM = 9;
+    private static final byte TAG_BYTES = 10;
+    private static final byte TAG_LIST = 11;
+    private static final byte TAG_SET = 12;
+    private static final byte TAG_MAP = 13;
+    private static final byte TAG_JSON_OBJECT = 14;
+    private static final byte TAG_JSON_ARRAY = 15;
+    private static final byte TAG_BEAN = 16;
+    private static final byte TAG_JSON = 17;
+    private static final byte TAG_BEAN_REF = 18;
+    private static final int MAX_DEPTH = 64;
+    // the index is part of the wire format, only append to this list
+    private static final List<Class<?>> KNOWN_BEAN_TYPES = Arrays.asList(
+            AgentUser.class,
+            AgentMetadata.class,
+            DeviceInfo.class,
+            AccessInfo.class,
+            AgentUpdateTask.class,
+            AgentUpdateTask.UpdateMsg.class,
+            TestTask.class,
+            TestTaskSpec.class,
+            DeviceListDelta.class,
+            TestRun.class,
+            AndroidTestUnit.class,
+            TestFileSet.class,
+            StorageFileInfo.class,
+            // implementations of the AccessToken field of AgentMetadata
+            LocalStorageToken.class,
+            SASData.class
+    );
+    private static final BeanSchema NOT_A_BEAN = new BeanSchema(null, null, new Field[0]);
+    private static final Map<Class<?>, BeanSchema> BEAN_SCHEMAS = new ConcurrentHashMap<>();
+    private static final Map<String, Class<?>> NAMED_TYPES = new ConcurrentHashMap<>();
+    //save the enum constants unknown to this side, to log each of them once <enumClass.constant>
+    private static final Set<String> UNKNOWN_ENUM_CONSTANTS = ConcurrentHashMap.newKeySet();
+
+    private BinaryBodyCodec() {
+    }
+
+    static byte[] encode(Object value) {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(byteStream)) {
+            new BodyWriter(out).writeValue(value, 0);
+        } catch (IOException | IllegalAccessException e) {
+            throw new RuntimeException("Error in encoding message body", e);
+        }
+        return byteStream.toByteArray();
+    }
+
+    static Object decode(byte[] data) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            return new BodyReader(in).readValue(Object.class, 0);
+        } catch (IOException | ReflectiveOperationException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Error in decoding message body", e);
+        }
+    }
+
+    static BeanSchema getSchema(Class<?> type) {
+        return BEAN_SCHEMAS.computeIfAbsent(type, BinaryBodyCodec::createSchema);
+    }
+
+    private static BeanSchema createSchema(Class<?> type) {
+        if (!isAcceptedType(type.getName(), type) || type.isInterface() || type.isEnum() || type.isAnonymousClass()
+                || Modifier.isAbstract(type.getModifiers())) {
+            return NOT_A_BEAN;
+        }
+        Constructor<?> constructor;
+        try {
+            constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            // not restorable field by field
+            return NOT_A_BEAN;
+        }
+        Map<String, Field> fields = new HashMap<>();
+        for (Class<?> declaringType = type; declaringType != Object.class; declaringType = declaringType.getSuperclass()) {
+            for (Field field : declaringType.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()
+                        || fields.containsKey(field.getName())) {
+                    continue;
+                }
+                if (Modifier.isPublic(modifiers) || hasSerializedGetter(type, field)) {
+                    field.setAccessible(true);
+                    fields.put(field.getName(), field);
+                }
+            }
+        }
+        Field[] sortedFields = fields.values().toArray(new Field[0]);
+        Arrays.sort(sortedFields, Comparator.comparing(Field::getName));
+        return new BeanSchema(type, constructor, sortedFields);
+    }
+
+    private static boolean hasSerializedGetter(Class<?> type, Field field) {
+        String capitalized = StringUtils.capitalize(field.getName());
+        List<String> getterNames = new ArrayList<>();
+        getterNames.add("get" + capitalized);
+        if (field.getType() == boolean.class) {
+            getterNames.add("is" + capitalized);
+            // lombok keeps the name of a boolean field starting with "is"
+            getterNames.add(field.getName());
+        }
+        for (String getterName : getterNames) {
+            try {
+                Method getter = type.getMethod(getterName);
+                JSONField jsonField = getter.getAnnotation(JSONField.class);
+                return jsonField == null || jsonField.serialize();
+            } catch (NoSuchMethodException e) {
+                // try the next naming
+            }
+        }
+        return false;
+    }
+
+    private static boolean isAcceptedType(String typeName, Class<?> type) {
+        return typeName.startsWith(BEAN_TYPE_ACCEPTED_PACKAGE) || type != null && KNOWN_BEAN_TYPES.contains(type);
+    }
+
+    /**
+     * @return the class of the name, or null if this side doesn't have it
+     * @throws IOException if the name is not of an accepted type, it is not loaded then
+     */
+    private static Class<?> resolveType(String typeName) throws IOException {
+        if (!isAcceptedType(typeName, null)) {
+            throw new IOException("Type is not accepted: " + typeName);
+        }
+        Class<?> type = NAMED_TYPES.get(typeName);
+        if (type != null) {
+            return type;
+        }
+        try {
+            // not initialized, the fields are set without running any code of the class but its constructor
+            type = Class.forName(typeName, false, BinaryBodyCodec.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            // removed or renamed on this side
+            return null;
+        }
+        NAMED_TYPES.put(typeName, type);
+        return type;
+    }
+
+    private static Type getTypeArgument(Type type, int index) {
+        if (type instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            if (index < arguments.length) {
+                return arguments[index];
+            }
+        }
+        return Object.class;
+    }
+
+    static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varlong");
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readLength(in)];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Reads a count of bytes or values, each of them takes at least one byte of the rest of the body,
+     * so a larger count is malformed and nothing is allocated for it.
+     */
+    static int readLength(DataInputStream in) throws IOException {
+        int length = readVarInt(in);
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Length " + length + " exceeds the " + in.available() + " bytes left");
+        }
+        return length;
+    }
+
+    static final class BeanSchema {
+        final Class<?> type;
+        final Constructor<?> constructor;
+        final Field[] fields;
+        final Map<String, Field> fieldMap = new HashMap<>();
+
+        BeanSchema(Class<?> type, Constructor<?> constructor, Field[] fields) {
+            this.type = type;
+            this.constructor = constructor;
+            this.fields = fields;
+            for (Field field : fields) {
+                fieldMap.put(field.getName(), field);
+            }
+        }
+    }
+
+    private static final class BodyWriter {
+        private final DataOutputStream out;
+        //save schema index of the classes already described in this body <class,index>
+        private final Map<Class<?>, Integer> schemaIndexes = new IdentityHashMap<>();
+        //save index of the beans already written in this body <bean,index>
+        private final Map<Object, Integer> beanIndexes = new IdentityHashMap<>();
+
+        BodyWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void writeValue(Object value, int depth) throws IOException, IllegalAccessException {
+            if (depth > MAX_DEPTH) {
+                throw new IllegalArgumentException("Message body is nested deeper than " + MAX_DEPTH);
+            }
+            if (value == null) {
+                out.writeByte(TAG_NULL);
+            } else if (value instanceof String) {
+                out.writeByte(TAG_STRING);
+                writeString(out, (String) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+            } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                int number = ((Number) value).intValue();
+                out.writeByte(TAG_INT);
+                writeVarInt(out, (number << 1) ^ (number >> 31));
+            } else if (value instanceof Long) {
+                long number = (Long) value;
+                out.writeByte(TAG_LONG);
+                writeVarLong(out, (number << 1) ^ (number >> 63));
+            } else if (value instanceof Double) {
+                out.writeByte(TAG_DOUBLE);
+                out.writeDouble((Double) value);
+            } else if (value instanceof Float) {
+                out.writeByte(TAG_FLOAT);
+                out.writeFloat((Float) value);
+            } else if (value instanceof Character) {
+                out.writeByte(TAG_STRING);
+                writeString(out, value.toString());
+            } else if (value instanceof Date) {
+                long time = ((Date) value).getTime();
+                out.writeByte(TAG_DATE);
+                writeVarLong(out, (time << 1) ^ (time >> 63));
+            } else if (value instanceof Enum) {
+                out.writeByte(TAG_ENUM);
+                writeString(out, ((Enum<?>) value).getDeclaringClass().getName());
+                writeString(out, ((Enum<?>) value).name());
+            } else if (value instanceof byte[]) {
+                out.writeByte(TAG_BYTES);
+                writeVarInt(out, ((byte[]) value).length);
+                out.write((byte[]) value);
+            } else if (value instanceof JSONObject || value instanceof Map) {
+                Map<?, ?> map = (Map<?, ?>) value;
+                boolean isJsonObject = value instanceof JSONObject;
+                out.writeByte(isJsonObject ? TAG_JSON_OBJECT : TAG_MAP);
+                writeVarInt(out, map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    if (isJsonObject) {
+                        writeString(out, String.valueOf(entry.getKey()));
+                    } else {
+                        writeValue(entry.getKey(), depth + 1);
+                    }
+                    writeValue(entry.getValue(), depth + 1);
+                }
+            } else if (value instanceof Collection) {
+                Collection<?> collection = (Collection<?>) value;
+                out.writeByte(value instanceof JSONArray ? TAG_JSON_ARRAY : value instanceof Set ? TAG_SET : TAG_LIST);
+                writeVarInt(out, collection.size());
+                for (Object element : collection) {
+                    writeValue(element, depth + 1);
+                }
+            } else {
+                BeanSchema schema = getSchema(value.getClass());
+                if (schema == NOT_A_BEAN) {
+                    out.writeByte(TAG_JSON);
+                    byte[] json = JSON.toJSONBytes(value);
+                    writeVarInt(out, json.length);
+                    out.write(json);
+                } else {
+                    writeBean(value, schema, depth);
+                }
+            }
+        }
+
+        private void writeBean(Object bean, BeanSchema schema, int depth) throws IOException, IllegalAccessException {
+            Integer beanIndex = beanIndexes.get(bean);
+            if (beanIndex != null) {
+                out.writeByte(TAG_BEAN_REF);
+                writeVarInt(out, beanIndex);
+                return;
+            }
+            beanIndexes.put(bean, beanIndexes.size());
+            out.writeByte(TAG_BEAN);
+            Integer schemaIndex = schemaIndexes.get(schema.type);
+            if (schemaIndex != null) {
+                writeVarInt(out, schemaIndex + 1);
+            } else {
+                // 0 introduces a schema: known type id + 1 or 0 and the class name, then the field names
+                writeVarInt(out, 0);
+                int knownTypeId = KNOWN_BEAN_TYPES.indexOf(schema.type);
+                writeVarInt(out, knownTypeId + 1);
+                if (knownTypeId < 0) {
+                    writeString(out, schema.type.getName());
+                }
+                writeVarInt(out, schema.fields.length);
+                for (Field field : schema.fields) {
+                    writeString(out, field.getName());
+                }
+                schemaIndexes.put(schema.type, schemaIndexes.size());
+            }
+            for (Field field : schema.fields) {
+                writeValue(field.get(bean), depth + 1);
+            }
+        }
+    }
+
+    private static final class BodyReader {
+        private final DataInputStream in;
+        private final List<ReadSchema> schemas = new ArrayList<>();
+        private final List<Object> beans = new ArrayList<>();
+
+        BodyReader(DataInputStream in) {
+            this.in = in;
+        }
+
+        Object readValue(Type expectedType, int depth) throws IOException, ReflectiveOperationException {
+            if (depth > MAX_DEPTH) {
+                throw new IOException("Message body is nested deeper than " + MAX_DEPTH);
+            }
+            byte tag = in.readByte();
+            switch (tag) {
+                case TAG_NULL:
+                    return null;
+                case TAG_TRUE:
+                    return Boolean.TRUE;
+                case TAG_FALSE:
+                    return Boolean.FALSE;
+                case TAG_INT:
+                    int intValue = readVarInt(in);
+                    return (intValue >>> 1) ^ -(intValue & 1);
+                case TAG_LONG:
+                    long longValue = readVarLong(in);
+                    return (longValue >>> 1) ^ -(longValue & 1);
+                case TAG_DOUBLE:
+                    return in.readDouble();
+                case TAG_FLOAT:
+                    return in.readFloat();
+                case TAG_STRING:
+                    return readString(in);
+                case TAG_DATE:
+                    long time = readVarLong(in);
+                    return new Date((time >>> 1) ^ -(time & 1));
+                case TAG_ENUM:
+                    return readEnum();
+                case TAG_BYTES:
+                    return readBytes(in);
+                case TAG_MAP:
+                case TAG_JSON_OBJECT:
+                    return readMap(tag, expectedType, depth);
+                case TAG_LIST:
+                case TAG_SET:
+                case TAG_JSON_ARRAY:
+                    return readCollection(tag, expectedType, depth);
+                case TAG_BEAN:
+                    return readBean(depth);
+                case TAG_BEAN_REF:
+                    return beans.get(readVarInt(in));
+                case TAG_JSON:
+                    byte[] json = readBytes(in);
+                    return expectedType == Object.class ? JSON.parse(json) : JSON.parseObject(json, expectedType);
+                default:
+                    throw new IOException("Unknown value tag: " + tag);
+            }
+        }
+
+        private Map<?, ?> readMap(byte tag, Type expectedType, int depth) throws IOException, ReflectiveOperationException {
+            int size = readLength(in);
+            if (tag == TAG_JSON_OBJECT) {
+                JSONObject jsonObject = new JSONObject(true);
+                for (int i = 0; i < size; i++) {
+                    jsonObject.put(readString(in), readValue(Object.class, depth + 1));
+                }
+                return jsonObject;
+            }
+            Map<Object, Object> map = new LinkedHashMap<>();
+            for (int i = 0; i < size; i++) {
+                map.put(readValue(getTypeArgument(expectedType, 0), depth + 1), readValue(getTypeArgument(expectedType, 1), depth + 1));
+            }
+            return map;
+        }
+
+        private Collection<?> readCollection(byte tag, Type expectedType, int depth) throws IOException, ReflectiveOperationException {
+            int size = readLength(in);
+            Collection<Object> collection;
+            if (tag == TAG_JSON_ARRAY) {
+                collection = new JSONArray(size);
+            } else if (tag == TAG_SET) {
+                collection = new LinkedHashSet<>();
+            } else {
+                collection = new ArrayList<>(size);
+            }
+            Type elementType = tag == TAG_JSON_ARRAY ? Object.class : getTypeArgument(expectedType, 0);
+            for (int i = 0; i < size; i++) {
+                collection.add(readValue(elementType, depth + 1));
+            }
+            return collection;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Object readEnum() throws IOException {
+            String typeName = readString(in);
+            String name = readString(in);
+            Class<?> type = typeName.startsWith(BEAN_TYPE_ACCEPTED_PACKAGE) ? resolveType(typeName) : null;
+            if (type == null || !type.isEnum()) {
+                // restored as its name like JSON does
+                return name;
+            }
+            try {
+                return Enum.valueOf((Class<? extends Enum>) type, name);
+            } catch (IllegalArgumentException e) {
+                // added on the other side only, the rest of the body is still read
+                if (UNKNOWN_ENUM_CONSTANTS.add(typeName + "." + name)) {
+                    LOGGER.warn("Unknown enum constant {}.{} is read as null", typeName, name);
+                }
+                return null;
+            }
+        }
+
+        private Object readBean(int depth) throws IOException, ReflectiveOperationException {
+            int schemaRef = readVarInt(in);
+            ReadSchema schema;
+            if (schemaRef == 0) {
+                int knownTypeRef = readVarInt(in);
+                Class<?> type = knownTypeRef > 0 ? KNOWN_BEAN_TYPES.get(knownTypeRef - 1) : resolveType(readString(in));
+                String[] fieldNames = new String[readLength(in)];
+                for (int i = 0; i < fieldNames.length; i++) {
+                    fieldNames[i] = readString(in);
+                }
+                schema = new ReadSchema(type == null ? NOT_A_BEAN : getSchema(type), fieldNames);
+                schemas.add(schema);
+            } else {
+                schema = schemas.get(schemaRef - 1);
+            }
+
+            BeanSchema localSchema = schema.localSchema;
+            if (localSchema == NOT_A_BEAN) {
+                JSONObject bean = new JSONObject(true);
+                beans.add(bean);
+                for (String fieldName : schema.fieldNames) {
+                    bean.put(fieldName, readValue(Object.class, depth + 1));
+                }
+                return bean;
+            }
+            Object bean = localSchema.constructor.newInstance();
+            // added before its fields, so that the references to it from its fields are resolved
+            beans.add(bean);
+            for (Field field : schema.localFields) {
+                Object value = readValue(field == null ? Object.class : field.getGenericType(), depth + 1);
+                if (field != null) {
+                    setField(bean, field, value);
+                }
+            }
+            return bean;
+        }
+
+        private void setField(Object bean, Field field, Object value) throws IllegalAccessException {
+            Class<?> fieldType = field.getType();
+            if (value == null) {
+                if (!fieldType.isPrimitive()) {
+                    field.set(bean, null);
+                }
+                return;
+            }
+            if (!ClassUtils.isAssignable(value.getClass(), fieldType, true)) {
+                try {
+                    // the field type differs between the two sides, e.g. int and long
+                    value = TypeUtils.cast(value, field.getGenericType(), ParserConfig.getGlobalInstance());
+                } catch (RuntimeException e) {
+                    // not convertible, leave the field as the constructor set it
+                    return;
+                }
+                if (value == null) {
+                    return;
+                }
+            }
+            field.set(bean, value);
+        }
+    }
+
+    private static final class ReadSchema {
+        final BeanSchema localSchema;
+        final String[] fieldNames;
+        // local field of each field in the body, null if this side doesn't have it
+        final Field[] localFields;
+
+        ReadSchema(BeanSchema localSchema, String[] fieldNames) {
+            this.localSchema = localSchema;
+            this.fieldNames = fieldNames;
+            this.localFields = new Field[fieldNames.length];
+            for (int i = 0; i < fieldNames.length; i++) {
+                localFields[i] = localSchema.fieldMap.get(fieldNames[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.hydralab.common.serialize.impl;
+
+import cn.hutool.core.util.ZipUtil;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.microsoft.hydralab.common.entity.common.Message;
+import com.microsoft.hydralab.common.serialize.MessageCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Compact binary frame: a fixed header schema for the {@link Message} fields, and the params and body encoded by {@link BinaryBodyCodec},
+ * where beans are written field by field following the schema of their class instead of as JSON with class names.
+ * Only bodies larger than the threshold are compressed, heartbeats and status updates go out as is.
+ * Bodies without an entity type, such as JSONObject, JSONArray or plain collections, are restored as JSONObject or JSONArray
+ * like the json-gzip codec does.
+ * <p>
+ * Frame layout: magic(2) version(1) compression(1) code(varint) method path sessionId agentId type message params body,
+ * strings are varint length + 1 (0 for null) and UTF-8 bytes, params and body are varint length + 1 and the encoded value.
+ */
+public class BinaryMessageCodec implements MessageCodec {
+    public static final String NAME = "binary";
+    public static final int DEFAULT_COMPRESS_THRESHOLD = 1024;
+    private static final byte MAGIC_0 = 'H';
+    private static final byte MAGIC_1 = 'L';
+    private static final byte VERSION = 1;
+
+    private final Compression compression;
+    private final int compressThreshold;
+
+    public BinaryMessageCodec() {
+        this(Compression.GZIP, DEFAULT_COMPRESS_THRESHOLD);
+    }
+
+    public BinaryMessageCodec(Compression compression, int compressThreshold) {
+        this.compression = compression;
+        this.compressThreshold = compressThreshold;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(Message message) {
+        byte[] bodyBytes = BinaryBodyCodec.encode(message.getBody());
+        Compression usedCompression = Compression.NONE;
+        if (bodyBytes.length >= compressThreshold) {
+            usedCompression = compression;
+            bodyBytes = compression.compress(bodyBytes);
+        }
+
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream(64 + bodyBytes.length);
+        try (DataOutputStream out = new DataOutputStream(byteStream)) {
+            out.writeByte(MAGIC_0);
+            out.writeByte(MAGIC_1);
+            out.writeByte(VERSION);
+            out.writeByte(usedCompression.id);
+            BinaryBodyCodec.writeVarInt(out, message.getCode());
+            writeString(out, message.getMethod());
+            writeString(out, message.getPath());
+            writeString(out, message.getSessionId());
+            writeString(out, message.getAgentId());
+            writeString(out, message.getType());
+            writeString(out, message.getMessage());
+            writeBytes(out, message.getParams() == null ? null : BinaryBodyCodec.encode(message.getParams()));
+            writeBytes(out, bodyBytes);
+        } catch (IOException e) {
+            throw new RuntimeException("Error in encoding message " + message.getPath(), e);
+        }
+        return byteStream.toByteArray();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Message decode(byte[] data) {
+        if (!canDecode(data)) {
+            throw new IllegalArgumentException("Not a binary message frame");
+        }
+        Message message = new Message();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 3, data.length - 3))) {
+            Compression usedCompression = Compression.valueOf(in.readByte());
+            message.setCode(BinaryBodyCodec.readVarInt(in));
+            message.setMethod(readString(in));
+            message.setPath(readString(in));
+            message.setSessionId(readString(in));
+            message.setAgentId(readString(in));
+            message.setType(readString(in));
+            message.setMessage(readString(in));
+            byte[] params = readBytes(in);
+            if (params != null) {
+                message.setParams((Map<String, Object>) BinaryBodyCodec.decode(params));
+            }
+            Object body = BinaryBodyCodec.decode(usedCompression.decompress(readBytes(in)));
+            if (body instanceof Map && !(body instanceof JSONObject)) {
+                body = new JSONObject((Map<String, Object>) body);
+            } else if (body instanceof Collection && !(body instanceof JSONArray)) {
+                body = new JSONArray(new ArrayList<>((Collection<Object>) body));
+            }
+            message.setBody(body);
+        } catch (IOException e) {
+            throw new RuntimeException("Error in decoding binary message", e);
+        }
+        return message;
+    }
+
+    @Override
+    public boolean canDecode(byte[] data) {
+        return data.length >= 4 && data[0] == MAGIC_0 && data[1] == MAGIC_1 && data[2] == VERSION;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            BinaryBodyCodec.writeVarInt(out, 0);
+            return;
+        }
+        BinaryBodyCodec.writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = BinaryBodyCodec.readVarInt(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.available()) {
+            throw new IOException("Length " + length + " exceeds the " + in.available() + " bytes left");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = readBytes(in);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public enum Compression {
+        /**
+         * Body is sent as is
+         */
+        NONE(0),
+        GZIP(1),
+        DEFLATE(2);
+
+        public final int id;
+
+        Compression(int id) {
+            this.id = id;
+        }
+
+        static Compression valueOf(byte id) {
+            for (Compression value : values()) {
+                if (value.id == id) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Unknown compression id: " + id);
+        }
+
+        byte[] compress(byte[] data) {
+            switch (this) {
+                case GZIP:
+                    return ZipUtil.gzip(data);
+                case DEFLATE:
+                    return ZipUtil.zlib(data, 6);
+                default:
+                    return data;
+            }
+        }
+
+        byte[] decompress(byte[] data) {
+            switch (this) {
+                case GZIP:
+                    return ZipUtil.unGzip(data);
+                case DEFLATE:
+                    return ZipUtil.unZlib(data);
+                default:
+                    return data;
+            }
+        }
+    }
+}
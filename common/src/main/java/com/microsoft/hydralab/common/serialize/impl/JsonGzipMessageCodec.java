@@ -0,0 +1,56 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.hydralab.common.serialize.impl;
+
+import cn.hutool.core.util.ZipUtil;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.parser.ParserConfig;
+import com.alibaba.fastjson.serializer.SerializerFeature;
+import com.microsoft.hydralab.common.entity.common.Message;
+import com.microsoft.hydralab.common.serialize.MessageCodec;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The original format: fastjson with class names, gzipped as a whole. Kept as the fallback for older agents.
+ */
+public class JsonGzipMessageCodec implements MessageCodec {
+    public static final String NAME = "json-gzip";
+    private static final byte GZIP_MAGIC_0 = (byte) 0x1f;
+    private static final byte GZIP_MAGIC_1 = (byte) 0x8b;
+
+    static {
+        // add auto type support for following entities
+        ParserConfig.getGlobalInstance().addAccept("com.microsoft.hydralab.common.entity.common.");
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(Message message) {
+        return ZipUtil.gzip(JSON.toJSONString(message, SerializerFeature.WriteClassName), StandardCharsets.UTF_8.toString());
+    }
+
+    @Override
+    public Message decode(byte[] data) {
+        Message message = JSON.parseObject(new String(ZipUtil.unGzip(data), StandardCharsets.UTF_8), Message.class);
+        if (message.getBody() instanceof JSONObject && message.getBodyType() != null) {
+            JSONObject body = (JSONObject) message.getBody();
+            try {
+                message.setBody(body.toJavaObject(Class.forName(message.getBodyType())));
+            } catch (ClassNotFoundException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return message;
+    }
+
+    @Override
+    public boolean canDecode(byte[] data) {
+        return data.length >= 2 && data[0] == GZIP_MAGIC_0 && data[1] == GZIP_MAGIC_1;
+    }
+}
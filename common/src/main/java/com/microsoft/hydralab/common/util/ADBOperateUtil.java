@@ -103,14 +103,22 @@ public class ADBOperateUtil {
     }
 
     private IDevice getDeviceByInfo(DeviceInfo deviceInfo) {
+        return getDeviceBySerialNum(deviceInfo.getSerialNum());
+    }
+
+    private IDevice getDeviceBySerialNum(String serialNum) {
         for (IDevice device : mAndroidDebugBridge.getDevices()) {
-            if (device.isOnline() && device.getSerialNumber().equals(deviceInfo.getSerialNum())) {
+            if (device.isOnline() && device.getSerialNumber().equals(serialNum)) {
                 return device;
             }
         }
         return null;
     }
 
+    public boolean isDeviceOnline(String serialNum) {
+        return getDeviceBySerialNum(serialNum) != null;
+    }
+
     public void setAdbServerHost(String adbServerHost) {
         this.adbServerHost = adbServerHost;
     }
@@ -149,6 +157,16 @@ public class ADBOperateUtil {
         device.executeShellCommand(command, receiver, testTimeOutSec, responseTimeout, TimeUnit.SECONDS);
     }
 
+    /**
+     * Run the shell command over the connection of the adb server, without starting an adb client process.
+     */
+    public void executeShellCommandOnDevice(String serialNum, String command, IShellOutputReceiver receiver, long maxTimeToOutputResponseMillis)
+            throws ShellCommandUnresponsiveException, AdbCommandRejectedException, IOException, TimeoutException {
+        IDevice device = getDeviceBySerialNum(serialNum);
+        Assert.notNull(device, "Not such device is available " + serialNum);
+        device.executeShellCommand(command, receiver, maxTimeToOutputResponseMillis, TimeUnit.MILLISECONDS);
+    }
+
     public Process executeDeviceCommandOnPC(DeviceInfo deviceInfo, String command, Logger logger) throws IOException {
         String commandLine = String.format("%s -H %s -s %s %s", mAdbPath.getAbsolutePath(), adbServerHost, deviceInfo.getSerialNum(), command);
         getNotNullLogger(logger).info("executeDeviceCommandOnPC: {}", commandLine);
@@ -27,9 +27,14 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 @Service
@@ -69,16 +74,31 @@ public class AttachmentService {
     }
 
     public StorageFileInfo saveFileInStorageAndDB(StorageFileInfo storageFileInfo, File file, EntityType entityType, Logger logger) {
+        saveFileInStorage(storageFileInfo, file, entityType, logger);
+        storageFileInfoRepository.save(storageFileInfo);
+        return storageFileInfo;
+    }
+
+    /**
+     * Upload the file and fill in the storage info without saving it to DB, so that the caller can save the infos of many files in one batch.
+     */
+    public StorageFileInfo saveFileInStorage(StorageFileInfo storageFileInfo, File file, EntityType entityType, Logger logger) {
         storageFileInfo.setFileId(UUID.randomUUID().toString());
         storageFileInfo.setFileParser(PkgUtil.analysisFile(file, entityType));
         storageFileInfo.setCreateTime(new Date());
         storageFileInfo.setUpdateTime(new Date());
         storageFileInfo.setBlobContainer(entityType.storageContainer);
         storageFileInfo.setBlobUrl(saveFileInStorage(file, storageFileInfo, logger));
-        storageFileInfoRepository.save(storageFileInfo);
         return storageFileInfo;
     }
 
+    public void saveFileInfos(List<StorageFileInfo> storageFileInfos) {
+        if (storageFileInfos == null || storageFileInfos.isEmpty()) {
+            return;
+        }
+        storageFileInfoRepository.saveAll(storageFileInfos);
+    }
+
     public StorageFileInfo updateFileInStorageAndDB(StorageFileInfo oldFileInfo, File file, EntityType entityType, Logger logger) {
         int days = (int) ((new Date().getTime() - oldFileInfo.getUpdateTime().getTime()) / 1000 / 60 / 60 / 24);
         if (days >= storageServiceClientProxy.getStorageFileLimitDay()) {
@@ -154,11 +174,12 @@ public class AttachmentService {
     }
 
     public List<StorageFileInfo> getAttachments(String entityId, EntityType entityType) {
-        List<StorageFileInfo> result = new ArrayList<>();
-
         List<EntityFileRelation> fileRelations = entityFileRelationRepository.queryAllByEntityIdAndEntityTypeOrderByFileOrderAsc(entityId, entityType.typeName);
+        Map<String, StorageFileInfo> fileInfoMap = getFileInfoMap(fileRelations);
+
+        List<StorageFileInfo> result = new ArrayList<>();
         for (EntityFileRelation fileRelation : fileRelations) {
-            StorageFileInfo tempFileInfo = storageFileInfoRepository.findById(fileRelation.getFileId()).get();
+            StorageFileInfo tempFileInfo = fileInfoMap.get(fileRelation.getFileId());
             if (tempFileInfo != null) {
                 result.add(tempFileInfo);
             }
@@ -166,6 +187,46 @@ public class AttachmentService {
         return result;
     }
 
+    /**
+     * Load the attachments of many entities of a type with one query on the relations and one on the file infos.
+     *
+     * @return the attachments in file order by entity id, an entity without attachment is mapped to an empty list
+     */
+    public Map<String, List<StorageFileInfo>> getAttachmentsOfEntities(Collection<String> entityIds, EntityType entityType) {
+        Map<String, List<StorageFileInfo>> result = new HashMap<>();
+        if (entityIds == null || entityIds.isEmpty()) {
+            return result;
+        }
+        for (String entityId : entityIds) {
+            result.put(entityId, new ArrayList<>());
+        }
+
+        List<EntityFileRelation> fileRelations = entityFileRelationRepository.queryAllByEntityIdInAndEntityTypeOrderByFileOrderAsc(entityIds, entityType.typeName);
+        Map<String, StorageFileInfo> fileInfoMap = getFileInfoMap(fileRelations);
+        for (EntityFileRelation fileRelation : fileRelations) {
+            StorageFileInfo tempFileInfo = fileInfoMap.get(fileRelation.getFileId());
+            if (tempFileInfo != null) {
+                result.computeIfAbsent(fileRelation.getEntityId(), k -> new ArrayList<>()).add(tempFileInfo);
+            }
+        }
+        return result;
+    }
+
+    private Map<String, StorageFileInfo> getFileInfoMap(List<EntityFileRelation> fileRelations) {
+        Map<String, StorageFileInfo> fileInfoMap = new HashMap<>();
+        if (fileRelations.isEmpty()) {
+            return fileInfoMap;
+        }
+        Set<String> fileIds = new HashSet<>();
+        for (EntityFileRelation fileRelation : fileRelations) {
+            fileIds.add(fileRelation.getFileId());
+        }
+        for (StorageFileInfo fileInfo : storageFileInfoRepository.findAllById(fileIds)) {
+            fileInfoMap.put(fileInfo.getFileId(), fileInfo);
+        }
+        return fileInfoMap;
+    }
+
     public void saveRelation(String entityId, EntityType entityType, StorageFileInfo storageFileInfo) {
         int maxOrder = getMaxOrder(entityId, entityType);
         EntityFileRelation entityFileRelation = new EntityFileRelation();
@@ -11,6 +11,7 @@ public interface Const {
         String AGENT_INIT = "/agentInit";
         String HEARTBEAT = "/heartbeat";
         String DEVICE_LIST = "/api/device/list";
+        String DEVICE_LIST_DELTA = "/api/device/list/delta";
         String DEVICE_UPDATE = "/api/device/update";
         String DEVICE_STATUS = "/api/device/status";
         String ACCESS_INFO = "/api/device/access";
@@ -41,6 +42,9 @@ public interface Const {
         String SERIAL_PARAM = "serialNum";
         String STATUS_PARAM = "status";
         String SCOPE_PARAM = "isPrivate";
+        String MESSAGE_CODEC_PARAM = "messageCodec";
+        String DEVICE_LIST_SEQUENCE_PARAM = "deviceListSequence";
+        String DEVICE_LIST_DELTA_PARAM = "deviceListDelta";
         String RESTART_FILE_MAC = "restartAgent.sh";
         String RESTART_FILE_WIN = "restartAgent.bat";
     }
@@ -71,6 +75,7 @@ public interface Const {
         String ZIP_FILE_NAME = "SmartTest.zip";
         String ZIP_FOLDER_NAME = "SmartTest";
         String PY_FILE_NAME = "main.py";
+        String WORKER_PY_FILE_NAME = "smart_test_worker.py";
         String BERT_MODEL_NAME = "screenBert.pt";
         String TOPIC_MODEL_NAME = "topic.pt";
         String REQUIRE_FILE_NAME = "requirements.txt";
@@ -168,6 +173,7 @@ public interface Const {
 
     final class LocalStorageURL {
         public static final String CENTER_LOCAL_STORAGE_UPLOAD = "/api/storage/local/upload";
+        public static final String CENTER_LOCAL_STORAGE_UPLOAD_CHUNK = "/api/storage/local/upload/chunk";
         public static final String CENTER_LOCAL_STORAGE_DOWNLOAD = "/api/storage/local/download";
         public static final String CENTER_LOCAL_STORAGE_ROOT = "storage/local/";
     }
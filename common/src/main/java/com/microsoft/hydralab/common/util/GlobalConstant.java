@@ -30,6 +30,17 @@ public interface GlobalConstant {
     String PROMETHEUS_METRIC_TEST_DEVICE_ALIVE_SIGNAL= "agent_device_alive_signal";
     String PROMETHEUS_METRIC_TEST_DEVICE_ADB_TIMEOUT_SIGNAL= "agent_device_adb_cmd_timeout_signal";
     String PROMETHEUS_METRIC_WEBSOCKET_DISCONNECT_SIGNAL = "agent_ws_disconnect_signal";
+    String PROMETHEUS_METRIC_PERFORMANCE_INSPECTION_COUNT = "agent_performance_inspection_count";
+    String PROMETHEUS_METRIC_PERFORMANCE_INSPECTION_MISSED_DEADLINE = "agent_performance_inspection_missed_deadline";
     String PROMETHEUS_METRIC_ONLINE_AGENT_NUM = "agent_online_agent_num";
     String PROMETHEUS_METRIC_ONLINE_DEVICE_NUM = "agent_online_device_num";
+    String PROMETHEUS_METRIC_DEVICE_GROUP_RELATION_NUM = "center_device_group_relation_num";
+    String PROMETHEUS_METRIC_DEVICE_GROUP_LOOKUP = "center_device_group_lookup";
+    String PROMETHEUS_METRIC_TEST_TASK_PERSIST_QUEUE_DEPTH = "center_test_task_persist_queue_depth";
+    String PROMETHEUS_METRIC_TEST_TASK_PERSIST_FLUSH = "center_test_task_persist_flush";
+    String PROMETHEUS_METRIC_TEST_TASK_PERSIST_BATCH_SIZE = "center_test_task_persist_batch_size";
+    String PROMETHEUS_METRIC_TEST_TASK_STATUS_SUBSCRIBER_NUM = "center_test_task_status_subscriber_num";
+    String PROMETHEUS_METRIC_KEY_VALUE_CACHE_HIT_RATIO = "center_key_value_cache_hit_ratio";
+    String PROMETHEUS_METRIC_KEY_VALUE_CACHE_GETS = "center_key_value_cache_gets";
+    String PROMETHEUS_METRIC_KEY_VALUE_CACHE_SIZE_BYTES = "center_key_value_cache_size_bytes";
 }
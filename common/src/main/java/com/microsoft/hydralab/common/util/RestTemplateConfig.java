@@ -44,4 +44,20 @@ public class RestTemplateConfig {
 
         return restTemplateHttps;
     }
+
+    /**
+     * The request body is streamed to the connection instead of being buffered in memory, used to transfer large files.
+     */
+    public static RestTemplate getStreamingRestTemplateInstance() {
+        RestTemplate restTemplateHttps;
+        try {
+            HttpComponentsClientHttpRequestFactory factory = generateHttpRequestFactory();
+            factory.setBufferRequestBody(false);
+            restTemplateHttps = new RestTemplate(factory);
+        } catch (NoSuchAlgorithmException | KeyManagementException | KeyStoreException e) {
+            throw new HydraLabRuntimeException(HttpStatus.HTTP_INTERNAL_ERROR, "Failed to create SSLContext for RestTemplate.");
+        }
+
+        return restTemplateHttps;
+    }
 }
\ No newline at end of file
@@ -2,34 +2,74 @@
 // Licensed under the MIT License.
 package com.microsoft.hydralab.common.util;
 
-import cn.hutool.core.util.ZipUtil;
-import com.alibaba.fastjson.JSON;
-import com.alibaba.fastjson.JSONObject;
-import com.alibaba.fastjson.parser.ParserConfig;
-import com.alibaba.fastjson.serializer.SerializerFeature;
 import com.microsoft.hydralab.common.entity.common.Message;
+import com.microsoft.hydralab.common.serialize.MessageCodec;
+import com.microsoft.hydralab.common.serialize.impl.BinaryMessageCodec;
+import com.microsoft.hydralab.common.serialize.impl.JsonGzipMessageCodec;
 
-import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
 
 public class SerializeUtil {
-    static {
-        // add auto type support for following entities
-        ParserConfig.getGlobalInstance().addAccept("com.microsoft.hydralab.common.entity.common.");
-    }
+    public static final MessageCodec JSON_GZIP_CODEC = new JsonGzipMessageCodec();
+    public static final MessageCodec BINARY_CODEC = new BinaryMessageCodec();
+    // in order of preference
+    private static final List<MessageCodec> SUPPORTED_CODECS = Arrays.asList(BINARY_CODEC, JSON_GZIP_CODEC);
+
     public static byte[] messageToByteArr(Message message) {
-        return ZipUtil.gzip(JSON.toJSONString(message, SerializerFeature.WriteClassName), StandardCharsets.UTF_8.toString());
+        return messageToByteArr(message, JSON_GZIP_CODEC);
+    }
+
+    public static byte[] messageToByteArr(Message message, MessageCodec codec) {
+        return codec.encode(message);
     }
 
     public static Message byteArrToMessage(byte[] array) {
-        Message message = JSON.parseObject(new String(ZipUtil.unGzip(array), StandardCharsets.UTF_8), Message.class);
-        if (message.getBody() instanceof JSONObject && message.getBodyType() != null) {
-            JSONObject body = (JSONObject) message.getBody();
-            try {
-                message.setBody(body.toJavaObject(Class.forName(message.getBodyType())));
-            } catch (ClassNotFoundException e) {
-                throw new RuntimeException(e);
+        for (MessageCodec codec : SUPPORTED_CODECS) {
+            if (codec.canDecode(array)) {
+                return codec.decode(array);
+            }
+        }
+        return JSON_GZIP_CODEC.decode(array);
+    }
+
+    /**
+     * @return the codec names this side can encode, sent by the agent in the auth handshake.
+     */
+    public static String getSupportedCodecNames() {
+        StringBuilder names = new StringBuilder();
+        for (MessageCodec codec : SUPPORTED_CODECS) {
+            if (names.length() > 0) {
+                names.append(',');
+            }
+            names.append(codec.getName());
+        }
+        return names.toString();
+    }
+
+    /**
+     * @param codecNames codec names offered by the peer, null for agents that are not aware of codec negotiation
+     * @return the most preferred codec supported by both sides, json-gzip if there is none
+     */
+    public static MessageCodec negotiateCodec(String codecNames) {
+        if (codecNames == null) {
+            return JSON_GZIP_CODEC;
+        }
+        List<String> offeredNames = Arrays.asList(codecNames.split(","));
+        for (MessageCodec codec : SUPPORTED_CODECS) {
+            if (offeredNames.contains(codec.getName())) {
+                return codec;
+            }
+        }
+        return JSON_GZIP_CODEC;
+    }
+
+    public static MessageCodec getCodecByName(String codecName) {
+        for (MessageCodec codec : SUPPORTED_CODECS) {
+            if (codec.getName().equals(codecName)) {
+                return codec;
             }
         }
-        return message;
+        return JSON_GZIP_CODEC;
     }
 }
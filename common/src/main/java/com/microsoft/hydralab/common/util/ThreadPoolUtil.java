@@ -8,10 +8,16 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class ThreadPoolUtil {
     public static final ScheduledExecutorService TIMER_EXECUTOR = Executors.newScheduledThreadPool(20);
     public static final ScheduledExecutorService PERFORMANCE_TEST_TIMER_EXECUTOR = Executors.newScheduledThreadPool(5 /* corePoolSize */);
+    private static final AtomicInteger PERFORMANCE_INSPECTION_THREAD_NUMBER = new AtomicInteger(1);
+    public static final Executor PERFORMANCE_INSPECTION_EXECUTOR = newThreadPoolExecutor(PERFORMANCE_INSPECTION_THREAD_NUMBER, 5, 60L, "PerformanceInspection");
     private static final AtomicInteger SCREENSHOT_THREAD_NUMBER = new AtomicInteger(1);
     public static final Executor SCREENSHOT_EXECUTOR = newThreadPoolExecutor(SCREENSHOT_THREAD_NUMBER, 20, 60L, "ScreenshotExecutor");
     private static final AtomicInteger TEST_THREAD_NUMBER = new AtomicInteger(1);
     public static final Executor TEST_EXECUTOR = newThreadPoolExecutor(TEST_THREAD_NUMBER, 30, 60L, "TestExecutor");
+    private static final AtomicInteger GIF_ENCODE_THREAD_NUMBER = new AtomicInteger(1);
+    public static final Executor GIF_ENCODE_EXECUTOR = newThreadPoolExecutor(GIF_ENCODE_THREAD_NUMBER, 4, 60L, "GifEncodeExecutor");
+    private static final AtomicInteger SCREEN_RECORD_THREAD_NUMBER = new AtomicInteger(1);
+    public static final Executor SCREEN_RECORD_EXECUTOR = newThreadPoolExecutor(SCREEN_RECORD_THREAD_NUMBER, 4, 60L, "ScreenRecordExecutor");
 
     public static Executor newThreadPoolExecutor(AtomicInteger threadCounter, int corePoolSize, long keepAliveTimeSeconds, String threadNamePrefix) {
         return new ThreadPoolExecutor(corePoolSize, Integer.MAX_VALUE, keepAliveTimeSeconds,
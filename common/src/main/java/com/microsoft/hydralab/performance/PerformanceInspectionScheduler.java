@@ -0,0 +1,146 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.hydralab.performance;
+
+import com.microsoft.hydralab.common.util.GlobalConstant;
+import com.microsoft.hydralab.common.util.ThreadPoolUtil;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs scheduled inspections on a growing pool, the timer threads only start them so a slow inspection never delays the others.
+ * An inspection is not started again while it is still running, the tick is skipped and counted as a missed deadline,
+ * and so is an inspection which starts later than one interval after its tick.
+ * Cancelling a schedule stops its ticks and waits for the inspection already started, so nothing is sampled after the cancel returns.
+ */
+public class PerformanceInspectionScheduler {
+    static final Logger classLogger = LoggerFactory.getLogger(PerformanceInspectionScheduler.class);
+    private final ScheduledExecutorService timerExecutor;
+    private final Executor inspectionExecutor;
+    private final AtomicLong inspectionCount = new AtomicLong();
+    private final AtomicLong missedDeadlineCount = new AtomicLong();
+
+    public PerformanceInspectionScheduler() {
+        this(ThreadPoolUtil.PERFORMANCE_TEST_TIMER_EXECUTOR, ThreadPoolUtil.PERFORMANCE_INSPECTION_EXECUTOR);
+    }
+
+    public PerformanceInspectionScheduler(ScheduledExecutorService timerExecutor, Executor inspectionExecutor) {
+        this.timerExecutor = timerExecutor;
+        this.inspectionExecutor = inspectionExecutor;
+    }
+
+    public ScheduledInspection scheduleAtFixedRate(Runnable inspection, long interval, TimeUnit unit) {
+        ScheduledInspection scheduledInspection = new ScheduledInspection(inspection, unit.toNanos(interval));
+        scheduledInspection.timer = timerExecutor.scheduleAtFixedRate(scheduledInspection::tick, 0, interval, unit);
+        return scheduledInspection;
+    }
+
+    public long getInspectionCount() {
+        return inspectionCount.get();
+    }
+
+    public long getMissedDeadlineCount() {
+        return missedDeadlineCount.get();
+    }
+
+    /**
+     * A scheduled inspection, guarded by itself so that no inspection is started once it is cancelled.
+     */
+    public final class ScheduledInspection {
+        private final Runnable inspection;
+        private final long intervalNanos;
+        private final AtomicBoolean running = new AtomicBoolean();
+        private volatile ScheduledFuture<?> timer;
+        private FutureTask<Void> lastInspection;
+        private volatile boolean cancelled;
+
+        private ScheduledInspection(Runnable inspection, long intervalNanos) {
+            this.inspection = inspection;
+            this.intervalNanos = intervalNanos;
+        }
+
+        private synchronized void tick() {
+            if (cancelled) {
+                return;
+            }
+            if (!running.compareAndSet(false, true)) {
+                missedDeadlineCount.incrementAndGet();
+                return;
+            }
+            long tickNanos = System.nanoTime();
+            FutureTask<Void> task = new FutureTask<>(() -> {
+                try {
+                    if (System.nanoTime() - tickNanos > intervalNanos) {
+                        missedDeadlineCount.incrementAndGet();
+                    }
+                    inspection.run();
+                    inspectionCount.incrementAndGet();
+                } catch (Exception e) {
+                    classLogger.error("Scheduled performance inspection failed", e);
+                } finally {
+                    running.set(false);
+                }
+            }, null);
+            try {
+                inspectionExecutor.execute(task);
+                lastInspection = task;
+            } catch (RuntimeException e) {
+                running.set(false);
+                classLogger.error("Failed to start scheduled performance inspection", e);
+            }
+        }
+
+        /**
+         * Stop the ticks and wait for the running inspection, which is interrupted if it doesn't end within the timeout.
+         */
+        public void cancel(long timeout, TimeUnit unit) {
+            FutureTask<Void> task;
+            synchronized (this) {
+                cancelled = true;
+                if (timer != null) {
+                    timer.cancel(false);
+                }
+                task = lastInspection;
+            }
+            if (task == null) {
+                return;
+            }
+            try {
+                task.get(timeout, unit);
+            } catch (TimeoutException e) {
+                classLogger.warn("Scheduled performance inspection doesn't end in {} {}, interrupt it", timeout, unit);
+                task.cancel(true);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | CancellationException e) {
+                classLogger.error("Scheduled performance inspection failed", e);
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    public void bindTo(MeterRegistry meterRegistry) {
+        FunctionCounter.builder(GlobalConstant.PROMETHEUS_METRIC_PERFORMANCE_INSPECTION_COUNT, inspectionCount, AtomicLong::get)
+                .description("Scheduled performance inspections done")
+                .register(meterRegistry);
+        FunctionCounter.builder(GlobalConstant.PROMETHEUS_METRIC_PERFORMANCE_INSPECTION_MISSED_DEADLINE, missedDeadlineCount, AtomicLong::get)
+                .description("Scheduled performance inspections skipped or started late as the previous one was still running or no thread was free")
+                .register(meterRegistry);
+    }
+}
@@ -9,8 +9,8 @@ import com.microsoft.hydralab.common.entity.common.DeviceInfo;
 import com.microsoft.hydralab.common.entity.common.PerformanceTestResultEntity;
 import com.microsoft.hydralab.common.entity.common.TestRun;
 import com.microsoft.hydralab.common.entity.common.TestTask;
+import com.microsoft.hydralab.common.util.ADBOperateUtil;
 import com.microsoft.hydralab.common.util.FileUtil;
-import com.microsoft.hydralab.common.util.ThreadPoolUtil;
 import com.microsoft.hydralab.performance.inspectors.AndroidBatteryInfoInspector;
 import com.microsoft.hydralab.performance.inspectors.AndroidMemoryInfoInspector;
 import com.microsoft.hydralab.performance.inspectors.IOSEnergyGaugeInspector;
@@ -30,11 +30,10 @@ import org.springframework.util.Assert;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import static com.microsoft.hydralab.performance.PerformanceInspector.PerformanceInspectorType.INSPECTOR_ANDROID_BATTERY_INFO;
 import static com.microsoft.hydralab.performance.PerformanceInspector.PerformanceInspectorType.INSPECTOR_ANDROID_MEMORY_INFO;
@@ -50,6 +49,7 @@ import static com.microsoft.hydralab.performance.PerformanceResultParser.Perform
 import static com.microsoft.hydralab.performance.PerformanceResultParser.PerformanceResultParserType.PARSER_WIN_MEMORY;
 
 public class PerformanceTestManagementService implements IPerformanceInspectionService, PerformanceTestListener {
+    private static final long SCHEDULED_INSPECTION_CANCEL_TIMEOUT_SECONDS = 30;
     private static final Map<PerformanceInspector.PerformanceInspectorType, PerformanceResultParser.PerformanceResultParserType> inspectorParserTypeMap = Map.of(
             INSPECTOR_ANDROID_BATTERY_INFO, PARSER_ANDROID_BATTERY_INFO,
             INSPECTOR_ANDROID_MEMORY_INFO, PARSER_ANDROID_MEMORY_INFO,
@@ -75,7 +75,9 @@ public class PerformanceTestManagementService implements IPerformanceInspectionS
             PARSER_IOS_MEMORY, new IOSMemoryPerfResultParser()
     );
 
-    private final Map<String, List<ScheduledFuture<?>>> inspectPerformanceTimerMap = new ConcurrentHashMap<>();
+    private final PerformanceInspectionScheduler inspectionScheduler = new PerformanceInspectionScheduler();
+
+    private final Map<String, List<PerformanceInspectionScheduler.ScheduledInspection>> inspectPerformanceTimerMap = new ConcurrentHashMap<>();
     private final Map<String, List<InspectionStrategy>> testLifeCycleStrategyMap = new ConcurrentHashMap<>();
     private final Map<String, Map<String, PerformanceTestResult>> testRunPerfResultMap = new ConcurrentHashMap<>();
 
@@ -83,6 +85,18 @@ public class PerformanceTestManagementService implements IPerformanceInspectionS
         PerformanceInspectionService.getInstance().swapImplementation(this);
     }
 
+    /**
+     * Let the Android inspectors run their commands over the adb server connection instead of starting an adb process per inspection.
+     */
+    public void setAdbOperateUtil(ADBOperateUtil adbOperateUtil) {
+        ((AndroidMemoryInfoInspector) getInspectorByType(INSPECTOR_ANDROID_MEMORY_INFO)).setAdbOperateUtil(adbOperateUtil);
+        ((AndroidBatteryInfoInspector) getInspectorByType(INSPECTOR_ANDROID_BATTERY_INFO)).setAdbOperateUtil(adbOperateUtil);
+    }
+
+    public PerformanceInspectionScheduler getInspectionScheduler() {
+        return inspectionScheduler;
+    }
+
     @NotNull
     private static PerformanceTestResult createPerformanceTestResult(PerformanceInspection performanceInspection) {
         PerformanceTestResult performanceTestResult = new PerformanceTestResult();
@@ -110,9 +124,16 @@ public class PerformanceTestManagementService implements IPerformanceInspectionS
     }
 
     private PerformanceInspectionResult inspect(PerformanceInspection performanceInspection, ITestRun testRun) {
+        return inspect(performanceInspection, testRun, false);
+    }
+
+    /**
+     * @param scheduled the inspection is sampled by a schedule, its result is dropped if the test run is already torn down
+     */
+    private PerformanceInspectionResult inspect(PerformanceInspection performanceInspection, ITestRun testRun, boolean scheduled) {
         if (performanceInspection == null || testRun == null) return null;
 
-        performanceInspection = getDevicePerformanceInspection(performanceInspection);
+        performanceInspection = getDevicePerformanceInspection(performanceInspection, testRun);
         PerformanceInspector.PerformanceInspectorType inspectorType = performanceInspection.inspectorType;
         PerformanceInspector performanceInspector = getInspectorByType(inspectorType);
         Assert.notNull(performanceInspector, "Found no matched inspector: " + performanceInspection.inspectorType);
@@ -124,13 +145,23 @@ public class PerformanceTestManagementService implements IPerformanceInspectionS
 
         PerformanceInspectionResult result = performanceInspector.inspect(performanceInspection);
 
-        testRunPerfResultMap.putIfAbsent(testRun.getId(), new HashMap<>());
-        Map<String, PerformanceTestResult> performanceTestResultMap = testRunPerfResultMap.get(testRun.getId());
-        Assert.notNull(performanceTestResultMap, "performanceTestResultMap should not be null ");
+        Map<String, PerformanceTestResult> performanceTestResultMap = scheduled
+                ? testRunPerfResultMap.get(testRun.getId())
+                : testRunPerfResultMap.computeIfAbsent(testRun.getId(), k -> new ConcurrentHashMap<>());
+        if (performanceTestResultMap == null) {
+            return result;
+        }
         performanceTestResultMap.putIfAbsent(performanceInspection.inspectionKey, createPerformanceTestResult(performanceInspection));
         PerformanceTestResult performanceTestResult = performanceTestResultMap.get(performanceInspection.inspectionKey);
         Assert.notNull(performanceTestResult, "performanceTestResult should not be null ");
-        performanceTestResult.performanceInspectionResults.add(result);
+        PerformanceResultParser parser = getParserByType(performanceTestResult.parserType);
+        if (parser instanceof StreamingPerformanceResultParser) {
+            // parse the sample while its raw file is fresh, so the run doesn't keep every sample until it ends
+            ((StreamingPerformanceResultParser) parser).parseInspectionResult(performanceTestResult, result);
+            performanceTestResult.addParsedInspectionResult(result);
+        } else {
+            performanceTestResult.performanceInspectionResults.add(result);
+        }
 
         return result;
     }
@@ -153,11 +184,11 @@ public class PerformanceTestManagementService implements IPerformanceInspectionS
                     inspection.inspectorType, inspection.appId, inspection.deviceIdentifier, true);
             inspect(initialInspection);
 
-            ScheduledFuture<?> scheduledFuture = ThreadPoolUtil.PERFORMANCE_TEST_TIMER_EXECUTOR.scheduleAtFixedRate(() -> {
-                inspect(inspection, testRun);
-            }, 0, inspectionStrategy.interval, inspectionStrategy.intervalUnit);
+            PerformanceInspectionScheduler.ScheduledInspection scheduledInspection = inspectionScheduler.scheduleAtFixedRate(() -> {
+                inspect(inspection, testRun, true);
+            }, inspectionStrategy.interval, inspectionStrategy.intervalUnit);
             inspectPerformanceTimerMap.putIfAbsent(testRun.getId(), new ArrayList<>());
-            inspectPerformanceTimerMap.get(testRun.getId()).add(scheduledFuture);
+            inspectPerformanceTimerMap.get(testRun.getId()).add(scheduledInspection);
         }
         if (inspectionStrategy.strategyType == InspectionStrategy.StrategyType.TEST_LIFECYCLE) {
             if (inspectionStrategy.when == null || inspectionStrategy.when.isEmpty()) {
@@ -210,10 +241,11 @@ public class PerformanceTestManagementService implements IPerformanceInspectionS
     }
 
     public void testTearDown(DeviceInfo deviceInfo, TestTask testTask, TestRun testRun, Logger log) {
-        List<ScheduledFuture<?>> timerList = inspectPerformanceTimerMap.get(testRun.getId());
+        // wait for the samples being taken, so that the results are complete when they are parsed
+        List<PerformanceInspectionScheduler.ScheduledInspection> timerList = inspectPerformanceTimerMap.get(testRun.getId());
         if (timerList != null) {
-            for (ScheduledFuture<?> timer : timerList) {
-                timer.cancel(true);
+            for (PerformanceInspectionScheduler.ScheduledInspection timer : timerList) {
+                timer.cancel(SCHEDULED_INSPECTION_CANCEL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
             }
         }
         List<PerformanceTestResult> resultList = parseForTestRun(testRun);
@@ -248,9 +280,13 @@ public class PerformanceTestManagementService implements IPerformanceInspectionS
      * For giving inspection return the inspection with device id that related to test run
      */
     private PerformanceInspection getDevicePerformanceInspection(PerformanceInspection inspection) {
+        return getDevicePerformanceInspection(inspection, getTestRun());
+    }
+
+    private PerformanceInspection getDevicePerformanceInspection(PerformanceInspection inspection, ITestRun testRun) {
         return new PerformanceInspection(inspection.description, inspection.inspectorType, inspection.appId,
                 // For windows inspector, the deviceIdentifier is useless
-                getTestRun().getDeviceSerialNumber(), inspection.isReset);
+                testRun.getDeviceSerialNumber(), inspection.isReset);
     }
 
     private List<PerformanceTestResult> parseForTestRun(ITestRun testRun) {
@@ -0,0 +1,15 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.hydralab.performance;
+
+/**
+ * A parser which parses each inspection result as soon as it is captured,
+ * instead of reading all the raw result files when the test run ends.
+ */
+public interface StreamingPerformanceResultParser extends PerformanceResultParser {
+    /**
+     * Parse the result into its parsed data and fold it into the metric summaries of the performance test result.
+     * The result is then added with {@link PerformanceTestResult#addParsedInspectionResult} and {@link #parse} only builds the result summary.
+     */
+    void parseInspectionResult(PerformanceTestResult performanceTestResult, PerformanceInspectionResult inspectionResult);
+}
@@ -2,6 +2,8 @@
 // Licensed under the MIT License.
 package com.microsoft.hydralab.performance.inspectors;
 
+import com.microsoft.hydralab.common.logger.MultiLineNoCancelLoggingReceiver;
+import com.microsoft.hydralab.common.util.ADBOperateUtil;
 import com.microsoft.hydralab.common.util.ShellUtils;
 import com.microsoft.hydralab.common.util.TimeUtils;
 import com.microsoft.hydralab.performance.PerformanceInspection;
@@ -16,6 +18,11 @@ import java.io.File;
 public class AndroidBatteryInfoInspector implements PerformanceInspector {
     private static final String RAW_RESULT_FILE_NAME_FORMAT = "%s_%s_%s.txt";
     protected Logger classLogger = LoggerFactory.getLogger(getClass());
+    private ADBOperateUtil adbOperateUtil;
+
+    public void setAdbOperateUtil(ADBOperateUtil adbOperateUtil) {
+        this.adbOperateUtil = adbOperateUtil;
+    }
 
     @Override
     public PerformanceInspectionResult inspect(PerformanceInspection performanceInspection) {
@@ -28,14 +35,37 @@ public class AndroidBatteryInfoInspector implements PerformanceInspector {
         File rawResultFile = new File(rawResultFolder,
                 String.format(RAW_RESULT_FILE_NAME_FORMAT, getClass().getSimpleName(), performanceInspection.appId, TimeUtils.getTimestampForFilename()));
 
-        ShellUtils.execLocalCommandWithRedirect(String.format("adb -s %s shell dumpsys batterystats %s",
-                performanceInspection.deviceIdentifier, performanceInspection.appId), rawResultFile, true, classLogger);
+        if (isConnected(performanceInspection)) {
+            ShellOutputFileReceiver.capture(adbOperateUtil, performanceInspection.deviceIdentifier,
+                    "dumpsys batterystats " + performanceInspection.appId, rawResultFile, line -> { }, classLogger);
+        } else {
+            ShellUtils.execLocalCommandWithRedirect(String.format("adb -s %s shell dumpsys batterystats %s",
+                    performanceInspection.deviceIdentifier, performanceInspection.appId), rawResultFile, true, classLogger);
+        }
         return new PerformanceInspectionResult(rawResultFile, performanceInspection);
     }
 
     private void initialize(PerformanceInspection performanceInspection) {
         String device = performanceInspection.deviceIdentifier;
+        if (isConnected(performanceInspection)) {
+            executeShellCommand(device, "dumpsys battery unplug");
+            executeShellCommand(device, "dumpsys batterystats --reset");
+            return;
+        }
         ShellUtils.execLocalCommand(String.format("adb -s %s shell dumpsys battery unplug", device), classLogger);
         ShellUtils.execLocalCommand(String.format("adb -s %s shell dumpsys batterystats --reset", device), classLogger);
     }
+
+    private boolean isConnected(PerformanceInspection performanceInspection) {
+        return adbOperateUtil != null && adbOperateUtil.isDeviceOnline(performanceInspection.deviceIdentifier);
+    }
+
+    private void executeShellCommand(String device, String command) {
+        try {
+            adbOperateUtil.executeShellCommandOnDevice(device, command, new MultiLineNoCancelLoggingReceiver(classLogger),
+                    ShellOutputFileReceiver.MAX_TIME_TO_OUTPUT_RESPONSE_MILLIS);
+        } catch (Exception e) {
+            classLogger.error("Failed to run {} on {}: {}", command, device, e.getMessage());
+        }
+    }
 }
@@ -1,10 +1,12 @@
 package com.microsoft.hydralab.performance.inspectors;
 
+import com.microsoft.hydralab.common.util.ADBOperateUtil;
 import com.microsoft.hydralab.common.util.ShellUtils;
 import com.microsoft.hydralab.common.util.TimeUtils;
 import com.microsoft.hydralab.performance.PerformanceInspection;
 import com.microsoft.hydralab.performance.PerformanceInspectionResult;
 import com.microsoft.hydralab.performance.PerformanceInspector;
+import com.microsoft.hydralab.performance.parsers.AndroidMemoryInfoResultParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.Assert;
@@ -15,7 +17,11 @@ public class AndroidMemoryInfoInspector implements PerformanceInspector  {
 
     private static final String RAW_RESULT_FILE_NAME_FORMAT = "%s_%s_%s_memory.txt";
     private final Logger classLogger = LoggerFactory.getLogger(getClass());
+    private ADBOperateUtil adbOperateUtil;
 
+    public void setAdbOperateUtil(ADBOperateUtil adbOperateUtil) {
+        this.adbOperateUtil = adbOperateUtil;
+    }
 
     @Override
     public PerformanceInspectionResult inspect(PerformanceInspection performanceInspection) {
@@ -25,6 +31,18 @@ public class AndroidMemoryInfoInspector implements PerformanceInspector  {
         File rawResultFile = new File(rawResultFolder,
                 String.format(RAW_RESULT_FILE_NAME_FORMAT, getClass().getSimpleName(), performanceInspection.appId, TimeUtils.getTimestampForFilename()));
 
+        if (adbOperateUtil != null && adbOperateUtil.isDeviceOnline(performanceInspection.deviceIdentifier)) {
+            // the App Summary is scanned as the output comes, so the parser doesn't read the file again
+            AndroidMemoryInfoResultParser.AppSummaryScanner scanner = new AndroidMemoryInfoResultParser.AppSummaryScanner();
+            boolean captured = ShellOutputFileReceiver.capture(adbOperateUtil, performanceInspection.deviceIdentifier,
+                    "dumpsys meminfo " + performanceInspection.appId, rawResultFile, scanner::onLine, classLogger);
+            PerformanceInspectionResult result = new PerformanceInspectionResult(rawResultFile, performanceInspection);
+            if (captured) {
+                result.capturedData = scanner.getValues();
+            }
+            return result;
+        }
+
         ShellUtils.execLocalCommandWithResult(String.format(getMemInfoCommand(),
                 performanceInspection.deviceIdentifier, performanceInspection.appId, rawResultFile.getAbsolutePath()), classLogger);
         return new PerformanceInspectionResult(rawResultFile, performanceInspection);
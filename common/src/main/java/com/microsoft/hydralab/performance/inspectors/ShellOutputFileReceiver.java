@@ -0,0 +1,61 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.hydralab.performance.inspectors;
+
+import com.microsoft.hydralab.common.logger.MultiLineNoCancelReceiver;
+import com.microsoft.hydralab.common.util.ADBOperateUtil;
+import org.slf4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.function.Consumer;
+
+/**
+ * Writes the output of a device shell command to the raw result file and gives each line to a consumer as it comes,
+ * the lines are kept untrimmed so the parsers can rely on the column alignment.
+ */
+class ShellOutputFileReceiver extends MultiLineNoCancelReceiver {
+    static final long MAX_TIME_TO_OUTPUT_RESPONSE_MILLIS = 30000;
+    private final BufferedWriter writer;
+    private final Consumer<String> lineConsumer;
+
+    ShellOutputFileReceiver(BufferedWriter writer, Consumer<String> lineConsumer) {
+        this.writer = writer;
+        this.lineConsumer = lineConsumer;
+        setTrimLine(false);
+    }
+
+    @Override
+    public void processNewLines(String[] lines) {
+        for (String line : lines) {
+            try {
+                writer.write(line);
+                writer.newLine();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            lineConsumer.accept(line);
+        }
+    }
+
+    /**
+     * Run the command over the adb server connection of the device, no local process is started.
+     *
+     * @return false if the command failed, the raw result file may then be incomplete
+     */
+    static boolean capture(ADBOperateUtil adbOperateUtil, String serialNum, String command, File rawResultFile, Consumer<String> lineConsumer, Logger logger) {
+        try (BufferedWriter writer = Files.newBufferedWriter(rawResultFile.toPath(), StandardCharsets.UTF_8)) {
+            ShellOutputFileReceiver receiver = new ShellOutputFileReceiver(writer, lineConsumer);
+            adbOperateUtil.executeShellCommandOnDevice(serialNum, command, receiver, MAX_TIME_TO_OUTPUT_RESPONSE_MILLIS);
+            receiver.flush();
+            return true;
+        } catch (Exception e) {
+            logger.error("Failed to run {} on {}: {}", command, serialNum, e.getMessage());
+            return false;
+        }
+    }
+}
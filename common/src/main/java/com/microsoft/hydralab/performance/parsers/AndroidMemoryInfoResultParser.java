@@ -1,11 +1,10 @@
 package com.microsoft.hydralab.performance.parsers;
 
-import com.google.common.base.Strings;
 import com.microsoft.hydralab.performance.PerformanceInspectionResult;
-import com.microsoft.hydralab.performance.PerformanceResultParser;
+import com.microsoft.hydralab.performance.PerformanceMetricSummary;
 import com.microsoft.hydralab.performance.PerformanceTestResult;
+import com.microsoft.hydralab.performance.StreamingPerformanceResultParser;
 import com.microsoft.hydralab.performance.entity.AndroidMemoryInfo;
-import org.apache.commons.lang3.math.NumberUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,11 +14,19 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
-public class AndroidMemoryInfoResultParser implements PerformanceResultParser {
+public class AndroidMemoryInfoResultParser implements StreamingPerformanceResultParser {
     private static final int MEM_INFO_LENGTH = 19;
+    // the metric names follow the index mapping of AndroidMemoryInfo
+    private static final String[] METRIC_NAMES = {
+            "javaHeapPss", "javaHeapRss", "nativeHeapPss", "nativeHeapRss", "codePss", "codeRss", "stackPss", "stackRss",
+            "graphicsPss", "graphicsRss", "privateOtherPss", "privateOtherRss", "systemPss", "systemRss", "unknownPss", "unknownRss",
+            "totalPss", "totalRss", "totalSwapPss"
+    };
+    private static final String TOTAL_PSS_LABEL = "TOTAL PSS:";
+    private static final String TOTAL_RSS_LABEL = "TOTAL RSS:";
+    private static final String TOTAL_SWAP_PSS_LABEL = "TOTAL SWAP PSS:";
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private static final Map<String, Integer> MEMORY_FILE_TO_DB_INDEX_MAP = new HashMap<>() {
         {
@@ -40,53 +47,45 @@ public class AndroidMemoryInfoResultParser implements PerformanceResultParser {
                 || performanceTestResult.performanceInspectionResults.isEmpty()) {
             return null;
         }
-        List<PerformanceInspectionResult> inspectionResults = performanceTestResult.performanceInspectionResults;
-        double[] averageMemoryInfo = new double[MEM_INFO_LENGTH];
-        Arrays.fill(averageMemoryInfo, 0.0);
-        int validDataSize = 0;
-        for (PerformanceInspectionResult inspectionResult : inspectionResults) {
-            File logFile = inspectionResult.rawResultFile;
-            long[] memInfos = parseRawResultFile(logFile);
-            inspectionResult.parsedData = buildMemoryInfo(inspectionResult.inspection.appId, inspectionResult.inspection.description, inspectionResult.timestamp, memInfos);
-            if (isValidMem(memInfos)) {
-                updateAverageMem(averageMemoryInfo, memInfos, validDataSize);
-                validDataSize++;
+        for (PerformanceInspectionResult inspectionResult : performanceTestResult.performanceInspectionResults) {
+            // the results of the run are parsed as they are captured, only the ones added by other ways are left
+            if (!(inspectionResult.parsedData instanceof AndroidMemoryInfo)) {
+                parseInspectionResult(performanceTestResult, inspectionResult);
             }
         }
 
-        performanceTestResult.setResultSummary(buildAverageMemoryInfo(averageMemoryInfo, inspectionResults.get(0)));
+        performanceTestResult.setResultSummary(buildAverageMemoryInfo(performanceTestResult, performanceTestResult.performanceInspectionResults.get(0)));
 
         return performanceTestResult;
     }
 
-    private void updateAverageMem(double[] averageMemoryInfo, long[] memInfoArray, int index) {
-        if (memInfoArray == null) {
+    @Override
+    public void parseInspectionResult(PerformanceTestResult performanceTestResult, PerformanceInspectionResult inspectionResult) {
+        if (inspectionResult == null) {
             return;
         }
-        for (int i = 0; i < MEM_INFO_LENGTH; i++) {
-            averageMemoryInfo[i] = averageMemoryInfo[i] * index / (index + 1) + (double) memInfoArray[i] / (index + 1);
-        }
-    }
-
-    private boolean isValidMem(long[] memInfo) {
-        if (memInfo == null) {
-            return false;
+        // the inspector may have scanned the values while capturing the output
+        long[] memInfos = inspectionResult.capturedData instanceof long[] ? (long[]) inspectionResult.capturedData : parseRawResultFile(inspectionResult.rawResultFile);
+        inspectionResult.capturedData = null;
+        inspectionResult.parsedData = buildMemoryInfo(inspectionResult.inspection.appId, inspectionResult.inspection.description, inspectionResult.timestamp, memInfos);
+        if (memInfos == null) {
+            return;
         }
-
-        for (long i : memInfo) {
-            if (i != -1) {
-                return true;
+        for (int i = 0; i < MEM_INFO_LENGTH; i++) {
+            if (memInfos[i] != -1) {
+                performanceTestResult.getMetricSummary(METRIC_NAMES[i]).add(memInfos[i]);
             }
         }
-        return false;
     }
 
-    private AndroidMemoryInfo buildAverageMemoryInfo(double[] averageMemoryInfo, PerformanceInspectionResult inspectionResult) {
-        long[] averageMemoryInfoLong = new long[averageMemoryInfo.length];
-        for (int i = 0; i < averageMemoryInfo.length; i++) {
-            averageMemoryInfoLong[i] = Math.round(averageMemoryInfo[i]);
+    private AndroidMemoryInfo buildAverageMemoryInfo(PerformanceTestResult performanceTestResult, PerformanceInspectionResult inspectionResult) {
+        Map<String, PerformanceMetricSummary> metricSummaries = performanceTestResult.getMetricSummaries();
+        long[] averageMemoryInfo = new long[MEM_INFO_LENGTH];
+        for (int i = 0; i < MEM_INFO_LENGTH; i++) {
+            PerformanceMetricSummary metricSummary = metricSummaries.get(METRIC_NAMES[i]);
+            averageMemoryInfo[i] = metricSummary == null ? -1 : Math.round(metricSummary.getAverage());
         }
-        return buildMemoryInfo(inspectionResult.inspection.appId, inspectionResult.inspection.description, inspectionResult.timestamp, averageMemoryInfoLong);
+        return buildMemoryInfo(inspectionResult.inspection.appId, inspectionResult.inspection.description, inspectionResult.timestamp, averageMemoryInfo);
     }
 
     private AndroidMemoryInfo buildMemoryInfo(String packageName, String description, long timestamp, long[] memInfos) {
@@ -119,67 +118,144 @@ public class AndroidMemoryInfoResultParser implements PerformanceResultParser {
         return androidMemoryInfo;
     }
 
-    private long[] parseRawResultFile(File rawFile) {
+    long[] parseRawResultFile(File rawFile) {
+        AppSummaryScanner scanner = new AppSummaryScanner();
         String line;
-        long[] memoryValueArr = new long[MEM_INFO_LENGTH];
-        Arrays.fill(memoryValueArr, -1);
         try (BufferedReader bufferedReader = new BufferedReader(new FileReader(rawFile))) {
-            while ((line = bufferedReader.readLine()) != null) {
-                if (line.trim().startsWith("App Summary")) {
-                    // PSS title line, used to anchor target index offset
-                    line = bufferedReader.readLine();
-                    int pssEndOffset = line.indexOf(")");
-                    int rssEndOffset = line.lastIndexOf(")");
-
-                    // move to data line
-                    bufferedReader.readLine();
-                    line = bufferedReader.readLine();
-                    while (line != null) {
-                        String lineStr = line.trim();
-
-                        if (lineStr.startsWith("TOTAL ")) {
-                            if (line.contains("TOTAL PSS:")) {
-                                String pssValue = line.split("TOTAL PSS:")[1].split(" +")[1];
-                                memoryValueArr[16] = NumberUtils.toLong(pssValue, -1);
-                            }
-                            if (line.contains("TOTAL RSS:")) {
-                                String rssValue = line.split("TOTAL RSS:")[1].split(" +")[1];
-                                memoryValueArr[17] = NumberUtils.toLong(rssValue, -1);
-                            }
-                            if (line.contains("TOTAL SWAP PSS:")) {
-                                memoryValueArr[18] = NumberUtils.toLong(line.split("TOTAL SWAP PSS:")[1].split(" +")[1], -1);
-                            }
-                            break;
-                        } else if (!Strings.isNullOrEmpty(lineStr)) {
-                            String[] keyValue = lineStr.split(":");
-                            String key = keyValue[0];
-                            String values = keyValue[1];
-
-                            // int in map to calculate offset in memoryValueArr array (typeIndex * 2 +0/+1 (implies PSS/RSS correspondingly))
-                            int typeIndex = MEMORY_FILE_TO_DB_INDEX_MAP.get(key);
-
-                            // for current memory type, PSS data exists
-                            if (line.charAt(pssEndOffset) != ' ') {
-                                memoryValueArr[typeIndex * 2] = NumberUtils.toLong(values.split(" +")[1]);
-
-                                // for current memory type, RSS data exists
-                                if (line.length() > rssEndOffset && line.charAt(rssEndOffset) != ' ') {
-                                    memoryValueArr[typeIndex * 2 + 1] = NumberUtils.toLong(values.split(" +")[2]);
-                                }
-                            } else if (line.length() > rssEndOffset && line.charAt(rssEndOffset) != ' ') {
-                                // for current memory type PSS data doesn't exist and RSS data exists
-                                memoryValueArr[typeIndex * 2 + 1] = NumberUtils.toLong(values.split(" +")[1]);
-                            }
-                        }
-
-                        line = bufferedReader.readLine();
-                    }
-                }
+            while (!scanner.isDone() && (line = bufferedReader.readLine()) != null) {
+                scanner.onLine(line);
             }
         } catch (IOException e) {
             logger.error(e.getMessage(), e);
             return null;
         }
-        return memoryValueArr;
+        return scanner.getValues();
+    }
+
+    /**
+     * Reads the values of the App Summary section of dumpsys meminfo line by line, a value is -1 if it is missing.
+     * The lines are scanned by hand, a value is PSS or RSS depending on whether it is right aligned to the PSS or RSS header,
+     * so the lines must be given untrimmed.
+     */
+    public static class AppSummaryScanner {
+        private static final int SEEK_SUMMARY = 0;
+        private static final int READ_HEADER = 1;
+        private static final int SKIP_SEPARATOR = 2;
+        private static final int READ_DATA = 3;
+        private static final int DONE = 4;
+        private final long[] memoryValueArr = new long[MEM_INFO_LENGTH];
+        private int state = SEEK_SUMMARY;
+        private int pssEndOffset;
+        private int rssEndOffset;
+
+        public AppSummaryScanner() {
+            Arrays.fill(memoryValueArr, -1);
+        }
+
+        public void onLine(String line) {
+            switch (state) {
+                case SEEK_SUMMARY:
+                    if (startsWithAfterBlanks(line, "App Summary")) {
+                        state = READ_HEADER;
+                    }
+                    break;
+                case READ_HEADER:
+                    // PSS title line, used to anchor target index offset
+                    pssEndOffset = line.indexOf(')');
+                    rssEndOffset = line.lastIndexOf(')');
+                    state = SKIP_SEPARATOR;
+                    break;
+                case SKIP_SEPARATOR:
+                    state = READ_DATA;
+                    break;
+                case READ_DATA:
+                    if (startsWithAfterBlanks(line, "TOTAL ")) {
+                        memoryValueArr[16] = parseValueAfter(line, TOTAL_PSS_LABEL);
+                        memoryValueArr[17] = parseValueAfter(line, TOTAL_RSS_LABEL);
+                        memoryValueArr[18] = parseValueAfter(line, TOTAL_SWAP_PSS_LABEL);
+                        state = DONE;
+                    } else {
+                        parseDataLine(line);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        public boolean isDone() {
+            return state == DONE;
+        }
+
+        public long[] getValues() {
+            return memoryValueArr;
+        }
+
+        private void parseDataLine(String line) {
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                return;
+            }
+            int keyStart = 0;
+            while (keyStart < colon && line.charAt(keyStart) == ' ') {
+                keyStart++;
+            }
+            Integer typeIndex = MEMORY_FILE_TO_DB_INDEX_MAP.get(line.substring(keyStart, colon));
+            if (typeIndex == null) {
+                return;
+            }
+            // offset in memoryValueArr array is typeIndex * 2 +0/+1 (implies PSS/RSS correspondingly)
+            int index = colon + 1;
+            int length = line.length();
+            while (index < length) {
+                char c = line.charAt(index);
+                if (c < '0' || c > '9') {
+                    index++;
+                    continue;
+                }
+                long value = 0;
+                int valueStart = index;
+                while (index < length && (c = line.charAt(index)) >= '0' && c <= '9') {
+                    value = value * 10 + (c - '0');
+                    index++;
+                }
+                int valueEnd = index - 1;
+                if (valueStart <= pssEndOffset && pssEndOffset <= valueEnd) {
+                    memoryValueArr[typeIndex * 2] = value;
+                } else if (valueStart <= rssEndOffset && rssEndOffset <= valueEnd) {
+                    memoryValueArr[typeIndex * 2 + 1] = value;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number following the label and blanks, or -1 if there is none
+     */
+    private static long parseValueAfter(String line, String label) {
+        int index = line.indexOf(label);
+        if (index < 0) {
+            return -1;
+        }
+        index += label.length();
+        int length = line.length();
+        while (index < length && line.charAt(index) == ' ') {
+            index++;
+        }
+        long value = -1;
+        char c;
+        while (index < length && (c = line.charAt(index)) >= '0' && c <= '9') {
+            value = (value < 0 ? 0 : value * 10) + (c - '0');
+            index++;
+        }
+        return value;
+    }
+
+    private static boolean startsWithAfterBlanks(String line, String prefix) {
+        int index = 0;
+        while (index < line.length() && Character.isWhitespace(line.charAt(index))) {
+            index++;
+        }
+        return line.startsWith(prefix, index);
     }
 }
@@ -0,0 +1,37 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.hydralab.common.logger.impl;
+
+import com.microsoft.hydralab.common.entity.common.AndroidTestUnit;
+import com.microsoft.hydralab.common.entity.common.DeviceInfo;
+import com.microsoft.hydralab.common.entity.common.TestRun;
+import com.microsoft.hydralab.common.test.BaseTest;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class ADBLogcatCollectorTest extends BaseTest {
+    private static final String CRASH = "E AndroidRuntime: java.lang.NullPointerException\n";
+
+    @Test
+    void crashIsGivenToRunningTestUnit() {
+        DeviceInfo deviceInfo = new DeviceInfo();
+        deviceInfo.setSerialNum("SERIAL");
+        TestRun testRun = new TestRun("SERIAL", "Pixel", "task_0");
+        ADBLogcatCollector collector = new ADBLogcatCollector(null, deviceInfo, "com.example.app", testRun, logger);
+
+        AndroidTestUnit endedUnit = new AndroidTestUnit();
+        testRun.addNewTestUnit(endedUnit);
+        endedUnit.setEndTimeMillis(System.currentTimeMillis());
+        collector.onCrash(CRASH);
+        Assertions.assertNull(endedUnit.getCrashStack(), "A crash after the end of the case should not be given to it");
+
+        AndroidTestUnit runningUnit = new AndroidTestUnit();
+        testRun.addNewTestUnit(runningUnit);
+        collector.onCrash(CRASH);
+        collector.onCrash(CRASH);
+
+        Assertions.assertEquals(CRASH + CRASH, runningUnit.getCrashStack());
+        Assertions.assertEquals(CRASH + CRASH + CRASH, testRun.getCrashStack());
+        Assertions.assertNotNull(testRun.getCrashStackId());
+    }
+}
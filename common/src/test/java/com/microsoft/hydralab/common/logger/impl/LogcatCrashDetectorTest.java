@@ -0,0 +1,56 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.hydralab.common.logger.impl;
+
+import com.microsoft.hydralab.common.test.BaseTest;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class LogcatCrashDetectorTest extends BaseTest {
+    private final List<String> crashes = new ArrayList<>();
+    private final LogcatCrashDetector crashDetector = new LogcatCrashDetector("com.example.app", crashes::add);
+
+    @Test
+    void detectCrashWhenItEnds() {
+        crashDetector.onLine("01-01 10:00:00.000  1000  1000 I ActivityManager: Start proc com.example.app");
+        crashDetector.onLine("--------- beginning of crash");
+        crashDetector.onLine("01-01 10:00:01.000  2000  2000 E AndroidRuntime: FATAL EXCEPTION: main");
+        crashDetector.onLine("01-01 10:00:01.000  2000  2000 E AndroidRuntime: Process: com.example.app, PID: 2000");
+        Assertions.assertTrue(crashes.isEmpty(), "The crash is given once it ends");
+
+        crashDetector.onLine("01-01 10:00:02.000  1000  1000 I ActivityManager: Process com.example.app has died");
+        Assertions.assertEquals(1, crashes.size());
+        Assertions.assertEquals("01-01 10:00:01.000  2000  2000 E AndroidRuntime: FATAL EXCEPTION: main\n"
+                + "<b>01-01 10:00:01.000  2000  2000 E AndroidRuntime: Process: com.example.app, PID: 2000</b>\n", crashes.get(0));
+    }
+
+    @Test
+    void detectEachCrashOfTheLog() {
+        for (int i = 0; i < 3; i++) {
+            crashDetector.onLine("01-01 10:00:01.000  2000  2000 E AndroidRuntime: FATAL EXCEPTION: main");
+            crashDetector.onLine("01-01 10:00:01.000  2000  2000 E AndroidRuntime: java.lang.NullPointerException");
+            crashDetector.onLine("01-01 10:00:02.000  1000  1000 D Test: running");
+        }
+        Assertions.assertEquals(3, crashes.size());
+        for (String crash : crashes) {
+            Assertions.assertEquals("01-01 10:00:01.000  2000  2000 E AndroidRuntime: java.lang.NullPointerException\n", crash);
+        }
+    }
+
+    @Test
+    void flushCrashAtTheEndOfLog() {
+        crashDetector.onLine("--------- beginning of crash");
+        for (int i = 0; i < LogcatCrashDetector.MAX_CRASH_LINES * 2; i++) {
+            crashDetector.onLine("01-01 10:00:01.000  2000  2000 F libc: Fatal signal 11");
+        }
+        crashDetector.flush();
+        Assertions.assertEquals(1, crashes.size());
+        Assertions.assertEquals(LogcatCrashDetector.MAX_CRASH_LINES, crashes.get(0).split("\n").length, "The lines of a crash should be capped");
+
+        crashDetector.flush();
+        Assertions.assertEquals(1, crashes.size());
+    }
+}
@@ -0,0 +1,137 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.hydralab.common.management.listener.impl;
+
+import com.microsoft.hydralab.common.entity.common.DeviceInfo;
+import com.microsoft.hydralab.common.util.GlobalConstant;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class DeviceStabilityMonitorTest {
+    private static final int THRESHOLD = 12;
+    private static final long WINDOW_MINUTES = 5;
+    private static final long RECOVERY_MINUTES = 10;
+    private final AtomicLong now = new AtomicLong(1_700_000_000_000L);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private DeviceStabilityMonitor monitor;
+
+    @BeforeEach
+    public void setUp() {
+        monitor = new DeviceStabilityMonitor(now::get);
+        monitor.setDeviceStateChangeThreshold(THRESHOLD);
+        monitor.setDeviceStateChangeWindowTime(WINDOW_MINUTES);
+        monitor.setDeviceStateChangeRecoveryTime(RECOVERY_MINUTES);
+        monitor.setMeterRegistry(meterRegistry);
+    }
+
+    @Test
+    public void testFlappingDevice_RecoverAfterRecoveryTime() {
+        DeviceInfo deviceInfo = newDevice("flapping");
+        for (int i = 0; i <= THRESHOLD; i++) {
+            flap(deviceInfo, i % 2 == 0);
+            advance(TimeUnit.SECONDS.toMillis(1));
+        }
+        Assertions.assertEquals(DeviceInfo.UNSTABLE, deviceInfo.getStatus());
+        Assertions.assertEquals(THRESHOLD + 1, meterRegistry.get(GlobalConstant.PROMETHEUS_METRIC_DEVICE_STATE_CHANGE_TIMES).gauge().value());
+
+        // a change during the count down pushes the recovery back
+        advance(TimeUnit.MINUTES.toMillis(RECOVERY_MINUTES) / 2);
+        flap(deviceInfo, true);
+        advance(TimeUnit.MINUTES.toMillis(RECOVERY_MINUTES) / 2 + TimeUnit.SECONDS.toMillis(1));
+        Assertions.assertEquals(DeviceInfo.UNSTABLE, deviceInfo.getStatus());
+
+        advance(TimeUnit.MINUTES.toMillis(RECOVERY_MINUTES) / 2);
+        Assertions.assertEquals(DeviceInfo.ONLINE, deviceInfo.getStatus());
+        Assertions.assertEquals(0, meterRegistry.get(GlobalConstant.PROMETHEUS_METRIC_DEVICE_STATE_CHANGE_TIMES).gauge().value());
+    }
+
+    @Test
+    public void testStableDevice_DropOutdatedChanges() {
+        DeviceInfo deviceInfo = newDevice("stable");
+        for (int i = 0; i < THRESHOLD * 3; i++) {
+            flap(deviceInfo, i % 2 == 0);
+            advance(TimeUnit.MINUTES.toMillis(1));
+        }
+        Assertions.assertEquals(DeviceInfo.OFFLINE, deviceInfo.getStatus());
+        Assertions.assertEquals(WINDOW_MINUTES, meterRegistry.get(GlobalConstant.PROMETHEUS_METRIC_DEVICE_STATE_CHANGE_TIMES).gauge().value());
+    }
+
+    @Test
+    public void testDeviceChurn_BoundedWindowsAndMetrics() {
+        int deviceCount = 5000;
+        int meterCountPerDevice = 6;
+        for (int round = 0; round < 3; round++) {
+            DeviceInfo[] devices = new DeviceInfo[deviceCount];
+            for (int i = 0; i < deviceCount; i++) {
+                devices[i] = newDevice("churn-" + round + "-" + i);
+            }
+            // every device flaps well over the threshold then leaves
+            for (int change = 0; change < THRESHOLD * 4; change++) {
+                for (DeviceInfo deviceInfo : devices) {
+                    flap(deviceInfo, change % 2 == 0);
+                }
+                advance(TimeUnit.SECONDS.toMillis(1));
+            }
+            for (DeviceInfo deviceInfo : devices) {
+                flap(deviceInfo, false);
+            }
+            Assertions.assertEquals(deviceCount, monitor.getDeviceStateChangeWindows().size());
+            Assertions.assertEquals(deviceCount * meterCountPerDevice, meterRegistry.getMeters().size());
+            for (DeviceStateChangeWindow window : monitor.getDeviceStateChangeWindows().values()) {
+                Assertions.assertTrue(window.size() <= window.capacity());
+                Assertions.assertEquals(THRESHOLD + 1, window.capacity());
+            }
+            Assertions.assertTrue(monitor.getTimerWheel().size() <= deviceCount);
+
+            advance(TimeUnit.MINUTES.toMillis(Math.max(WINDOW_MINUTES, RECOVERY_MINUTES)) + TimeUnit.SECONDS.toMillis(1));
+            Assertions.assertEquals(0, monitor.getDeviceStateChangeWindows().size(), "Left devices should be forgotten");
+            Assertions.assertEquals(0, meterRegistry.getMeters().size(), "Metrics of left devices should be removed");
+            Assertions.assertEquals(0, monitor.getTimerWheel().size());
+        }
+    }
+
+    @Test
+    public void testDeviceBackAfterLeaving_RegisterMetricsAgain() {
+        DeviceInfo deviceInfo = newDevice("back");
+        flap(deviceInfo, false);
+        advance(TimeUnit.MINUTES.toMillis(RECOVERY_MINUTES) + TimeUnit.SECONDS.toMillis(1));
+        Assertions.assertTrue(meterRegistry.getMeters().isEmpty());
+
+        flap(deviceInfo, true);
+        Assertions.assertEquals(1, meterRegistry.get(GlobalConstant.PROMETHEUS_METRIC_TEST_DEVICE_ALIVE_SIGNAL).gauge().value());
+        advance(TimeUnit.MINUTES.toMillis(RECOVERY_MINUTES) * 2);
+        Assertions.assertEquals(1, monitor.getDeviceStateChangeWindows().size(), "An online device should be kept");
+    }
+
+    private DeviceInfo newDevice(String serialNum) {
+        DeviceInfo deviceInfo = new DeviceInfo();
+        deviceInfo.setSerialNum(serialNum);
+        deviceInfo.setStatus(DeviceInfo.ONLINE);
+        return deviceInfo;
+    }
+
+    private void flap(DeviceInfo deviceInfo, boolean online) {
+        if (!deviceInfo.isUnstable()) {
+            deviceInfo.setStatus(online ? DeviceInfo.ONLINE : DeviceInfo.OFFLINE);
+        }
+        if (online) {
+            monitor.onDeviceConnected(deviceInfo);
+        } else {
+            monitor.onDeviceInactive(deviceInfo);
+        }
+    }
+
+    // moves the clock forward tick by tick as the timer thread would
+    private void advance(long millis) {
+        long end = now.get() + millis;
+        while (now.get() < end) {
+            now.set(Math.min(end, now.get() + DeviceStabilityMonitor.TIMER_TICK_MILLIS));
+            monitor.advanceTimer();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.hydralab.common.performance;
+
+import com.microsoft.hydralab.performance.PerformanceInspection;
+import com.microsoft.hydralab.performance.PerformanceInspectionResult;
+import com.microsoft.hydralab.performance.PerformanceMetricSummary;
+import com.microsoft.hydralab.performance.PerformanceTestResult;
+import com.microsoft.hydralab.performance.entity.AndroidMemoryInfo;
+import com.microsoft.hydralab.performance.parsers.AndroidMemoryInfoResultParser;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+
+public class AndroidMemoryInfoResultParserTest {
+    public static final String MEMORY_FILE_PATH = "src/test/resources/sample_memory_info_android.txt";
+    private final PerformanceInspection inspection = PerformanceInspection.createAndroidMemoryInfoInspection("com.microsoft.appmanager", "", "sample test", false);
+
+    @Test
+    public void testParseWithNull_ReturnNull() {
+        Assertions.assertNull(new AndroidMemoryInfoResultParser().parse(null));
+    }
+
+    @Test
+    public void testParseAppSummary() {
+        PerformanceTestResult performanceTestResult = new PerformanceTestResult();
+        performanceTestResult.performanceInspectionResults.add(new PerformanceInspectionResult(new File(MEMORY_FILE_PATH), inspection));
+        PerformanceTestResult parsedResult = new AndroidMemoryInfoResultParser().parse(performanceTestResult);
+
+        AndroidMemoryInfo memoryInfo = (AndroidMemoryInfo) parsedResult.performanceInspectionResults.get(0).parsedData;
+        Assertions.assertEquals(5972, memoryInfo.getJavaHeapPss());
+        Assertions.assertEquals(20432, memoryInfo.getJavaHeapRss());
+        Assertions.assertEquals(10288, memoryInfo.getNativeHeapPss());
+        Assertions.assertEquals(1544, memoryInfo.getPrivateOtherPss());
+        Assertions.assertEquals(-1, memoryInfo.getPrivateOtherRss());
+        Assertions.assertEquals(-1, memoryInfo.getUnknownPss());
+        Assertions.assertEquals(1868, memoryInfo.getUnknownRss());
+        Assertions.assertEquals(27395, memoryInfo.getTotalPss());
+        Assertions.assertEquals(63388, memoryInfo.getTotalRss());
+        Assertions.assertEquals(44, memoryInfo.getTotalSwapPss());
+
+        AndroidMemoryInfo summary = (AndroidMemoryInfo) parsedResult.getResultSummary();
+        Assertions.assertEquals(27395, summary.getTotalPss());
+        Assertions.assertEquals(-1, summary.getUnknownPss());
+    }
+
+    @Test
+    public void testParseEachResultAsCaptured() {
+        AndroidMemoryInfoResultParser parser = new AndroidMemoryInfoResultParser();
+        PerformanceTestResult performanceTestResult = new PerformanceTestResult();
+        int sampleCount = PerformanceTestResult.MAX_KEPT_PARSED_RESULTS * 3;
+        for (int i = 0; i < sampleCount; i++) {
+            PerformanceInspectionResult inspectionResult = new PerformanceInspectionResult(new File(MEMORY_FILE_PATH), inspection, i);
+            parser.parseInspectionResult(performanceTestResult, inspectionResult);
+            performanceTestResult.addParsedInspectionResult(inspectionResult);
+        }
+
+        Assertions.assertEquals(sampleCount, performanceTestResult.getParsedResultCount());
+        Assertions.assertTrue(performanceTestResult.performanceInspectionResults.size() < PerformanceTestResult.MAX_KEPT_PARSED_RESULTS);
+        Assertions.assertEquals(0, performanceTestResult.performanceInspectionResults.get(0).timestamp, "The first result should be kept");
+        long stride = performanceTestResult.performanceInspectionResults.get(1).timestamp;
+        for (int i = 1; i < performanceTestResult.performanceInspectionResults.size(); i++) {
+            Assertions.assertEquals(i * stride, performanceTestResult.performanceInspectionResults.get(i).timestamp, "The kept results should be evenly spread");
+        }
+
+        PerformanceMetricSummary totalPss = performanceTestResult.getMetricSummary("totalPss");
+        Assertions.assertEquals(sampleCount, totalPss.getCount());
+        Assertions.assertEquals(27395, totalPss.getMin());
+        Assertions.assertEquals(27395, totalPss.getMax());
+        Assertions.assertEquals(27395, totalPss.getP90());
+        Assertions.assertFalse(performanceTestResult.getMetricSummaries().containsKey("unknownPss"));
+
+        parser.parse(performanceTestResult);
+        Assertions.assertEquals(27395, ((AndroidMemoryInfo) performanceTestResult.getResultSummary()).getTotalPss());
+        Assertions.assertEquals(sampleCount, totalPss.getCount(), "The results parsed as captured should not be parsed again");
+    }
+}
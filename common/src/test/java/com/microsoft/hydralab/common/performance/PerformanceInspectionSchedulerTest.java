@@ -0,0 +1,78 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.hydralab.common.performance;
+
+import com.microsoft.hydralab.performance.PerformanceInspectionScheduler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PerformanceInspectionSchedulerTest {
+    private final ScheduledExecutorService timerExecutor = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService inspectionExecutor = Executors.newCachedThreadPool();
+    private final PerformanceInspectionScheduler scheduler = new PerformanceInspectionScheduler(timerExecutor, inspectionExecutor);
+
+    @AfterEach
+    public void tearDown() {
+        timerExecutor.shutdownNow();
+        inspectionExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testSlowInspection_CountMissedDeadlines() throws InterruptedException {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        PerformanceInspectionScheduler.ScheduledInspection slowInspection = scheduler.scheduleAtFixedRate(() -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            sleep(50);
+            running.decrementAndGet();
+        }, 10, TimeUnit.MILLISECONDS);
+        AtomicInteger fastInspectionCount = new AtomicInteger();
+        PerformanceInspectionScheduler.ScheduledInspection fastInspection = scheduler.scheduleAtFixedRate(fastInspectionCount::incrementAndGet, 10, TimeUnit.MILLISECONDS);
+
+        Thread.sleep(500);
+        slowInspection.cancel(1, TimeUnit.SECONDS);
+        fastInspection.cancel(1, TimeUnit.SECONDS);
+
+        Assertions.assertEquals(1, maxRunning.get(), "An inspection should not run again before it ends");
+        Assertions.assertTrue(scheduler.getMissedDeadlineCount() > 0);
+        Assertions.assertTrue(fastInspectionCount.get() > 20, "A slow inspection should not delay the others");
+    }
+
+    @Test
+    public void testCancel_WaitForRunningInspection() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicInteger startedCount = new AtomicInteger();
+        AtomicInteger endedCount = new AtomicInteger();
+        PerformanceInspectionScheduler.ScheduledInspection inspection = scheduler.scheduleAtFixedRate(() -> {
+            startedCount.incrementAndGet();
+            started.countDown();
+            sleep(200);
+            endedCount.incrementAndGet();
+        }, 10, TimeUnit.MILLISECONDS);
+
+        Assertions.assertTrue(started.await(1, TimeUnit.SECONDS));
+        inspection.cancel(1, TimeUnit.SECONDS);
+        Assertions.assertTrue(inspection.isCancelled());
+        Assertions.assertEquals(startedCount.get(), endedCount.get(), "The running inspection should end before cancel returns");
+
+        int countAfterCancel = startedCount.get();
+        Thread.sleep(100);
+        Assertions.assertEquals(countAfterCancel, startedCount.get(), "No inspection should start after cancel");
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
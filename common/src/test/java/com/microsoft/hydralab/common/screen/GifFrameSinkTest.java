@@ -0,0 +1,84 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+
+package com.microsoft.hydralab.common.screen;
+
+import com.microsoft.hydralab.common.test.BaseTest;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+class GifFrameSinkTest extends BaseTest {
+    @TempDir
+    File tempDir;
+
+    @Test
+    void dropFramesWhenEncodingFallsBehind() throws Exception {
+        // the encoding tasks are held until the test runs them, like a busy encoder
+        List<Runnable> encodeTasks = new ArrayList<>();
+        GifFrameSink gifFrameSink = new GifFrameSink(2, encodeTasks::add);
+        File gifFile = new File(tempDir, "run.gif");
+        Assertions.assertTrue(gifFrameSink.start(gifFile, 1000));
+
+        Assertions.assertTrue(gifFrameSink.offer(createFrame(0xff0000)));
+        Assertions.assertTrue(gifFrameSink.offer(createFrame(0x00ff00)));
+        Assertions.assertFalse(gifFrameSink.offer(createFrame(0x0000ff)), "The frame should be dropped when the queue is full");
+        Assertions.assertEquals(2, gifFrameSink.getFrameCount());
+        Assertions.assertEquals(1, gifFrameSink.getDroppedFrameCount());
+        Assertions.assertEquals(1, encodeTasks.size(), "One encoding task drains the queue");
+
+        encodeTasks.get(0).run();
+        Assertions.assertTrue(gifFrameSink.offer(createFrame(0x0000ff)));
+        gifFrameSink.finish();
+        Assertions.assertFalse(gifFrameSink.offer(createFrame(0xffffff)), "No frame should be taken after finish");
+
+        Assertions.assertEquals(3, countFrames(gifFile));
+    }
+
+    @Test
+    void encodeFramesInBackground() throws Exception {
+        GifFrameSink gifFrameSink = new GifFrameSink();
+        File gifFile = new File(tempDir, "run.gif");
+        Assertions.assertTrue(gifFrameSink.start(gifFile, 1000));
+        int accepted = 0;
+        for (int i = 0; i < 50; i++) {
+            if (gifFrameSink.offer(createFrame(i * 0x050505))) {
+                accepted++;
+            }
+        }
+        gifFrameSink.finish();
+
+        Assertions.assertEquals(accepted, gifFrameSink.getFrameCount());
+        Assertions.assertEquals(accepted, countFrames(gifFile));
+        BufferedImage firstFrame = ImageIO.read(gifFile);
+        Assertions.assertEquals(32, firstFrame.getWidth());
+    }
+
+    private static BufferedImage createFrame(int rgb) {
+        BufferedImage frame = new BufferedImage(32, 48, BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < frame.getHeight(); y++) {
+            for (int x = 0; x < frame.getWidth(); x++) {
+                frame.setRGB(x, y, rgb);
+            }
+        }
+        return frame;
+    }
+
+    private static int countFrames(File gifFile) throws Exception {
+        try (ImageInputStream input = ImageIO.createImageInputStream(gifFile)) {
+            ImageReader reader = ImageIO.getImageReadersBySuffix("gif").next();
+            reader.setInput(input);
+            int count = reader.getNumImages(true);
+            reader.dispose();
+            return count;
+        }
+    }
+}
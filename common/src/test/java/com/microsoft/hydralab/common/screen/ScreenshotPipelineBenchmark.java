@@ -0,0 +1,69 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+
+package com.microsoft.hydralab.common.screen;
+
+import cn.hutool.core.img.ImgUtil;
+import com.android.ddmlib.RawImage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the screenshot pipeline with the former per pixel conversion on a 1440p screenshot, JPEG encoding is left out of both.
+ * Run the main method from the test classpath, add "-prof gc" to the options to see the allocation rate of each.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScreenshotPipelineBenchmark {
+    private RawImage rawImage;
+    private ScreenshotPipeline screenshotPipeline;
+
+    @Setup
+    public void setUp() {
+        rawImage = ScreenshotPipelineTest.createRgba8888Image(1440, 2560);
+        screenshotPipeline = new ScreenshotPipeline();
+    }
+
+    @Benchmark
+    public BufferedImage perPixelConversion() {
+        BufferedImage image = new BufferedImage(rawImage.width, rawImage.height, BufferedImage.TYPE_INT_ARGB);
+        int index = 0;
+        int indexInc = rawImage.bpp >> 3;
+        for (int y = 0; y < rawImage.height; y++) {
+            for (int x = 0; x < rawImage.width; x++) {
+                int value = rawImage.getARGB(index) | 0xff000000;
+                index += indexInc;
+                image.setRGB(x, y, value);
+            }
+        }
+        BufferedImage thumbnail = ImgUtil.toBufferedImage(ImgUtil.scale(image, ScreenshotPipeline.THUMBNAIL_SCALE));
+        return ImgUtil.toBufferedImage(ImgUtil.scale(thumbnail, ScreenshotPipeline.GIF_FRAME_SCALE));
+    }
+
+    @Benchmark
+    public BufferedImage screenshotPipeline() {
+        return screenshotPipeline.render(rawImage);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ScreenshotPipelineBenchmark.class.getSimpleName()).build()).run();
+    }
+}
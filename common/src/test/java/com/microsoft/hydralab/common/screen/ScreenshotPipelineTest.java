@@ -0,0 +1,111 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+
+package com.microsoft.hydralab.common.screen;
+
+import com.android.ddmlib.RawImage;
+import com.microsoft.hydralab.common.test.BaseTest;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+class ScreenshotPipelineTest extends BaseTest {
+    private static final int RED = 0xff0000;
+    private static final int BLUE = 0x0000ff;
+    @TempDir
+    File tempDir;
+
+    @Test
+    void renderThumbnailAndGifFrame() {
+        ScreenshotPipeline screenshotPipeline = new ScreenshotPipeline();
+        BufferedImage gifFrame = screenshotPipeline.render(createRgba8888Image(100, 200));
+        BufferedImage thumbnail = screenshotPipeline.getThumbnail();
+
+        Assertions.assertEquals(70, thumbnail.getWidth());
+        Assertions.assertEquals(140, thumbnail.getHeight());
+        Assertions.assertEquals(21, gifFrame.getWidth());
+        Assertions.assertEquals(42, gifFrame.getHeight());
+        Assertions.assertEquals(BufferedImage.TYPE_3BYTE_BGR, gifFrame.getType(), "The GIF encoder takes BGR frames without converting them");
+        // the upper half of the screen is red and the lower half is blue
+        Assertions.assertEquals(RED, thumbnail.getRGB(10, 10) & 0xffffff);
+        Assertions.assertEquals(BLUE, thumbnail.getRGB(60, 130) & 0xffffff);
+        Assertions.assertEquals(RED, gifFrame.getRGB(5, 5) & 0xffffff);
+        Assertions.assertEquals(BLUE, gifFrame.getRGB(15, 40) & 0xffffff);
+    }
+
+    @Test
+    void reuseThumbnailOfSameSize() {
+        ScreenshotPipeline screenshotPipeline = new ScreenshotPipeline();
+        screenshotPipeline.render(createRgba8888Image(100, 200));
+        BufferedImage thumbnail = screenshotPipeline.getThumbnail();
+        screenshotPipeline.render(createRgba8888Image(100, 200));
+        Assertions.assertSame(thumbnail, screenshotPipeline.getThumbnail());
+
+        // rotated screen
+        BufferedImage gifFrame = screenshotPipeline.render(createRgba8888Image(200, 100));
+        Assertions.assertEquals(140, screenshotPipeline.getThumbnail().getWidth());
+        Assertions.assertEquals(42, gifFrame.getWidth());
+    }
+
+    @Test
+    void renderRgb565LikeDdmlib() {
+        RawImage rawImage = new RawImage();
+        rawImage.bpp = 16;
+        rawImage.width = 10;
+        rawImage.height = 10;
+        rawImage.size = rawImage.width * rawImage.height * 2;
+        rawImage.data = new byte[rawImage.size];
+        for (int i = 0; i < rawImage.size; i += 2) {
+            // pure green in RGB565
+            rawImage.data[i] = (byte) 0xe0;
+            rawImage.data[i + 1] = (byte) 0x07;
+        }
+
+        ScreenshotPipeline screenshotPipeline = new ScreenshotPipeline(1f, 1f);
+        screenshotPipeline.render(rawImage);
+        Assertions.assertEquals(rawImage.getARGB(0) & 0xffffff, screenshotPipeline.getThumbnail().getRGB(3, 3) & 0xffffff);
+    }
+
+    @Test
+    void captureToJpeg() throws Exception {
+        File thumbnailFile = new File(tempDir, "screenshot.jpg");
+        new ScreenshotPipeline().capture(createRgba8888Image(100, 200), thumbnailFile);
+
+        BufferedImage thumbnail = ImageIO.read(thumbnailFile);
+        Assertions.assertEquals(70, thumbnail.getWidth());
+        Assertions.assertEquals(140, thumbnail.getHeight());
+    }
+
+    static RawImage createRgba8888Image(int width, int height) {
+        RawImage rawImage = new RawImage();
+        rawImage.version = 1;
+        rawImage.bpp = 32;
+        rawImage.width = width;
+        rawImage.height = height;
+        rawImage.size = width * height * 4;
+        rawImage.red_offset = 0;
+        rawImage.red_length = 8;
+        rawImage.green_offset = 8;
+        rawImage.green_length = 8;
+        rawImage.blue_offset = 16;
+        rawImage.blue_length = 8;
+        rawImage.alpha_offset = 24;
+        rawImage.alpha_length = 8;
+        rawImage.data = new byte[rawImage.size];
+        for (int y = 0; y < height; y++) {
+            int color = y < height / 2 ? RED : BLUE;
+            for (int x = 0; x < width; x++) {
+                int index = (y * width + x) * 4;
+                rawImage.data[index] = (byte) (color >> 16);
+                rawImage.data[index + 1] = (byte) (color >> 8);
+                rawImage.data[index + 2] = (byte) color;
+                rawImage.data[index + 3] = (byte) 0xff;
+            }
+        }
+        return rawImage;
+    }
+}
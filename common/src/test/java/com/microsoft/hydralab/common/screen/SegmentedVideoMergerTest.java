@@ -0,0 +1,179 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+
+package com.microsoft.hydralab.common.screen;
+
+import com.microsoft.hydralab.common.test.BaseTest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+class SegmentedVideoMergerTest extends BaseTest {
+    @TempDir
+    File tempDir;
+    private ExecutorService executor;
+    private FakeVideoTool videoTool;
+
+    @BeforeEach
+    void setUp() {
+        // several threads, so only the chaining keeps the segments in order
+        executor = Executors.newFixedThreadPool(3);
+        videoTool = new FakeVideoTool();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void appendSegmentsInOrder() throws IOException {
+        SegmentedVideoMerger merger = new SegmentedVideoMerger(tempDir, logger, executor, videoTool);
+        File first = createSegment("1");
+        merger.append(() -> {
+            // the first segment is fetched slower than the next ones
+            sleep(200);
+            return first;
+        });
+        File second = createSegment("2");
+        merger.append(() -> second);
+        File third = createSegment("3");
+        merger.append(() -> third);
+
+        File mergedVideo = merger.finish(5000);
+
+        Assertions.assertNotNull(mergedVideo);
+        Assertions.assertEquals("123", read(mergedVideo));
+        Assertions.assertFalse(new File(tempDir, "merged_segments.ts").exists());
+        Assertions.assertFalse(first.exists(), "The merged segments should be deleted");
+        Assertions.assertTrue(videoTool.concatenated.isEmpty());
+    }
+
+    @Test
+    void skipFailingSegment() throws IOException {
+        SegmentedVideoMerger merger = new SegmentedVideoMerger(tempDir, logger, executor, videoTool);
+        File first = createSegment("1");
+        merger.append(() -> first);
+        merger.append(() -> {
+            throw new IllegalStateException("Failed to pull the segment");
+        });
+        File third = createSegment("3");
+        merger.append(() -> third);
+
+        File mergedVideo = merger.finish(5000);
+
+        Assertions.assertNotNull(mergedVideo);
+        Assertions.assertEquals("13", read(mergedVideo), "The segments after the failing one should still be appended");
+    }
+
+    @Test
+    void concatSegmentsWhenRemuxFails() throws IOException {
+        videoTool.remuxToMp4Result = false;
+        SegmentedVideoMerger merger = new SegmentedVideoMerger(tempDir, logger, executor, videoTool);
+        File first = createSegment("1");
+        merger.append(() -> first);
+        File second = createSegment("2");
+        merger.append(() -> second);
+
+        File mergedVideo = merger.finish(5000);
+
+        Assertions.assertEquals(videoTool.concatOutput, mergedVideo);
+        Assertions.assertEquals(Arrays.asList(first, second), videoTool.concatenated);
+        Assertions.assertFalse(new File(tempDir, "merged_segments.ts").exists(), "The merged stream should be deleted");
+        Assertions.assertFalse(first.exists(), "The concatenated segments should be deleted");
+        Assertions.assertFalse(second.exists());
+    }
+
+    @Test
+    void keepSegmentsWhenConcatFails() throws IOException {
+        videoTool.remuxToMp4Result = false;
+        videoTool.concatResult = false;
+        SegmentedVideoMerger merger = new SegmentedVideoMerger(tempDir, logger, executor, videoTool);
+        File first = createSegment("1");
+        merger.append(() -> first);
+
+        Assertions.assertNull(merger.finish(5000));
+        Assertions.assertTrue(first.exists(), "The segments should be kept when there is no merged video");
+    }
+
+    private File createSegment(String content) throws IOException {
+        File segment = new File(tempDir, "segment_" + content + ".mp4");
+        Files.write(segment.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return segment;
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Copies the files instead of calling ffmpeg, so the merged video is the segment contents in the merged order.
+     */
+    private static class FakeVideoTool implements SegmentedVideoMerger.VideoTool {
+        private final List<File> concatenated = new ArrayList<>();
+        private boolean remuxToMp4Result = true;
+        private boolean concatResult = true;
+        private File concatOutput;
+
+        @Override
+        public boolean remuxToTransportStream(File video, File transportStream, Logger logger) {
+            copy(video, transportStream);
+            return true;
+        }
+
+        @Override
+        public boolean remuxToMp4(File transportStream, File video, Logger logger) {
+            if (!remuxToMp4Result) {
+                return false;
+            }
+            copy(transportStream, video);
+            return true;
+        }
+
+        @Override
+        public File concatVideos(List<File> videos, File outputDir, Logger logger) {
+            concatenated.addAll(videos);
+            if (!concatResult) {
+                return null;
+            }
+            concatOutput = new File(outputDir, "concat.mp4");
+            try {
+                Files.write(concatOutput.toPath(), new byte[0]);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return concatOutput;
+        }
+
+        private static void copy(File from, File to) {
+            try {
+                Files.copy(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
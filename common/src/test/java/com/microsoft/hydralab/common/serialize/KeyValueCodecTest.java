@@ -0,0 +1,71 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.hydralab.common.serialize;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+public class KeyValueCodecTest {
+    private final KeyValueCodec codec = new KeyValueCodec();
+
+    @Test
+    public void testCrashStack_CompressedAndRestored() {
+        String crashStack = newCrashStack(20).replace("\n", "<br>");
+
+        String encoded = codec.encode(crashStack);
+
+        Assertions.assertTrue(KeyValueCodec.isEncoded(encoded));
+        Assertions.assertTrue(encoded.length() * 5 < crashStack.length(), "Repeated frames should be stored once: " + encoded.length() + " of " + crashStack.length());
+        Assertions.assertEquals(crashStack, codec.decode(encoded));
+    }
+
+    @Test
+    public void testJsonWithEscapedStack_Restored() {
+        String json = "{\"id\":\"unit_0\",\"stack\":\"" + newCrashStack(3).replace("\t", "\\t").replace("\n", "\\n") + "\",\"title\":\"\u6d4b\u8bd5 \u2713\"}";
+
+        Assertions.assertEquals(json, codec.decode(codec.encode(json)));
+    }
+
+    @Test
+    public void testShortAndSavedBeforeValues_KeptAsIs() {
+        String shortValue = "[{\"testStart\":1200}]";
+        Assertions.assertSame(shortValue, codec.encode(shortValue));
+        Assertions.assertNull(codec.encode(null));
+        Assertions.assertNull(codec.decode(null));
+
+        String savedBefore = newCrashStack(2);
+        Assertions.assertEquals(savedBefore, codec.decode(savedBefore));
+    }
+
+    @Test
+    public void testValueLikeEncoded_AlwaysEncoded() {
+        String value = KeyValueCodec.PREFIX + "not encoded";
+
+        String encoded = codec.encode(value);
+
+        Assertions.assertNotEquals(value, encoded);
+        Assertions.assertEquals(value, codec.decode(encoded));
+    }
+
+    @Test
+    public void testSplitFrames_KeepSeparators() {
+        Assertions.assertEquals(Arrays.asList("a<br>", "b\\n", "c\n", "d"), KeyValueCodec.splitFrames("a<br>b\\nc\nd"));
+        Assertions.assertEquals(Arrays.asList("a\n", "\n"), KeyValueCodec.splitFrames("a\n\n"));
+    }
+
+    private static String newCrashStack(int causeCount) {
+        StringBuilder stack = new StringBuilder("java.lang.IllegalStateException: test failed\n");
+        for (int cause = 0; cause < causeCount; cause++) {
+            if (cause > 0) {
+                stack.append("Caused by: java.lang.RuntimeException: cause ").append(cause).append('\n');
+            }
+            for (int frame = 0; frame < 30; frame++) {
+                stack.append("\tat com.microsoft.hydralab.sample.Component").append(frame)
+                        .append(".run(Component").append(frame).append(".java:").append(frame * 7 + 3).append(")\n");
+            }
+        }
+        return stack.toString();
+    }
+}
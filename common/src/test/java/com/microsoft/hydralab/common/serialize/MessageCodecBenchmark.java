@@ -0,0 +1,101 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+
+package com.microsoft.hydralab.common.serialize;
+
+import com.microsoft.hydralab.common.entity.common.AgentMetadata;
+import com.microsoft.hydralab.common.entity.common.AgentUser;
+import com.microsoft.hydralab.common.entity.common.DeviceInfo;
+import com.microsoft.hydralab.common.entity.common.Message;
+import com.microsoft.hydralab.common.util.Const;
+import com.microsoft.hydralab.common.util.SerializeUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares encoding and decoding of a heartbeat and of a device list of 100 devices with each codec.
+ * Run the main method from the test classpath, add "-prof gc" to the options to see the bytes allocated per message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageCodecBenchmark {
+    @Param({"json-gzip", "binary"})
+    private String codecName;
+    private MessageCodec codec;
+    private Message heartbeat;
+    private Message deviceList;
+    private byte[] heartbeatFrame;
+    private byte[] deviceListFrame;
+
+    @Setup
+    public void setUp() {
+        codec = SerializeUtil.getCodecByName(codecName);
+
+        AgentUser agentUser = new AgentUser();
+        agentUser.setName("Agent Name");
+        agentUser.setTeamName("Team Name");
+        AgentMetadata agentMetadata = new AgentMetadata();
+        agentMetadata.setAgentUser(agentUser);
+        agentMetadata.setStorageType("LOCAL");
+        heartbeat = Message.ok(Const.Path.HEARTBEAT, agentMetadata);
+
+        List<DeviceInfo> devices = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            DeviceInfo deviceInfo = new DeviceInfo();
+            deviceInfo.setSerialNum("SERIAL" + i);
+            deviceInfo.setName("Device " + i);
+            deviceInfo.setModel("Pixel 7");
+            deviceInfo.setOsVersion("13");
+            deviceInfo.setStatus(DeviceInfo.ONLINE);
+            devices.add(deviceInfo);
+        }
+        deviceList = Message.ok(Const.Path.DEVICE_LIST, devices);
+
+        heartbeatFrame = codec.encode(heartbeat);
+        deviceListFrame = codec.encode(deviceList);
+    }
+
+    @Benchmark
+    public byte[] encodeHeartbeat() {
+        return codec.encode(heartbeat);
+    }
+
+    @Benchmark
+    public Message decodeHeartbeat() {
+        return codec.decode(heartbeatFrame);
+    }
+
+    @Benchmark
+    public byte[] encodeDeviceList() {
+        return codec.encode(deviceList);
+    }
+
+    @Benchmark
+    public Message decodeDeviceList() {
+        return codec.decode(deviceListFrame);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MessageCodecBenchmark.class.getSimpleName()).build()).run();
+    }
+}
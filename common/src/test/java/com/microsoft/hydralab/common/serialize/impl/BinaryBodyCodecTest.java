@@ -0,0 +1,85 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.hydralab.common.serialize.impl;
+
+import com.alibaba.fastjson.JSONObject;
+import com.microsoft.hydralab.common.entity.common.EntityType;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class BinaryBodyCodecTest {
+    private static final int TAG_STRING = 7;
+    private static final int TAG_ENUM = 9;
+    private static final int TAG_BYTES = 10;
+    private static final int TAG_LIST = 11;
+    private static final int TAG_JSON_OBJECT = 14;
+    private static final int TAG_JSON_ARRAY = 15;
+    private static final int TAG_BEAN = 16;
+
+    @Test
+    public void testBeanOutsideEntityPackage_Rejected() throws IOException {
+        BodyBuilder body = new BodyBuilder().tag(TAG_BEAN).varInt(0).varInt(0)
+                .string("com.microsoft.hydralab.common.util.ThreadPoolUtil").varInt(0);
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> BinaryBodyCodec.decode(body.toByteArray()));
+    }
+
+    @Test
+    public void testLengthBeyondBody_Rejected() throws IOException {
+        byte[][] bodies = {
+                new BodyBuilder().tag(TAG_BYTES).varInt(Integer.MAX_VALUE).toByteArray(),
+                new BodyBuilder().tag(TAG_STRING).varInt(1 << 30).string("short").toByteArray(),
+                new BodyBuilder().tag(TAG_LIST).varInt(1_000_000).tag(TAG_STRING).string("one").toByteArray(),
+                new BodyBuilder().tag(TAG_JSON_ARRAY).varInt(-1).toByteArray(),
+                new BodyBuilder().tag(TAG_BEAN).varInt(0).varInt(1).varInt(Integer.MAX_VALUE).toByteArray()
+        };
+        for (byte[] body : bodies) {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> BinaryBodyCodec.decode(body));
+        }
+    }
+
+    @Test
+    public void testUnknownEnumConstant_ReadAsNull() throws IOException {
+        BodyBuilder body = new BodyBuilder().tag(TAG_JSON_OBJECT).varInt(2)
+                .string("type").tag(TAG_ENUM).string(EntityType.class.getName()).string("ADDED_BY_NEWER_AGENT")
+                .string("next").tag(TAG_STRING).string("value");
+
+        JSONObject decoded = (JSONObject) BinaryBodyCodec.decode(body.toByteArray());
+
+        Assertions.assertTrue(decoded.containsKey("type"));
+        Assertions.assertNull(decoded.get("type"));
+        Assertions.assertEquals("value", decoded.getString("next"), "The rest of the body should still be read");
+        Assertions.assertEquals(EntityType.SCREENSHOT, BinaryBodyCodec.decode(BinaryBodyCodec.encode(EntityType.SCREENSHOT)));
+    }
+
+    private static class BodyBuilder {
+        private final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(byteStream);
+
+        BodyBuilder tag(int tag) throws IOException {
+            out.writeByte(tag);
+            return this;
+        }
+
+        BodyBuilder varInt(int value) throws IOException {
+            BinaryBodyCodec.writeVarInt(out, value);
+            return this;
+        }
+
+        BodyBuilder string(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            BinaryBodyCodec.writeVarInt(out, bytes.length);
+            out.write(bytes);
+            return this;
+        }
+
+        byte[] toByteArray() {
+            return byteStream.toByteArray();
+        }
+    }
+}
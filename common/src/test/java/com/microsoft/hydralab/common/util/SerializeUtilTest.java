@@ -2,11 +2,24 @@ package com.microsoft.hydralab.common.util;
 
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
+import com.microsoft.hydralab.common.entity.common.AgentMetadata;
+import com.microsoft.hydralab.common.entity.common.AndroidTestUnit;
+import com.microsoft.hydralab.common.entity.common.DeviceAction;
+import com.microsoft.hydralab.common.entity.common.DeviceInfo;
 import com.microsoft.hydralab.common.entity.common.Message;
+import com.microsoft.hydralab.common.entity.common.TestRun;
+import com.microsoft.hydralab.common.entity.common.TestTask;
+import com.microsoft.hydralab.common.file.impl.local.LocalStorageToken;
+import com.microsoft.hydralab.common.serialize.impl.BinaryMessageCodec;
+import com.microsoft.hydralab.common.serialize.impl.JsonGzipMessageCodec;
 import com.microsoft.hydralab.common.test.BaseTest;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 
@@ -54,4 +67,116 @@ public class SerializeUtilTest extends BaseTest {
         Assertions.assertEquals(str1, str2, "Serialize error!");
         Assertions.assertEquals(str1, str3, "Serialize error!");
     }
-}
\ No newline at end of file
+
+    @Test
+    void binaryCodecRoundTrip() {
+        DeviceInfo deviceInfo = new DeviceInfo();
+        deviceInfo.setSerialNum("SERIAL");
+        deviceInfo.setStatus(DeviceInfo.ONLINE);
+        Message message = Message.ok(Const.Path.DEVICE_UPDATE, deviceInfo);
+        Map<String, Object> params = new HashMap<>();
+        params.put(Const.AgentConfig.MESSAGE_CODEC_PARAM, BinaryMessageCodec.NAME);
+        message.setParams(params);
+
+        byte[] byteMsg = SerializeUtil.messageToByteArr(message, SerializeUtil.BINARY_CODEC);
+        Message messageCopy = SerializeUtil.byteArrToMessage(byteMsg);
+        Assertions.assertEquals(message.getPath(), messageCopy.getPath(), "Transfer to message error!");
+        Assertions.assertEquals(message.getSessionId(), messageCopy.getSessionId(), "Transfer to message error!");
+        Assertions.assertEquals(BinaryMessageCodec.NAME, messageCopy.getParams().get(Const.AgentConfig.MESSAGE_CODEC_PARAM));
+        Assertions.assertTrue(messageCopy.getBody() instanceof DeviceInfo, "Body type is not restored!");
+        Assertions.assertEquals("SERIAL", ((DeviceInfo) messageCopy.getBody()).getSerialNum(), "Transfer to message error!");
+
+        JSONArray array = new JSONArray();
+        for (int i = 0; i < 100; i++) {
+            array.add(deviceInfo);
+        }
+        Message listMessage = new Message();
+        listMessage.setPath(Const.Path.DEVICE_LIST);
+        listMessage.setBody(new ArrayList<>(array));
+        Message listMessageCopy = SerializeUtil.byteArrToMessage(SerializeUtil.messageToByteArr(listMessage, SerializeUtil.BINARY_CODEC));
+        Assertions.assertTrue(listMessageCopy.getBody() instanceof JSONArray, "List body should be restored as JSONArray!");
+        Assertions.assertEquals(100, ((JSONArray) listMessageCopy.getBody()).toJavaList(DeviceInfo.class).size());
+    }
+
+    @Test
+    void negotiateCodec() {
+        Assertions.assertEquals(JsonGzipMessageCodec.NAME, SerializeUtil.negotiateCodec(null).getName());
+        Assertions.assertEquals(JsonGzipMessageCodec.NAME, SerializeUtil.negotiateCodec("unknown").getName());
+        Assertions.assertEquals(BinaryMessageCodec.NAME, SerializeUtil.negotiateCodec(SerializeUtil.getSupportedCodecNames()).getName());
+    }
+
+    @Test
+    void binaryCodecEntityBody() {
+        TestTask testTask = new TestTask();
+        testTask.setStatus(TestTask.TestStatus.FINISHED);
+        testTask.setTotalTestCount(2);
+        testTask.agentIds.add("agent_0");
+        testTask.getDeviceActions().put("setUp", List.of(new DeviceAction("Android", "changeGlobalSetting")));
+        TestRun testRun = new TestRun("SERIAL", "Pixel", testTask.getId());
+        testRun.setSuccess(true);
+        testRun.getVideoTimeTagArr().add(new JSONObject().fluentPut("tag", "start"));
+        for (int i = 0; i < 2; i++) {
+            AndroidTestUnit testUnit = new AndroidTestUnit();
+            testUnit.setTestName("test" + i);
+            testUnit.setStartTimeMillis(-i);
+            testUnit.setDeviceTestTask(testRun);
+            testRun.getTestUnitList().add(testUnit);
+        }
+        testTask.getDeviceTestResults().add(testRun);
+
+        Message messageCopy = SerializeUtil.byteArrToMessage(SerializeUtil.messageToByteArr(Message.ok(Const.Path.TEST_TASK_UPDATE, testTask), SerializeUtil.BINARY_CODEC));
+        TestTask testTaskCopy = (TestTask) messageCopy.getBody();
+        Assertions.assertEquals(testTask.getId(), testTaskCopy.getId());
+        Assertions.assertEquals(TestTask.TestStatus.FINISHED, testTaskCopy.getStatus());
+        Assertions.assertEquals(testTask.getStartDate(), testTaskCopy.getStartDate());
+        Assertions.assertEquals(testTask.agentIds, testTaskCopy.agentIds);
+        Assertions.assertEquals("changeGlobalSetting", testTaskCopy.getDeviceActions().get("setUp").get(0).getMethod());
+        TestRun testRunCopy = testTaskCopy.getDeviceTestResults().get(0);
+        Assertions.assertTrue(testRunCopy.isSuccess());
+        Assertions.assertEquals("start", testRunCopy.getVideoTimeTagArr().getJSONObject(0).getString("tag"));
+        Assertions.assertEquals(2, testRunCopy.getTestUnitList().size());
+        Assertions.assertEquals("test1", testRunCopy.getTestUnitList().get(1).getTestName());
+        Assertions.assertEquals(-1, testRunCopy.getTestUnitList().get(1).getStartTimeMillis());
+        Assertions.assertSame(testRunCopy, testRunCopy.getTestUnitList().get(0).getDeviceTestTask(), "Back reference should point to the restored run");
+    }
+
+    @Test
+    void binaryCodecInterfaceTypedField() {
+        LocalStorageToken token = new LocalStorageToken();
+        token.setToken("token");
+        token.setEndpoint("http://localhost");
+        AgentMetadata agentMetadata = new AgentMetadata();
+        agentMetadata.setAccessToken(token);
+        agentMetadata.setStorageType("LOCAL");
+        JSONObject data = new JSONObject();
+        data.put("count", 3L);
+        data.put("device", new JSONObject().fluentPut("serialNum", "SERIAL"));
+
+        AgentMetadata agentMetadataCopy = (AgentMetadata) SerializeUtil.byteArrToMessage(
+                SerializeUtil.messageToByteArr(Message.ok(Const.Path.HEARTBEAT, agentMetadata), SerializeUtil.BINARY_CODEC)).getBody();
+        Assertions.assertTrue(agentMetadataCopy.getAccessToken() instanceof LocalStorageToken);
+        Assertions.assertEquals("token", agentMetadataCopy.getAccessToken().getToken());
+        Assertions.assertEquals("LOCAL", agentMetadataCopy.getStorageType());
+
+        JSONObject dataCopy = (JSONObject) SerializeUtil.byteArrToMessage(
+                SerializeUtil.messageToByteArr(Message.ok(Const.Path.DEVICE_STATUS, data), SerializeUtil.BINARY_CODEC)).getBody();
+        Assertions.assertEquals(3L, dataCopy.getLongValue("count"));
+        Assertions.assertEquals("SERIAL", dataCopy.getJSONObject("device").getString("serialNum"));
+    }
+
+    @Test
+    void binaryCodecSmallerThanJson() {
+        List<DeviceInfo> devices = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            DeviceInfo deviceInfo = new DeviceInfo();
+            deviceInfo.setSerialNum("SERIAL" + i);
+            deviceInfo.setStatus(DeviceInfo.ONLINE);
+            deviceInfo.setModel("Pixel 7");
+            devices.add(deviceInfo);
+        }
+        Message message = Message.ok(Const.Path.DEVICE_LIST, devices);
+        byte[] binaryFrame = SerializeUtil.messageToByteArr(message, SerializeUtil.BINARY_CODEC);
+        byte[] jsonFrame = SerializeUtil.messageToByteArr(message, SerializeUtil.JSON_GZIP_CODEC);
+        Assertions.assertTrue(binaryFrame.length < jsonFrame.length, "Binary frame " + binaryFrame.length + " bytes, json-gzip frame " + jsonFrame.length + " bytes");
+    }
+}
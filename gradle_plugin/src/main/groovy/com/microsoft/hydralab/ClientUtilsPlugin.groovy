@@ -149,6 +149,9 @@ class ClientUtilsPlugin implements Plugin<Project> {
                     // add quotes back as quotes in gradle plugins will be replaced by blanks
                     testConfig.enableFailingTask = Boolean.parseBoolean(project.enableFailingTask)
                 }
+                if (project.hasProperty('subscribeTestStatus')) {
+                    testConfig.subscribeTestStatus = Boolean.parseBoolean(project.subscribeTestStatus)
+                }
 
                 requiredParamCheck(apiConfig, testConfig)
 
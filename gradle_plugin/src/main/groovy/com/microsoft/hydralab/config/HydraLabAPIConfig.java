@@ -17,6 +17,7 @@ public class HydraLabAPIConfig {
     public String generateAccessKeyAPIPath = "/api/deviceGroup/generate?deviceIdentifier=%s";
     public String runTestAPIPath = "/api/test/task/run/";
     public String testStatusAPIPath = "/api/test/task/";
+    public String testStatusEventsAPIPath = "/api/test/task/%s/events";
     public String cancelTestTaskAPIPath = "/api/test/task/cancel/%s?reason=%s";
     public String testPortalTaskInfoPath = "/portal/index.html?redirectUrl=/info/task/";
     public String testPortalTaskDeviceVideoPath = "/portal/index.html?redirectUrl=/info/videos/";
@@ -49,6 +50,10 @@ public class HydraLabAPIConfig {
         return String.format(Locale.US, "%s://%s%s%s%s", schema, host, contextPath, testStatusAPIPath, testTaskId);
     }
 
+    public String getTestStatusEventsUrl(String testTaskId) {
+        return String.format(Locale.US, "%s://%s%s%s", schema, host, contextPath, String.format(testStatusEventsAPIPath, testTaskId));
+    }
+
     public String getCancelTestTaskUrl() {
         return String.format(Locale.US, "%s://%s%s%s", schema, host, contextPath, cancelTestTaskAPIPath);
     }
@@ -49,6 +49,8 @@ public class TestConfig {
     public List<InspectionStrategy> inspectionStrategies = new ArrayList<>();
     public String inspectionStrategiesStr = "";
     public boolean enableFailingTask = true;
+    // wait for the test task by the status events streamed by the center instead of polling the status
+    public boolean subscribeTestStatus = false;
 
     public void constructField(HashMap<String, Object> map) {
         Object queueTimeOutSeconds = map.get("queueTimeOutSeconds");
@@ -102,6 +104,7 @@ public class TestConfig {
                 "\tmaxStepCount=" + maxStepCount + "\n" +
                 "\ttestRound=" + testRound + "\n" +
                 "\tinspectionStrategiesStr=" + inspectionStrategiesStr + "\n" +
-                "\tenableFailingTask=" + enableFailingTask;
+                "\tenableFailingTask=" + enableFailingTask + "\n" +
+                "\tsubscribeTestStatus=" + subscribeTestStatus;
     }
 }
@@ -0,0 +1,34 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.hydralab.entity;
+
+import com.google.gson.JsonObject;
+
+/**
+ * A status event of a test task streamed by the center, the data is null for heartbeats.
+ */
+public class TestTaskEvent {
+    public String name;
+    public JsonObject data;
+
+    public TestTaskEvent(String name, JsonObject data) {
+        this.name = name;
+        this.data = data;
+    }
+
+    @Override
+    public String toString() {
+        return "TestTaskEvent{" +
+                "name='" + name + '\'' +
+                ", data=" + data +
+                '}';
+    }
+
+    public interface EventName {
+        String QUEUE = "queue";
+        String DEVICE = "device";
+        String DEVICE_RESULT = "deviceResult";
+        String TASK = "task";
+        String HEARTBEAT = "heartbeat";
+    }
+}
@@ -12,6 +12,7 @@ import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -28,6 +29,11 @@ public class HydraLabAPIClient {
             .retryOnConnectionFailure(true)
             .build();
 
+    // the center sends a heartbeat every 15 seconds, a stream silent for longer than this is broken
+    private final OkHttpClient streamClient = client.newBuilder()
+            .readTimeout(60, TimeUnit.SECONDS)
+            .build();
+
     private final int httpFailureRetryTimes = 10;
 
     public void checkCenterAlive(HydraLabAPIConfig apiConfig) {
@@ -314,6 +320,71 @@ public class HydraLabAPIClient {
         }
     }
 
+    /**
+     * Reads the status events of the test task until the center ends the stream or the listener returns false.
+     *
+     * @return false if no event could be read, e.g. the center doesn't stream the status or the connection failed
+     */
+    public boolean subscribeTestStatus(HydraLabAPIConfig apiConfig, String testTaskId, TestTaskEventListener listener) {
+        Request req = new Request.Builder()
+                .addHeader("Authorization", "Bearer " + apiConfig.authToken)
+                .addHeader("Accept", "text/event-stream")
+                .url(apiConfig.getTestStatusEventsUrl(testTaskId))
+                .build();
+        Call call = streamClient.newCall(req);
+        try (Response response = call.execute()) {
+            ResponseBody body = response.body();
+            MediaType contentType = body == null ? null : body.contentType();
+            if (!response.isSuccessful() || contentType == null || !"event-stream".equals(contentType.subtype())) {
+                printlnf("##[warning]Subscribe test status failed\nHttp code: %d\nHttp message: %s", response.code(), response.message());
+                return false;
+            }
+            return readTestTaskEvents(new BufferedReader(body.charStream()), listener);
+        } catch (IOException e) {
+            printlnf("##[warning]Test status stream broken: %s", e.getMessage());
+            return false;
+        } finally {
+            call.cancel();
+        }
+    }
+
+    /**
+     * Parses the server-sent events, a comment line is passed on as a heartbeat.
+     */
+    static boolean readTestTaskEvents(BufferedReader reader, TestTaskEventListener listener) throws IOException {
+        boolean received = false;
+        String eventName = null;
+        StringBuilder data = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            TestTaskEvent event = null;
+            if (line.isEmpty()) {
+                if (data.length() > 0) {
+                    event = new TestTaskEvent(eventName == null ? "message" : eventName, GSON.fromJson(data.toString(), JsonObject.class));
+                }
+                eventName = null;
+                data.setLength(0);
+            } else if (line.startsWith(":")) {
+                event = new TestTaskEvent(TestTaskEvent.EventName.HEARTBEAT, null);
+            } else if (line.startsWith("event:")) {
+                eventName = line.substring("event:".length()).trim();
+            } else if (line.startsWith("data:")) {
+                if (data.length() > 0) {
+                    data.append('\n');
+                }
+                data.append(StringUtils.removeStart(line.substring("data:".length()), " "));
+            }
+            if (event == null) {
+                continue;
+            }
+            received = true;
+            if (!listener.onEvent(event)) {
+                break;
+            }
+        }
+        return received;
+    }
+
     public String getBlobSAS(HydraLabAPIConfig apiConfig) {
         Request req = new Request.Builder()
                 .addHeader("Authorization", "Bearer " + apiConfig.authToken)
@@ -389,4 +460,11 @@ public class HydraLabAPIClient {
             response.close();
         }
     }
+
+    public interface TestTaskEventListener {
+        /**
+         * @return false to stop reading the events
+         */
+        boolean onEvent(TestTaskEvent event);
+    }
 }
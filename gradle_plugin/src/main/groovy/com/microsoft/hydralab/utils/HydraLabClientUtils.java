@@ -23,6 +23,7 @@ public class HydraLabClientUtils {
     private static HydraLabAPIClient hydraLabAPIClient = new HydraLabAPIClient();
     private static final int waitStartSec = 30;
     private static final int minWaitFinishSec = 15;
+    private static final int maxStreamReconnectTimes = 10;
     private static boolean isTestResultFailed = false;
 
     public static void switchClientInstance(HydraLabAPIClient client) {
@@ -166,66 +167,18 @@ public class HydraLabClientUtils {
         String testTaskId = responseContent.getAsJsonObject("content").get("testTaskId").getAsString();
         printlnf("##[section]Triggered test task id: %s successful!", testTaskId);
 
-        int sleepSecond = testConfig.runTimeOutSeconds / 3;
-        int totalWaitSecond = 0;
-        boolean finished = false;
         TestTask runningTest = null;
-        int hydraRetryTime = 0;
-        String lastStatus = "";
-        String currentStatus = "";
-
-        while (!finished) {
-            if (TestTask.TestStatus.WAITING.equals(currentStatus)) {
-                if (totalWaitSecond > testConfig.queueTimeOutSeconds) {
-                    break;
-                }
-                printlnf("Get test status after queuing for %d seconds", totalWaitSecond);
-            } else if (TestTask.TestStatus.RUNNING.equals(currentStatus)) {
-                if (totalWaitSecond > testConfig.runTimeOutSeconds) {
-                    break;
-                }
-                printlnf("Get test status after running for %d seconds", totalWaitSecond);
-            }
-
-            runningTest = hydraLabAPIClient.getTestStatus(apiConfig, testTaskId);
-            printlnf("Current running test info: %s", runningTest.toString());
-            assertNotNull(runningTest, "testTask");
-
-            lastStatus = currentStatus;
-            currentStatus = runningTest.status;
-
-            if (hydraRetryTime != runningTest.retryTime) {
-                hydraRetryTime = runningTest.retryTime;
-                printlnf("##[command]Retrying to run task again, current waited second will be reset. current retryTime is: %d", hydraRetryTime);
-                totalWaitSecond = 0;
-                sleepSecond = testConfig.runTimeOutSeconds / 3;
-            }
-
-            if (TestTask.TestStatus.WAITING.equals(currentStatus)) {
-                printlnf("##[command]" + runningTest.message + " Start waiting: 30 seconds");
-                sleepIgnoreInterrupt(waitStartSec);
-                totalWaitSecond += waitStartSec;
-            } else {
-                if (TestTask.TestStatus.WAITING.equals(lastStatus)) {
-                    printlnf("##[command]Clear waiting time: %d", totalWaitSecond);
-                    totalWaitSecond = 0;
-                    sleepSecond = testConfig.runTimeOutSeconds / 3;
-                }
-                printlnf("##[command]Running test on %d device, status for now: %s", runningTest.testDevicesCount, currentStatus);
-                assertTrue(!TestTask.TestStatus.CANCELED.equals(currentStatus), "The test task is canceled", runningTest);
-                assertTrue(!TestTask.TestStatus.EXCEPTION.equals(currentStatus), "The test task is error", runningTest);
-                finished = TestTask.TestStatus.FINISHED.equals(currentStatus);
-                if (finished) {
-                    break;
-                }
-                // using ##[command] as a highlight indicator
-                printlnf("##[command]Start waiting: %d seconds", sleepSecond);
-                sleepIgnoreInterrupt(sleepSecond);
-                totalWaitSecond += sleepSecond;
-                // binary wait with min boundary
-                sleepSecond = Math.max(sleepSecond / 2, minWaitFinishSec);
+        if (testConfig.subscribeTestStatus) {
+            runningTest = waitTestTaskBySubscription(apiConfig, testConfig, testTaskId);
+            if (runningTest == null) {
+                printlnf("##[warning]Test status streaming is not available, fall back to polling the test status");
             }
         }
+        if (runningTest == null) {
+            runningTest = waitTestTaskByPolling(apiConfig, testConfig, testTaskId);
+        }
+        String currentStatus = runningTest.status;
+        boolean finished = TestTask.TestStatus.FINISHED.equals(currentStatus);
 
         if (TestTask.TestStatus.WAITING.equals(currentStatus)) {
             hydraLabAPIClient.cancelTestTask(apiConfig, testTaskId, "Queue timeout!");
@@ -337,6 +290,104 @@ public class HydraLabClientUtils {
         displayFinalTestState(testConfig.enableFailingTask);
     }
 
+    private static TestTask waitTestTaskByPolling(HydraLabAPIConfig apiConfig, TestConfig testConfig, String testTaskId) {
+        int sleepSecond = testConfig.runTimeOutSeconds / 3;
+        int totalWaitSecond = 0;
+        boolean finished = false;
+        TestTask runningTest = null;
+        int hydraRetryTime = 0;
+        String lastStatus = "";
+        String currentStatus = "";
+
+        while (!finished) {
+            if (TestTask.TestStatus.WAITING.equals(currentStatus)) {
+                if (totalWaitSecond > testConfig.queueTimeOutSeconds) {
+                    break;
+                }
+                printlnf("Get test status after queuing for %d seconds", totalWaitSecond);
+            } else if (TestTask.TestStatus.RUNNING.equals(currentStatus)) {
+                if (totalWaitSecond > testConfig.runTimeOutSeconds) {
+                    break;
+                }
+                printlnf("Get test status after running for %d seconds", totalWaitSecond);
+            }
+
+            runningTest = hydraLabAPIClient.getTestStatus(apiConfig, testTaskId);
+            printlnf("Current running test info: %s", runningTest.toString());
+            assertNotNull(runningTest, "testTask");
+
+            lastStatus = currentStatus;
+            currentStatus = runningTest.status;
+
+            if (hydraRetryTime != runningTest.retryTime) {
+                hydraRetryTime = runningTest.retryTime;
+                printlnf("##[command]Retrying to run task again, current waited second will be reset. current retryTime is: %d", hydraRetryTime);
+                totalWaitSecond = 0;
+                sleepSecond = testConfig.runTimeOutSeconds / 3;
+            }
+
+            if (TestTask.TestStatus.WAITING.equals(currentStatus)) {
+                printlnf("##[command]" + runningTest.message + " Start waiting: 30 seconds");
+                sleepIgnoreInterrupt(waitStartSec);
+                totalWaitSecond += waitStartSec;
+            } else {
+                if (TestTask.TestStatus.WAITING.equals(lastStatus)) {
+                    printlnf("##[command]Clear waiting time: %d", totalWaitSecond);
+                    totalWaitSecond = 0;
+                    sleepSecond = testConfig.runTimeOutSeconds / 3;
+                }
+                printlnf("##[command]Running test on %d device, status for now: %s", runningTest.testDevicesCount, currentStatus);
+                assertTrue(!TestTask.TestStatus.CANCELED.equals(currentStatus), "The test task is canceled", runningTest);
+                assertTrue(!TestTask.TestStatus.EXCEPTION.equals(currentStatus), "The test task is error", runningTest);
+                finished = TestTask.TestStatus.FINISHED.equals(currentStatus);
+                if (finished) {
+                    break;
+                }
+                // using ##[command] as a highlight indicator
+                printlnf("##[command]Start waiting: %d seconds", sleepSecond);
+                sleepIgnoreInterrupt(sleepSecond);
+                totalWaitSecond += sleepSecond;
+                // binary wait with min boundary
+                sleepSecond = Math.max(sleepSecond / 2, minWaitFinishSec);
+            }
+        }
+        return runningTest;
+    }
+
+    /**
+     * Waits for the test task by the status events streamed by the center, the stream is opened again if it breaks.
+     * The test detail is requested once, when the task ends or a timeout is reached.
+     *
+     * @return null if the center doesn't stream the status, the caller is expected to poll the status instead
+     */
+    private static TestTask waitTestTaskBySubscription(HydraLabAPIConfig apiConfig, TestConfig testConfig, String testTaskId) {
+        TestTaskEventTracker tracker = new TestTaskEventTracker(testConfig);
+        int reconnectRetry = maxStreamReconnectTimes;
+        while (!tracker.ended && !tracker.timeout) {
+            hydraLabAPIClient.subscribeTestStatus(apiConfig, testTaskId, tracker);
+            if (tracker.ended || tracker.timeout) {
+                break;
+            }
+            if (tracker.eventCount == 0 || reconnectRetry <= 0) {
+                return null;
+            }
+            printlnf("##[warning]Test status stream ended before the test task, reconnect, remaining retry times: %d", reconnectRetry);
+            reconnectRetry--;
+        }
+
+        String currentStatus = tracker.status;
+        if (tracker.timeout) {
+            printlnf("##[command]Timeout reached while the test status is %s", currentStatus);
+        } else {
+            assertTrue(!TestTask.TestStatus.CANCELED.equals(currentStatus), "The test task is canceled", tracker.lastTaskData);
+            assertTrue(!TestTask.TestStatus.EXCEPTION.equals(currentStatus), "The test task is error", tracker.lastTaskData);
+        }
+        TestTask runningTest = hydraLabAPIClient.getTestStatus(apiConfig, testTaskId);
+        assertNotNull(runningTest, "testTask");
+        printlnf("Current running test info: %s", runningTest.toString());
+        return runningTest;
+    }
+
     private static void markTestResultFail() {
         isTestResultFailed = true;
     }
@@ -411,4 +462,98 @@ public class HydraLabClientUtils {
             return regEx;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Follows the status events of a test task, and stops the stream when the task ends or the queue/run timeout is reached.
+     */
+    static class TestTaskEventTracker implements HydraLabAPIClient.TestTaskEventListener {
+        private final TestConfig testConfig;
+        private long phaseStartMillis = System.currentTimeMillis();
+        private int retryTime = 0;
+        int eventCount = 0;
+        String status = "";
+        JsonObject lastTaskData;
+        boolean ended = false;
+        boolean timeout = false;
+
+        TestTaskEventTracker(TestConfig testConfig) {
+            this.testConfig = testConfig;
+        }
+
+        @Override
+        public boolean onEvent(TestTaskEvent event) {
+            eventCount++;
+            JsonObject data = event.data;
+            if (TestTaskEvent.EventName.QUEUE.equals(event.name)) {
+                updateStatus(TestTask.TestStatus.WAITING, data);
+                printlnf("##[command]Current position in queue: %d", getInt(data, "position"));
+            } else if (TestTaskEvent.EventName.TASK.equals(event.name)) {
+                lastTaskData = data;
+                updateStatus(getString(data, "status"), data);
+                printlnf("##[command]Test task status: %s, devices count: %d", status, getInt(data, "testDevicesCount"));
+                if (TestTask.TestStatus.FINISHED.equals(status)
+                        || TestTask.TestStatus.CANCELED.equals(status)
+                        || TestTask.TestStatus.EXCEPTION.equals(status)) {
+                    ended = true;
+                    return false;
+                }
+            } else if (TestTaskEvent.EventName.DEVICE.equals(event.name)) {
+                printlnf("##[command]Device %s status: %s", getString(data, "deviceSerialNumber"), getString(data, "status"));
+            } else if (TestTaskEvent.EventName.DEVICE_RESULT.equals(event.name)) {
+                printDeviceResult(data);
+            }
+
+            long waitedSecond = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - phaseStartMillis);
+            if (TestTask.TestStatus.WAITING.equals(status)) {
+                timeout = waitedSecond > testConfig.queueTimeOutSeconds;
+            } else if (TestTask.TestStatus.RUNNING.equals(status)) {
+                timeout = waitedSecond > testConfig.runTimeOutSeconds;
+            }
+            return !timeout;
+        }
+
+        private void updateStatus(String newStatus, JsonObject data) {
+            if (data.has("retryTime") && getInt(data, "retryTime") != retryTime) {
+                retryTime = getInt(data, "retryTime");
+                printlnf("##[command]Retrying to run task again, current waited second will be reset. current retryTime is: %d", retryTime);
+                phaseStartMillis = System.currentTimeMillis();
+            }
+            if (TestTask.TestStatus.WAITING.equals(status) && !TestTask.TestStatus.WAITING.equals(newStatus)) {
+                printlnf("##[command]Clear waiting time: %d", TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - phaseStartMillis));
+                phaseStartMillis = System.currentTimeMillis();
+            }
+            status = newStatus;
+        }
+
+        private void printDeviceResult(JsonObject data) {
+            String serialNumber = getString(data, "deviceSerialNumber");
+            int totalCount = getInt(data, "totalCount");
+            int failCount = getInt(data, "failCount");
+            if (!getBoolean(data, "finished")) {
+                printlnf("Device %s progress, total cases: %d, failed: %d", serialNumber, totalCount, failCount);
+                return;
+            }
+            String errorMessage = getString(data, "errorMessage");
+            if (failCount > 0 || totalCount == 0 || getBoolean(data, "crashed") || errorMessage != null) {
+                printlnf("##[warning]Device %s finished with failures, total cases: %d, failed: %d, error: %s", serialNumber, totalCount, failCount, StringUtils.defaultIfEmpty(errorMessage, "none"));
+            } else {
+                printlnf("##[command]Device %s finished, total cases: %d, failed: %d", serialNumber, totalCount, failCount);
+            }
+        }
+
+        private static String getString(JsonObject data, String key) {
+            JsonElement element = data.get(key);
+            return element == null || element.isJsonNull() ? null : element.getAsString();
+        }
+
+        private static int getInt(JsonObject data, String key) {
+            JsonElement element = data.get(key);
+            return element == null || element.isJsonNull() ? 0 : element.getAsInt();
+        }
+
+        private static boolean getBoolean(JsonObject data, String key) {
+            JsonElement element = data.get(key);
+            return element != null && !element.isJsonNull() && element.getAsBoolean();
+        }
+    }
+}
@@ -2,6 +2,7 @@
 // Licensed under the MIT License.
 package com.microsoft.hydralab;
 
+import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import com.microsoft.hydralab.config.DeviceConfig;
 import com.microsoft.hydralab.config.HydraLabAPIConfig;
@@ -221,6 +222,63 @@ public class ClientUtilsPluginTest {
         verify(client, times(0)).downloadToFile(Mockito.anyString(), Mockito.any(File.class));
     }
 
+    @Test
+    public void runTestOnDeviceWithAppBySubscription() {
+        String reportFolderPath = "./reportFolder";
+        HydraLabAPIClient client = mockClientTillTestTriggered();
+        HydraLabAPIConfig apiConfig = Mockito.mock(HydraLabAPIConfig.class);
+        TestConfig testConfig = Mockito.mock(TestConfig.class);
+        testConfig.runningType = "INSTRUMENTATION";
+        testConfig.appPath = "src/test/resources/app.txt";
+        testConfig.testAppPath = "src/test/resources/test_app.txt";
+        testConfig.attachmentInfos = new ArrayList<>();
+        testConfig.runTimeOutSeconds = 1000;
+        testConfig.queueTimeOutSeconds = 1000;
+        testConfig.subscribeTestStatus = true;
+
+        when(client.subscribeTestStatus(Mockito.any(HydraLabAPIConfig.class), Mockito.anyString(), Mockito.any(HydraLabAPIClient.TestTaskEventListener.class)))
+                .thenAnswer(invocation -> {
+                    HydraLabAPIClient.TestTaskEventListener listener = invocation.getArgument(2);
+                    Assertions.assertTrue(listener.onEvent(newEvent(TestTaskEvent.EventName.QUEUE, "{\"status\":\"waiting\",\"position\":2,\"retryTime\":0}")));
+                    Assertions.assertTrue(listener.onEvent(new TestTaskEvent(TestTaskEvent.EventName.HEARTBEAT, null)));
+                    Assertions.assertTrue(listener.onEvent(newEvent(TestTaskEvent.EventName.TASK, "{\"status\":\"running\",\"testDevicesCount\":1}")));
+                    Assertions.assertTrue(listener.onEvent(newEvent(TestTaskEvent.EventName.DEVICE, "{\"deviceSerialNumber\":\"device1\",\"status\":\"TESTING\"}")));
+                    Assertions.assertTrue(listener.onEvent(newEvent(TestTaskEvent.EventName.DEVICE_RESULT, "{\"deviceSerialNumber\":\"device1\",\"finished\":true,\"totalCount\":5,\"failCount\":1}")));
+                    Assertions.assertFalse(listener.onEvent(newEvent(TestTaskEvent.EventName.TASK, "{\"status\":\"finished\",\"testDevicesCount\":1}")), "The stream should stop with the task");
+                    return true;
+                });
+
+        HydraLabClientUtils.switchClientInstance(client);
+        HydraLabClientUtils.runTestOnDeviceWithApp(reportFolderPath, apiConfig, testConfig);
+
+        // the detail is only requested once the task ends
+        verify(client, times(1)).getTestStatus(Mockito.any(HydraLabAPIConfig.class), Mockito.anyString());
+        verify(client, times(0)).cancelTestTask(Mockito.any(HydraLabAPIConfig.class), Mockito.anyString(), Mockito.anyString());
+    }
+
+    @Test
+    public void runTestOnDeviceWithAppFallBackToPolling() {
+        String reportFolderPath = "./reportFolder";
+        HydraLabAPIClient client = mockClientTillTestTriggered();
+        HydraLabAPIConfig apiConfig = Mockito.mock(HydraLabAPIConfig.class);
+        TestConfig testConfig = Mockito.mock(TestConfig.class);
+        testConfig.runningType = "INSTRUMENTATION";
+        testConfig.appPath = "src/test/resources/app.txt";
+        testConfig.testAppPath = "src/test/resources/test_app.txt";
+        testConfig.attachmentInfos = new ArrayList<>();
+        testConfig.subscribeTestStatus = true;
+
+        // a center without status streaming
+        when(client.subscribeTestStatus(Mockito.any(HydraLabAPIConfig.class), Mockito.anyString(), Mockito.any(HydraLabAPIClient.TestTaskEventListener.class)))
+                .thenReturn(false);
+
+        HydraLabClientUtils.switchClientInstance(client);
+        HydraLabClientUtils.runTestOnDeviceWithApp(reportFolderPath, apiConfig, testConfig);
+
+        verify(client, times(1)).subscribeTestStatus(Mockito.any(HydraLabAPIConfig.class), Mockito.anyString(), Mockito.any(HydraLabAPIClient.TestTaskEventListener.class));
+        verify(client, times(1)).getTestStatus(Mockito.any(HydraLabAPIConfig.class), Mockito.anyString());
+    }
+
     @Test
     public void getLatestCommitInfo() {
         String commitId = null;
@@ -240,6 +298,38 @@ public class ClientUtilsPluginTest {
         Assertions.assertNotNull(commitMsg, "Get commit message error");
     }
 
+    private HydraLabAPIClient mockClientTillTestTriggered() {
+        HydraLabAPIClient client = Mockito.mock(HydraLabAPIClient.class);
+        when(client.uploadApp(Mockito.any(HydraLabAPIConfig.class), Mockito.any(TestConfig.class), Mockito.anyString(), Mockito.anyString(),
+                Mockito.anyString(), Mockito.any(File.class), Mockito.any(File.class)))
+                .thenReturn("id123456");
+        when(client.generateAccessKey(Mockito.any(HydraLabAPIConfig.class), Mockito.any(TestConfig.class)))
+                .thenReturn("accessKey");
+
+        JsonObject returnJson = new JsonObject();
+        returnJson.addProperty("code", "200");
+        returnJson.addProperty("message", "OK!");
+        JsonObject subJsonObject = new JsonObject();
+        subJsonObject.addProperty("devices", "device1");
+        subJsonObject.addProperty("testTaskId", "test_task_id");
+        returnJson.add("content", subJsonObject);
+        when(client.triggerTestRun(Mockito.any(TestConfig.class), Mockito.any(HydraLabAPIConfig.class), Mockito.anyString(), Mockito.anyString()))
+                .thenReturn(returnJson);
+
+        TestTask returnTestTask = new TestTask();
+        returnTestTask.status = TestTask.TestStatus.FINISHED;
+        returnTestTask.deviceTestResults = new ArrayList<>();
+        returnTestTask.id = "id";
+        returnTestTask.testDevicesCount = 1;
+        when(client.getTestStatus(Mockito.any(HydraLabAPIConfig.class), Mockito.anyString()))
+                .thenReturn(returnTestTask);
+        return client;
+    }
+
+    private TestTaskEvent newEvent(String name, String data) {
+        return new TestTaskEvent(name, new Gson().fromJson(data, JsonObject.class));
+    }
+
     private void generalParamCheck(HydraLabAPIConfig apiConfig, TestConfig testConfig) {
         IllegalArgumentException thrown = Assertions.assertThrows(IllegalArgumentException.class, () -> {
             clientUtilsPlugin.requiredParamCheck(apiConfig, testConfig);
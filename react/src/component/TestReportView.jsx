@@ -44,7 +44,8 @@ const PieCustomizedLabel = ({cx, cy, midAngle, innerRadius, outerRadius, percent
 export default class TestReportView extends React.Component {
     state = {
         task: this.props.testTask,
-        history: null
+        history: null,
+        failedTestUnits: {}
     };
 
 
@@ -116,7 +117,7 @@ export default class TestReportView extends React.Component {
         if (dtrSuccFailMap['false']) {
             chunkedFailedDeviceResult = _.chunk(_.sortBy(dtrSuccFailMap['false'], 'failCount').reverse(), 4)
             const allUnits = _.flatMap(dtrSuccFailMap['false'], (dSum) => {
-                return _.filter(dSum.testUnitList, (u) => !u.success)
+                return this.state.failedTestUnits[dSum.id] || []
             })
             var summary = _.countBy(_.compact(allUnits), (u) => u.title)
             var sOrder = []
@@ -274,7 +275,7 @@ export default class TestReportView extends React.Component {
                                         {type: 'success', count: d.totalCount - d.failCount},
                                         {type: 'fail', count: d.failCount}
                                     ]
-                                    const failTestClassMap = _.groupBy(_.groupBy(d.testUnitList, 'success')['false'], 'testedClass')
+                                    const failTestClassMap = _.groupBy(this.state.failedTestUnits[d.id], 'testedClass')
                                     const rows = []
                                     for (var testClass in failTestClassMap) {
                                         rows.push(
@@ -532,11 +533,40 @@ export default class TestReportView extends React.Component {
         }).catch(this.snackBarError)
     }
 
+    queryFailedTestUnits(deviceTestResult, cursor) {
+        let url = '/api/test/task/device/' + deviceTestResult.id + '/units?success=false&size=500'
+        if (cursor) {
+            url += '&cursor=' + encodeURIComponent(cursor)
+        }
+        axios.get(url).then(res => {
+            if (res.data && res.data.code === 200) {
+                const page = res.data.content
+                this.setState((state) => ({
+                    failedTestUnits: {
+                        ...state.failedTestUnits,
+                        [deviceTestResult.id]: [...(state.failedTestUnits[deviceTestResult.id] || []), ...page.content]
+                    }
+                }))
+                if (page.nextCursor) {
+                    this.queryFailedTestUnits(deviceTestResult, page.nextCursor)
+                }
+            } else {
+                this.snackBarFail(res)
+            }
+        }).catch(this.snackBarError)
+    }
+
     componentDidMount() {
         console.log("componentDidMount")
         console.log(this.props.testTask)
         this.queryTaskHistory()
         console.log(this.state.history)
+        // the task detail only has the summary of the runs, the failed cases are loaded by run
+        for (let deviceTestResult of this.state.task.deviceTestResults) {
+            if (!deviceTestResult.success) {
+                this.queryFailedTestUnits(deviceTestResult)
+            }
+        }
     }
 
 }
\ No newline at end of file
@@ -16,6 +16,9 @@ public class PerformanceInspectionResult {
     @SuppressWarnings("visibilitymodifier")
     // TODO: restrict the size of it.
     public Object parsedData;
+    @SuppressWarnings("visibilitymodifier")
+    // the values the inspector scanned while capturing the raw output, the parser uses them instead of reading the file again
+    public Object capturedData;
 
     public PerformanceInspectionResult(File rawResultFile, PerformanceInspection inspection) {
         this(rawResultFile, inspection, System.currentTimeMillis());
@@ -0,0 +1,103 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+
+package com.microsoft.hydralab.performance;
+
+import java.util.Arrays;
+
+/**
+ * Running summary of the values of a metric, the memory used doesn't grow with the number of values.
+ * The percentiles come from a histogram of buckets growing by 1%, so they are within 1% of the exact value for values of 1 or more.
+ */
+public class PerformanceMetricSummary {
+    private static final double BUCKET_GROWTH = 1.01;
+    private static final double LOG_BUCKET_GROWTH = Math.log(BUCKET_GROWTH);
+    private long count;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private double sum;
+    // bucket 0 takes the values lower than 1, bucket i the values in [BUCKET_GROWTH^(i-1), BUCKET_GROWTH^i)
+    private long[] buckets = new long[0];
+
+    public synchronized void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        int bucket = bucketOf(value);
+        if (bucket >= buckets.length) {
+            buckets = Arrays.copyOf(buckets, Math.max(bucket + 1, buckets.length * 2));
+        }
+        buckets[bucket]++;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized double getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public synchronized double getMax() {
+        return count == 0 ? 0 : max;
+    }
+
+    public synchronized double getAverage() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    public double getP50() {
+        return getPercentile(50);
+    }
+
+    public double getP90() {
+        return getPercentile(90);
+    }
+
+    public double getP99() {
+        return getPercentile(99);
+    }
+
+    /**
+     * @param percentile in [0, 100]
+     */
+    public synchronized double getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        if (rank >= count) {
+            return max;
+        }
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                double value = i == 0 ? min : Math.pow(BUCKET_GROWTH, i - 0.5);
+                return Math.max(min, Math.min(max, value));
+            }
+        }
+        return max;
+    }
+
+    private static int bucketOf(double value) {
+        if (value < 1) {
+            return 0;
+        }
+        return (int) (Math.log(value) / LOG_BUCKET_GROWTH) + 1;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PerformanceMetricSummary{" +
+                "count=" + count +
+                ", min=" + getMin() +
+                ", max=" + getMax() +
+                ", average=" + getAverage() +
+                '}';
+    }
+}
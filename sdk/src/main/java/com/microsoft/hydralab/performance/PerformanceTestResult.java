@@ -3,13 +3,17 @@
 
 package com.microsoft.hydralab.performance;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 public class PerformanceTestResult {
     /**
-     * TODO: Apply a max size to avoid OOM
+     * The number of parsed results kept by {@link #addParsedInspectionResult}, results added to the list directly are not limited.
      */
+    public static final int MAX_KEPT_PARSED_RESULTS = 720;
     @SuppressWarnings("visibilitymodifier")
     public List<PerformanceInspectionResult> performanceInspectionResults = new CopyOnWriteArrayList<>();
     @SuppressWarnings("visibilitymodifier")
@@ -18,6 +22,10 @@ public class PerformanceTestResult {
     public PerformanceResultParser.PerformanceResultParserType parserType;
     @SuppressWarnings("visibilitymodifier")
     private IBaselineMetrics resultSummary;
+    //save the running summary of each metric <metric name, summary>
+    private final Map<String, PerformanceMetricSummary> metricSummaries = new LinkedHashMap<>();
+    private long parsedResultCount;
+    private int keptResultStride = 1;
 
     //TODO: overwrite equals, toString, and hashcode methods
 
@@ -30,10 +38,47 @@ public class PerformanceTestResult {
         this.resultSummary = resultSummary;
     }
 
+    public synchronized PerformanceMetricSummary getMetricSummary(String metricName) {
+        return metricSummaries.computeIfAbsent(metricName, name -> new PerformanceMetricSummary());
+    }
+
+    public synchronized Map<String, PerformanceMetricSummary> getMetricSummaries() {
+        return new LinkedHashMap<>(metricSummaries);
+    }
+
+    /**
+     * @return the number of results given to {@link #addParsedInspectionResult}, including the ones which are not kept
+     */
+    public synchronized long getParsedResultCount() {
+        return parsedResultCount;
+    }
+
+    /**
+     * Add a result which is already parsed and folded into the metric summaries.
+     * Once there are too many results, every other one is dropped and only every other new one is kept,
+     * so the kept results stay evenly spread over the run and their number stays bounded.
+     */
+    public synchronized void addParsedInspectionResult(PerformanceInspectionResult inspectionResult) {
+        if (parsedResultCount++ % keptResultStride != 0) {
+            return;
+        }
+        performanceInspectionResults.add(inspectionResult);
+        if (performanceInspectionResults.size() < MAX_KEPT_PARSED_RESULTS) {
+            return;
+        }
+        List<PerformanceInspectionResult> keptResults = new ArrayList<>(performanceInspectionResults.size() / 2 + 1);
+        for (int i = 0; i < performanceInspectionResults.size(); i += 2) {
+            keptResults.add(performanceInspectionResults.get(i));
+        }
+        performanceInspectionResults = new CopyOnWriteArrayList<>(keptResults);
+        keptResultStride *= 2;
+    }
+
     @Override
     public String toString() {
         return "PerformanceTestResult{" +
                 "resultSummary=" + resultSummary +
+                ", metricSummaries=" + metricSummaries +
                 ", performanceInspectionResults=" + performanceInspectionResults +
                 ", inspectorType=" + inspectorType +
                 ", parserType=" + parserType +
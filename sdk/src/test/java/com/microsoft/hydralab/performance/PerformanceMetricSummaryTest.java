@@ -0,0 +1,33 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+
+package com.microsoft.hydralab.performance;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class PerformanceMetricSummaryTest {
+    @Test
+    public void emptySummary_ReturnZero() {
+        PerformanceMetricSummary summary = new PerformanceMetricSummary();
+        Assertions.assertEquals(0, summary.getCount());
+        Assertions.assertEquals(0, summary.getAverage());
+        Assertions.assertEquals(0, summary.getP50());
+    }
+
+    @Test
+    public void addValues_ReturnStatistics() {
+        PerformanceMetricSummary summary = new PerformanceMetricSummary();
+        for (int i = 1; i <= 10000; i++) {
+            summary.add(i);
+        }
+        Assertions.assertEquals(10000, summary.getCount());
+        Assertions.assertEquals(1, summary.getMin());
+        Assertions.assertEquals(10000, summary.getMax());
+        Assertions.assertEquals(5000.5, summary.getAverage(), 0.001);
+        Assertions.assertEquals(5000, summary.getP50(), 5000 * 0.01);
+        Assertions.assertEquals(9000, summary.getP90(), 9000 * 0.01);
+        Assertions.assertEquals(9900, summary.getP99(), 9900 * 0.01);
+        Assertions.assertEquals(10000, summary.getPercentile(100));
+    }
+}